@@ -10,11 +10,40 @@ package org.l2x6.eircc.core;
 
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
+import org.l2x6.eircc.core.client.IrcAdaptiveFlushTest;
+import org.l2x6.eircc.core.client.IrcCommandTimeoutSchedulerTest;
+import org.l2x6.eircc.core.client.IrcConnectGateTest;
+import org.l2x6.eircc.core.client.IrcISupportTest;
+import org.l2x6.eircc.core.client.IrcLatencyHistogramTest;
+import org.l2x6.eircc.core.client.IrcLatencyStatsTest;
+import org.l2x6.eircc.core.client.IrcMessageSplitterTest;
+import org.l2x6.eircc.core.client.IrcNetsplitTrackerTest;
+import org.l2x6.eircc.core.client.IrcOutboundQueueTest;
+import org.l2x6.eircc.core.client.IrcReconnectBackoffTest;
+import org.l2x6.eircc.core.client.IrcRingBufferTest;
+import org.l2x6.eircc.core.client.IrcRotatingFileWriterTest;
+import org.l2x6.eircc.core.client.IrcWhoSchedulerTest;
+import org.l2x6.eircc.core.client.dcc.IrcDccMessageTest;
+import org.l2x6.eircc.core.client.dcc.IrcDccTransferTest;
+import org.l2x6.eircc.core.client.nio.IrcLineTest;
+import org.l2x6.eircc.core.model.IrcCaseMappingTest;
+import org.l2x6.eircc.core.model.IrcChannelListTest;
+import org.l2x6.eircc.core.model.IrcHottestIndexTest;
+import org.l2x6.eircc.core.model.IrcJournalStoreTest;
+import org.l2x6.eircc.core.model.IrcNickIndexTest;
+import org.l2x6.eircc.core.model.event.IrcModelDeltaTest;
+import org.l2x6.eircc.core.model.event.IrcModelEventDispatcherTest;
 import org.l2x6.eircc.core.util.NickComparatorTest;
 
 /**
  */
 @RunWith(Suite.class)
-@Suite.SuiteClasses({ NickComparatorTest.class })
+@Suite.SuiteClasses({ IrcAdaptiveFlushTest.class, IrcCaseMappingTest.class, IrcChannelListTest.class,
+        IrcCommandTimeoutSchedulerTest.class, IrcConnectGateTest.class, IrcDccMessageTest.class,
+        IrcDccTransferTest.class, IrcHottestIndexTest.class, IrcISupportTest.class, IrcJournalStoreTest.class,
+        IrcLatencyHistogramTest.class, IrcLatencyStatsTest.class, IrcLineTest.class, IrcMessageSplitterTest.class,
+        IrcModelDeltaTest.class, IrcModelEventDispatcherTest.class, IrcNetsplitTrackerTest.class,
+        IrcNickIndexTest.class, IrcOutboundQueueTest.class, IrcReconnectBackoffTest.class, IrcRingBufferTest.class,
+        IrcRotatingFileWriterTest.class, IrcWhoSchedulerTest.class, NickComparatorTest.class })
 public class EirccCoreSuite {
 }
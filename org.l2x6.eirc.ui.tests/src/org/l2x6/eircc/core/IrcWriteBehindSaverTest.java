@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.swt.widgets.Display;
+import org.junit.Assert;
+import org.junit.Test;
+import org.l2x6.eircc.core.model.IrcModel;
+import org.l2x6.eircc.core.model.PersistentIrcObject;
+import org.l2x6.eircc.core.util.TypedField;
+
+/**
+ * Tests {@link IrcWriteBehindSaver}.
+ * <p>
+ * Needs the UI harness, see
+ * {@link org.l2x6.eircc.core.client.fake.IrcClientLoadTest}.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcWriteBehindSaverTest {
+
+    /**
+     * Records its writes instead of storing them anywhere.
+     */
+    private static class RecordingObject implements PersistentIrcObject {
+        private final String name;
+        private final AtomicInteger toRecordCount = new AtomicInteger();
+        private volatile int version = 1;
+        private final List<String> writes;
+
+        RecordingObject(String name, List<String> writes) {
+            super();
+            this.name = name;
+            this.writes = writes;
+        }
+
+        @Override
+        public TypedField[] getFields() {
+            return new TypedField[0];
+        }
+
+        @Override
+        public IrcModel getModel() {
+            return null;
+        }
+
+        @Override
+        public IPath getParentFolderPath() {
+            return null;
+        }
+
+        @Override
+        public IPath getPath() {
+            return null;
+        }
+
+        @Override
+        public void save(Map<String, String> record, IProgressMonitor monitor) {
+            writes.add(name + record.get("version"));
+        }
+
+        @Override
+        public Map<String, String> toRecord() {
+            toRecordCount.incrementAndGet();
+            return Collections.singletonMap("version", String.valueOf(version));
+        }
+    }
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private static void spinUntil(String description, BooleanSupplier condition) {
+        Display display = Display.getCurrent();
+        Assert.assertNotNull("Must run on the UI thread", display);
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                Assert.fail("Timed out waiting for " + description);
+            }
+            if (!display.readAndDispatch()) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    Assert.fail("Interrupted while waiting for " + description);
+                }
+            }
+        }
+    }
+
+    private final List<String> writes = new CopyOnWriteArrayList<String>();
+
+    @Test
+    public void testFlush() throws InterruptedException {
+        IrcWriteBehindSaver saver = new IrcWriteBehindSaver(Duration.ofHours(1));
+        RecordingObject a = new RecordingObject("a", writes);
+        RecordingObject b = new RecordingObject("b", writes);
+        saver.save(a);
+        saver.save(b);
+        Assert.assertTrue(writes.isEmpty());
+        saver.flush();
+        Assert.assertEquals(Arrays.asList("a1", "b1"), writes);
+
+        /* nothing pending */
+        saver.flush();
+        Assert.assertEquals(Arrays.asList("a1", "b1"), writes);
+    }
+
+    /**
+     * A record taken before a change must never be written after the record
+     * taken after the change.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testFlushAfterCollect() throws InterruptedException {
+        IrcWriteBehindSaver saver = new IrcWriteBehindSaver(Duration.ofMillis(10));
+        final RecordingObject a = new RecordingObject("a", writes);
+        saver.save(a);
+        spinUntil("the record taken", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return a.toRecordCount.get() == 1;
+            }
+        });
+        /* the job writing a1 may still be pending */
+        a.version = 2;
+        saver.save(a);
+        saver.flush();
+        Assert.assertEquals(Arrays.asList("a1", "a2"), writes);
+    }
+
+    @Test
+    public void testMaxDelay() throws InterruptedException {
+        final Duration maxDelay = Duration.ofMillis(200);
+        IrcWriteBehindSaver saver = new IrcWriteBehindSaver(maxDelay);
+        RecordingObject a = new RecordingObject("a", writes);
+        long start = System.nanoTime();
+        saver.save(a);
+        spinUntil("a written", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return !writes.isEmpty();
+            }
+        });
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        /* the slack is for the scheduling of the job */
+        Assert.assertTrue("Written after " + elapsedMillis + " ms", elapsedMillis < maxDelay.toMillis() + 5000);
+        Assert.assertEquals(Arrays.asList("a1"), writes);
+    }
+
+    @Test
+    public void testMerge() throws InterruptedException {
+        IrcWriteBehindSaver saver = new IrcWriteBehindSaver(Duration.ofMillis(50));
+        RecordingObject a = new RecordingObject("a", writes);
+        RecordingObject b = new RecordingObject("b", writes);
+        saver.save(a);
+        saver.save(b);
+        a.version = 2;
+        saver.save(a);
+        a.version = 3;
+        saver.save(a);
+        spinUntil("a and b written", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return writes.size() >= 2;
+            }
+        });
+        saver.flush();
+        /* a saved three times, but its record taken and written only once */
+        Assert.assertEquals(Arrays.asList("a3", "b1"), writes);
+        Assert.assertEquals(1, a.toRecordCount.get());
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcAdaptiveFlushTest {
+
+    @Test
+    public void testFlushCountIsLogarithmic() {
+        IrcAdaptiveFlush flush = new IrcAdaptiveFlush(16, 8192, Duration.ofMillis(500));
+        long now = 0;
+        flush.reset(now);
+        int buffered = 0;
+        int flushCount = 0;
+        /* 60k channels arriving within a millisecond each */
+        for (int i = 0; i < 60000; i++) {
+            now += TimeUnit.MICROSECONDS.toNanos(1);
+            buffered++;
+            if (flush.isDue(buffered, now)) {
+                flush.flushed(now);
+                buffered = 0;
+                flushCount++;
+            }
+        }
+        Assert.assertEquals(8192, flush.getThreshold());
+        Assert.assertTrue("flushCount " + flushCount, flushCount < 20);
+    }
+
+    @Test
+    public void testMaxDelay() {
+        IrcAdaptiveFlush flush = new IrcAdaptiveFlush(16, 8192, Duration.ofMillis(500));
+        flush.reset(0);
+        Assert.assertFalse(flush.isDue(1, TimeUnit.MILLISECONDS.toNanos(499)));
+        Assert.assertTrue(flush.isDue(1, TimeUnit.MILLISECONDS.toNanos(500)));
+        Assert.assertFalse(flush.isDue(0, TimeUnit.MILLISECONDS.toNanos(1000)));
+        Assert.assertTrue(flush.isDue(16, 0));
+
+        flush.flushed(0);
+        Assert.assertEquals(32, flush.getThreshold());
+        flush.reset(0);
+        Assert.assertEquals(16, flush.getThreshold());
+    }
+
+}
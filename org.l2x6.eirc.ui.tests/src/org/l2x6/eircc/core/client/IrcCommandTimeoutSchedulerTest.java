@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.l2x6.eircc.core.client.IrcCommandTimeoutScheduler.Deadline;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcCommandTimeoutSchedulerTest {
+
+    private final IrcCommandTimeoutScheduler scheduler = new IrcCommandTimeoutScheduler();
+
+    @After
+    public void after() {
+        scheduler.dispose();
+    }
+
+    @Test
+    public void testDisarm() throws InterruptedException {
+        final AtomicInteger timeouts = new AtomicInteger();
+        Deadline deadline = scheduler.arm(Duration.ofMillis(200), new Runnable() {
+            @Override
+            public void run() {
+                timeouts.incrementAndGet();
+            }
+        });
+        Assert.assertEquals(1, scheduler.getPendingCount());
+
+        /* the reply came before the timeout */
+        deadline.disarm();
+        Assert.assertEquals(0, scheduler.getPendingCount());
+        Assert.assertEquals(1, scheduler.getDisarmedCount());
+
+        /* disarming twice counts once */
+        deadline.disarm();
+        Assert.assertEquals(1, scheduler.getDisarmedCount());
+
+        Thread.sleep(400);
+        Assert.assertEquals(0, timeouts.get());
+        Assert.assertEquals(0, scheduler.getExpiredCount());
+    }
+
+    @Test
+    public void testExpire() throws InterruptedException {
+        final CountDownLatch expired = new CountDownLatch(1);
+        Deadline deadline = scheduler.arm(Duration.ofMillis(10), new Runnable() {
+            @Override
+            public void run() {
+                expired.countDown();
+            }
+        });
+        Assert.assertTrue("The timeout handler was not called", expired.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, scheduler.getArmedCount());
+        Assert.assertEquals(1, scheduler.getExpiredCount());
+
+        /* disarming after the expiration does nothing */
+        deadline.disarm();
+        Assert.assertEquals(0, scheduler.getDisarmedCount());
+        Assert.assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void testNoTimeout() {
+        Runnable fail = new Runnable() {
+            @Override
+            public void run() {
+                Assert.fail("Must not be called");
+            }
+        };
+        Deadline deadline = scheduler.arm(null, fail);
+        Assert.assertNotNull(deadline);
+        deadline.disarm();
+        Assert.assertEquals(0, scheduler.getArmedCount());
+        Assert.assertEquals(0, scheduler.getDisarmedCount());
+
+        scheduler.dispose();
+        deadline = scheduler.arm(Duration.ofMillis(1), fail);
+        Assert.assertNotNull(deadline);
+        deadline.disarm();
+        Assert.assertEquals(0, scheduler.getArmedCount());
+    }
+
+}
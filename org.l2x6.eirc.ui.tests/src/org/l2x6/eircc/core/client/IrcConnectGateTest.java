@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcConnectGateTest {
+
+    @Test
+    public void testCancel() throws Exception {
+        final IrcConnectGate gate = new IrcConnectGate(1);
+        long first = gate.issue();
+        final long second = gate.issue();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> entered = executor.submit(() -> gate.enter(second));
+            Thread.sleep(50);
+            Assert.assertFalse(entered.isDone());
+            /* the first one never comes */
+            gate.cancel(first);
+            Assert.assertTrue(entered.get(5, TimeUnit.SECONDS));
+            Assert.assertFalse(gate.enter(first));
+            Assert.assertEquals(1, gate.getRunning());
+            Assert.assertEquals(0, gate.getWaiting());
+            gate.leave();
+            Assert.assertEquals(0, gate.getRunning());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLeaveWithoutEnter() {
+        new IrcConnectGate(1).leave();
+    }
+
+    /**
+     * Starts the threads in the reverse order of their tickets and checks
+     * that they get admitted in the ticket order and never more than allowed
+     * at once. The order is recorded by the gate itself under its lock,
+     * because the threads may return from {@link IrcConnectGate#enter(long)}
+     * in any order.
+     */
+    @Test
+    public void testOrderAndBound() throws Exception {
+        final int threadCount = 12;
+        final int maxConcurrent = 3;
+        /* accessed under the gate's lock only */
+        final List<Long> admitted = new ArrayList<Long>();
+        final IrcConnectGate gate = new IrcConnectGate(maxConcurrent) {
+            @Override
+            protected void admitted(long ticket) {
+                admitted.add(ticket);
+            }
+        };
+        final long[] tickets = new long[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            tickets[i] = gate.issue();
+        }
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxSeen = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (int i = threadCount - 1; i >= 0; i--) {
+                final long ticket = tickets[i];
+                executor.submit(() -> {
+                    Assert.assertTrue(gate.enter(ticket));
+                    try {
+                        int now = concurrent.incrementAndGet();
+                        maxSeen.accumulateAndGet(now, Math::max);
+                        Thread.sleep(5);
+                        concurrent.decrementAndGet();
+                    } finally {
+                        gate.leave();
+                        done.countDown();
+                    }
+                    return null;
+                });
+            }
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        synchronized (gate) {
+            Assert.assertEquals(threadCount, admitted.size());
+            for (int i = 0; i < threadCount; i++) {
+                Assert.assertEquals(tickets[i], admitted.get(i).longValue());
+            }
+        }
+        Assert.assertTrue(maxSeen.get() <= maxConcurrent);
+        Assert.assertEquals(0, gate.getRunning());
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.swt.widgets.Display;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Needs the UI harness: the posted tasks are run by the event loop of the UI
+ * thread spun by {@link #spinUntil(int)}.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcEventPumpTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    /** The tasks run so far, appended on the UI thread */
+    private final List<Integer> ran = new ArrayList<Integer>();
+
+    private Display getDisplay() {
+        Display display = Display.getCurrent();
+        Assert.assertNotNull("Must run on the UI thread", display);
+        return display;
+    }
+
+    private Runnable record(final int i) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(i);
+            }
+        };
+    }
+
+    private void spinUntil(int count) {
+        Display display = getDisplay();
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (ran.size() < count) {
+            if (System.nanoTime() > deadline) {
+                Assert.fail("Timed out waiting for " + count + " tasks, got " + ran.size());
+            }
+            if (!display.readAndDispatch()) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    Assert.fail("Interrupted");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBatchSize() {
+        final IrcEventPump pump = new IrcEventPump(getDisplay(), Duration.ofMillis(1), 3);
+        /* the drain number each task was run in */
+        final List<Long> drains = new ArrayList<Long>();
+        /* all queued before the first drain, because we are on the UI thread */
+        for (int i = 0; i < 10; i++) {
+            final int index = i;
+            pump.post(new Runnable() {
+                @Override
+                public void run() {
+                    drains.add(pump.getDrainCount());
+                    ran.add(index);
+                }
+            });
+        }
+        Assert.assertEquals(10, pump.getQueueDepth());
+        spinUntil(10);
+        Assert.assertEquals(4, pump.getDrainCount());
+        Assert.assertEquals(10, pump.getTaskCount());
+        Assert.assertEquals(3, Collections.frequency(drains, Long.valueOf(0)));
+        Assert.assertEquals(3, Collections.frequency(drains, Long.valueOf(1)));
+        Assert.assertEquals(3, Collections.frequency(drains, Long.valueOf(2)));
+        Assert.assertEquals(1, Collections.frequency(drains, Long.valueOf(3)));
+        Assert.assertEquals(10, pump.getMaxQueueDepth());
+        Assert.assertEquals(0, pump.getQueueDepth());
+    }
+
+    @Test
+    public void testFlush() {
+        IrcEventPump pump = new IrcEventPump(getDisplay(), Duration.ofMinutes(1), 4);
+        for (int i = 0; i < 10; i++) {
+            pump.post(record(i));
+        }
+        pump.flush();
+        /* no need to spin the event loop */
+        Assert.assertEquals(10, ran.size());
+        Assert.assertEquals(0, pump.getQueueDepth());
+        Assert.assertEquals(10, pump.getTaskCount());
+        Assert.assertEquals(3, pump.getDrainCount());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(Integer.valueOf(i), ran.get(i));
+        }
+    }
+
+    @Test
+    public void testOrder() throws InterruptedException {
+        final int count = 5000;
+        final IrcEventPump pump = new IrcEventPump(getDisplay(), Duration.ofMillis(1), 64);
+        Thread poster = new Thread("IrcEventPumpTest-poster") {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    pump.post(record(i));
+                }
+            }
+        };
+        poster.start();
+        spinUntil(count);
+        poster.join();
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(Integer.valueOf(i), ran.get(i));
+        }
+        Assert.assertTrue(pump.getDrainCount() >= count / 64);
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.l2x6.eircc.core.model.IrcCaseMapping;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcISupportTest {
+
+    private static List<String> channels(int count) {
+        List<String> result = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            result.add("#channel" + i);
+        }
+        return result;
+    }
+
+    @Test
+    public void testDefaults() {
+        IrcISupport iSupport = new IrcISupport();
+        Assert.assertEquals(Integer.MAX_VALUE, iSupport.getChannelLimit("#eircc"));
+        Assert.assertEquals(Integer.MAX_VALUE, iSupport.getMaxTargets("JOIN"));
+        Assert.assertEquals(IrcISupport.DEFAULT_LINE_LENGTH, iSupport.getLineLength());
+        Assert.assertFalse(iSupport.isWhox());
+        Assert.assertEquals(IrcCaseMapping.RFC1459, iSupport.getCaseMapping());
+    }
+
+    @Test
+    public void testTokens() {
+        IrcISupport iSupport = new IrcISupport();
+        iSupport.addTokens("CHANTYPES=#& CHANLIMIT=#&:120,+: WHOX NETWORK=example CASEMAPPING=ascii");
+        iSupport.addTokens("TARGMAX=NAMES:1,LIST:1,KICK:1,WHOIS:1,PRIVMSG:4,join:5,WHO:");
+        Assert.assertEquals(120, iSupport.getChannelLimit("#eircc"));
+        Assert.assertEquals(120, iSupport.getChannelLimit("&local"));
+        Assert.assertEquals(Integer.MAX_VALUE, iSupport.getChannelLimit("+modeless"));
+        Assert.assertEquals(5, iSupport.getMaxTargets("JOIN"));
+        Assert.assertEquals(4, iSupport.getMaxTargets("privmsg"));
+        Assert.assertEquals(Integer.MAX_VALUE, iSupport.getMaxTargets("WHO"));
+        Assert.assertTrue(iSupport.isWhox());
+        Assert.assertEquals(IrcCaseMapping.ASCII, iSupport.getCaseMapping());
+
+        iSupport.addTokens("-WHOX -TARGMAX CASEMAPPING=strict-rfc1459");
+        Assert.assertFalse(iSupport.isWhox());
+        Assert.assertEquals(IrcCaseMapping.STRICT_RFC1459, iSupport.getCaseMapping());
+        Assert.assertEquals(Integer.MAX_VALUE, iSupport.getMaxTargets("JOIN"));
+    }
+
+    @Test
+    public void testJoinCommandsLineLength() {
+        IrcISupport iSupport = new IrcISupport();
+        List<String> channelNames = channels(100);
+        List<String> commands = iSupport.toJoinCommands(channelNames);
+        Assert.assertTrue(commands.size() > 1 && commands.size() < 10);
+        List<String> joined = new ArrayList<String>();
+        for (String command : commands) {
+            Assert.assertTrue(command, command.length() + 2 <= IrcISupport.DEFAULT_LINE_LENGTH);
+            Assert.assertTrue(command.startsWith("JOIN "));
+            joined.addAll(Arrays.asList(command.substring("JOIN ".length()).split(",")));
+        }
+        Assert.assertEquals(channelNames, joined);
+    }
+
+    @Test
+    public void testJoinCommandsTargMax() {
+        IrcISupport iSupport = new IrcISupport();
+        iSupport.addTokens("TARGMAX=JOIN:3");
+        Assert.assertEquals(Arrays.asList("JOIN #channel0,#channel1,#channel2", "JOIN #channel3"),
+                iSupport.toJoinCommands(channels(4)));
+        Assert.assertEquals(Arrays.asList(), iSupport.toJoinCommands(channels(0)));
+    }
+
+}
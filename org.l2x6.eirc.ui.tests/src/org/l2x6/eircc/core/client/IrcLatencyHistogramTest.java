@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcLatencyHistogramTest {
+
+    private static void assertWithin(long expected, long actual, double relativeError) {
+        Assert.assertTrue("expected " + expected + " +/- " + (relativeError * 100) + "% but was " + actual,
+                Math.abs(actual - expected) <= expected * relativeError);
+    }
+
+    @Test
+    public void testBuckets() {
+        long previousHighest = -1;
+        for (long micros = 0; micros < 1000000; micros++) {
+            int index = IrcLatencyHistogram.bucketIndex(micros);
+            long highest = IrcLatencyHistogram.highestValue(index);
+            Assert.assertTrue(micros + " > " + highest, micros <= highest);
+            if (highest != previousHighest) {
+                /* a new bucket starts right after the previous one */
+                Assert.assertEquals(previousHighest + 1, micros);
+                previousHighest = highest;
+            }
+        }
+        Assert.assertEquals(IrcLatencyHistogram.MAX_TRACKABLE_MICROS, IrcLatencyHistogram
+                .highestValue(IrcLatencyHistogram.bucketIndex(IrcLatencyHistogram.MAX_TRACKABLE_MICROS)));
+    }
+
+    @Test
+    public void testEmpty() {
+        IrcLatencyHistogram histogram = new IrcLatencyHistogram();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMeanNanos());
+        Assert.assertEquals(0, histogram.getMaxNanos());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testPercentiles() {
+        IrcLatencyHistogram histogram = new IrcLatencyHistogram();
+        /* 1 to 10000 ms */
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        Assert.assertEquals(10000, histogram.getCount());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(10000), histogram.getMaxNanos());
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(5000500), histogram.getMeanNanos(), 0.001);
+        assertWithin(TimeUnit.MILLISECONDS.toNanos(5000), histogram.getValueAtPercentile(50), 1.0 / 32);
+        assertWithin(TimeUnit.MILLISECONDS.toNanos(9000), histogram.getValueAtPercentile(90), 1.0 / 32);
+        assertWithin(TimeUnit.MILLISECONDS.toNanos(9900), histogram.getValueAtPercentile(99), 1.0 / 32);
+        Assert.assertEquals(histogram.getMaxNanos(), histogram.getValueAtPercentile(100));
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testOutOfRange() {
+        IrcLatencyHistogram histogram = new IrcLatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        Assert.assertEquals(2, histogram.getCount());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(50));
+        long max = TimeUnit.MICROSECONDS.toNanos(IrcLatencyHistogram.MAX_TRACKABLE_MICROS);
+        Assert.assertEquals(max, histogram.getMaxNanos());
+        Assert.assertEquals(max, histogram.getValueAtPercentile(100));
+        Assert.assertEquals(max / 2, histogram.getMeanNanos());
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcLatencyStatsTest {
+
+    @Test
+    public void testForeignPong() {
+        IrcLatencyStats stats = new IrcLatencyStats();
+        Assert.assertFalse(stats.pongReceived("irc.example.com", 100));
+        Assert.assertFalse(stats.pongReceived(IrcLatencyStats.PING_TOKEN_PREFIX + "x", 100));
+        Assert.assertFalse(stats.pongReceived(null, 100));
+        Assert.assertEquals(0, stats.getPingRoundTripHistogram().getCount());
+        Assert.assertEquals(-1, stats.getLagNanos(100));
+    }
+
+    @Test
+    public void testLag() {
+        IrcLatencyStats stats = new IrcLatencyStats();
+        String first = stats.pingSent(-1000);
+        Assert.assertEquals(500, stats.getLagNanos(-500));
+        Assert.assertTrue(stats.pongReceived(first, -800));
+        Assert.assertEquals(200, stats.getLagNanos(0));
+        Assert.assertEquals(-1, stats.getWaitingForPongNanos(0));
+
+        /* a lost PONG makes the lag grow */
+        stats.pingSent(1000);
+        Assert.assertEquals(200, stats.getLagNanos(1100));
+        Assert.assertEquals(5000, stats.getLagNanos(6000));
+        Assert.assertEquals(5000, stats.getWaitingForPongNanos(6000));
+    }
+
+    @Test
+    public void testOutOfOrderPongs() {
+        IrcLatencyStats stats = new IrcLatencyStats();
+        String first = stats.pingSent(1000);
+        String second = stats.pingSent(2000);
+        /* the late PONG to the first PING does not clear the second one */
+        Assert.assertTrue(stats.pongReceived(first, 2500));
+        Assert.assertEquals(500, stats.getWaitingForPongNanos(2500));
+        Assert.assertTrue(stats.pongReceived(second, 2600));
+        Assert.assertEquals(-1, stats.getWaitingForPongNanos(2600));
+        Assert.assertEquals(2, stats.getPingRoundTripHistogram().getCount());
+        Assert.assertEquals(1500, stats.getPingRoundTripHistogram().getMaxNanos());
+    }
+
+}
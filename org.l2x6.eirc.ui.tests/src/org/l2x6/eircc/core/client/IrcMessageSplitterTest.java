@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcMessageSplitterTest {
+
+    private static void assertChunks(String text, int maxTextBytes) {
+        List<String> chunks = IrcMessageSplitter.split(text, maxTextBytes);
+        StringBuilder joined = new StringBuilder();
+        for (String chunk : chunks) {
+            int bytes = chunk.getBytes(StandardCharsets.UTF_8).length;
+            Assert.assertEquals(bytes, IrcMessageSplitter.byteLength(chunk));
+            Assert.assertTrue(chunk + " has " + bytes + " bytes", bytes <= maxTextBytes);
+            Assert.assertFalse(chunk.isEmpty());
+            Assert.assertFalse(Character.isHighSurrogate(chunk.charAt(chunk.length() - 1)));
+            joined.append(chunk);
+        }
+        /* nothing but the line breaks is lost */
+        Assert.assertEquals(text.replaceAll("[\r\n]", ""), joined.toString());
+    }
+
+    @Test
+    public void testLineBreaks() {
+        Assert.assertEquals(Arrays.asList("a", "b", "c", "d"), IrcMessageSplitter.split("a\nb\r\nc\rd\n\n", 10));
+        Assert.assertEquals(Arrays.asList(), IrcMessageSplitter.split("\r\n\n", 10));
+    }
+
+    @Test
+    public void testMaxTextBytes() {
+        /* ":nick!" + 11 + "@" + 63 + " PRIVMSG #c :" + CRLF */
+        Assert.assertEquals(512 - (1 + 4 + 1 + 11 + 1 + 63 + 1 + 7 + 1 + 2 + 2 + 2),
+                IrcMessageSplitter.maxTextBytes(512, "PRIVMSG", "#c", "nick"));
+    }
+
+    @Test
+    public void testMultiByte() {
+        /* 2, 3 and 4 byte code points must not be split */
+        assertChunks("\u010d\u010d\u010d\u010d\u010d", 5);
+        Assert.assertEquals(Arrays.asList("\u010d\u010d", "\u010d\u010d", "\u010d"),
+                IrcMessageSplitter.split("\u010d\u010d\u010d\u010d\u010d", 5));
+        assertChunks("\u20ac\u20ac\u20ac\u20ac", 4);
+        Assert.assertEquals(Arrays.asList("\ud83d\ude00", "\ud83d\ude00"),
+                IrcMessageSplitter.split("\ud83d\ude00\ud83d\ude00", 7));
+        assertChunks("x\ud83d\ude00y\ud83d\ude00z", 5);
+    }
+
+    @Test
+    public void testWordBoundaries() {
+        Assert.assertEquals(Arrays.asList("hello ", "world"), IrcMessageSplitter.split("hello world", 8));
+        /* no whitespace in the second half: cut hard */
+        Assert.assertEquals(Arrays.asList("a bcdefgh", "ij"), IrcMessageSplitter.split("a bcdefghij", 9));
+        assertChunks("The quick brown fox jumps over the lazy dog", 10);
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.l2x6.eircc.core.client.IrcNetsplitTracker.Burst;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcNetsplitTrackerTest {
+    private static final String SERVERS = "leaf.example.net hub.example.org";
+
+    @Test
+    public void testExpiry() {
+        IrcNetsplitTracker tracker = new IrcNetsplitTracker(Duration.ofMinutes(1));
+        Assert.assertTrue(tracker.quit("joe", SERVERS, 0));
+        tracker.drainQuits(0);
+        long later = TimeUnit.MINUTES.toNanos(2);
+        Assert.assertFalse(tracker.join("#chan", "joe", later));
+        Assert.assertFalse(tracker.hasPending());
+    }
+
+    @Test
+    public void testIsSplitMessage() {
+        Assert.assertTrue(IrcNetsplitTracker.isSplitMessage(SERVERS));
+        Assert.assertTrue(IrcNetsplitTracker.isSplitMessage("*.net *.split"));
+        Assert.assertTrue(IrcNetsplitTracker.isSplitMessage("irc-2.example.net irc.example.net"));
+
+        Assert.assertFalse(IrcNetsplitTracker.isSplitMessage(null));
+        Assert.assertFalse(IrcNetsplitTracker.isSplitMessage(""));
+        Assert.assertFalse(IrcNetsplitTracker.isSplitMessage("Quit: bye"));
+        Assert.assertFalse(IrcNetsplitTracker.isSplitMessage("see you.later"));
+        Assert.assertFalse(IrcNetsplitTracker.isSplitMessage("a.example.net a.example.net"));
+        Assert.assertFalse(IrcNetsplitTracker.isSplitMessage("a.example.net  b.example.net"));
+        Assert.assertFalse(IrcNetsplitTracker.isSplitMessage("a.example.net b.example.net c.example.net"));
+        Assert.assertFalse(IrcNetsplitTracker.isSplitMessage("http://a.example.net b.example.net"));
+        Assert.assertFalse(IrcNetsplitTracker.isSplitMessage("a.example.n b.example.net"));
+        Assert.assertFalse(IrcNetsplitTracker.isSplitMessage("a.example.net b.example.123"));
+        Assert.assertFalse(IrcNetsplitTracker.isSplitMessage("a..example.net b.example.net"));
+        Assert.assertFalse(IrcNetsplitTracker.isSplitMessage(".example.net b.example.net"));
+    }
+
+    @Test
+    public void testSplitAndJoin() {
+        IrcNetsplitTracker tracker = new IrcNetsplitTracker();
+        Assert.assertFalse(tracker.quit("bye", "Quit: bye", 0));
+        Assert.assertFalse(tracker.hasPending());
+
+        Assert.assertTrue(tracker.quit("joe", SERVERS, 1));
+        Assert.assertTrue(tracker.quit("ann", SERVERS, 2));
+        Assert.assertTrue(tracker.quit("bob", "*.net *.split", 3));
+        Assert.assertTrue(tracker.hasPending());
+
+        List<Burst> quits = tracker.drainQuits(4);
+        Assert.assertFalse(tracker.hasPending());
+        Assert.assertEquals(2, quits.size());
+        Assert.assertNull(quits.get(0).getChannelName());
+        Assert.assertEquals(SERVERS, quits.get(0).getServers());
+        Assert.assertEquals(Arrays.asList("joe", "ann"), quits.get(0).getNicks());
+        Assert.assertEquals("*.net *.split", quits.get(1).getServers());
+        Assert.assertEquals(Arrays.asList("bob"), quits.get(1).getNicks());
+
+        Assert.assertFalse(tracker.join("#chan", "bye", 5));
+        Assert.assertTrue(tracker.join("#chan", "joe", 5));
+        Assert.assertTrue(tracker.join("#other", "joe", 6));
+        Assert.assertTrue(tracker.join("#chan", "ann", 7));
+        Assert.assertTrue(tracker.hasPending());
+        Assert.assertTrue(tracker.hasPendingJoins());
+
+        List<Burst> joins = tracker.drainJoins();
+        Assert.assertFalse(tracker.hasPendingJoins());
+        Assert.assertEquals(2, joins.size());
+        Assert.assertEquals("#chan", joins.get(0).getChannelName());
+        Assert.assertEquals(SERVERS, joins.get(0).getServers());
+        Assert.assertEquals(Arrays.asList("joe", "ann"), joins.get(0).getNicks());
+        Assert.assertEquals("#other", joins.get(1).getChannelName());
+        Assert.assertEquals(Arrays.asList("joe"), joins.get(1).getNicks());
+
+        /* joe is back already, so his next join is an ordinary one */
+        Assert.assertFalse(tracker.join("#third", "joe", 8));
+        /* bob has not come back yet */
+        Assert.assertTrue(tracker.join("#chan", "bob", 9));
+        tracker.clear();
+        Assert.assertFalse(tracker.hasPending());
+        Assert.assertFalse(tracker.join("#chan", "bob", 10));
+    }
+
+}
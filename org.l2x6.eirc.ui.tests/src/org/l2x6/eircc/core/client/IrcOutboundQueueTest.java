@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.l2x6.eircc.core.client.IrcOutboundQueue.Entry;
+import org.l2x6.eircc.core.client.IrcOutboundQueue.Lane;
+import org.l2x6.eircc.core.client.IrcOutboundQueue.NanoClock;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcOutboundQueueTest {
+    private static class ManualClock implements NanoClock {
+        private long now = 0;
+
+        public void advance(long millis) {
+            now += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Test
+    public void testBurstAndRefill() {
+        ManualClock clock = new ManualClock();
+        IrcOutboundQueue q = new IrcOutboundQueue(100, 10, clock);
+        for (int i = 0; i < 3; i++) {
+            q.add(Lane.USER, 40, NOOP);
+        }
+        Assert.assertNotNull(q.poll());
+        Assert.assertNotNull(q.poll());
+        /* 20 tokens left, 40 needed */
+        Assert.assertNull(q.poll());
+        Assert.assertEquals(TimeUnit.SECONDS.toNanos(2), q.nanosTillNext());
+        clock.advance(1999);
+        Assert.assertNull(q.poll());
+        clock.advance(1);
+        Assert.assertNotNull(q.poll());
+        Assert.assertTrue(q.isEmpty());
+        Assert.assertEquals(Long.MAX_VALUE, q.nanosTillNext());
+        Assert.assertEquals(120, q.getTotalBytes());
+    }
+
+    @Test
+    public void testBucketDoesNotOverfill() {
+        ManualClock clock = new ManualClock();
+        IrcOutboundQueue q = new IrcOutboundQueue(100, 10, clock);
+        clock.advance(TimeUnit.HOURS.toMillis(1));
+        q.add(Lane.USER, 100, NOOP);
+        q.add(Lane.USER, 1, NOOP);
+        Assert.assertNotNull(q.poll());
+        Assert.assertNull(q.poll());
+    }
+
+    @Test
+    public void testKeepaliveNeverWaits() {
+        ManualClock clock = new ManualClock();
+        IrcOutboundQueue q = new IrcOutboundQueue(10, 10, clock);
+        q.add(Lane.USER, 10, NOOP);
+        Assert.assertNotNull(q.poll());
+        q.add(Lane.USER, 10, NOOP);
+        q.add(Lane.KEEPALIVE, 6, NOOP);
+        Assert.assertEquals(0, q.nanosTillNext());
+        Entry e = q.poll();
+        Assert.assertEquals(Lane.KEEPALIVE, e.getLane());
+        /* the keepalive has put the bucket into a debt of 6 bytes */
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(1600), q.nanosTillNext());
+    }
+
+    @Test
+    public void testLanePriority() {
+        ManualClock clock = new ManualClock();
+        IrcOutboundQueue q = new IrcOutboundQueue(1000, 10, clock);
+        Runnable background = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        Runnable user1 = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        Runnable user2 = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        q.add(Lane.BACKGROUND, 1, background);
+        q.add(Lane.USER, 1, user1);
+        q.add(Lane.USER, 1, user2);
+        Assert.assertEquals(3, q.size());
+        Assert.assertEquals(2, q.size(Lane.USER));
+        Assert.assertSame(user1, q.poll().getCommand());
+        Assert.assertSame(user2, q.poll().getCommand());
+        Assert.assertSame(background, q.poll().getCommand());
+        Assert.assertNull(q.poll());
+    }
+
+    @Test
+    public void testOversizedEntryWaitsForFullBucket() {
+        ManualClock clock = new ManualClock();
+        IrcOutboundQueue q = new IrcOutboundQueue(100, 10, clock);
+        q.add(Lane.USER, 50, NOOP);
+        q.add(Lane.USER, 500, NOOP);
+        Assert.assertNotNull(q.poll());
+        Assert.assertNull(q.poll());
+        clock.advance(5000);
+        Assert.assertEquals(500, q.poll().getWireBytes());
+    }
+
+    @Test
+    public void testWireBytes() {
+        Assert.assertEquals(6, IrcOutboundQueue.wireBytes("PING"));
+        Assert.assertEquals(6 + 10, IrcOutboundQueue.wireBytes("PING", "JOIN #ch"));
+        /* two bytes per each of the accented characters in UTF-8 */
+        Assert.assertEquals(2 * 2 + 2, IrcOutboundQueue.wireBytes("\u010d\u0159"));
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.time.Duration;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcReconnectBackoffTest {
+
+    private static IrcReconnectBackoff newBackoff() {
+        return new IrcReconnectBackoff(Duration.ofSeconds(2), Duration.ofSeconds(60), Duration.ofSeconds(1),
+                new Random(42));
+    }
+
+    @Test
+    public void testExponentialWithJitter() {
+        IrcReconnectBackoff backoff = newBackoff();
+        long cap = 2000;
+        for (int attempt = 0; attempt < 100; attempt++) {
+            long delay = backoff.getDelayMillis(attempt);
+            Assert.assertTrue("attempt " + attempt + ": " + delay, delay >= cap / 2 && delay <= cap);
+            cap = Math.min(cap * 2, 60000);
+        }
+    }
+
+    @Test
+    public void testStormGuard() {
+        IrcReconnectBackoff backoff = newBackoff();
+        long now = 1000000;
+        long previousAt = Long.MIN_VALUE;
+        /* ten accounts disconnected at the same time */
+        for (int i = 0; i < 10; i++) {
+            long at = now + backoff.schedule(0, now);
+            if (previousAt != Long.MIN_VALUE) {
+                Assert.assertTrue(at - previousAt >= 1000);
+            }
+            previousAt = at;
+        }
+        /* long after the storm, the plain delay applies again */
+        now += 3600000;
+        long delay = backoff.schedule(0, now);
+        Assert.assertTrue(delay >= 1000 && delay <= 2000);
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcRingBufferTest {
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final IrcRingBuffer<Integer> buffer = new IrcRingBuffer<Integer>(1024);
+        final int producerCount = 4;
+        final int perProducer = 10000;
+        Thread[] producers = new Thread[producerCount];
+        for (int p = 0; p < producerCount; p++) {
+            final int base = p * perProducer;
+            producers[p] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        buffer.offer(base + i);
+                    }
+                }
+            };
+            producers[p].start();
+        }
+        int[] lastSeen = new int[producerCount];
+        Arrays.fill(lastSeen, -1);
+        int received = 0;
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (Thread producer : producers) {
+                running |= producer.isAlive();
+            }
+            Integer e;
+            while ((e = buffer.poll()) != null) {
+                int p = e / perProducer;
+                /* the order of each single producer is kept */
+                Assert.assertTrue(e + " after " + lastSeen[p], e > lastSeen[p]);
+                lastSeen[p] = e;
+                received++;
+            }
+        }
+        Assert.assertEquals(producerCount * perProducer, received + buffer.getDroppedCount());
+    }
+
+    @Test
+    public void testOfferPollDrain() {
+        IrcRingBuffer<String> buffer = new IrcRingBuffer<String>(3);
+        Assert.assertEquals(4, buffer.getCapacity());
+        Assert.assertNull(buffer.poll());
+        for (int round = 0; round < 3; round++) {
+            Assert.assertTrue(buffer.offer("a"));
+            Assert.assertTrue(buffer.offer("b"));
+            Assert.assertTrue(buffer.offer("c"));
+            Assert.assertTrue(buffer.offer("d"));
+            Assert.assertFalse(buffer.offer("e"));
+            Assert.assertEquals("a", buffer.poll());
+            Assert.assertTrue(buffer.offer("f"));
+            List<String> drained = new ArrayList<String>();
+            Assert.assertEquals(2, buffer.drain(drained::add, 2));
+            Assert.assertEquals("[b, c]", drained.toString());
+            Assert.assertEquals(2, buffer.drain(drained::add, 10));
+            Assert.assertEquals("[b, c, d, f]", drained.toString());
+            Assert.assertNull(buffer.poll());
+        }
+        Assert.assertEquals(3, buffer.getDroppedCount());
+    }
+
+}
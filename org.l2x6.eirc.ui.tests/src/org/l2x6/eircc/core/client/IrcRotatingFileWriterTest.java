@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcRotatingFileWriterTest {
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRotate() throws IOException {
+        Path dir = Files.createTempDirectory(IrcRotatingFileWriterTest.class.getSimpleName());
+        Path file = dir.resolve("traffic").resolve("account.log");
+        try (IrcRotatingFileWriter writer = new IrcRotatingFileWriter(file, 10, 2)) {
+            writer.writeLine("1234");
+            writer.writeLine("5678");
+            /* "9" would make 12 bytes */
+            writer.writeLine("9");
+            writer.writeLine("\u00e4bcdefgh");
+            writer.writeLine("x");
+            writer.flush();
+            Assert.assertEquals("x\n", read(file));
+            Assert.assertEquals("\u00e4bcdefgh\n", read(dir.resolve("traffic").resolve("account.log.1")));
+            Assert.assertEquals("9\n", read(dir.resolve("traffic").resolve("account.log.2")));
+            Assert.assertFalse(Files.exists(dir.resolve("traffic").resolve("account.log.3")));
+        }
+
+        /* appends to the existing file */
+        try (IrcRotatingFileWriter writer = new IrcRotatingFileWriter(file, 10, 0)) {
+            writer.writeLine("y");
+            writer.flush();
+            Assert.assertEquals("x\ny\n", read(file));
+            writer.writeLine("0123456");
+            writer.flush();
+            Assert.assertEquals("0123456\n", read(file));
+        }
+
+        Path[] files = Files.list(file.getParent()).toArray(Path[]::new);
+        Assert.assertEquals(3, files.length);
+        for (Path f : files) {
+            Files.delete(f);
+        }
+        Files.delete(file.getParent());
+        Files.delete(dir);
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcWhoSchedulerTest {
+
+    private final Set<String> visible = new HashSet<String>();
+    private final List<String> sent = new ArrayList<String>();
+
+    private IrcWhoScheduler newScheduler(int maxInFlight) {
+        return new IrcWhoScheduler(maxInFlight, new ToIntFunction<String>() {
+            @Override
+            public int applyAsInt(String channelName) {
+                return visible.contains(channelName) ? 0 : 1;
+            }
+        }, new Consumer<String>() {
+            @Override
+            public void accept(String channelName) {
+                sent.add(channelName);
+            }
+        });
+    }
+
+    @Test
+    public void testBoundedConcurrency() {
+        IrcWhoScheduler scheduler = newScheduler(2);
+        for (String ch : Arrays.asList("#a", "#b", "#c", "#d")) {
+            scheduler.enqueue(ch);
+        }
+        Assert.assertEquals(Arrays.asList("#a", "#b"), sent);
+        Assert.assertEquals(2, scheduler.getInFlightCount());
+        Assert.assertEquals(2, scheduler.getPendingCount());
+
+        /* a duplicate and an unknown ENDOFWHO change nothing */
+        scheduler.enqueue("#a");
+        Assert.assertFalse(scheduler.done("#x"));
+        Assert.assertEquals(2, sent.size());
+
+        Assert.assertTrue(scheduler.done("#b"));
+        Assert.assertEquals(Arrays.asList("#a", "#b", "#c"), sent);
+        scheduler.remove("#d");
+        Assert.assertTrue(scheduler.done("#a"));
+        Assert.assertTrue(scheduler.done("#c"));
+        Assert.assertEquals(3, sent.size());
+        Assert.assertEquals(0, scheduler.getInFlightCount());
+        Assert.assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void testStaleTimeout() {
+        IrcWhoScheduler scheduler = newScheduler(1);
+        Assert.assertEquals(-1, scheduler.getQueryId("#a"));
+        scheduler.enqueue("#a");
+        long first = scheduler.getQueryId("#a");
+        Assert.assertTrue(scheduler.done("#a"));
+
+        /* the same channel queried again while the timer of the first query is still armed */
+        scheduler.enqueue("#a");
+        scheduler.enqueue("#b");
+        long second = scheduler.getQueryId("#a");
+        Assert.assertTrue(first != second);
+        Assert.assertEquals(Arrays.asList("#a", "#a"), sent);
+
+        Assert.assertFalse(scheduler.expire("#a", first));
+        Assert.assertEquals(1, scheduler.getInFlightCount());
+        Assert.assertEquals(1, scheduler.getPendingCount());
+        Assert.assertEquals(Arrays.asList("#a", "#a"), sent);
+
+        Assert.assertTrue(scheduler.expire("#a", second));
+        Assert.assertEquals(Arrays.asList("#a", "#a", "#b"), sent);
+        Assert.assertFalse(scheduler.expire("#a", second));
+    }
+
+    @Test
+    public void testVisibleFirst() {
+        IrcWhoScheduler scheduler = newScheduler(1);
+        for (String ch : Arrays.asList("#a", "#b", "#c", "#d")) {
+            scheduler.enqueue(ch);
+        }
+        /* the priority is evaluated when the next channel is picked */
+        visible.add("#d");
+        visible.add("#c");
+        scheduler.done("#a");
+        scheduler.done("#c");
+        scheduler.done("#d");
+        Assert.assertEquals(Arrays.asList("#a", "#c", "#d", "#b"), sent);
+    }
+
+}
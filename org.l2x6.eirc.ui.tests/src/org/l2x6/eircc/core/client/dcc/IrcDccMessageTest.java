@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.dcc;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.l2x6.eircc.core.client.dcc.IrcDccMessage.Type;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcDccMessageTest {
+
+    @Test
+    public void testAcceptAndResume() {
+        IrcDccMessage resume = IrcDccMessage.parse("\u0001DCC RESUME file.txt 1024 4096\u0001");
+        Assert.assertEquals(Type.RESUME, resume.getType());
+        Assert.assertEquals("file.txt", resume.getFileName());
+        Assert.assertEquals(1024, resume.getPort());
+        Assert.assertEquals(4096, resume.getPosition());
+        Assert.assertNull(resume.getToken());
+        Assert.assertNull(resume.getAddress());
+
+        IrcDccMessage accept = IrcDccMessage.accept("my file.txt", 0, 4096, "7");
+        Assert.assertEquals("DCC ACCEPT \"my file.txt\" 0 4096 7", accept.toCtcp());
+        IrcDccMessage parsed = IrcDccMessage.parse(accept.toCtcp());
+        Assert.assertEquals(Type.ACCEPT, parsed.getType());
+        Assert.assertEquals("my file.txt", parsed.getFileName());
+        Assert.assertEquals("7", parsed.getToken());
+    }
+
+    @Test
+    public void testAddress() throws UnknownHostException {
+        InetAddress localhost = InetAddress.getByName("127.0.0.1");
+        Assert.assertEquals("2130706433", IrcDccMessage.encodeAddress(localhost));
+        Assert.assertEquals(localhost, IrcDccMessage.decodeAddress("2130706433"));
+        Assert.assertEquals(localhost, IrcDccMessage.decodeAddress("127.0.0.1"));
+        InetAddress high = InetAddress.getByName("255.1.2.3");
+        Assert.assertEquals(high, IrcDccMessage.decodeAddress(IrcDccMessage.encodeAddress(high)));
+        InetAddress v6 = InetAddress.getByName("::1");
+        Assert.assertEquals(v6, IrcDccMessage.decodeAddress(IrcDccMessage.encodeAddress(v6)));
+        try {
+            IrcDccMessage.decodeAddress("example.com");
+            Assert.fail("UnknownHostException expected");
+        } catch (UnknownHostException expected) {
+        }
+        try {
+            IrcDccMessage.decodeAddress("4294967296");
+            Assert.fail("UnknownHostException expected");
+        } catch (UnknownHostException expected) {
+        }
+    }
+
+    @Test
+    public void testMalformed() {
+        Assert.assertNull(IrcDccMessage.parse("\u0001VERSION\u0001"));
+        Assert.assertNull(IrcDccMessage.parse("\u0001DCC CHAT chat 2130706433 1024\u0001"));
+        Assert.assertNull(IrcDccMessage.parse("\u0001DCC SEND file.txt 2130706433\u0001"));
+        Assert.assertNull(IrcDccMessage.parse("\u0001DCC SEND file.txt example.com 1024 10\u0001"));
+        Assert.assertNull(IrcDccMessage.parse("\u0001DCC SEND file.txt 2130706433 70000 10\u0001"));
+        Assert.assertNull(IrcDccMessage.parse("\u0001DCC SEND file.txt 2130706433 1024 -10\u0001"));
+        Assert.assertNull(IrcDccMessage.parse("\u0001DCC SEND \"file.txt 2130706433 1024 10\u0001"));
+        Assert.assertNull(IrcDccMessage.parse("\u0001DCC RESUME file.txt 1024 10 t x\u0001"));
+    }
+
+    @Test
+    public void testSafeFileName() {
+        Assert.assertEquals("passwd", IrcDccMessage.toSafeFileName("../../etc/passwd"));
+        Assert.assertEquals("boot.ini", IrcDccMessage.toSafeFileName("C:\\boot.ini"));
+        Assert.assertEquals("bashrc", IrcDccMessage.toSafeFileName(".bashrc"));
+        Assert.assertEquals("a_b", IrcDccMessage.toSafeFileName("a:b"));
+        Assert.assertEquals("dcc-file", IrcDccMessage.toSafeFileName(".."));
+        Assert.assertEquals("dcc-file", IrcDccMessage.toSafeFileName("dir/"));
+        Assert.assertEquals("my file.txt", IrcDccMessage.toSafeFileName("my file.txt"));
+    }
+
+    @Test
+    public void testSend() throws UnknownHostException {
+        IrcDccMessage send = IrcDccMessage.parse("\u0001DCC SEND file.txt 2130706433 1024 12345\u0001");
+        Assert.assertEquals(Type.SEND, send.getType());
+        Assert.assertEquals(InetAddress.getByName("127.0.0.1"), send.getAddress());
+        Assert.assertEquals(1024, send.getPort());
+        Assert.assertEquals(12345, send.getSize());
+        Assert.assertFalse(send.isPassive());
+
+        IrcDccMessage passive = IrcDccMessage.send("file.txt", InetAddress.getByName("127.0.0.1"), 0, 12345, "3");
+        Assert.assertEquals("DCC SEND file.txt 2130706433 0 12345 3", passive.toCtcp());
+        Assert.assertTrue(IrcDccMessage.parse(passive.toCtcp()).isPassive());
+        Assert.assertEquals("DCC SEND file.txt 0 0 12345 3",
+                IrcDccMessage.send("file.txt", null, 0, 12345, "3").toCtcp());
+    }
+
+}
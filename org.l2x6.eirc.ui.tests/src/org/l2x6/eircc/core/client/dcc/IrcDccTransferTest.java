@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.dcc;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.l2x6.eircc.core.client.dcc.IrcDccTransfer.Direction;
+import org.l2x6.eircc.core.client.dcc.IrcDccTransfer.State;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcDccTransferTest {
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    private Path dir;
+    private ExecutorService executor;
+    private InetAddress loopback;
+
+    @After
+    public void after() throws IOException {
+        executor.shutdownNow();
+        for (Path file : Files.newDirectoryStream(dir)) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    @Before
+    public void before() throws IOException {
+        dir = Files.createTempDirectory(IrcDccTransferTest.class.getSimpleName());
+        executor = Executors.newSingleThreadExecutor();
+        loopback = InetAddress.getLoopbackAddress();
+    }
+
+    private byte[] createData(int size) {
+        byte[] result = new byte[size];
+        new Random(size).nextBytes(result);
+        return result;
+    }
+
+    /**
+     * The sender listens and the receiver connects.
+     */
+    @Test(timeout = 30000)
+    public void testActive() throws Exception {
+        byte[] data = createData(3 * IrcDccTransfer.CHUNK_SIZE + 17);
+        Path source = Files.write(dir.resolve("source.bin"), data);
+        Path target = dir.resolve("target.bin");
+
+        final IrcDccTransfer send = new IrcDccTransfer(Direction.SEND, "bob", "source.bin", source, data.length, null);
+        int port = send.listen(loopback);
+        Future<?> sent = executor.submit(() -> {
+            send.acceptConnection(TIMEOUT_MILLIS);
+            send.transfer(p -> {
+            });
+            return null;
+        });
+
+        IrcDccTransfer receive = new IrcDccTransfer(Direction.RECEIVE, "alice", "source.bin", target, data.length,
+                null);
+        receive.connect(new InetSocketAddress(loopback, port), TIMEOUT_MILLIS);
+        AtomicLong lastProgress = new AtomicLong();
+        receive.transfer(p -> {
+            Assert.assertTrue(p > lastProgress.get());
+            lastProgress.set(p);
+        });
+        sent.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        Assert.assertEquals(data.length, lastProgress.get());
+        Assert.assertEquals(State.DONE, receive.getState());
+        Assert.assertEquals(State.DONE, send.getState());
+        Assert.assertArrayEquals(data, Files.readAllBytes(target));
+    }
+
+    @Test(timeout = 30000)
+    public void testCancel() throws Exception {
+        Path target = dir.resolve("target.bin");
+        final IrcDccTransfer receive = new IrcDccTransfer(Direction.RECEIVE, "alice", "source.bin", target, 1024,
+                "1");
+        receive.listen(loopback);
+        Future<?> received = executor.submit(() -> {
+            receive.acceptConnection(TIMEOUT_MILLIS);
+            return null;
+        });
+        receive.cancel();
+        try {
+            received.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            Assert.fail("ExecutionException expected");
+        } catch (java.util.concurrent.ExecutionException expected) {
+            Assert.assertTrue(expected.getCause() instanceof IOException);
+        }
+        Assert.assertEquals(State.CANCELLED, receive.getState());
+    }
+
+    /**
+     * The receiver listens and the sender connects.
+     */
+    @Test(timeout = 30000)
+    public void testPassive() throws Exception {
+        byte[] data = createData(100000);
+        Path source = Files.write(dir.resolve("source.bin"), data);
+        Path target = dir.resolve("target.bin");
+
+        final IrcDccTransfer receive = new IrcDccTransfer(Direction.RECEIVE, "alice", "source.bin", target,
+                data.length, "1");
+        int port = receive.listen(loopback);
+        Future<?> received = executor.submit(() -> {
+            receive.acceptConnection(TIMEOUT_MILLIS);
+            receive.transfer(p -> {
+            });
+            return null;
+        });
+
+        IrcDccTransfer send = new IrcDccTransfer(Direction.SEND, "bob", "source.bin", source, data.length, "1");
+        send.connect(new InetSocketAddress(loopback, port), TIMEOUT_MILLIS);
+        send.transfer(p -> {
+        });
+        received.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        Assert.assertArrayEquals(data, Files.readAllBytes(target));
+    }
+
+    @Test(timeout = 30000)
+    public void testResume() throws Exception {
+        byte[] data = createData(2 * IrcDccTransfer.CHUNK_SIZE + 5);
+        Path source = Files.write(dir.resolve("source.bin"), data);
+        int resumeAt = IrcDccTransfer.CHUNK_SIZE + 3;
+        /* the partial file has some garbage past the resume position that should be dropped */
+        byte[] partial = Arrays.copyOf(data, resumeAt + 10);
+        Arrays.fill(partial, resumeAt, partial.length, (byte) 0);
+        Path target = Files.write(dir.resolve("target.bin"), partial);
+
+        final IrcDccTransfer send = new IrcDccTransfer(Direction.SEND, "bob", "source.bin", source, data.length, null);
+        send.setStartPosition(resumeAt);
+        int port = send.listen(loopback);
+        Future<?> sent = executor.submit(() -> {
+            send.acceptConnection(TIMEOUT_MILLIS);
+            send.transfer(p -> {
+            });
+            return null;
+        });
+
+        IrcDccTransfer receive = new IrcDccTransfer(Direction.RECEIVE, "alice", "source.bin", target, data.length,
+                null);
+        receive.setStartPosition(resumeAt);
+        receive.connect(new InetSocketAddress(loopback, port), TIMEOUT_MILLIS);
+        receive.transfer(p -> {
+        });
+        sent.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        Assert.assertEquals(data.length, send.getPosition());
+        Assert.assertArrayEquals(data, Files.readAllBytes(target));
+    }
+
+}
@@ -0,0 +1,811 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.fake;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+/**
+ * An in-process IRC server good enough to drive {@code IrcClient} in tests.
+ * It registers the clients, answers {@code JOIN}, {@code WHO}, {@code LIST},
+ * {@code PING}, {@code CAP} and {@code CHATHISTORY} and records everything the
+ * clients send.
+ * The traffic of the simulated users is injected through
+ * {@link #broadcast(String)} and {@link #send(String, String)}, typically by
+ * {@link IrcTrafficGenerator} or {@link IrcLogReplay}.
+ * <p>
+ * The clients are served by a thread each, the simulated channels are guarded
+ * by {@code this}.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class FakeIrcd implements Closeable {
+
+    /**
+     * A simulated channel.
+     */
+    public static class FakeChannel {
+        private final String name;
+        private final String topic;
+        private final Set<String> users = new LinkedHashSet<String>();
+
+        FakeChannel(String name, String topic) {
+            super();
+            this.name = name;
+            this.topic = topic;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public Set<String> getUsers() {
+            return users;
+        }
+    }
+
+    /**
+     * A message stored for {@code CHATHISTORY}.
+     */
+    private static class HistoryMessage {
+        private final String nick;
+        private final String text;
+        private final Instant time;
+
+        HistoryMessage(Instant time, String nick, String text) {
+            super();
+            this.time = time;
+            this.nick = nick;
+            this.text = text;
+        }
+    }
+
+    /**
+     * A line received from a client together with the {@link System#nanoTime()}
+     * of its arrival.
+     */
+    public static class ReceivedLine {
+        private final String line;
+        private final long receivedAtNanos;
+
+        ReceivedLine(String line, long receivedAtNanos) {
+            super();
+            this.line = line;
+            this.receivedAtNanos = receivedAtNanos;
+        }
+
+        public String getLine() {
+            return line;
+        }
+
+        public long getReceivedAtNanos() {
+            return receivedAtNanos;
+        }
+
+        @Override
+        public String toString() {
+            return line;
+        }
+    }
+
+    /**
+     * A connected client.
+     */
+    private class Session implements Runnable {
+        /** Set between {@code CAP LS} and {@code CAP END}, suspends the registration */
+        private boolean capNegotiating = false;
+        private final BufferedReader in;
+        private volatile String nick;
+        /** The tokens of the flood limit in bytes, see {@link FakeIrcd#setFloodLimit(int, int)} */
+        private double floodTokens;
+        private long floodTokensUpdatedAt = Long.MIN_VALUE;
+        private final Writer out;
+        private volatile boolean registered = false;
+        private final Socket socket;
+        private String username;
+
+        Session(Socket socket) throws IOException {
+            super();
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        private void close() {
+            sessions.remove(this);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void handle(String line) throws IOException {
+            String trailing = null;
+            int trailingStart = line.indexOf(" :");
+            String head = line;
+            if (trailingStart >= 0) {
+                trailing = line.substring(trailingStart + 2);
+                head = line.substring(0, trailingStart);
+            }
+            String[] params = head.split(" +");
+            String command = params[0].toUpperCase();
+            switch (command) {
+            case "CAP":
+                cap(params, trailing);
+                break;
+            case "CHATHISTORY":
+                chatHistory(params);
+                break;
+            case "NICK":
+                nick = params.length > 1 ? params[1] : trailing;
+                registerIfReady();
+                break;
+            case "USER":
+                username = params.length > 1 ? params[1] : "user";
+                registerIfReady();
+                break;
+            case "PING":
+                write(":" + SERVER_NAME + " PONG " + SERVER_NAME + " :" + (trailing != null ? trailing : params[1]));
+                break;
+            case "JOIN":
+                for (String channelName : params[1].split(",")) {
+                    join(channelName);
+                }
+                break;
+            case "PART":
+                for (String channelName : params[1].split(",")) {
+                    synchronized (FakeIrcd.this) {
+                        FakeChannel channel = channels.get(channelName);
+                        if (channel != null) {
+                            channel.users.remove(nick);
+                        }
+                    }
+                    write(":" + getMask() + " PART " + channelName);
+                }
+                break;
+            case "WHO":
+                who(params[1], params.length > 2 ? params[2] : null);
+                break;
+            case "LIST":
+                list();
+                break;
+            case "QUIT":
+                write("ERROR :Closing Link");
+                close();
+                break;
+            case "PRIVMSG":
+            case "NOTICE":
+                if (params.length > 1 && trailing != null && params[1].charAt(0) != '#') {
+                    /* relay the private messages so that two clients can talk to each other */
+                    send(params[1], ":" + getMask() + " " + command + " " + params[1] + " :" + trailing);
+                }
+                break;
+            default:
+                /* anything else is just recorded */
+                break;
+            }
+        }
+
+        private void cap(String[] params, String trailing) throws IOException {
+            String subcommand = params.length > 1 ? params[1].toUpperCase() : "";
+            switch (subcommand) {
+            case "LS":
+                capNegotiating = true;
+                reply("CAP * LS :" + capabilities);
+                break;
+            case "REQ":
+                String requested = trailing != null ? trailing : params[2];
+                Set<String> offered = new HashSet<String>(Arrays.asList(capabilities.split(" ")));
+                boolean ack = offered.containsAll(Arrays.asList(requested.split(" ")));
+                reply("CAP * " + (ack ? "ACK" : "NAK") + " :" + requested);
+                break;
+            case "END":
+                capNegotiating = false;
+                registerIfReady();
+                break;
+            default:
+                break;
+            }
+        }
+
+        /**
+         * Answers {@code CHATHISTORY LATEST <target> * <limit>} and
+         * {@code CHATHISTORY AFTER <target> timestamp=<time> <limit>} with a
+         * {@code chathistory} batch of the messages added via
+         * {@link FakeIrcd#addHistory(String, Instant, String, String)}.
+         *
+         * @param params
+         * @throws IOException
+         */
+        private void chatHistory(String[] params) throws IOException {
+            String target = params[2];
+            Instant after = Instant.MIN;
+            if ("AFTER".equalsIgnoreCase(params[1]) && params[3].startsWith("timestamp=")) {
+                after = Instant.parse(params[3].substring("timestamp=".length()));
+            }
+            int limit = Integer.parseInt(params[params.length - 1]);
+            List<HistoryMessage> messages = new ArrayList<HistoryMessage>();
+            synchronized (FakeIrcd.this) {
+                List<HistoryMessage> all = history.get(target);
+                if (all != null) {
+                    for (HistoryMessage m : all) {
+                        if (m.time.isAfter(after)) {
+                            messages.add(m);
+                        }
+                    }
+                }
+            }
+            if (messages.size() > limit) {
+                messages = messages.subList(messages.size() - limit, messages.size());
+            }
+            String ref = "h" + batchCounter.incrementAndGet();
+            StringBuilder sb = new StringBuilder();
+            sb.append(':').append(SERVER_NAME).append(" BATCH +").append(ref).append(" chathistory ").append(target)
+                    .append("\r\n");
+            for (HistoryMessage m : messages) {
+                sb.append("@batch=").append(ref).append(";time=").append(SERVER_TIME_FORMATTER.format(m.time))
+                        .append(" :").append(m.nick).append('!').append(m.nick).append('@').append(HOST)
+                        .append(" PRIVMSG ").append(target).append(" :").append(m.text).append("\r\n");
+            }
+            sb.append(':').append(SERVER_NAME).append(" BATCH -").append(ref).append("\r\n");
+            writeRaw(sb);
+        }
+
+        /**
+         * Charges the given {@code line} to the flood limit token bucket of
+         * this session.
+         *
+         * @param line
+         * @return {@code true} if the client has sent more than the flood limit
+         *         set by {@link FakeIrcd#setFloodLimit(int, int)} allows
+         */
+        private boolean isExcessFlood(String line) {
+            int burstBytes = floodBurstBytes;
+            int bytesPerSecond = floodBytesPerSecond;
+            if (bytesPerSecond <= 0) {
+                return false;
+            }
+            long now = System.nanoTime();
+            if (floodTokensUpdatedAt == Long.MIN_VALUE) {
+                floodTokens = burstBytes;
+            } else {
+                floodTokens = Math.min(burstBytes, floodTokens + bytesPerSecond * (now - floodTokensUpdatedAt) / 1e9);
+            }
+            floodTokensUpdatedAt = now;
+            floodTokens -= line.getBytes(StandardCharsets.UTF_8).length + 2;
+            return floodTokens < 0;
+        }
+
+        private String getMask() {
+            return nick + "!" + username + "@" + HOST;
+        }
+
+        private void join(String channelName) throws IOException {
+            List<String> users;
+            String topic;
+            synchronized (FakeIrcd.this) {
+                FakeChannel channel = channels.get(channelName);
+                if (channel == null) {
+                    channel = new FakeChannel(channelName, "");
+                    channels.put(channelName, channel);
+                }
+                channel.users.add(nick);
+                users = new ArrayList<String>(channel.users);
+                topic = channel.topic;
+            }
+            StringBuilder sb = new StringBuilder();
+            sb.append(':').append(getMask()).append(" JOIN ").append(channelName).append("\r\n");
+            if (!topic.isEmpty()) {
+                sb.append(':').append(SERVER_NAME).append(" 332 ").append(nick).append(' ').append(channelName)
+                        .append(" :").append(topic).append("\r\n");
+            }
+            String namesPrefix = ":" + SERVER_NAME + " 353 " + nick + " = " + channelName + " :";
+            StringBuilder names = new StringBuilder(namesPrefix);
+            for (String user : users) {
+                if (names.length() + user.length() > MAX_LINE_LENGTH - 2) {
+                    sb.append(names).append("\r\n");
+                    names.setLength(0);
+                    names.append(namesPrefix);
+                } else if (names.length() > namesPrefix.length()) {
+                    names.append(' ');
+                }
+                names.append(user);
+            }
+            sb.append(names).append("\r\n");
+            sb.append(':').append(SERVER_NAME).append(" 366 ").append(nick).append(' ').append(channelName)
+                    .append(" :End of /NAMES list.\r\n");
+            writeRaw(sb);
+        }
+
+        private void list() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            sb.append(':').append(SERVER_NAME).append(" 321 ").append(nick).append(" Channel :Users  Name\r\n");
+            synchronized (FakeIrcd.this) {
+                for (FakeChannel channel : channels.values()) {
+                    sb.append(':').append(SERVER_NAME).append(" 322 ").append(nick).append(' ')
+                            .append(channel.name).append(' ').append(channel.users.size()).append(" :")
+                            .append(channel.topic).append("\r\n");
+                }
+            }
+            sb.append(':').append(SERVER_NAME).append(" 323 ").append(nick).append(" :End of /LIST\r\n");
+            writeRaw(sb);
+        }
+
+        private void registerIfReady() throws IOException {
+            if (!registered && !capNegotiating && nick != null && username != null) {
+                registered = true;
+                StringBuilder sb = new StringBuilder();
+                reply(sb, "001", ":Welcome to the fake IRC network " + getMask());
+                reply(sb, "002", ":Your host is " + SERVER_NAME);
+                reply(sb, "005", isupport + " :are supported by this server");
+                reply(sb, "375", ":- " + SERVER_NAME + " Message of the day -");
+                reply(sb, "372", ":- Nothing to see here");
+                reply(sb, "376", ":End of /MOTD command.");
+                writeRaw(sb);
+            }
+        }
+
+        private void reply(String line) throws IOException {
+            write(":" + SERVER_NAME + " " + line);
+        }
+
+        private void reply(StringBuilder sb, String numeric, String rest) {
+            sb.append(':').append(SERVER_NAME).append(' ').append(numeric).append(' ').append(nick).append(' ')
+                    .append(rest).append("\r\n");
+        }
+
+        @Override
+        public void run() {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    received.add(new ReceivedLine(line, System.nanoTime()));
+                    if (registered && isExcessFlood(line)) {
+                        excessFloodCount.incrementAndGet();
+                        write("ERROR :Closing Link: " + HOST + " (Excess Flood)");
+                        break;
+                    }
+                    if (!line.isEmpty()) {
+                        handle(line);
+                    }
+                }
+            } catch (SocketException e) {
+                /* closed */
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                close();
+            }
+        }
+
+        private void who(String channelName, String whoxFields) throws IOException {
+            List<String> users;
+            synchronized (FakeIrcd.this) {
+                FakeChannel channel = channels.get(channelName);
+                users = channel == null ? Collections.<String> emptyList() : new ArrayList<String>(channel.users);
+            }
+            StringBuilder sb = new StringBuilder();
+            String token = null;
+            if (whoxFields != null) {
+                int comma = whoxFields.indexOf(',');
+                token = comma >= 0 ? whoxFields.substring(comma + 1) : "0";
+            }
+            for (String user : users) {
+                sb.append(':').append(SERVER_NAME).append(' ');
+                if (token != null) {
+                    /* the fields of %tcuhnf in the order given by the WHOX spec */
+                    sb.append("354 ").append(nick).append(' ').append(token).append(' ').append(channelName)
+                            .append(' ').append(user).append(' ').append(HOST).append(' ').append(user)
+                            .append(" H");
+                } else {
+                    sb.append("352 ").append(nick).append(' ').append(channelName).append(' ').append(user)
+                            .append(' ').append(HOST).append(' ').append(SERVER_NAME).append(' ').append(user)
+                            .append(" H :0 ").append(user);
+                }
+                sb.append("\r\n");
+            }
+            sb.append(':').append(SERVER_NAME).append(" 315 ").append(nick).append(' ').append(channelName)
+                    .append(" :End of /WHO list.\r\n");
+            writeRaw(sb);
+        }
+
+        private void write(String line) throws IOException {
+            synchronized (out) {
+                out.write(line);
+                out.write("\r\n");
+                out.flush();
+            }
+        }
+
+        private void writeRaw(CharSequence lines) throws IOException {
+            synchronized (out) {
+                out.append(lines);
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * The default burst of {@link #setFloodLimit(int, int)}: the default burst
+     * of the client's flood control plus some slack for the lines the client
+     * sends out of its queue, such as {@code PONG}.
+     */
+    public static final int DEFAULT_FLOOD_BURST_BYTES = 5 * 1024;
+    /** The default rate of {@link #setFloodLimit(int, int)} */
+    public static final int DEFAULT_FLOOD_BYTES_PER_SECOND = 512;
+    public static final String DEFAULT_ISUPPORT = "CHANTYPES=# CHANLIMIT=#:120 TARGMAX=JOIN:,WHO:1 LINELEN=512 WHOX NETWORK=Fake";
+    public static final String HOST = "fake.example.org";
+
+    private static final String KEYSTORE_PASSWORD = "fake-ircd";
+    private static final String KEYSTORE_RESOURCE = "fake-ircd.jks";
+    private static final int MAX_LINE_LENGTH = 512;
+    public static final String SERVER_NAME = "irc.fake.example.org";
+
+    /** The format of the {@code time} tag, see http://ircv3.net/specs/extensions/server-time-3.2.html */
+    public static final DateTimeFormatter SERVER_TIME_FORMATTER = DateTimeFormatter.ofPattern(
+            "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    /**
+     * @return an {@link SSLContext} with the self-signed certificate stored
+     *         next to this class
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public static SSLContext createSslContext() throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = FakeIrcd.class.getResourceAsStream(KEYSTORE_RESOURCE)) {
+            keyStore.load(in, KEYSTORE_PASSWORD.toCharArray());
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, KEYSTORE_PASSWORD.toCharArray());
+        SSLContext result = SSLContext.getInstance("TLS");
+        result.init(kmf.getKeyManagers(), null, null);
+        return result;
+    }
+
+    private Thread acceptor;
+    private final AtomicInteger batchCounter = new AtomicInteger();
+    /** Offered in reply to {@code CAP LS}, space separated */
+    private volatile String capabilities = "";
+    /** Guarded by {@code this} */
+    private final Map<String, FakeChannel> channels = new LinkedHashMap<String, FakeChannel>();
+    /** The number of the clients dropped for exceeding the flood limit */
+    private final AtomicInteger excessFloodCount = new AtomicInteger();
+    /** See {@link #setFloodLimit(int, int)} */
+    private volatile int floodBurstBytes;
+    /** See {@link #setFloodLimit(int, int)}, {@code 0} means no limit */
+    private volatile int floodBytesPerSecond;
+    /** Guarded by {@code this} */
+    private final Map<String, List<HistoryMessage>> history = new HashMap<String, List<HistoryMessage>>();
+    private final String isupport;
+    private final ConcurrentLinkedQueue<ReceivedLine> received = new ConcurrentLinkedQueue<ReceivedLine>();
+    /** The number of the next connections to close right after accepting them */
+    private final AtomicInteger rejectCount = new AtomicInteger();
+    private final ServerSocket serverSocket;
+    private final List<Session> sessions = new CopyOnWriteArrayList<Session>();
+
+    /**
+     * A plain text server with {@link #DEFAULT_ISUPPORT}.
+     *
+     * @throws IOException
+     */
+    public FakeIrcd() throws IOException {
+        this(null, DEFAULT_ISUPPORT);
+    }
+
+    /**
+     * @param sslContext
+     *            if not {@code null} the server speaks TLS
+     * @param isupport
+     *            the tokens to send in {@code RPL_ISUPPORT}
+     * @throws IOException
+     */
+    public FakeIrcd(SSLContext sslContext, String isupport) throws IOException {
+        super();
+        this.isupport = isupport;
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        this.serverSocket = sslContext == null ? new ServerSocket(0, 50, loopback) : sslContext
+                .getServerSocketFactory().createServerSocket(0, 50, loopback);
+    }
+
+    /**
+     * Adds a simulated channel with the given {@code users}.
+     *
+     * @param name
+     * @param topic
+     * @param users
+     */
+    public synchronized void addChannel(String name, String topic, Collection<String> users) {
+        FakeChannel channel = new FakeChannel(name, topic);
+        channel.users.addAll(users);
+        channels.put(name, channel);
+    }
+
+    /**
+     * Stores a message to send in reply to {@code CHATHISTORY}. The messages
+     * of a channel must be added in chronological order.
+     *
+     * @param channelName
+     * @param time
+     * @param nick
+     * @param text
+     */
+    public synchronized void addHistory(String channelName, Instant time, String nick, String text) {
+        List<HistoryMessage> messages = history.get(channelName);
+        if (messages == null) {
+            messages = new ArrayList<HistoryMessage>();
+            history.put(channelName, messages);
+        }
+        messages.add(new HistoryMessage(time, nick, text));
+    }
+
+    /**
+     * Adds the given {@code user} to the given simulated channel, e.g. after a
+     * {@code JOIN} was broadcast on its behalf.
+     *
+     * @param channelName
+     * @param user
+     */
+    public synchronized void addUser(String channelName, String user) {
+        FakeChannel channel = channels.get(channelName);
+        if (channel != null) {
+            channel.users.add(user);
+        }
+    }
+
+    /**
+     * Sends the given {@code line} to all registered clients.
+     *
+     * @param line
+     *            a complete line without the line terminator
+     */
+    public void broadcast(String line) {
+        for (Session session : sessions) {
+            if (session.registered) {
+                try {
+                    session.write(line);
+                } catch (IOException e) {
+                    session.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Session session : sessions) {
+            session.close();
+        }
+        if (acceptor != null) {
+            try {
+                acceptor.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Closes the sockets of all clients without any notice as if the network
+     * went down. The server keeps accepting new connections.
+     */
+    public void dropAll() {
+        for (Session session : sessions) {
+            session.close();
+        }
+    }
+
+    /**
+     * @return a snapshot of the simulated channels
+     */
+    public synchronized List<FakeChannel> getChannels() {
+        return new ArrayList<FakeChannel>(channels.values());
+    }
+
+    /**
+     * @return the number of the clients dropped so far for exceeding the
+     *         limit set by {@link #setFloodLimit(int, int)}
+     */
+    public int getExcessFloodCount() {
+        return excessFloodCount.get();
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @param command
+     *            e.g. {@code "PRIVMSG"}
+     * @return the lines received from the clients starting with the given
+     *         {@code command} in the order of their arrival
+     */
+    public List<ReceivedLine> getReceived(String command) {
+        String prefix = command + " ";
+        List<ReceivedLine> result = new ArrayList<ReceivedLine>();
+        for (ReceivedLine line : received) {
+            if (line.line.startsWith(prefix)) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of clients that have registered so far and are still
+     *         connected
+     */
+    public int getRegisteredCount() {
+        int result = 0;
+        for (Session session : sessions) {
+            if (session.registered) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Makes the server close the next {@code count} connections right after
+     * accepting them, e.g. to make the reconnect attempts of a client fail.
+     *
+     * @param count
+     */
+    public void rejectNext(int count) {
+        rejectCount.set(count);
+    }
+
+    /**
+     * Removes the given {@code user} from all simulated channels, e.g. after a
+     * {@code QUIT} was broadcast on its behalf.
+     *
+     * @param user
+     */
+    public synchronized void removeUser(String user) {
+        for (FakeChannel channel : channels.values()) {
+            channel.users.remove(user);
+        }
+    }
+
+    /**
+     * Renames the given {@code user} in all simulated channels, e.g. after a
+     * {@code NICK} was broadcast on its behalf.
+     *
+     * @param oldNick
+     * @param newNick
+     */
+    public synchronized void renameUser(String oldNick, String newNick) {
+        for (FakeChannel channel : channels.values()) {
+            if (channel.users.remove(oldNick)) {
+                channel.users.add(newNick);
+            }
+        }
+    }
+
+    /**
+     * Sends the given {@code line} to the registered client with the given
+     * {@code nick}.
+     *
+     * @param nick
+     * @param line
+     * @throws IOException
+     */
+    public void send(String nick, String line) throws IOException {
+        for (Session session : sessions) {
+            if (session.registered && nick.equals(session.nick)) {
+                session.write(line);
+            }
+        }
+    }
+
+    /**
+     * Sets the IRCv3 capabilities to offer in reply to {@code CAP LS}. None by
+     * default.
+     *
+     * @param capabilities
+     */
+    public void setCapabilities(String... capabilities) {
+        this.capabilities = String.join(" ", capabilities);
+    }
+
+    /**
+     * Limits the bytes a registered client may send, like real ircds do: each
+     * client gets a token bucket holding at most {@code burstBytes} that is
+     * refilled with {@code bytesPerSecond}. A client whose line does not fit
+     * into its bucket gets {@code ERROR :Closing Link: ... (Excess Flood)} and
+     * is disconnected. No limit by default.
+     *
+     * @param burstBytes
+     *            e.g. {@link #DEFAULT_FLOOD_BURST_BYTES}
+     * @param bytesPerSecond
+     *            e.g. {@link #DEFAULT_FLOOD_BYTES_PER_SECOND}, {@code 0} for no
+     *            limit
+     */
+    public void setFloodLimit(int burstBytes, int bytesPerSecond) {
+        this.floodBurstBytes = burstBytes;
+        this.floodBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Starts accepting the clients.
+     *
+     * @return this
+     */
+    public FakeIrcd start() {
+        acceptor = new Thread(FakeIrcd.class.getSimpleName() + "-" + getPort()) {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        if (rejectCount.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+                            socket.close();
+                            continue;
+                        }
+                        socket.setTcpNoDelay(true);
+                        Session session = new Session(socket);
+                        sessions.add(session);
+                        Thread t = new Thread(session, FakeIrcd.class.getSimpleName() + "-session-"
+                                + socket.getPort());
+                        t.setDaemon(true);
+                        t.start();
+                    } catch (IOException e) {
+                        /* closed */
+                    }
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+}
@@ -0,0 +1,541 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.fake;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.swt.widgets.Display;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.l2x6.eircc.core.IrcController;
+import org.l2x6.eircc.core.client.IrcLatencyStats;
+import org.l2x6.eircc.core.client.TrafficLoggerFactory;
+import org.l2x6.eircc.core.client.fake.FakeIrcd.FakeChannel;
+import org.l2x6.eircc.core.client.fake.FakeIrcd.ReceivedLine;
+import org.l2x6.eircc.core.model.AbstractIrcChannel;
+import org.l2x6.eircc.core.model.InitialIrcAccount;
+import org.l2x6.eircc.core.model.IrcAccount;
+import org.l2x6.eircc.core.model.IrcAccount.IrcAccountState;
+import org.l2x6.eircc.core.model.IrcChannel;
+import org.l2x6.eircc.core.model.IrcChannelUser;
+import org.l2x6.eircc.core.model.IrcMessage;
+import org.l2x6.eircc.core.model.IrcModel;
+import org.l2x6.eircc.core.model.IrcNotificationLevel;
+import org.l2x6.eircc.core.model.IrcNotificationLevelProvider;
+import org.l2x6.eircc.core.model.PlainIrcMessage;
+import org.l2x6.eircc.core.model.PlainIrcMessage.IrcMessageType;
+import org.l2x6.eircc.core.model.PlainIrcUser;
+import org.l2x6.eircc.core.model.event.IrcModelEvent;
+import org.l2x6.eircc.core.model.event.IrcModelEventListener;
+import org.l2x6.eircc.core.model.resource.IrcRootResource;
+import org.l2x6.eircc.ui.editor.IrcDocumentProvider;
+import org.schwering.irc.lib.IRCConnection;
+import org.schwering.irc.lib.IRCExceptionHandler;
+import org.schwering.irc.lib.IRCTrafficLogger;
+
+/**
+ * Drives {@link IrcController} headlessly against a {@link FakeIrcd} and
+ * prints the throughput and the end-to-end latency, i.e. the time from
+ * writing a line to the socket on the server side till the message is
+ * appended to the channel log on the UI thread.
+ * <p>
+ * Needs the UI harness: the model must be accessed from the UI thread whose
+ * event loop is spun by {@link #spinUntil(String, BooleanSupplier)}.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcClientLoadTest {
+
+    private static final int CHANNEL_COUNT = 20;
+    private static final int CHANNELS_PER_USER = 3;
+    private static final int USER_COUNT = 400;
+    private static final String MY_NICK = "loadtester";
+    private static final String PROJECT_NAME = IrcClientLoadTest.class.getSimpleName();
+    private static final long SEED = 42;
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+
+    private static final TrafficLoggerFactory NO_TRAFFIC_LOGGING = new TrafficLoggerFactory() {
+        @Override
+        public IRCExceptionHandler getExceptionHandler(IrcAccount account) {
+            return new IRCExceptionHandler() {
+                @Override
+                public void exception(IRCConnection connection, Throwable e) {
+                    e.printStackTrace();
+                }
+            };
+        }
+
+        @Override
+        public IRCTrafficLogger getTrafficLogger(IrcAccount account) {
+            /* logging would dominate the measurement */
+            return null;
+        }
+    };
+
+    private static void spinUntil(String description, BooleanSupplier condition) {
+        Display display = Display.getCurrent();
+        Assert.assertNotNull("Must run on the UI thread", display);
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                Assert.fail("Timed out waiting for " + description);
+            }
+            if (!display.readAndDispatch()) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    Assert.fail("Interrupted while waiting for " + description);
+                }
+            }
+        }
+    }
+
+    private IrcAccount account;
+    private IrcController controller;
+    private FakeIrcd ircd;
+    private IrcModel model;
+    private IProject project;
+    private final IrcLoadStats stats = new IrcLoadStats();
+
+    @After
+    public void after() throws IOException, CoreException {
+        if (controller != null) {
+            controller.dispose();
+        }
+        if (model != null) {
+            model.dispose();
+        }
+        if (ircd != null) {
+            ircd.close();
+        }
+        if (project != null) {
+            project.delete(IResource.ALWAYS_DELETE_PROJECT_CONTENT | IResource.FORCE, null);
+        }
+    }
+
+    @Before
+    public void before() throws Exception {
+        project = ResourcesPlugin.getWorkspace().getRoot().getProject(PROJECT_NAME);
+        if (project.exists()) {
+            project.delete(IResource.ALWAYS_DELETE_PROJECT_CONTENT | IResource.FORCE, null);
+        }
+        project.create(null);
+        project.open(null);
+
+        model = new IrcModel(NO_TRAFFIC_LOGGING, new IrcNotificationLevelProvider() {
+            @Override
+            public IrcNotificationLevel getNotificationLevel(IrcMessage message) {
+                return IrcNotificationLevel.NO_NOTIFICATION;
+            }
+        });
+        model.load(new IrcRootResource(project, IrcDocumentProvider.getInstance()));
+        model.addModelEventListener(new IrcModelEventListener() {
+            @Override
+            public void handle(IrcModelEvent e) {
+                long now = System.nanoTime();
+                switch (e.getEventType()) {
+                case NEW_MESSAGE:
+                    stats.received(((IrcMessage) e.getModelObject()).getText(), now);
+                    break;
+                case NEW_MESSAGES:
+                    for (IrcMessage m : (IrcMessage[]) e.getModelObject()) {
+                        stats.received(m.getText(), now);
+                    }
+                    break;
+                default:
+                    break;
+                }
+            }
+        });
+
+        controller = new IrcController();
+        controller.setCommandTimeout(Duration.ofSeconds(30));
+        controller.setPingInterval(Duration.ofMinutes(5));
+        controller.setReconnectEnabled(false);
+    }
+
+    private void connect(boolean ssl) throws Exception {
+        InitialIrcAccount initialAccount = new InitialIrcAccount(model);
+        initialAccount.setLabel("fake");
+        initialAccount.setHost(ircd.getHost());
+        initialAccount.setPort(ircd.getPort());
+        initialAccount.setSsl(ssl);
+        initialAccount.setPreferedNick(MY_NICK);
+        initialAccount.setUsername(MY_NICK);
+        initialAccount.setName(MY_NICK);
+        account = new IrcAccount(initialAccount);
+        model.addAccount(account);
+        controller.connect(account);
+        spinUntil("registration", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return account.getState() == IrcAccountState.ONLINE && ircd.getRegisteredCount() == 1;
+            }
+        });
+    }
+
+    private List<AbstractIrcChannel> joinAll(String[] channelNames) throws Exception {
+        final List<AbstractIrcChannel> channels = new ArrayList<AbstractIrcChannel>(channelNames.length);
+        for (String channelName : channelNames) {
+            IrcChannel channel = account.createChannel(channelName);
+            account.addChannel(channel);
+            channels.add(channel);
+        }
+        long start = System.nanoTime();
+        controller.joinChannels(account, channels);
+        spinUntil("all channels joined and synced", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return usersInSync(channels);
+            }
+        });
+        System.out.printf("%s: joined and synced %d channels in %d ms%n", PROJECT_NAME, channels.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return channels;
+    }
+
+    private void runChat(final IrcTrafficGenerator generator, final int messageCount, final int messagesPerSecond,
+            String label) {
+        Thread sender = new Thread(label) {
+            @Override
+            public void run() {
+                generator.chat(messageCount, messagesPerSecond);
+            }
+        };
+        sender.start();
+        spinUntil("all messages received", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return stats.getCount() >= messageCount;
+            }
+        });
+        System.out.printf("%s %s: %s%n", PROJECT_NAME, label, stats);
+    }
+
+    private void startIrcd(boolean ssl) throws Exception {
+        ircd = new FakeIrcd(ssl ? FakeIrcd.createSslContext() : null, FakeIrcd.DEFAULT_ISUPPORT).start();
+    }
+
+    @Test
+    public void testChatPlain() throws Exception {
+        startIrcd(false);
+        IrcTrafficGenerator generator = new IrcTrafficGenerator(ircd, SEED, CHANNEL_COUNT, USER_COUNT,
+                CHANNELS_PER_USER);
+        connect(false);
+        joinAll(generator.getChannelNames());
+        runChat(generator, 5000, 0, "plain, unlimited rate");
+        Assert.assertEquals(5000, stats.getCount());
+    }
+
+    @Test
+    public void testChatTls() throws Exception {
+        startIrcd(true);
+        IrcTrafficGenerator generator = new IrcTrafficGenerator(ircd, SEED, CHANNEL_COUNT, USER_COUNT,
+                CHANNELS_PER_USER);
+        connect(true);
+        joinAll(generator.getChannelNames());
+        runChat(generator, 2000, 1000, "TLS, 1000 msg/s");
+        Assert.assertEquals(2000, stats.getCount());
+    }
+
+    /**
+     * Floods {@link IrcController#postMessage(AbstractIrcChannel, String)}
+     * without the client side flood control to make sure that the server side
+     * limit used by {@link #testFloodLimit()} works.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExcessFlood() throws Exception {
+        controller.setFloodControlBurstBytes(64 * 1024);
+        controller.setFloodControlBytesPerSecond(64 * 1024);
+        startIrcd(false);
+        ircd.setFloodLimit(FakeIrcd.DEFAULT_FLOOD_BURST_BYTES, FakeIrcd.DEFAULT_FLOOD_BYTES_PER_SECOND);
+        connect(false);
+        List<AbstractIrcChannel> channels = joinAll(new String[] { "#flood" });
+        for (int i = 0; i < 200; i++) {
+            controller.postMessage(channels.get(0), "flood message " + i);
+        }
+        spinUntil("Excess Flood", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return ircd.getExcessFloodCount() == 1 && account.getState() != IrcAccountState.ONLINE;
+            }
+        });
+        Assert.assertEquals(0, ircd.getRegisteredCount());
+    }
+
+    @Test
+    public void testFloodControl() throws Exception {
+        final int burstBytes = 512;
+        final int bytesPerSecond = 4096;
+        controller.setFloodControlBurstBytes(burstBytes);
+        controller.setFloodControlBytesPerSecond(bytesPerSecond);
+        startIrcd(false);
+        connect(false);
+        List<AbstractIrcChannel> channels = joinAll(new String[] { "#flood" });
+
+        final int messageCount = 200;
+        for (int i = 0; i < messageCount; i++) {
+            controller.postMessage(channels.get(0), "flood message " + i);
+        }
+        spinUntil("all messages sent", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return ircd.getReceived("PRIVMSG").size() >= messageCount;
+            }
+        });
+        List<ReceivedLine> received = ircd.getReceived("PRIVMSG");
+        long start = received.get(0).getReceivedAtNanos();
+        long bytes = 0;
+        for (ReceivedLine line : received) {
+            bytes += line.getLine().getBytes(StandardCharsets.UTF_8).length + 2;
+            double elapsedSeconds = (line.getReceivedAtNanos() - start) / 1e9;
+            /* a line may be sent once the bucket has any tokens, hence the slack of a line */
+            double allowed = burstBytes + bytesPerSecond * elapsedSeconds + line.getLine().length() + 2;
+            Assert.assertTrue("Sent " + bytes + " bytes in " + elapsedSeconds + " s, allowed " + allowed,
+                    bytes <= allowed);
+        }
+        System.out.printf("%s flood control: %d bytes in %d ms%n", PROJECT_NAME, bytes,
+                TimeUnit.NANOSECONDS.toMillis(received.get(received.size() - 1).getReceivedAtNanos() - start));
+    }
+
+    /**
+     * Floods {@link IrcController#postMessage(AbstractIrcChannel, String)}
+     * against a server that drops the clients exceeding its flood limit. With
+     * the default flood control the client must stay registered.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFloodLimit() throws Exception {
+        startIrcd(false);
+        ircd.setFloodLimit(FakeIrcd.DEFAULT_FLOOD_BURST_BYTES, FakeIrcd.DEFAULT_FLOOD_BYTES_PER_SECOND);
+        connect(false);
+        List<AbstractIrcChannel> channels = joinAll(new String[] { "#flood" });
+
+        final int messageCount = 200;
+        for (int i = 0; i < messageCount; i++) {
+            controller.postMessage(channels.get(0), "flood message " + i);
+        }
+        spinUntil("all messages sent", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return ircd.getReceived("PRIVMSG").size() >= messageCount || ircd.getExcessFloodCount() > 0;
+            }
+        });
+        Assert.assertEquals(0, ircd.getExcessFloodCount());
+        Assert.assertEquals(IrcAccountState.ONLINE, account.getState());
+        Assert.assertEquals(1, ircd.getRegisteredCount());
+    }
+
+    @Test
+    public void testListDump() throws Exception {
+        startIrcd(false);
+        final int channelCount = 5000;
+        new IrcTrafficGenerator(ircd, SEED, channelCount, USER_COUNT, CHANNELS_PER_USER);
+        connect(false);
+        long start = System.nanoTime();
+        controller.listChannels(account);
+        spinUntil("LIST finished", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return account.getServer().getChannelsListedAt() != null;
+            }
+        });
+        Assert.assertEquals(channelCount, account.getServer().getChannelList().size());
+        System.out.printf("%s: listed %d channels in %d ms%n", PROJECT_NAME, channelCount,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    @Test
+    public void testNetsplitAndNickFlood() throws Exception {
+        startIrcd(false);
+        IrcTrafficGenerator generator = new IrcTrafficGenerator(ircd, SEED, CHANNEL_COUNT, USER_COUNT,
+                CHANNELS_PER_USER);
+        connect(false);
+        final List<AbstractIrcChannel> channels = joinAll(generator.getChannelNames());
+
+        long start = System.nanoTime();
+        List<String> split = generator.netsplit(USER_COUNT / 4);
+        spinUntil("netsplit processed", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return usersInSync(channels);
+            }
+        });
+        generator.netjoin(split);
+        spinUntil("netjoin processed", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return usersInSync(channels);
+            }
+        });
+        System.out.printf("%s: netsplit and netjoin of %d users processed in %d ms%n", PROJECT_NAME,
+                split.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        start = System.nanoTime();
+        generator.nickFlood(USER_COUNT);
+        spinUntil("nick flood processed", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return usersInSync(channels);
+            }
+        });
+        System.out.printf("%s: %d nick changes processed in %d ms%n", PROJECT_NAME, USER_COUNT,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    @Test
+    public void testPaste() throws Exception {
+        /* let the flood control not dominate the measurement */
+        controller.setFloodControlBurstBytes(1024 * 1024);
+        controller.setFloodControlBytesPerSecond(1024 * 1024);
+        startIrcd(false);
+        connect(false);
+        final AbstractIrcChannel channel = joinAll(new String[] { "#paste" }).get(0);
+
+        StringBuilder paste = new StringBuilder();
+        for (int i = 0; paste.length() < 64 * 1024; i++) {
+            paste.append("line ").append(i).append(" \u017elu\u0165ou\u010dk\u00fd k\u016f\u0148 \ud83d\ude00 ");
+            if (i % 7 == 6) {
+                paste.append('\n');
+            }
+        }
+        final int oldCount = channel.getLog().getMessageCount();
+        long start = System.nanoTime();
+        controller.postMessage(channel, paste.toString());
+        spinUntil("all chunks logged", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return channel.getLog().getMessageCount() > oldCount;
+            }
+        });
+        long elapsedNanos = System.nanoTime() - start;
+        List<ReceivedLine> received = ircd.getReceived("PRIVMSG");
+        Assert.assertEquals(channel.getLog().getMessageCount() - oldCount, received.size());
+        StringBuilder rejoined = new StringBuilder();
+        for (ReceivedLine line : received) {
+            Assert.assertTrue(line.getLine(), line.getLine().getBytes(StandardCharsets.UTF_8).length + 2 <= 512);
+            rejoined.append(line.getLine().substring(line.getLine().indexOf(" :") + 2));
+        }
+        /* the server is free to trim the trailing whitespace */
+        Assert.assertEquals(paste.toString().replaceAll("\\s", ""), rejoined.toString().replaceAll("\\s", ""));
+        System.out.printf("%s: pasted %d chars in %d lines in %d ms%n", PROJECT_NAME, paste.length(),
+                received.size(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+    }
+
+    @Test
+    public void testPing() throws Exception {
+        controller.setPingInterval(Duration.ofMillis(100));
+        startIrcd(false);
+        connect(false);
+        final IrcLatencyStats latencyStats = account.getLatencyStats();
+        /* the connection is idle after the registration, so the client should ping */
+        spinUntil("PONGs received", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return latencyStats.getPingRoundTripHistogram().getCount() >= 3;
+            }
+        });
+        Assert.assertTrue(latencyStats.getLagMillis() >= 0);
+        System.out.printf("%s: PING round trip %s%n", PROJECT_NAME, latencyStats.getPingRoundTrip());
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        startIrcd(false);
+        connect(false);
+        joinAll(new String[] { "#replay" });
+
+        StringBuilder log = new StringBuilder();
+        OffsetDateTime t = OffsetDateTime.now().minusHours(1);
+        final int messageCount = 1000;
+        for (int i = 0; i < messageCount; i++) {
+            String nick = "replayed" + (i % 7);
+            new PlainIrcMessage(0, 0, t.plusSeconds(i), new PlainIrcUser(nick, nick, FakeIrcd.HOST),
+                    "recorded message " + i, 1 + i % 7, MY_NICK, false, IrcMessageType.CHAT).append(log);
+        }
+        /* the system messages and own messages are skipped */
+        new PlainIrcMessage(0, 0, t, null, "a system message", 0, MY_NICK, false, IrcMessageType.SYSTEM)
+                .append(log);
+
+        final ByteArrayInputStream in = new ByteArrayInputStream(log.toString().getBytes(StandardCharsets.UTF_8));
+        final int[] sent = new int[1];
+        Thread replayer = new Thread("replay") {
+            @Override
+            public void run() {
+                try {
+                    /* 1000 seconds of recorded traffic replayed in one second */
+                    sent[0] = new IrcLogReplay(ircd, true).replay(in, "#replay", 1000);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        replayer.start();
+        spinUntil("all replayed messages received", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return stats.getCount() >= messageCount;
+            }
+        });
+        replayer.join();
+        Assert.assertEquals(messageCount, sent[0]);
+        System.out.printf("%s replay: %s%n", PROJECT_NAME, stats);
+    }
+
+    /**
+     * @return {@code true} if all given {@code channels} are joined and have
+     *         the same users as their {@link FakeChannel} counterparts
+     */
+    private boolean usersInSync(List<AbstractIrcChannel> channels) {
+        for (FakeChannel fakeChannel : ircd.getChannels()) {
+            for (AbstractIrcChannel channel : channels) {
+                if (channel.getName().equals(fakeChannel.getName())) {
+                    Set<String> expected;
+                    synchronized (ircd) {
+                        expected = new HashSet<String>(fakeChannel.getUsers());
+                    }
+                    if (!channel.isJoined()) {
+                        return false;
+                    }
+                    IrcChannelUser[] users = channel.getUsers();
+                    if (users.length != expected.size()) {
+                        return false;
+                    }
+                    for (IrcChannelUser user : users) {
+                        if (!expected.contains(user.getUser().getNick())) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.fake;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.swt.widgets.Display;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.l2x6.eircc.core.IrcController;
+import org.l2x6.eircc.core.client.IrcClient;
+import org.l2x6.eircc.core.client.IrcReconnectBackoff;
+import org.l2x6.eircc.core.client.TrafficLoggerFactory;
+import org.l2x6.eircc.core.client.fake.FakeIrcd.ReceivedLine;
+import org.l2x6.eircc.core.client.nio.AbstractIrcConnection;
+import org.l2x6.eircc.core.model.InitialIrcAccount;
+import org.l2x6.eircc.core.model.IrcAccount;
+import org.l2x6.eircc.core.model.IrcAccount.IrcAccountState;
+import org.l2x6.eircc.core.model.IrcChannel;
+import org.l2x6.eircc.core.model.IrcMessage;
+import org.l2x6.eircc.core.model.IrcModel;
+import org.l2x6.eircc.core.model.IrcNotificationLevel;
+import org.l2x6.eircc.core.model.IrcNotificationLevelProvider;
+import org.l2x6.eircc.core.model.PlainIrcMessage.IrcMessageType;
+import org.l2x6.eircc.core.model.resource.IrcRootResource;
+import org.l2x6.eircc.ui.editor.IrcDocumentProvider;
+import org.schwering.irc.lib.IRCConnection;
+import org.schwering.irc.lib.IRCExceptionHandler;
+import org.schwering.irc.lib.IRCTrafficLogger;
+
+/**
+ * Functional tests of {@link IrcClient} and {@link IrcController} against a
+ * {@link FakeIrcd}.
+ * <p>
+ * Needs the UI harness, see {@link IrcClientLoadTest}.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcClientTest {
+
+    private static final String MY_NICK = "tester";
+    private static final String PROJECT_NAME = IrcClientTest.class.getSimpleName();
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+
+    private static final TrafficLoggerFactory NO_TRAFFIC_LOGGING = new TrafficLoggerFactory() {
+        @Override
+        public IRCExceptionHandler getExceptionHandler(IrcAccount account) {
+            return new IRCExceptionHandler() {
+                @Override
+                public void exception(IRCConnection connection, Throwable e) {
+                    e.printStackTrace();
+                }
+            };
+        }
+
+        @Override
+        public IRCTrafficLogger getTrafficLogger(IrcAccount account) {
+            return null;
+        }
+    };
+
+    /**
+     * @param channel
+     * @return the chat messages in the log of the given {@code channel}
+     */
+    private static List<IrcMessage> chatMessages(IrcChannel channel) {
+        List<IrcMessage> result = new ArrayList<IrcMessage>();
+        for (IrcMessage m : channel.getLog()) {
+            if (m.getType() == IrcMessageType.CHAT) {
+                result.add(m);
+            }
+        }
+        return result;
+    }
+
+    private static void spinUntil(String description, BooleanSupplier condition) {
+        Display display = Display.getCurrent();
+        Assert.assertNotNull("Must run on the UI thread", display);
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                Assert.fail("Timed out waiting for " + description);
+            }
+            if (!display.readAndDispatch()) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    Assert.fail("Interrupted while waiting for " + description);
+                }
+            }
+        }
+    }
+
+    private IrcAccount account;
+    private IrcController controller;
+    private FakeIrcd ircd;
+    private IrcModel model;
+    private IProject project;
+
+    @After
+    public void after() throws IOException, CoreException {
+        if (controller != null) {
+            controller.dispose();
+        }
+        if (model != null) {
+            model.dispose();
+        }
+        if (ircd != null) {
+            ircd.close();
+        }
+        if (project != null) {
+            project.delete(IResource.ALWAYS_DELETE_PROJECT_CONTENT | IResource.FORCE, null);
+        }
+    }
+
+    @Before
+    public void before() throws Exception {
+        project = ResourcesPlugin.getWorkspace().getRoot().getProject(PROJECT_NAME);
+        if (project.exists()) {
+            project.delete(IResource.ALWAYS_DELETE_PROJECT_CONTENT | IResource.FORCE, null);
+        }
+        project.create(null);
+        project.open(null);
+
+        model = new IrcModel(NO_TRAFFIC_LOGGING, new IrcNotificationLevelProvider() {
+            @Override
+            public IrcNotificationLevel getNotificationLevel(IrcMessage message) {
+                return IrcNotificationLevel.NO_NOTIFICATION;
+            }
+        });
+        model.load(new IrcRootResource(project, IrcDocumentProvider.getInstance()));
+
+        controller = new IrcController();
+        controller.setCommandTimeout(Duration.ofSeconds(30));
+        controller.setPingInterval(Duration.ofMinutes(5));
+        controller.setReconnectEnabled(false);
+    }
+
+    private void connect() throws Exception {
+        InitialIrcAccount initialAccount = new InitialIrcAccount(model);
+        initialAccount.setLabel("fake");
+        initialAccount.setHost(ircd.getHost());
+        initialAccount.setPort(ircd.getPort());
+        initialAccount.setPreferedNick(MY_NICK);
+        initialAccount.setUsername(MY_NICK);
+        initialAccount.setName(MY_NICK);
+        account = new IrcAccount(initialAccount);
+        model.addAccount(account);
+        controller.connect(account);
+        spinUntil("registration", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return account.getState() == IrcAccountState.ONLINE && ircd.getRegisteredCount() == 1;
+            }
+        });
+    }
+
+    private IrcChannel join(String channelName) throws Exception {
+        final IrcChannel channel = account.createChannel(channelName);
+        account.addChannel(channel);
+        controller.joinChannels(account, Collections.singletonList(channel));
+        spinUntil(channelName + " joined", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return channel.isJoined();
+            }
+        });
+        return channel;
+    }
+
+    /**
+     * The capabilities are negotiated only by the {@link AbstractIrcConnection}s
+     * so the NIO switch must be on.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testChatHistory() throws Exception {
+        ircd = new FakeIrcd();
+        ircd.setCapabilities(AbstractIrcConnection.CAP_SERVER_TIME, IrcClient.CAP_BATCH, IrcClient.CAP_CHATHISTORY);
+        final Instant first = Instant.parse("2014-05-05T10:00:00.123Z");
+        final Instant second = Instant.parse("2014-05-05T10:05:00.456Z");
+        ircd.addHistory("#history", first, "alice", "missed one");
+        ircd.addHistory("#history", second, "bob", "missed two");
+        ircd.start();
+        controller.setNioEnabled(true);
+        connect();
+
+        List<ReceivedLine> caps = ircd.getReceived("CAP");
+        Assert.assertEquals("CAP LS 302", caps.get(0).getLine());
+        Assert.assertEquals("CAP REQ :server-time batch draft/chathistory", caps.get(1).getLine());
+        Assert.assertEquals("CAP END", caps.get(2).getLine());
+
+        final IrcChannel channel = join("#history");
+        spinUntil("the history backfilled", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return chatMessages(channel).size() == 2;
+            }
+        });
+        Assert.assertEquals("CHATHISTORY LATEST #history * 100", ircd.getReceived("CHATHISTORY").get(0).getLine());
+        List<IrcMessage> messages = chatMessages(channel);
+        Assert.assertEquals("alice", messages.get(0).getNick());
+        Assert.assertEquals("missed one", messages.get(0).getText());
+        Assert.assertEquals(first, messages.get(0).getArrivedAt().toInstant());
+        Assert.assertEquals("bob", messages.get(1).getNick());
+        Assert.assertEquals("missed two", messages.get(1).getText());
+        Assert.assertEquals(second, messages.get(1).getArrivedAt().toInstant());
+
+        /* the live messages are stamped with the server-time too */
+        final Instant live = Instant.parse("2014-05-05T10:10:00.789Z");
+        ircd.broadcast("@time=" + FakeIrcd.SERVER_TIME_FORMATTER.format(live) + " :carol!carol@" + FakeIrcd.HOST
+                + " PRIVMSG #history :live one");
+        spinUntil("the live message", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return chatMessages(channel).size() == 3;
+            }
+        });
+        IrcMessage m = chatMessages(channel).get(2);
+        Assert.assertEquals("live one", m.getText());
+        Assert.assertEquals(live, m.getArrivedAt().toInstant());
+    }
+
+    /**
+     * Drops the connection and makes the first two reconnect attempts fail.
+     * The third one must succeed after exponentially growing delays and the
+     * channels joined before the drop must be rejoined.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReconnect() throws Exception {
+        ircd = new FakeIrcd().start();
+        final List<Integer> attempts = new ArrayList<Integer>();
+        final List<Long> delays = new ArrayList<Long>();
+        final long initialDelay = 200;
+        controller.setReconnectEnabled(true);
+        controller.setReconnectBackoff(new IrcReconnectBackoff(Duration.ofMillis(initialDelay), Duration.ofSeconds(2),
+                Duration.ZERO, new Random(42)) {
+            @Override
+            public synchronized long schedule(int attempt, long nowMillis) {
+                long result = super.schedule(attempt, nowMillis);
+                attempts.add(attempt);
+                delays.add(result);
+                return result;
+            }
+        });
+        connect();
+        final IrcChannel a = join("#a");
+        final IrcChannel b = join("#b");
+        int joinsBefore = ircd.getReceived("JOIN").size();
+
+        ircd.rejectNext(2);
+        long droppedAt = System.nanoTime();
+        ircd.dropAll();
+        spinUntil("reconnected and rejoined", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return controller.getReconnectCount() == 1 && account.getState() == IrcAccountState.ONLINE
+                        && a.isJoined() && b.isJoined();
+            }
+        });
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - droppedAt);
+
+        /* backoff */
+        Assert.assertEquals(Arrays.asList(0, 1, 2), attempts);
+        Assert.assertEquals(3, controller.getReconnectAttemptCount());
+        long total = 0;
+        for (int i = 0; i < delays.size(); i++) {
+            long delay = delays.get(i);
+            Assert.assertTrue("Attempt " + i + " delayed by " + delay + " ms only", delay >= (initialDelay << i) / 2);
+            total += delay;
+        }
+        Assert.assertTrue(delays.get(2) > delays.get(0));
+        Assert.assertTrue("Reconnected after " + elapsedMillis + " ms, expected at least " + total + " ms",
+                elapsedMillis >= total);
+
+        /* rejoin */
+        Assert.assertEquals(1, ircd.getRegisteredCount());
+        List<ReceivedLine> joins = ircd.getReceived("JOIN");
+        StringBuilder rejoined = new StringBuilder();
+        for (ReceivedLine join : joins.subList(joinsBefore, joins.size())) {
+            rejoined.append(join.getLine()).append('\n');
+        }
+        Assert.assertTrue(rejoined.toString(), rejoined.indexOf("#a") >= 0);
+        Assert.assertTrue(rejoined.toString(), rejoined.indexOf("#b") >= 0);
+    }
+
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.fake;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.swt.widgets.Display;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.l2x6.eircc.core.IrcController;
+import org.l2x6.eircc.core.client.TrafficLoggerFactory;
+import org.l2x6.eircc.core.model.AbstractIrcChannel;
+import org.l2x6.eircc.core.model.InitialIrcAccount;
+import org.l2x6.eircc.core.model.IrcAccount;
+import org.l2x6.eircc.core.model.IrcAccount.IrcAccountState;
+import org.l2x6.eircc.core.model.IrcChannel;
+import org.l2x6.eircc.core.model.IrcMessage;
+import org.l2x6.eircc.core.model.IrcModel;
+import org.l2x6.eircc.core.model.IrcNotificationLevel;
+import org.l2x6.eircc.core.model.IrcNotificationLevelProvider;
+import org.l2x6.eircc.core.model.resource.IrcRootResource;
+import org.l2x6.eircc.ui.editor.IrcDocumentProvider;
+import org.schwering.irc.lib.IRCConnection;
+import org.schwering.irc.lib.IRCExceptionHandler;
+import org.schwering.irc.lib.IRCTrafficLogger;
+
+/**
+ * Sends files via DCC between two accounts connected to a {@link FakeIrcd}
+ * that relays the CTCP messages between them.
+ * <p>
+ * Needs the UI harness, see {@link IrcClientLoadTest}.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcDccTest {
+
+    private static final int FILE_SIZE = 3 * 1024 * 1024 + 7;
+    private static final String PROJECT_NAME = IrcDccTest.class.getSimpleName();
+    private static final String RECEIVER = "bob";
+    private static final String SENDER = "alice";
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+
+    private static final TrafficLoggerFactory NO_TRAFFIC_LOGGING = new TrafficLoggerFactory() {
+        @Override
+        public IRCExceptionHandler getExceptionHandler(IrcAccount account) {
+            return new IRCExceptionHandler() {
+                @Override
+                public void exception(IRCConnection connection, Throwable e) {
+                    e.printStackTrace();
+                }
+            };
+        }
+
+        @Override
+        public IRCTrafficLogger getTrafficLogger(IrcAccount account) {
+            return null;
+        }
+    };
+
+    private static void spinUntil(String description, BooleanSupplier condition) {
+        Display display = Display.getCurrent();
+        Assert.assertNotNull("Must run on the UI thread", display);
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                Assert.fail("Timed out waiting for " + description);
+            }
+            if (!display.readAndDispatch()) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    Assert.fail("Interrupted while waiting for " + description);
+                }
+            }
+        }
+    }
+
+    private IrcController controller;
+    private byte[] data;
+    private Path dir;
+    private Path downloadDir;
+    private IrcAccount from;
+    private AbstractIrcChannel fromChannel;
+    private FakeIrcd ircd;
+    private IrcModel model;
+    private IProject project;
+    private Path source;
+    private IrcAccount to;
+
+    @After
+    public void after() throws IOException, CoreException {
+        if (controller != null) {
+            controller.dispose();
+        }
+        if (model != null) {
+            model.dispose();
+        }
+        if (ircd != null) {
+            ircd.close();
+        }
+        if (project != null) {
+            project.delete(IResource.ALWAYS_DELETE_PROJECT_CONTENT | IResource.FORCE, null);
+        }
+        if (dir != null) {
+            delete(dir);
+        }
+    }
+
+    @Before
+    public void before() throws Exception {
+        project = ResourcesPlugin.getWorkspace().getRoot().getProject(PROJECT_NAME);
+        if (project.exists()) {
+            project.delete(IResource.ALWAYS_DELETE_PROJECT_CONTENT | IResource.FORCE, null);
+        }
+        project.create(null);
+        project.open(null);
+
+        model = new IrcModel(NO_TRAFFIC_LOGGING, new IrcNotificationLevelProvider() {
+            @Override
+            public IrcNotificationLevel getNotificationLevel(IrcMessage message) {
+                return IrcNotificationLevel.NO_NOTIFICATION;
+            }
+        });
+        model.load(new IrcRootResource(project, IrcDocumentProvider.getInstance()));
+
+        dir = Files.createTempDirectory(PROJECT_NAME);
+        downloadDir = dir.resolve("downloads");
+        data = new byte[FILE_SIZE];
+        new Random(FILE_SIZE).nextBytes(data);
+        source = Files.write(dir.resolve("file with spaces.bin"), data);
+
+        controller = new IrcController();
+        controller.setCommandTimeout(Duration.ofSeconds(30));
+        controller.setPingInterval(Duration.ofMinutes(5));
+        controller.setReconnectEnabled(false);
+        controller.getDccManager().setDownloadDirectory(downloadDir);
+
+        ircd = new FakeIrcd(null, FakeIrcd.DEFAULT_ISUPPORT).start();
+        from = connect(SENDER);
+        to = connect(RECEIVER);
+        spinUntil("registration", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return from.getState() == IrcAccountState.ONLINE && to.getState() == IrcAccountState.ONLINE
+                        && ircd.getRegisteredCount() == 2;
+            }
+        });
+        IrcChannel channel = from.createChannel("#dcc");
+        from.addChannel(channel);
+        fromChannel = channel;
+    }
+
+    private IrcAccount connect(String nick) throws Exception {
+        InitialIrcAccount initialAccount = new InitialIrcAccount(model);
+        initialAccount.setLabel(nick);
+        initialAccount.setHost(ircd.getHost());
+        initialAccount.setPort(ircd.getPort());
+        initialAccount.setPreferedNick(nick);
+        initialAccount.setUsername(nick);
+        initialAccount.setName(nick);
+        IrcAccount account = new IrcAccount(initialAccount);
+        model.addAccount(account);
+        controller.connect(account);
+        return account;
+    }
+
+    private void delete(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            for (Path child : Files.newDirectoryStream(path)) {
+                delete(child);
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * @return the private channel of {@link #to} with {@link #from} once the
+     *         offer has arrived
+     */
+    private AbstractIrcChannel awaitOffer() {
+        spinUntil("the offer", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                /* one for the sender and one for the receiver */
+                return findP2pChannel(to) != null && controller.getDccManager().getTransfers().size() == 2;
+            }
+        });
+        return findP2pChannel(to);
+    }
+
+    private void awaitTransferred() throws IOException {
+        awaitTransferred(downloadDir.resolve(source.getFileName().toString()));
+    }
+
+    private void awaitTransferred(Path target) throws IOException {
+        spinUntil("the transfer", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return controller.getDccManager().getTransfers().isEmpty();
+            }
+        });
+        Assert.assertTrue(Arrays.equals(data, Files.readAllBytes(target)));
+    }
+
+    private static AbstractIrcChannel findP2pChannel(IrcAccount account) {
+        for (AbstractIrcChannel channel : account.getChannels()) {
+            if (channel.isP2p()) {
+                return channel;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testActive() throws Exception {
+        controller.postMessage(fromChannel, "/dcc send " + RECEIVER + " " + source);
+        AbstractIrcChannel p2p = awaitOffer();
+        controller.postMessage(p2p, "/dcc get " + SENDER);
+        awaitTransferred();
+    }
+
+    /**
+     * A file of the same name that is not shorter than the offered one must
+     * be kept intact and the received file must get a unique name.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExistingFile() throws Exception {
+        Files.createDirectories(downloadDir);
+        byte[] mine = new byte[FILE_SIZE + 1];
+        Arrays.fill(mine, (byte) 42);
+        Path existing = Files.write(downloadDir.resolve(source.getFileName().toString()), mine);
+        Files.write(downloadDir.resolve("file with spaces (1).bin"), mine);
+        controller.postMessage(fromChannel, "/dcc send " + RECEIVER + " " + source);
+        AbstractIrcChannel p2p = awaitOffer();
+        controller.postMessage(p2p, "/dcc get " + SENDER);
+        awaitTransferred(downloadDir.resolve("file with spaces (2).bin"));
+        Assert.assertTrue(Arrays.equals(mine, Files.readAllBytes(existing)));
+    }
+
+    @Test
+    public void testPassive() throws Exception {
+        controller.postMessage(fromChannel, "/dcc psend " + RECEIVER + " " + source);
+        AbstractIrcChannel p2p = awaitOffer();
+        controller.postMessage(p2p, "/dcc get " + SENDER + " " + source.getFileName());
+        awaitTransferred();
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        Files.createDirectories(downloadDir);
+        Files.write(downloadDir.resolve(source.getFileName().toString()), Arrays.copyOf(data, FILE_SIZE / 3));
+        controller.postMessage(fromChannel, "/dcc send " + RECEIVER + " " + source);
+        AbstractIrcChannel p2p = awaitOffer();
+        controller.postMessage(p2p, "/dcc get " + SENDER);
+        awaitTransferred();
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.fake;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the end-to-end latencies of the messages sent by
+ * {@link IrcTrafficGenerator} and reports the throughput. The generator
+ * prefixes each message text with {@link #stamp(long)}, the receiving side
+ * passes the text to {@link #received(String, long)}. Both sides run in the
+ * same JVM, so that {@link System#nanoTime()} is comparable.
+ * <p>
+ * Thread safe.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcLoadStats {
+
+    private static final String STAMP_PREFIX = "t=";
+
+    /**
+     * @param text
+     * @return the {@link System#nanoTime()} stored by {@link #stamp(long)} or
+     *         {@code -1} if the {@code text} is not stamped
+     */
+    public static long parseStamp(String text) {
+        if (!text.startsWith(STAMP_PREFIX)) {
+            return -1;
+        }
+        int end = text.indexOf(' ', STAMP_PREFIX.length());
+        try {
+            return Long.parseLong(end >= 0 ? text.substring(STAMP_PREFIX.length(), end) : text
+                    .substring(STAMP_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param nanos
+     *            a {@link System#nanoTime()}
+     * @return a prefix for message texts that {@link #parseStamp(String)} can
+     *         read
+     */
+    public static String stamp(long nanos) {
+        return STAMP_PREFIX + nanos + " ";
+    }
+
+    private long firstNanos = -1;
+    private long lastNanos = -1;
+    private long[] latencies = new long[1024];
+    private int size = 0;
+
+    /**
+     * @return the number of stamped messages received so far
+     */
+    public synchronized int getCount() {
+        return size;
+    }
+
+    /**
+     * @param percentile
+     *            in {@code [0, 100]}
+     * @return the latency below which the given {@code percentile} of the
+     *         received messages fall, in nanoseconds
+     */
+    public synchronized long getLatencyPercentile(double percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+
+    /**
+     * @return the received messages per second between the first and the last
+     *         one
+     */
+    public synchronized double getThroughput() {
+        if (size < 2 || lastNanos == firstNanos) {
+            return 0;
+        }
+        return (size - 1) * (double) TimeUnit.SECONDS.toNanos(1) / (lastNanos - firstNanos);
+    }
+
+    /**
+     * Records the latency of the given message text if it is stamped.
+     *
+     * @param text
+     * @param nowNanos
+     *            the current {@link System#nanoTime()}
+     * @return {@code true} if the {@code text} was stamped
+     */
+    public synchronized boolean received(String text, long nowNanos) {
+        long sentAt = parseStamp(text);
+        if (sentAt < 0) {
+            return false;
+        }
+        if (size == latencies.length) {
+            latencies = Arrays.copyOf(latencies, size * 2);
+        }
+        latencies[size++] = nowNanos - sentAt;
+        if (firstNanos < 0) {
+            firstNanos = nowNanos;
+        }
+        lastNanos = nowNanos;
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d messages, %.0f msg/s, latency p50 %.2f ms, p99 %.2f ms, max %.2f ms", size,
+                getThroughput(), getLatencyPercentile(50) / 1e6, getLatencyPercentile(99) / 1e6,
+                getLatencyPercentile(100) / 1e6);
+    }
+
+}
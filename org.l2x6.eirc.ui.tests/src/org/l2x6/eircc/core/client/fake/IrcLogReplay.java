@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.fake;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.concurrent.locks.LockSupport;
+
+import org.l2x6.eircc.core.model.PlainIrcMessage;
+import org.l2x6.eircc.core.model.PlainIrcMessage.IrcMessageType;
+import org.l2x6.eircc.core.util.IrcLogReader;
+import org.l2x6.eircc.core.util.IrcLogReader.IrcLogReaderException;
+
+/**
+ * Feeds the chat messages of a recorded {@code .irc.log} file back to the
+ * clients of a {@link FakeIrcd} as live traffic, keeping the original pauses
+ * between the messages scaled by a speed factor. The messages sent by the
+ * owner of the log and the system messages are skipped.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcLogReplay {
+
+    private final FakeIrcd ircd;
+    private final boolean stamped;
+
+    /**
+     * @param ircd
+     * @param stamped
+     *            if {@code true} the texts get prefixed with
+     *            {@link IrcLoadStats#stamp(long)} so that the latency can be
+     *            measured
+     */
+    public IrcLogReplay(FakeIrcd ircd, boolean stamped) {
+        super();
+        this.ircd = ircd;
+        this.stamped = stamped;
+    }
+
+    /**
+     * @param in
+     *            the {@code .irc.log} content
+     * @param channelName
+     *            the channel to send the messages to
+     * @param speed
+     *            {@code 1.0} keeps the original pauses, {@code 10.0} is ten
+     *            times faster, {@code 0} sends without any pauses
+     * @return the number of messages sent
+     * @throws IOException
+     * @throws IrcLogReaderException
+     */
+    public int replay(InputStream in, String channelName, double speed) throws IOException, IrcLogReaderException {
+        int count = 0;
+        OffsetDateTime firstArrivedAt = null;
+        long startNanos = System.nanoTime();
+        try (IrcLogReader reader = new IrcLogReader(in, channelName, false)) {
+            while (reader.hasNext()) {
+                PlainIrcMessage message = reader.next();
+                if (message.getType() != IrcMessageType.CHAT || message.isFromMe() || message.getNick() == null) {
+                    continue;
+                }
+                if (firstArrivedAt == null) {
+                    firstArrivedAt = message.getArrivedAt();
+                } else if (speed > 0) {
+                    long offsetNanos = (long) (Duration.between(firstArrivedAt, message.getArrivedAt()).toNanos() / speed);
+                    long due = startNanos + offsetNanos;
+                    long now;
+                    while ((now = System.nanoTime()) < due) {
+                        LockSupport.parkNanos(due - now);
+                    }
+                }
+                String nick = message.getNick();
+                String text = message.getText().replace('\n', ' ');
+                if (stamped) {
+                    text = IrcLoadStats.stamp(System.nanoTime()) + text;
+                }
+                ircd.broadcast(":" + nick + "!" + nick + "@" + FakeIrcd.HOST + " PRIVMSG " + channelName + " :" + text);
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
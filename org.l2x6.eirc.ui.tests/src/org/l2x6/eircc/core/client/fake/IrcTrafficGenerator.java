@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.fake;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulates the users of a {@link FakeIrcd}: populates {@code channelCount}
+ * channels with {@code userCount} users and then produces chat messages at a
+ * given rate, netsplits, netjoins and nick floods. The chat messages are
+ * stamped by {@link IrcLoadStats#stamp(long)} so that the receiving side can
+ * measure the end-to-end latency.
+ * <p>
+ * The same {@code seed} produces the same traffic. Not thread safe.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcTrafficGenerator {
+
+    public static final String CHANNEL_PREFIX = "#load-";
+    public static final String NETSPLIT_REASON = "irc1.fake.example.org irc2.fake.example.org";
+    public static final String USER_PREFIX = "user";
+
+    private final String[] channelNames;
+    /** User nicks by channel name */
+    private final Map<String, List<String>> channelUsers = new LinkedHashMap<String, List<String>>();
+    private final FakeIrcd ircd;
+    private final Random random;
+    /** Channel names by user nick */
+    private final Map<String, List<String>> userChannels = new LinkedHashMap<String, List<String>>();
+
+    /**
+     * @param ircd
+     * @param seed
+     * @param channelCount
+     * @param userCount
+     * @param channelsPerUser
+     *            the number of channels each user is in
+     */
+    public IrcTrafficGenerator(FakeIrcd ircd, long seed, int channelCount, int userCount, int channelsPerUser) {
+        super();
+        this.ircd = ircd;
+        this.random = new Random(seed);
+        this.channelNames = new String[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            channelNames[i] = CHANNEL_PREFIX + i;
+            channelUsers.put(channelNames[i], new ArrayList<String>());
+        }
+        for (int u = 0; u < userCount; u++) {
+            String nick = USER_PREFIX + u;
+            List<String> channels = new ArrayList<String>(channelsPerUser);
+            for (int c = 0; c < Math.min(channelsPerUser, channelCount); c++) {
+                String channelName;
+                do {
+                    channelName = channelNames[random.nextInt(channelCount)];
+                } while (channels.contains(channelName));
+                channels.add(channelName);
+                channelUsers.get(channelName).add(nick);
+            }
+            userChannels.put(nick, channels);
+        }
+        for (Map.Entry<String, List<String>> en : channelUsers.entrySet()) {
+            ircd.addChannel(en.getKey(), "Load test channel " + en.getKey(), en.getValue());
+        }
+    }
+
+    private static String mask(String nick) {
+        return nick + "!" + nick + "@" + FakeIrcd.HOST;
+    }
+
+    /**
+     * Sends {@code messageCount} stamped messages from random users to their
+     * channels.
+     *
+     * @param messageCount
+     * @param messagesPerSecond
+     *            the rate or {@code 0} to send as fast as possible
+     */
+    public void chat(int messageCount, int messagesPerSecond) {
+        long intervalNanos = messagesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / messagesPerSecond : 0;
+        long start = System.nanoTime();
+        String[] channels = getPopulatedChannelNames();
+        for (int i = 0; i < messageCount; i++) {
+            if (intervalNanos > 0) {
+                long due = start + i * intervalNanos;
+                long now;
+                while ((now = System.nanoTime()) < due) {
+                    LockSupport.parkNanos(due - now);
+                }
+            }
+            String channelName = channels[random.nextInt(channels.length)];
+            List<String> users = channelUsers.get(channelName);
+            String nick = users.get(random.nextInt(users.size()));
+            ircd.broadcast(":" + mask(nick) + " PRIVMSG " + channelName + " :"
+                    + IrcLoadStats.stamp(System.nanoTime()) + "message " + i);
+        }
+    }
+
+    public String[] getChannelNames() {
+        return channelNames;
+    }
+
+    private String[] getPopulatedChannelNames() {
+        List<String> result = new ArrayList<String>(channelNames.length);
+        for (String channelName : channelNames) {
+            if (!channelUsers.get(channelName).isEmpty()) {
+                result.add(channelName);
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * Lets the given users rejoin their channels after a
+     * {@link #netsplit(int)}.
+     *
+     * @param nicks
+     */
+    public void netjoin(List<String> nicks) {
+        for (String nick : nicks) {
+            for (String channelName : userChannels.get(nick)) {
+                channelUsers.get(channelName).add(nick);
+                ircd.addUser(channelName, nick);
+                ircd.broadcast(":" + mask(nick) + " JOIN " + channelName);
+            }
+        }
+    }
+
+    /**
+     * Lets {@code count} random users quit with the typical netsplit reason.
+     *
+     * @param count
+     * @return the nicks of the users who have quit
+     */
+    public List<String> netsplit(int count) {
+        List<String> candidates = new ArrayList<String>(userChannels.keySet());
+        List<String> result = new ArrayList<String>(count);
+        for (int i = 0; i < count && !candidates.isEmpty(); i++) {
+            String nick = candidates.remove(random.nextInt(candidates.size()));
+            for (String channelName : userChannels.get(nick)) {
+                channelUsers.get(channelName).remove(nick);
+            }
+            ircd.removeUser(nick);
+            ircd.broadcast(":" + mask(nick) + " QUIT :" + NETSPLIT_REASON);
+            result.add(nick);
+        }
+        return result;
+    }
+
+    /**
+     * Lets {@code count} random users change their nicks, each by appending
+     * {@code _}.
+     *
+     * @param count
+     */
+    public void nickFlood(int count) {
+        List<String> nicks = new ArrayList<String>(userChannels.keySet());
+        for (int i = 0; i < count; i++) {
+            String oldNick = nicks.get(random.nextInt(nicks.size()));
+            String newNick = oldNick + "_";
+            List<String> channels = userChannels.remove(oldNick);
+            userChannels.put(newNick, channels);
+            for (String channelName : channels) {
+                List<String> users = channelUsers.get(channelName);
+                users.set(users.indexOf(oldNick), newNick);
+            }
+            nicks.set(nicks.indexOf(oldNick), newNick);
+            ircd.renameUser(oldNick, newNick);
+            ircd.broadcast(":" + mask(oldNick) + " NICK :" + newNick);
+        }
+    }
+
+}
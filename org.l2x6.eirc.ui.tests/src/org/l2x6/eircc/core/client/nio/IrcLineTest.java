@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.nio;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.schwering.irc.lib.util.IRCParser;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcLineTest {
+
+    /** A sample of real world traffic */
+    private static final String[] CORPUS = new String[] {
+            ":irc.example.net 001 joe :Welcome to the Example IRC Network joe!~joe@host.example.com",
+            ":irc.example.net 005 joe CHANTYPES=# EXCEPTS INVEX CHANMODES=eIbq,k,flj,CFLMPQScgimnprstz CHANLIMIT=#:120 PREFIX=(ov)@+ MAXLIST=bqeI:100 MODES=4 NETWORK=example :are supported by this server",
+            ":irc.example.net 353 joe = #eircc :joe @ppalaga +bob alice",
+            ":irc.example.net 366 joe #eircc :End of /NAMES list.",
+            ":irc.example.net 332 joe #eircc :The topic with a \u0002bold\u0002 and \u000304,12colored\u0003 word",
+            ":ppalaga!~ppalaga@redhat/ppalaga PRIVMSG #eircc :Hello world",
+            ":bob!bob@192.0.2.1 PRIVMSG joe :\u0001ACTION waves\u0001",
+            ":bob!bob@192.0.2.1 PRIVMSG #eircc ::-) smiley",
+            ":alice!~alice@gateway/web/irccloud.com/x-abc JOIN #eircc",
+            ":alice!~alice@gateway/web/irccloud.com/x-abc JOIN :#eircc",
+            ":alice!~alice@gateway/web/irccloud.com/x-abc PART #eircc",
+            ":alice!~alice@gateway/web/irccloud.com/x-abc PART #eircc :Leaving",
+            ":alice!~alice@gateway/web/irccloud.com/x-abc QUIT :Quit: Connection closed",
+            ":bob!bob@192.0.2.1 NICK :bobby",
+            ":ChanServ!ChanServ@services. MODE #eircc +o ppalaga",
+            ":ChanServ!ChanServ@services. MODE #eircc +ov ppalaga bob",
+            ":joe MODE joe :+i",
+            ":ppalaga!~ppalaga@redhat/ppalaga KICK #eircc bob :Behave",
+            ":ppalaga!~ppalaga@redhat/ppalaga TOPIC #eircc :New topic",
+            ":NickServ!NickServ@services. NOTICE joe :This nickname is registered.",
+            "PING :irc.example.net",
+            "ERROR :Closing Link: 192.0.2.2 (Quit: joe)",
+            ":irc.example.net 433 * joe :Nickname is already in use.",
+            ":irc.example.net CAP * LS :multi-prefix sasl server-time",
+            ":irc.example.net 322 joe #eircc 42 :[+nt] The topic" };
+
+    private static void assertSameAsIrclib(String line, boolean stripColors) {
+        IRCParser expected = new IRCParser(line, stripColors);
+        IrcLine actual = new IrcLine(stripColors).parse(line);
+        Assert.assertEquals(line, expected.getPrefix(), actual.getPrefix());
+        Assert.assertEquals(line, expected.getCommand(), actual.getCommand());
+        Assert.assertEquals(line, expected.getMiddle(), actual.getMiddle());
+        Assert.assertEquals(line, expected.getTrailing(), actual.getTrailing());
+        Assert.assertEquals(line, expected.getNick(), actual.getNick());
+        Assert.assertEquals(line, expected.getUsername(), actual.getUsername());
+        Assert.assertEquals(line, expected.getHost(), actual.getHost());
+        Assert.assertEquals(line, expected.getParameterCount(), actual.getParamCount());
+        for (int i = 0; i < actual.getParamCount(); i++) {
+            Assert.assertEquals(line, expected.getParameter(i + 1), actual.getParam(i));
+        }
+    }
+
+    @Test
+    public void testCorpusSameAsIrclib() {
+        for (String line : CORPUS) {
+            assertSameAsIrclib(line, false);
+            assertSameAsIrclib(line, true);
+        }
+    }
+
+    @Test
+    public void testNumeric() {
+        IrcLine line = new IrcLine(false);
+        Assert.assertEquals(1, line.parse(":irc.example.net 001 joe :Welcome").getNumeric());
+        Assert.assertEquals(-1, line.parse(":irc.example.net NOTICE joe :Hi").getNumeric());
+        Assert.assertTrue(line.isCommand("notice"));
+        Assert.assertFalse(line.isCommand("NOTICES"));
+    }
+
+    @Test
+    public void testReuseWithStringBuilder() {
+        StringBuilder buffer = new StringBuilder(":a!b@c PRIVMSG #x :one two");
+        IrcLine line = new IrcLine(false).parse(buffer);
+        Assert.assertEquals("one two", line.getTrailing());
+        buffer.setLength(0);
+        buffer.append("PING :server");
+        line.parse(buffer);
+        Assert.assertEquals("", line.getPrefix());
+        Assert.assertNull(line.getNick());
+        Assert.assertEquals("PING", line.getCommand());
+        Assert.assertEquals(1, line.getParamCount());
+        Assert.assertEquals("server", line.getTrailing());
+        Assert.assertEquals(0, line.getTagCount());
+    }
+
+    @Test
+    public void testTags() {
+        IrcLine line = new IrcLine(false)
+                .parse("@time=2014-11-09T12:34:56.789Z;account=bob;+draft/reply;msgid=a\\:b\\sc\\\\d\\ :bob!bob@192.0.2.1 PRIVMSG #eircc :hi");
+        Assert.assertEquals(4, line.getTagCount());
+        Assert.assertEquals("time", line.getTagKey(0));
+        Assert.assertEquals("2014-11-09T12:34:56.789Z", line.getTagValue("time"));
+        Assert.assertEquals("bob", line.getTagValue("account"));
+        Assert.assertEquals("", line.getTagValue("+draft/reply"));
+        Assert.assertEquals("a;b c\\d", line.getTagValue("msgid"));
+        Assert.assertNull(line.getTagValue("batch"));
+        Assert.assertEquals("bob", line.getNick());
+        Assert.assertEquals("PRIVMSG", line.getCommand());
+        Assert.assertEquals("#eircc", line.getParam(0));
+        Assert.assertEquals("hi", line.getTrailing());
+        Assert.assertTrue(line.hasTrailing());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoCommand() {
+        new IrcLine(false).parse(":prefix.only");
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.nio;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.l2x6.eircc.core.client.fake.FakeIrcd;
+import org.l2x6.eircc.core.client.fake.FakeIrcd.ReceivedLine;
+import org.schwering.irc.lib.IRCConfigBuilder;
+import org.schwering.irc.lib.IRCConnection;
+import org.schwering.irc.lib.IRCEventAdapter;
+import org.schwering.irc.lib.IRCExceptionHandler;
+import org.schwering.irc.lib.IRCUser;
+import org.schwering.irc.lib.impl.DefaultIRCSSLSupport;
+
+/**
+ * Drives a {@link NioIrcConnection} against a {@link FakeIrcd} through the
+ * whole lifecycle: connect, register, send, receive and close.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class NioIrcConnectionTest {
+
+    private static final String MY_NICK = "niotester";
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private static void waitUntil(String description, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                Assert.fail("Timed out waiting for " + description);
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private final List<Throwable> exceptions = new CopyOnWriteArrayList<Throwable>();
+    private FakeIrcd ircd;
+    private IrcSelectorLoop loop;
+
+    @After
+    public void after() throws IOException {
+        if (loop != null) {
+            loop.dispose();
+        }
+        if (ircd != null) {
+            ircd.close();
+        }
+    }
+
+    private void roundTrip(boolean ssl) throws Exception {
+        ircd = new FakeIrcd(ssl ? FakeIrcd.createSslContext() : null, FakeIrcd.DEFAULT_ISUPPORT).start();
+        loop = new IrcSelectorLoop();
+
+        IRCConfigBuilder builder = IRCConfigBuilder.newBuilder().host(ircd.getHost()).port(ircd.getPort())
+                .nick(MY_NICK).username(MY_NICK).realname(MY_NICK)
+                .exceptionHandler(new IRCExceptionHandler() {
+                    @Override
+                    public void exception(IRCConnection connection, Throwable e) {
+                        exceptions.add(e);
+                    }
+                });
+        if (ssl) {
+            builder.sslSupport(DefaultIRCSSLSupport.INSECURE);
+        }
+        final NioIrcConnection connection = new NioIrcConnection(loop, builder.build());
+        connection.setRequestedCapabilities(Collections.singleton(AbstractIrcConnection.CAP_SERVER_TIME));
+
+        final CountDownLatch registered = new CountDownLatch(1);
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final BlockingQueue<String> privmsgs = new LinkedBlockingQueue<String>();
+        connection.addIRCEventListener(new IRCEventAdapter() {
+            @Override
+            public void onDisconnected() {
+                disconnected.countDown();
+            }
+
+            @Override
+            public void onPrivmsg(String target, IRCUser user, String msg) {
+                privmsgs.add(user.getNick() + " " + target + " " + msg);
+            }
+
+            @Override
+            public void onRegistered() {
+                registered.countDown();
+            }
+        });
+
+        connection.connect();
+        Assert.assertTrue("Not registered", registered.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+        Assert.assertTrue(connection.isConnected());
+        Assert.assertEquals(1, loop.getConnectionCount());
+
+        /* FakeIrcd offers no capabilities, so the negotiation ends right after LS */
+        waitUntil("CAP END", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return ircd.getReceived("CAP").size() == 2;
+            }
+        });
+        List<ReceivedLine> caps = ircd.getReceived("CAP");
+        Assert.assertEquals("CAP LS 302", caps.get(0).getLine());
+        Assert.assertEquals("CAP END", caps.get(1).getLine());
+        Assert.assertFalse(connection.isCapabilityEnabled(AbstractIrcConnection.CAP_SERVER_TIME));
+
+        /* send */
+        connection.doPrivmsg("#nio", "hello");
+        connection.doPrivmsg("peer", "příliš 🙂");
+        waitUntil("PRIVMSGs on the server", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return ircd.getReceived("PRIVMSG").size() == 2;
+            }
+        });
+        List<ReceivedLine> sent = ircd.getReceived("PRIVMSG");
+        Assert.assertEquals("PRIVMSG #nio :hello", sent.get(0).getLine());
+        Assert.assertEquals("PRIVMSG peer :příliš 🙂", sent.get(1).getLine());
+
+        /* receive, incl. multi-byte characters */
+        ircd.send(MY_NICK, ":peer!peer@" + FakeIrcd.HOST + " PRIVMSG " + MY_NICK + " :hi there");
+        ircd.send(MY_NICK, ":peer!peer@" + FakeIrcd.HOST + " PRIVMSG #nio :čau 🙂");
+        Assert.assertEquals("peer " + MY_NICK + " hi there", privmsgs.poll(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+        Assert.assertEquals("peer #nio čau 🙂", privmsgs.poll(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+
+        /* close */
+        connection.close();
+        Assert.assertTrue("Not disconnected", disconnected.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+        Assert.assertFalse(connection.isConnected());
+        waitUntil("the socket closed on both ends", new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return loop.getConnectionCount() == 0 && ircd.getRegisteredCount() == 0;
+            }
+        });
+        /* sending after close is a no-op */
+        connection.doPrivmsg("#nio", "too late");
+        Assert.assertEquals(2, ircd.getReceived("PRIVMSG").size());
+        Assert.assertEquals(Collections.emptyList(), exceptions);
+    }
+
+    @Test
+    public void testPlain() throws Exception {
+        roundTrip(false);
+    }
+
+    @Test
+    public void testTls() throws Exception {
+        roundTrip(true);
+    }
+
+}
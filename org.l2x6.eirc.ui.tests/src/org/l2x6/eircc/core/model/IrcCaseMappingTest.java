@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcCaseMappingTest {
+
+    @Test
+    public void testComparator() {
+        Comparator<String> rfc1459 = IrcCaseMapping.RFC1459.getComparator();
+        Assert.assertEquals(0, rfc1459.compare("Joe[m]", "joe{M}"));
+        Assert.assertTrue(rfc1459.compare("ann", "Joe") < 0);
+        Assert.assertTrue(IrcCaseMapping.ASCII.getComparator().compare("Joe[m]", "joe{M}") < 0);
+
+        Map<String, String> users = new TreeMap<String, String>(rfc1459);
+        users.put("Joe[m]", "joe");
+        Assert.assertTrue(users.containsKey("JOE{m}"));
+        Assert.assertEquals("joe", users.remove("joe{M}"));
+    }
+
+    @Test
+    public void testForToken() {
+        Assert.assertEquals(IrcCaseMapping.ASCII, IrcCaseMapping.forToken("ascii"));
+        Assert.assertEquals(IrcCaseMapping.RFC1459, IrcCaseMapping.forToken("RFC1459"));
+        Assert.assertEquals(IrcCaseMapping.STRICT_RFC1459, IrcCaseMapping.forToken("strict-rfc1459"));
+        Assert.assertEquals(IrcCaseMapping.DEFAULT, IrcCaseMapping.forToken("rfc7613"));
+    }
+
+    @Test
+    public void testToLowerCase() {
+        String lower = "joe_{away}|~";
+        Assert.assertSame(lower, IrcCaseMapping.ASCII.toLowerCase(lower));
+        Assert.assertSame(lower, IrcCaseMapping.RFC1459.toLowerCase(lower));
+        Assert.assertEquals("joe~", IrcCaseMapping.RFC1459.toLowerCase("joe^"));
+
+        Assert.assertEquals("joe_[away]\\^", IrcCaseMapping.ASCII.toLowerCase("JOE_[Away]\\^"));
+        Assert.assertEquals("joe_{away}|~", IrcCaseMapping.RFC1459.toLowerCase("JOE_[Away]\\^"));
+        Assert.assertEquals("joe_{away}|^", IrcCaseMapping.STRICT_RFC1459.toLowerCase("JOE_[Away]\\^"));
+
+        Assert.assertEquals("\u010dau", IrcCaseMapping.RFC1459.toLowerCase("\u010dAU"));
+        Assert.assertTrue(IrcCaseMapping.RFC1459.equals("Joe[m]", "joe{M}"));
+        Assert.assertFalse(IrcCaseMapping.ASCII.equals("Joe[m]", "joe{M}"));
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcChannelListTest {
+
+    @Test
+    public void testAddAllAndSort() {
+        IrcChannelList list = new IrcChannelList(1);
+        list.add("#zeta", 3, "last");
+        IrcChannelList chunk = new IrcChannelList();
+        for (int i = 99; i >= 0; i--) {
+            chunk.add(String.format("#ch%03d", i), i, "topic " + i);
+        }
+        list.addAll(chunk);
+        Assert.assertEquals(101, list.size());
+
+        int[] rows = list.getSortedRows();
+        Assert.assertEquals("#ch000", list.getName(rows[0]));
+        Assert.assertEquals("#zeta", list.getName(rows[100]));
+        for (int i = 1; i < rows.length; i++) {
+            Assert.assertTrue(list.getName(rows[i - 1]).compareTo(list.getName(rows[i])) < 0);
+        }
+
+        int row = list.indexOf("#ch042");
+        Assert.assertEquals(42, list.getUserCount(row));
+        Assert.assertEquals("topic 42", list.getTopic(row));
+        Assert.assertEquals(-1, list.indexOf("#missing"));
+
+        list.clear();
+        Assert.assertTrue(list.isEmpty());
+        Assert.assertEquals(0, list.getSortedRows().length);
+    }
+
+    @Test
+    public void testWriteRead() throws IOException {
+        IrcChannelList list = new IrcChannelList();
+        list.add("#eircc", 42, "Eclipse\tIRC client\nsecond line");
+        list.add("#empty", -1, "");
+        StringWriter out = new StringWriter();
+        list.write(out);
+
+        IrcChannelList read = new IrcChannelList();
+        read.read(new BufferedReader(new StringReader(out.toString() + "corrupted line\n")));
+        Assert.assertEquals(2, read.size());
+        Assert.assertEquals("#eircc", read.getName(0));
+        Assert.assertEquals(42, read.getUserCount(0));
+        Assert.assertEquals("Eclipse\tIRC client second line", read.getTopic(0));
+        Assert.assertEquals("#empty", read.getName(1));
+        Assert.assertEquals(-1, read.getUserCount(1));
+        Assert.assertEquals("", read.getTopic(1));
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model;
+
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcHottestIndexTest {
+
+    /** A stand-in for a message having a notification level and a time */
+    private static class Message {
+        private final int level;
+        private final long time;
+
+        Message(int level, long time) {
+            super();
+            this.level = level;
+            this.time = time;
+        }
+
+        @Override
+        public String toString() {
+            return level + "@" + time;
+        }
+    }
+
+    private static final Comparator<Message> HOTNESS = new Comparator<Message>() {
+        @Override
+        public int compare(Message m1, Message m2) {
+            int result = Integer.compare(m1.level, m2.level);
+            return result != 0 ? result : Long.compare(m1.time, m2.time);
+        }
+    };
+
+    @Test
+    public void testPutAndRemove() {
+        IrcHottestIndex<String, Message> index = new IrcHottestIndex<String, Message>(HOTNESS);
+        Assert.assertNull(index.getHottest());
+        Assert.assertNull(index.getHottestKey());
+
+        Message a1 = new Message(1, 10);
+        Message b3 = new Message(3, 5);
+        Message c3 = new Message(3, 7);
+        index.put("#a", a1);
+        index.put("#b", b3);
+        index.put("#c", c3);
+        Assert.assertEquals(3, index.size());
+        /* the same level, the more recent wins */
+        Assert.assertSame(c3, index.getHottest());
+        Assert.assertEquals("#c", index.getHottestKey());
+
+        /* replacing a value */
+        Message c0 = new Message(0, 20);
+        index.put("#c", c0);
+        Assert.assertSame(b3, index.getHottest());
+        Assert.assertSame(c0, index.get("#c"));
+        Assert.assertEquals(3, index.size());
+
+        index.remove("#b");
+        Assert.assertSame(a1, index.getHottest());
+        index.put("#a", null);
+        Assert.assertSame(c0, index.getHottest());
+        index.remove("#c");
+        index.remove("#nonexistent");
+        Assert.assertTrue(index.isEmpty());
+        Assert.assertNull(index.getHottest());
+    }
+
+    /**
+     * Compares the index against visiting all logs after each of many random
+     * updates.
+     */
+    @Test
+    public void testRandomUpdates() {
+        int logCount = 200;
+        Random random = new Random(logCount);
+        Message[] hottestByLog = new Message[logCount];
+        IrcHottestIndex<Integer, Message> index = new IrcHottestIndex<Integer, Message>(HOTNESS);
+        for (int i = 0; i < 20000; i++) {
+            int log = random.nextInt(logCount);
+            Message m = random.nextInt(10) == 0 ? null : new Message(random.nextInt(4), i);
+            hottestByLog[log] = m;
+            index.put(log, m);
+
+            Message scanned = null;
+            for (Message candidate : hottestByLog) {
+                if (candidate != null && (scanned == null || HOTNESS.compare(candidate, scanned) > 0)) {
+                    scanned = candidate;
+                }
+            }
+            Assert.assertSame(scanned, index.getHottest());
+        }
+    }
+
+    @Test
+    public void testTies() {
+        IrcHottestIndex<String, Message> index = new IrcHottestIndex<String, Message>(HOTNESS);
+        Message m1 = new Message(2, 1);
+        Message m2 = new Message(2, 1);
+        index.put("#a", m1);
+        index.put("#b", m2);
+        /* equally hot values are all kept, the most recently put first */
+        Assert.assertEquals(2, index.size());
+        Assert.assertSame(m2, index.getHottest());
+        index.remove("#b");
+        Assert.assertSame(m1, index.getHottest());
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcJournalStoreTest {
+
+    private static Map<String, String> fields(String... namesAndValues) {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            result.put(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return result;
+    }
+
+    private Path dir;
+    private Path journal;
+    private Path snapshot;
+
+    private void delete(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+                for (Path child : children) {
+                    delete(child);
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory(IrcJournalStoreTest.class.getSimpleName());
+        snapshot = dir.resolve("account.snapshot");
+        journal = dir.resolve("account.journal");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        delete(dir);
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        IrcJournalStore store = new IrcJournalStore(snapshot, journal, 4);
+        store.put("user/1", fields("nick", "joe"));
+        store.put("user/2", fields("nick", "ann"));
+        store.put("user/1", fields("nick", "joe_"));
+        Assert.assertEquals(3, store.getJournalRecords());
+        Assert.assertFalse(Files.exists(snapshot));
+
+        /* the fourth record makes the journal longer than the two records */
+        store.put("user/1", fields("nick", "joe"));
+        Assert.assertEquals(0, store.getJournalRecords());
+        Assert.assertTrue(Files.exists(snapshot));
+        Assert.assertFalse(Files.exists(journal));
+
+        store.put("user/2", fields("nick", "ann_"));
+        store.close();
+
+        IrcJournalStore reloaded = new IrcJournalStore(snapshot, journal, 4);
+        reloaded.load();
+        Assert.assertEquals(2, reloaded.size());
+        Assert.assertEquals(1, reloaded.getJournalRecords());
+        Assert.assertEquals(fields("nick", "joe"), reloaded.get("user/1"));
+        Assert.assertEquals(fields("nick", "ann_"), reloaded.get("user/2"));
+    }
+
+    /**
+     * The migration in {@link IrcAccount} relies on
+     * {@link IrcJournalStore#hasSnapshot()} being {@code false} until
+     * {@link IrcJournalStore#compact(Map)} has stored all records.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testCompactRecords() throws IOException {
+        IrcJournalStore store = new IrcJournalStore(snapshot, journal);
+        store.put("channel/#a", fields("kept", "true"));
+        store.put("user/1", fields("nick", "joe"));
+        store.close();
+        /* a compaction interrupted before the move */
+        Files.write(snapshot.resolveSibling(snapshot.getFileName() + ".tmp"),
+                "#eircc-store 1\nuser/2\tnick=an".getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(store.exists());
+        Assert.assertFalse(store.hasSnapshot());
+
+        IrcJournalStore reloaded = new IrcJournalStore(snapshot, journal);
+        reloaded.load();
+        Map<String, Map<String, String>> records = new LinkedHashMap<String, Map<String, String>>();
+        records.put("user/2", fields("nick", "ann"));
+        records.put("user/1", fields("nick", "joe_"));
+        reloaded.compact(records);
+        Assert.assertTrue(reloaded.hasSnapshot());
+        Assert.assertFalse(Files.exists(journal));
+        Assert.assertEquals(0, reloaded.getJournalRecords());
+        Assert.assertEquals(3, reloaded.size());
+        Assert.assertEquals(fields("nick", "ann"), reloaded.get("user/2"));
+
+        IrcJournalStore again = new IrcJournalStore(snapshot, journal);
+        again.load();
+        Assert.assertEquals(Arrays.asList("channel/#a", "user/1", "user/2"), Arrays.asList(again.keys("").toArray()));
+        Assert.assertEquals(fields("kept", "true"), again.get("channel/#a"));
+        Assert.assertEquals(fields("nick", "joe_"), again.get("user/1"));
+        Assert.assertEquals(fields("nick", "ann"), again.get("user/2"));
+    }
+
+    @Test
+    public void testEscaping() {
+        Map<String, String> record = fields("topic", "a\tb\nc\rd\\e=f", "empty", "", "a=b", "c");
+        String line = IrcJournalStore.format("channel/#a\\b", record);
+        Assert.assertEquals(-1, line.indexOf('\n'));
+        Assert.assertEquals(record.size() + 1, line.split("\t").length);
+
+        Map<String, String> parsed = new LinkedHashMap<String, String>();
+        Assert.assertEquals("channel/#a\\b", IrcJournalStore.parse(line, parsed));
+        Assert.assertEquals(record, parsed);
+
+        parsed.clear();
+        Assert.assertEquals("nofields", IrcJournalStore.parse("nofields", parsed));
+        Assert.assertEquals(fields(), parsed);
+    }
+
+    /**
+     * The records are scattered over the snapshot and the journal and only
+     * their locations are kept in memory.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testForEach() throws IOException {
+        IrcJournalStore store = new IrcJournalStore(snapshot, journal, 2);
+        store.put("user/1", fields("nick", "joe"));
+        store.put("user/2", fields("nick", "\u010dau\t\ud83d\ude42"));
+        store.put("user/1", fields("nick", "joe_"));
+        Assert.assertEquals(0, store.getJournalRecords());
+        store.put("channel/#a\tb", fields("autoJoin", "true"));
+        store.put("user/3", fields("nick", "ann"));
+        store.put("user/1", fields("nick", "joe"));
+        store.close();
+
+        IrcJournalStore reloaded = new IrcJournalStore(snapshot, journal, 2);
+        reloaded.load();
+        Assert.assertEquals(4, reloaded.size());
+        Assert.assertEquals(Arrays.asList("channel/#a\tb"), Arrays.asList(reloaded.keys("channel/").toArray()));
+        final Map<String, Map<String, String>> users = new LinkedHashMap<String, Map<String, String>>();
+        reloaded.forEach("user/", (key, fields) -> users.put(key, fields));
+        Assert.assertEquals(Arrays.asList("user/1", "user/2", "user/3"), Arrays.asList(users.keySet().toArray()));
+        Assert.assertEquals(fields("nick", "joe"), users.get("user/1"));
+        Assert.assertEquals(fields("nick", "\u010dau\t\ud83d\ude42"), users.get("user/2"));
+        Assert.assertEquals(fields("nick", "ann"), users.get("user/3"));
+        Assert.assertEquals(fields("autoJoin", "true"), reloaded.get("channel/#a\tb"));
+
+        /* compaction moves the journal records to the snapshot */
+        reloaded.compact();
+        Assert.assertFalse(Files.exists(journal));
+        Assert.assertEquals(fields("nick", "joe"), reloaded.get("user/1"));
+        Assert.assertEquals(fields("nick", "ann"), reloaded.get("user/3"));
+        reloaded.close();
+    }
+
+    @Test
+    public void testKeys() throws IOException {
+        IrcJournalStore store = new IrcJournalStore(snapshot, journal);
+        store.put("user/b", fields());
+        store.put("channel/#x", fields("autoJoin", "true"));
+        store.put("user/a", fields());
+        Assert.assertEquals(Arrays.asList("user/a", "user/b"), Arrays.asList(store.keys("user/").toArray()));
+        Assert.assertEquals(Arrays.asList("channel/#x"), Arrays.asList(store.keys("channel/").toArray()));
+        Assert.assertTrue(store.keys("other/").isEmpty());
+        store.close();
+    }
+
+    @Test
+    public void testLoadMissing() throws IOException {
+        IrcJournalStore store = new IrcJournalStore(snapshot, journal);
+        Assert.assertFalse(store.exists());
+        store.load();
+        Assert.assertEquals(0, store.size());
+        Assert.assertNull(store.get("user/1"));
+    }
+
+    @Test
+    public void testTornWrite() throws IOException {
+        IrcJournalStore store = new IrcJournalStore(snapshot, journal);
+        store.put("user/1", fields("nick", "joe"));
+        store.close();
+        Files.write(journal, "user/2\tnick=an".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        IrcJournalStore reloaded = new IrcJournalStore(snapshot, journal);
+        Assert.assertTrue(reloaded.exists());
+        reloaded.load();
+        Assert.assertEquals(1, reloaded.size());
+        Assert.assertNull(reloaded.get("user/2"));
+
+        /* the torn line must not spoil the next record */
+        reloaded.put("user/3", fields("nick", "bob"));
+        reloaded.close();
+        IrcJournalStore again = new IrcJournalStore(snapshot, journal);
+        again.load();
+        Assert.assertEquals(2, again.size());
+        Assert.assertEquals(fields("nick", "bob"), again.get("user/3"));
+    }
+
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model;
+
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.swt.widgets.Display;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.l2x6.eircc.core.client.IrcEventPump;
+import org.l2x6.eircc.core.model.IrcAccount.IrcAccountState;
+import org.l2x6.eircc.core.model.PlainIrcMessage.IrcMessageType;
+import org.l2x6.eircc.core.model.resource.IrcResourceException;
+import org.l2x6.eircc.core.model.resource.IrcRootResource;
+import org.l2x6.eircc.ui.IrcUiMessages;
+import org.l2x6.eircc.ui.editor.IrcDocumentProvider;
+import org.l2x6.eircc.ui.notify.IrcSystemMessagesGenerator;
+
+/**
+ * Tests the counters behind {@link IrcModel#getAccountsStatistics()}, the
+ * loading of the accounts, the lazy reading of the channel logs and the order
+ * of the system messages.
+ * <p>
+ * Needs the UI harness, see
+ * {@link org.l2x6.eircc.core.client.fake.IrcClientLoadTest}.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcModelTest {
+
+    private static final String PROJECT_NAME = IrcModelTest.class.getSimpleName();
+
+    private static IrcModel newModel() {
+        return new IrcModel(null, new IrcNotificationLevelProvider() {
+            @Override
+            public IrcNotificationLevel getNotificationLevel(IrcMessage message) {
+                return IrcNotificationLevel.NO_NOTIFICATION;
+            }
+        });
+    }
+
+    /**
+     * @param online
+     * @param offline
+     * @param unread
+     * @param namingMe
+     * @param offlineAfterError
+     * @return the expected {@link IrcAccountsStatistics}
+     */
+    private static IrcAccountsStatistics stats(int online, int offline, int unread, int namingMe,
+            int offlineAfterError) {
+        return new IrcAccountsStatistics(online, offline, unread, 0, namingMe, offlineAfterError);
+    }
+
+    private IrcModel model;
+    private IProject project;
+
+    @After
+    public void after() throws CoreException {
+        if (model != null) {
+            model.dispose();
+        }
+        if (project != null) {
+            project.delete(IResource.ALWAYS_DELETE_PROJECT_CONTENT | IResource.FORCE, null);
+        }
+    }
+
+    @Before
+    public void before() throws Exception {
+        project = ResourcesPlugin.getWorkspace().getRoot().getProject(PROJECT_NAME);
+        if (project.exists()) {
+            project.delete(IResource.ALWAYS_DELETE_PROJECT_CONTENT | IResource.FORCE, null);
+        }
+        project.create(null);
+        project.open(null);
+        model = newModel();
+        model.load(new IrcRootResource(project, IrcDocumentProvider.getInstance()));
+    }
+
+    private void reload() throws IrcResourceException {
+        model.dispose();
+        model = newModel();
+        model.load(new IrcRootResource(project, IrcDocumentProvider.getInstance()));
+    }
+
+    @Test
+    public void testAccountStates() throws Exception {
+        IrcAccount account = model.createAccount("a");
+        Assert.assertEquals(stats(0, 0, 0, 0, 0), model.getAccountsStatistics());
+        model.addAccount(account);
+        Assert.assertEquals(stats(0, 1, 0, 0, 0), model.getAccountsStatistics());
+
+        account.setState(IrcAccountState.ONLINE);
+        Assert.assertEquals(stats(1, 0, 0, 0, 0), model.getAccountsStatistics());
+        account.setState(IrcAccountState.OFFLINE_AFTER_ERROR);
+        Assert.assertEquals(stats(0, 0, 0, 0, 1), model.getAccountsStatistics());
+        account.setState(IrcAccountState.ONLINE);
+
+        /* an account not added to the model does not count */
+        IrcAccount other = model.createAccount("b");
+        other.setState(IrcAccountState.ONLINE);
+        Assert.assertEquals(stats(1, 0, 0, 0, 0), model.getAccountsStatistics());
+
+        model.removeAccount(account);
+        Assert.assertEquals(stats(0, 0, 0, 0, 0), model.getAccountsStatistics());
+        account.setState(IrcAccountState.OFFLINE);
+        Assert.assertEquals(stats(0, 0, 0, 0, 0), model.getAccountsStatistics());
+
+        /* removing twice must not drive the counters negative */
+        model.removeAccount(account);
+        Assert.assertEquals(stats(0, 0, 0, 0, 0), model.getAccountsStatistics());
+    }
+
+    @Test
+    public void testLazyLog() throws Exception {
+        IrcAccount account = model.createAccount("a");
+        model.addAccount(account);
+        IrcChannel channel = account.createChannel("#a");
+        account.addChannel(channel);
+        Assert.assertNull(channel.getLogIfLoaded());
+
+        /* the system messages do not make the log to be read */
+        channel.appendSystemMessage("first");
+        channel.appendSystemMessage("second");
+        Assert.assertNull(channel.getLogIfLoaded());
+        Assert.assertTrue(channel.hasPendingSystemMessages());
+
+        IrcLog log = channel.getLog();
+        Assert.assertSame(log, channel.getLogIfLoaded());
+        Assert.assertFalse(channel.hasPendingSystemMessages());
+        Iterator<IrcMessage> messages = log.iterator();
+        Assert.assertEquals("first", messages.next().getText());
+        IrcMessage second = messages.next();
+        Assert.assertEquals("second", second.getText());
+        Assert.assertTrue(second.isSystemMessage());
+        Assert.assertFalse(messages.hasNext());
+
+        /* once read, the log gets the messages directly */
+        channel.appendSystemMessage("third");
+        Assert.assertEquals("third", log.getLastMessage().getText());
+        Assert.assertEquals(3, log.getMessageCount());
+
+        log.ensureAllSaved(new NullProgressMonitor());
+        account.save(new NullProgressMonitor());
+        reload();
+        IrcChannel reloaded = model.getAccount("a").findChannel("#a");
+        Assert.assertNull(reloaded.getLogIfLoaded());
+        Assert.assertEquals(3, reloaded.getLog().getMessageCount());
+        Assert.assertEquals("third", reloaded.getLog().getLastMessage().getText());
+    }
+
+    /**
+     * {@link IrcModel#load(IrcRootResource)} reads the accounts in parallel
+     * but must add them in the order of their labels.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testLoadInParallel() throws Exception {
+        String[] labels = new String[] { "d", "b", "e", "a", "c" };
+        for (String label : labels) {
+            IrcAccount account = model.createAccount(label);
+            model.addAccount(account);
+            account.addChannel(account.createChannel("#" + label));
+            account.save(new NullProgressMonitor());
+        }
+        reload();
+
+        Assert.assertNotNull(model.getLastLoadTime());
+        IrcAccount[] accounts = model.getAccounts();
+        Arrays.sort(labels);
+        Assert.assertEquals(labels.length, accounts.length);
+        for (int i = 0; i < labels.length; i++) {
+            IrcAccount account = accounts[i];
+            Assert.assertEquals(labels[i], account.getLabel());
+            Assert.assertNotNull(account.getLoadTime());
+            AbstractIrcChannel[] channels = account.getChannels();
+            Assert.assertEquals(1, channels.length);
+            Assert.assertEquals("#" + labels[i], channels[0].getName());
+            Assert.assertTrue(account.hasChannel(channels[0]));
+            Assert.assertNull(channels[0].getLogIfLoaded());
+        }
+        Assert.assertEquals(stats(0, labels.length, 0, 0, 0), model.getAccountsStatistics());
+    }
+
+    @Test
+    public void testLogLevels() throws Exception {
+        IrcAccount account = model.createAccount("a");
+        model.addAccount(account);
+        IrcChannel channel = account.createChannel("#a");
+        account.addChannel(channel);
+        IrcLog log = channel.getLog();
+        Assert.assertEquals(stats(0, 1, 0, 0, 0), model.getAccountsStatistics());
+
+        log.setNotificationLevel(IrcNotificationLevel.UNREAD_MESSAGES);
+        Assert.assertEquals(stats(0, 1, 1, 0, 0), model.getAccountsStatistics());
+        log.setNotificationLevel(IrcNotificationLevel.ME_NAMED);
+        Assert.assertEquals(stats(0, 1, 0, 1, 0), model.getAccountsStatistics());
+
+        /* a removed channel does not count, not even after its level changes */
+        account.removeChannel(channel);
+        Assert.assertEquals(stats(0, 1, 0, 0, 0), model.getAccountsStatistics());
+        log.setNotificationLevel(IrcNotificationLevel.UNREAD_MESSAGES);
+        Assert.assertEquals(stats(0, 1, 0, 0, 0), model.getAccountsStatistics());
+        account.removeChannel(channel);
+        Assert.assertEquals(stats(0, 1, 0, 0, 0), model.getAccountsStatistics());
+
+        /* counts with its current level when added again */
+        account.addChannel(channel);
+        Assert.assertEquals(stats(0, 1, 1, 0, 0), model.getAccountsStatistics());
+
+        /* an equal but distinct channel instance does not count */
+        IrcChannel twin = account.createChannel("#a");
+        IrcLog twinLog = twin.getLog();
+        twinLog.setNotificationLevel(IrcNotificationLevel.ME_NAMED);
+        Assert.assertEquals(stats(0, 1, 1, 0, 0), model.getAccountsStatistics());
+
+        /* the logs of a removed account do not count */
+        model.removeAccount(account);
+        Assert.assertEquals(stats(0, 0, 0, 0, 0), model.getAccountsStatistics());
+        log.allRead();
+        Assert.assertEquals(stats(0, 0, 0, 0, 0), model.getAccountsStatistics());
+        model.addAccount(account);
+        Assert.assertEquals(stats(0, 1, 0, 0, 0), model.getAccountsStatistics());
+    }
+
+    /**
+     * The system messages about the joins and leaves must be logged in the
+     * order of arrival, also among the chat messages handled by the same
+     * drain of an {@link IrcEventPump}, whose model events get batched.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSystemMessagesInDrain() throws Exception {
+        IrcAccount account = model.createAccount("a");
+        model.addAccount(account);
+        account.setMe(account.getServer().createUser("me", "me", "localhost"));
+        final IrcChannel channel = account.createChannel("#a");
+        account.addChannel(channel);
+        channel.setJoined(true);
+        final IrcLog log = channel.getLog();
+        final IrcUser alice = account.getServer().createUser("alice", "alice", "localhost");
+
+        IrcSystemMessagesGenerator generator = new IrcSystemMessagesGenerator(model);
+        try {
+            IrcEventPump pump = new IrcEventPump(Display.getCurrent(), Duration.ofMinutes(1),
+                    IrcEventPump.DEFAULT_MAX_BATCH_SIZE);
+            pump.setModel(model);
+            pump.post(() -> channel.setJoined(false));
+            pump.post(() -> channel.setJoined(true));
+            pump.post(() -> channel.addUser(alice, IrcUserFlags.EMPTY));
+            pump.post(() -> log.appendMessage(new IrcMessage(log, OffsetDateTime.now(), alice, "hi", false,
+                    IrcMessageType.CHAT)));
+            pump.flush();
+            Assert.assertEquals(1, pump.getDrainCount());
+        } finally {
+            generator.dispose();
+        }
+
+        List<String> texts = new ArrayList<String>();
+        for (IrcMessage message : log) {
+            texts.add(message.getText());
+        }
+        Assert.assertEquals(Arrays.asList(IrcUiMessages.Message_You_left,
+                MessageFormat.format(IrcUiMessages.Message_You_joined_as_nick, "me"),
+                MessageFormat.format(IrcUiMessages.Message_x_joined, "alice"), "hi"), texts);
+    }
+
+}
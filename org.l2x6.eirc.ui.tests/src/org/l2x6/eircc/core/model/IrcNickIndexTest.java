@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcNickIndexTest {
+
+    private static class User {
+        private String nick;
+
+        User(String nick) {
+            super();
+            this.nick = nick;
+        }
+
+        String getNick() {
+            return nick;
+        }
+    }
+
+    private static IrcNickIndex<User> newIndex() {
+        return new IrcNickIndex<User>(IrcCaseMapping.RFC1459, User::getNick);
+    }
+
+    @Test
+    public void testCaseMapping() {
+        IrcNickIndex<User> index = newIndex();
+        User joe = new User("Joe[away]");
+        index.put(joe);
+        Assert.assertSame(joe, index.get("joe{AWAY}"));
+        Assert.assertSame(joe, index.get("JOE[away]"));
+        Assert.assertNull(index.get("joe"));
+
+        index.rebuild(IrcCaseMapping.ASCII, Arrays.asList(joe));
+        Assert.assertSame(joe, index.get("JOE[away]"));
+        Assert.assertNull(index.get("joe{away}"));
+    }
+
+    @Test
+    public void testRebuildFirstWins() {
+        IrcNickIndex<User> index = newIndex();
+        User first = new User("joe");
+        User second = new User("Joe");
+        index.rebuild(IrcCaseMapping.RFC1459, Arrays.asList(first, second));
+        Assert.assertEquals(1, index.size());
+        Assert.assertSame(first, index.get("JOE"));
+
+        /* the second one is still indexed */
+        Assert.assertTrue(index.remove(first));
+        Assert.assertSame(second, index.get("JOE"));
+        Assert.assertTrue(index.remove(second));
+        Assert.assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testRenameAndRemove() {
+        IrcNickIndex<User> index = newIndex();
+        User joe = new User("joe");
+        User ann = new User("ann");
+        index.put(joe);
+        index.put(ann);
+        Assert.assertEquals(2, index.size());
+
+        index.remove(joe);
+        joe.nick = "joe_";
+        index.put(joe);
+        Assert.assertNull(index.get("joe"));
+        Assert.assertSame(joe, index.get("Joe_"));
+
+        /* ann takes over joe's nick, so removing joe must not remove her */
+        index.remove(ann);
+        ann.nick = "JOE_";
+        index.put(ann);
+        Assert.assertSame(ann, index.get("joe_"));
+        Assert.assertTrue(index.remove(joe));
+        Assert.assertFalse(index.remove(joe));
+        Assert.assertSame(ann, index.get("joe_"));
+        Assert.assertTrue(index.remove(ann));
+        Assert.assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testSameNick() {
+        IrcNickIndex<User> index = newIndex();
+        User left = new User("joe");
+        User current = new User("Joe");
+        User woken = new User("JOE");
+        index.put(left);
+        index.put(current);
+        index.add(woken);
+        Assert.assertEquals(1, index.size());
+        Assert.assertSame(current, index.get("joe"));
+
+        /* the displaced user takes over when the primary one leaves */
+        Assert.assertFalse(index.remove(new User("joe")));
+        Assert.assertTrue(index.remove(current));
+        Assert.assertSame(left, index.get("joe"));
+        Assert.assertTrue(index.remove(left));
+        Assert.assertSame(woken, index.get("joe"));
+
+        /* a shadowed user can be renamed */
+        index.put(current);
+        Assert.assertTrue(index.remove(woken));
+        woken.nick = "ann";
+        index.put(woken);
+        Assert.assertSame(current, index.get("joe"));
+        Assert.assertSame(woken, index.get("ANN"));
+        Assert.assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testUsersWithoutNick() {
+        IrcNickIndex<User> index = newIndex();
+        User nobody = new User(null);
+        index.put(nobody);
+        index.rebuild(IrcCaseMapping.RFC1459, Arrays.asList(nobody));
+        Assert.assertFalse(index.remove(nobody));
+        Assert.assertEquals(0, index.size());
+    }
+
+}
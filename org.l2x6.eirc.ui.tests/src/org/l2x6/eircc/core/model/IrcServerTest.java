@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.l2x6.eircc.core.model.resource.IrcRootResource;
+import org.l2x6.eircc.ui.editor.IrcDocumentProvider;
+
+/**
+ * Tests the on demand loading and the eviction of the users of an
+ * {@link IrcServer}.
+ * <p>
+ * Needs the UI harness, see
+ * {@link org.l2x6.eircc.core.client.fake.IrcClientLoadTest}.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcServerTest {
+
+    private static final String ACCOUNT_LABEL = "server-test";
+    private static final long MAX_IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final String PROJECT_NAME = IrcServerTest.class.getSimpleName();
+
+    /**
+     * @return a {@link System#nanoTime()} far enough in the future for all
+     *         users to be idle
+     */
+    private static long later() {
+        return System.nanoTime() + 2 * MAX_IDLE_NANOS;
+    }
+
+    private static IrcModel newModel() {
+        return new IrcModel(null, new IrcNotificationLevelProvider() {
+            @Override
+            public IrcNotificationLevel getNotificationLevel(IrcMessage message) {
+                return IrcNotificationLevel.NO_NOTIFICATION;
+            }
+        });
+    }
+
+    private IrcModel model;
+    private IProject project;
+
+    @After
+    public void after() throws CoreException {
+        if (model != null) {
+            model.dispose();
+        }
+        if (project != null) {
+            project.delete(IResource.ALWAYS_DELETE_PROJECT_CONTENT | IResource.FORCE, null);
+        }
+    }
+
+    @Before
+    public void before() throws Exception {
+        project = ResourcesPlugin.getWorkspace().getRoot().getProject(PROJECT_NAME);
+        if (project.exists()) {
+            project.delete(IResource.ALWAYS_DELETE_PROJECT_CONTENT | IResource.FORCE, null);
+        }
+        project.create(null);
+        project.open(null);
+        model = newModel();
+        model.load(new IrcRootResource(project, IrcDocumentProvider.getInstance()));
+    }
+
+    private IrcServer createServer() throws Exception {
+        IrcAccount account = model.createAccount(ACCOUNT_LABEL);
+        model.addAccount(account);
+        return account.getServer();
+    }
+
+    @Test
+    public void testEvictAndFind() throws Exception {
+        IrcServer server = createServer();
+        IrcUser joe = server.getOrCreateUser("joe", "joe", "example.com");
+        IrcUser ann = server.getOrCreateUser("ann", "ann", "example.com");
+        UUID annId = ann.getId();
+        IrcUser bob = server.getOrCreateUser("bob", "bob", "example.com");
+        IrcChannel channel = server.getAccount().createChannel("#eircc");
+        server.getAccount().addChannel(channel);
+        channel.addUser(bob, IrcUserFlags.EMPTY);
+        Assert.assertEquals(3, server.getLoadedUserCount());
+
+        /* bob is present in a channel */
+        List<IrcUser> saved = new ArrayList<IrcUser>();
+        Assert.assertEquals(0, server.evictIdleUsers(System.nanoTime(), MAX_IDLE_NANOS, saved::add));
+        Assert.assertTrue(saved.isEmpty());
+        Assert.assertEquals(2, server.evictIdleUsers(later(), MAX_IDLE_NANOS, saved::add));
+        Assert.assertEquals(1, server.getLoadedUserCount());
+        /* the new users have not been saved yet, so they must be handed over to the saver */
+        Assert.assertEquals(new HashSet<IrcUser>(Arrays.asList(joe, ann)), new HashSet<IrcUser>(saved));
+        Assert.assertSame(bob, server.findUser("bob"));
+
+        /* the evicted instances are still referenced here, so they must be reused */
+        long before = System.nanoTime();
+        Assert.assertSame(joe, server.findUser("JOE"));
+        Assert.assertTrue(joe.getLastSeen() >= before);
+        Assert.assertSame(ann, server.findUser(annId));
+        Assert.assertEquals(3, server.getLoadedUserCount());
+        Assert.assertNull(server.findUser("nobody"));
+        Assert.assertNull(server.findUser(UUID.randomUUID()));
+    }
+
+    @Test
+    public void testLoadOnDemand() throws Exception {
+        IrcServer server = createServer();
+        UUID joeId = server.getOrCreateUser("joe", "joe", "example.com").getId();
+        server.getOrCreateUser("ann", "ann", "example.com").setHost("example.org");
+        server.getAccount().save(new NullProgressMonitor());
+        model.dispose();
+
+        model = newModel();
+        model.load(new IrcRootResource(project, IrcDocumentProvider.getInstance()));
+        server = model.getAccount(ACCOUNT_LABEL).getServer();
+        Assert.assertEquals(0, server.getLoadedUserCount());
+
+        IrcUser ann = server.findUser("Ann");
+        Assert.assertEquals("example.org", ann.getHost());
+        Assert.assertEquals(1, server.getLoadedUserCount());
+        IrcUser joe = server.findUser(joeId);
+        Assert.assertEquals("joe", joe.getNick());
+        Assert.assertSame(joe, server.findUser("joe"));
+        Assert.assertSame(joe, server.getOrCreateUser("joe", "joe", "example.com"));
+        Assert.assertEquals(2, server.getLoadedUserCount());
+
+        /* no duplicate instance when looked up again after an eviction */
+        List<IrcUser> saved = new ArrayList<IrcUser>();
+        Assert.assertEquals(2, server.evictIdleUsers(later(), MAX_IDLE_NANOS, saved::add));
+        Assert.assertTrue(saved.isEmpty());
+        Assert.assertSame(joe, server.findUser(joeId));
+        Assert.assertSame(ann, server.findUser("ANN"));
+    }
+
+}
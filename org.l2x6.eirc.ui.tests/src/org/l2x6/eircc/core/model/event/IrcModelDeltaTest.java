@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model.event;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.l2x6.eircc.core.model.event.IrcModelEvent.EventType;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcModelDeltaTest {
+
+    @Test
+    public void testCoalescing() {
+        IrcModelDelta delta = new IrcModelDelta();
+        Assert.assertTrue(delta.isEmpty());
+
+        IrcModelEvent joined = new IrcModelEvent(EventType.CHANNEL_JOINED_CHANGED, "#a");
+        IrcModelEvent stateChanged = new IrcModelEvent(EventType.ACCOUNT_STATE_CHANGED, "acc");
+        IrcModelEvent joinedB = new IrcModelEvent(EventType.CHANNEL_JOINED_CHANGED, "#b");
+        IrcModelEvent rejoined = new IrcModelEvent(EventType.CHANNEL_JOINED_CHANGED, "#a");
+        IrcModelEvent stateChangedAgain = new IrcModelEvent(EventType.ACCOUNT_STATE_CHANGED, "acc");
+        Assert.assertTrue(delta.add(joined, "#a"));
+        Assert.assertTrue(delta.add(stateChanged, "acc"));
+        Assert.assertFalse(delta.add(rejoined, "#a"));
+        Assert.assertTrue(delta.add(joinedB, "#b"));
+        Assert.assertFalse(delta.add(stateChangedAgain, "acc"));
+
+        /* all events kept in order for the listeners writing a line per event */
+        Assert.assertEquals(5, delta.size());
+        Assert.assertEquals(Arrays.asList(joined, stateChanged, rejoined, joinedB, stateChangedAgain),
+                delta.getEvents());
+        /* the first occurrence wins */
+        Assert.assertEquals(Arrays.asList(joined, stateChanged, joinedB), delta.getDistinctEvents());
+        Assert.assertEquals(Arrays.asList("#a", "#b"),
+                Arrays.asList(delta.getModelObjects(EventType.CHANNEL_JOINED_CHANGED).toArray()));
+        Assert.assertTrue(delta.contains(EventType.ACCOUNT_STATE_CHANGED));
+        Assert.assertFalse(delta.contains(EventType.ACCOUNT_ADDED));
+        Assert.assertEquals(Collections.emptySet(), delta.getModelObjects(EventType.ACCOUNT_ADDED));
+        Assert.assertEquals("#b", delta.getTarget(joinedB));
+        Assert.assertEquals("#a", delta.getTarget(rejoined));
+    }
+
+    @Test
+    public void testDistinctMessages() {
+        /* messages do not override equals(), so equal looking ones are all kept */
+        IrcModelDelta delta = new IrcModelDelta();
+        Object m1 = new Object();
+        Object m2 = new Object();
+        delta.add(new IrcModelEvent(EventType.NEW_MESSAGE, m1), "#a");
+        delta.add(new IrcModelEvent(EventType.NEW_MESSAGE, m2), "#a");
+        Assert.assertEquals(2, delta.size());
+    }
+
+}
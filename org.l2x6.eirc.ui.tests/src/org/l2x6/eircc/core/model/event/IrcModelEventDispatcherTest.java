@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model.event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.l2x6.eircc.core.model.event.IrcModelEvent.EventType;
+
+/**
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcModelEventDispatcherTest {
+
+    /** Records the events it got into a shared list */
+    private static class Listener implements IrcModelEventListener {
+        private final List<String> calls;
+        private final String name;
+        private final float orderingKey;
+
+        Listener(String name, float orderingKey, List<String> calls) {
+            super();
+            this.name = name;
+            this.orderingKey = orderingKey;
+            this.calls = calls;
+        }
+
+        @Override
+        public float getOrderingKey() {
+            return orderingKey;
+        }
+
+        @Override
+        public void handle(IrcModelEvent e) {
+            calls.add(name + ":" + e.getModelObject());
+        }
+    }
+
+    private static final Consumer<Exception> RETHROW = new Consumer<Exception>() {
+        @Override
+        public void accept(Exception e) {
+            throw new AssertionError(e);
+        }
+    };
+
+    private static IrcModelEvent newMessage(String channel) {
+        return new IrcModelEvent(EventType.NEW_MESSAGE, channel);
+    }
+
+    @Test
+    public void testDelta() {
+        List<String> calls = new ArrayList<String>();
+        IrcModelEventDispatcher dispatcher = new IrcModelEventDispatcher();
+        Listener editor = new Listener("editor", -1f, calls);
+        dispatcher.subscribe(editor, "#a", EventType.NEW_MESSAGE);
+        final List<IrcModelDelta> viewDeltas = new ArrayList<IrcModelDelta>();
+        dispatcher.subscribe(new IrcModelEventListener() {
+            @Override
+            public void handle(IrcModelEvent e) {
+                Assert.fail("handleDelta() should be called instead");
+            }
+
+            @Override
+            public void handleDelta(IrcModelDelta delta) {
+                viewDeltas.add(delta);
+            }
+        }, EventType.ACCOUNT_CHANNEL_ADDED, EventType.LOG_STATE_CHANGED);
+
+        IrcModelDelta delta = new IrcModelDelta();
+        delta.add(newMessage("#a"), "#a");
+        delta.add(newMessage("#b"), "#b");
+        delta.add(new IrcModelEvent(EventType.ACCOUNT_CHANNEL_ADDED, "#a"), "#a");
+        delta.add(new IrcModelEvent(EventType.ACCOUNT_CHANNEL_ADDED, "#b"), "#b");
+        delta.add(newMessage("#a2"), "#a");
+        delta.add(new IrcModelEvent(EventType.USER_ADDED, "joe"), "joe");
+        dispatcher.dispatch(delta, RETHROW);
+
+        /* the editor gets its messages replayed by the default handleDelta() */
+        Assert.assertEquals(Arrays.asList("editor:#a", "editor:#a2"), calls);
+        Assert.assertEquals(1, viewDeltas.size());
+        Assert.assertEquals(new LinkedHashSet<Object>(Arrays.asList("#a", "#b")),
+                viewDeltas.get(0).getModelObjects(EventType.ACCOUNT_CHANNEL_ADDED));
+        Assert.assertEquals(2, viewDeltas.get(0).size());
+        Assert.assertEquals(2, dispatcher.getDeltaDeliveries());
+        Assert.assertEquals(3, dispatcher.getDispatches(EventType.NEW_MESSAGE));
+        Assert.assertEquals(2, dispatcher.getDeliveries(EventType.NEW_MESSAGE));
+    }
+
+    /**
+     * Counts the listener calls per message with 30 editors open, each with
+     * its outline page, plus the global listeners, first subscribed the way
+     * {@link org.l2x6.eircc.core.model.IrcModel} listeners are subscribed in
+     * {@code IrcEditor}, {@code IrcChannelOutlinePage}, {@code EirccUi},
+     * {@code IrcNotificationController}, {@code IrcSystemMessagesGenerator}
+     * and {@code IrcAccountsView} and then all of them subscribed to all
+     * events, like before having subscriptions by type and target.
+     */
+    @Test
+    public void testDeliveriesPerMessage() {
+        int editorCount = 30;
+        int messageCount = 300;
+        List<String> calls = new ArrayList<String>();
+        IrcModelEventDispatcher typed = new IrcModelEventDispatcher();
+        IrcModelEventDispatcher global = new IrcModelEventDispatcher();
+        for (int i = 0; i < editorCount; i++) {
+            String channel = "#channel" + i;
+            Listener editor = new Listener("editor" + i, -1f, calls);
+            typed.subscribe(editor, channel, EventType.CHANNEL_JOINED_CHANGED, EventType.LOG_STATE_CHANGED,
+                    EventType.MESSAGE_REPLACED, EventType.NEW_MESSAGE, EventType.NEW_MESSAGES);
+            global.subscribe(editor);
+            Listener outline = new Listener("outline" + i, 0f, calls);
+            typed.subscribe(outline, EventType.NICK_CHANGED);
+            typed.subscribe(outline, channel, EventType.CHANNEL_USERS_CHANGED, EventType.CHANNEL_USER_JOINED,
+                    EventType.CHANNEL_USER_LEFT);
+            global.subscribe(outline);
+        }
+        Listener ui = new Listener("ui", 0f, calls);
+        typed.subscribe(ui, EventType.ACCOUNT_ADDED, EventType.ACCOUNT_CHANNEL_ADDED,
+                EventType.ACCOUNT_STATE_CHANGED, EventType.CHANNEL_JOINED_CHANGED, EventType.MESSAGE_REPLACED,
+                EventType.NEW_MESSAGE, EventType.NEW_MESSAGES, EventType.NICK_CHANGED, EventType.SERVER_CHANNELS_LISTED,
+                EventType.USER_ADDED);
+        Listener notifications = new Listener("notifications", 0f, calls);
+        typed.subscribe(notifications, EventType.ACCOUNT_STATE_CHANGED, EventType.LOG_STATE_CHANGED,
+                EventType.NEW_MESSAGE, EventType.NICK_TIMEOUT);
+        Listener systemMessages = new Listener("systemMessages", 0f, calls);
+        typed.subscribe(systemMessages, EventType.CHANNEL_JOINED_CHANGED, EventType.CHANNEL_USER_JOINED,
+                EventType.CHANNEL_USER_LEFT);
+        Listener accountsView = new Listener("accountsView", 1f, calls);
+        typed.subscribe(accountsView, EventType.ACCOUNT_ADDED, EventType.ACCOUNT_CHANNEL_ADDED,
+                EventType.ACCOUNT_CHANNEL_REMOVED, EventType.ACCOUNT_OUTBOUND_QUEUE_CHANGED,
+                EventType.ACCOUNT_REMOVED, EventType.ACCOUNT_STATE_CHANGED, EventType.CHANNEL_JOINED_CHANGED,
+                EventType.LOG_STATE_CHANGED, EventType.SERVER_CHANNELS_ADDED, EventType.SERVER_CHANNELS_CLEARED,
+                EventType.SERVER_CHANNELS_LISTED);
+        for (Listener listener : Arrays.asList(ui, notifications, systemMessages, accountsView)) {
+            global.subscribe(listener);
+        }
+
+        for (int i = 0; i < messageCount; i++) {
+            IrcModelEvent e = newMessage("#channel" + (i % editorCount));
+            typed.dispatch(e, e.getModelObject(), RETHROW);
+        }
+        /* the editor of the channel, EirccUi and IrcNotificationController */
+        Assert.assertEquals(messageCount, typed.getDispatches(EventType.NEW_MESSAGE));
+        Assert.assertEquals(3 * messageCount, typed.getDeliveries(EventType.NEW_MESSAGE));
+        Assert.assertEquals(3 * messageCount, calls.size());
+        Assert.assertEquals(Arrays.asList("editor7:#channel7", "ui:#channel7", "notifications:#channel7"),
+                calls.subList(3 * 7, 3 * 8));
+
+        calls.clear();
+        for (int i = 0; i < messageCount; i++) {
+            IrcModelEvent e = newMessage("#channel" + (i % editorCount));
+            global.dispatch(e, e.getModelObject(), RETHROW);
+        }
+        Assert.assertEquals((2 * editorCount + 4) * messageCount, global.getDeliveries(EventType.NEW_MESSAGE));
+    }
+
+    @Test
+    public void testErrorHandler() {
+        List<String> calls = new ArrayList<String>();
+        IrcModelEventDispatcher dispatcher = new IrcModelEventDispatcher();
+        dispatcher.subscribe(new IrcModelEventListener() {
+            @Override
+            public void handle(IrcModelEvent e) {
+                throw new IllegalStateException("failing");
+            }
+        });
+        dispatcher.subscribe(new Listener("b", 1f, calls));
+        final List<Exception> errors = new ArrayList<Exception>();
+        dispatcher.dispatch(newMessage("#a"), "#a", new Consumer<Exception>() {
+            @Override
+            public void accept(Exception e) {
+                errors.add(e);
+            }
+        });
+        Assert.assertEquals(1, errors.size());
+        Assert.assertEquals(Arrays.asList("b:#a"), calls);
+    }
+
+    @Test
+    public void testOrderAndDuplicates() {
+        List<String> calls = new ArrayList<String>();
+        IrcModelEventDispatcher dispatcher = new IrcModelEventDispatcher();
+        Listener sound = new Listener("sound", 0f, calls);
+        Listener editor = new Listener("editor", -1f, calls);
+        Listener view = new Listener("view", 1f, calls);
+        dispatcher.subscribe(view);
+        dispatcher.subscribe(sound, EventType.NEW_MESSAGE);
+        dispatcher.subscribe(editor, "#a", EventType.NEW_MESSAGE);
+        /* subscribed twice, called once */
+        dispatcher.subscribe(view, EventType.NEW_MESSAGE);
+        dispatcher.subscribe(view, "#a", EventType.NEW_MESSAGE);
+
+        dispatcher.dispatch(newMessage("#a"), "#a", RETHROW);
+        Assert.assertEquals(Arrays.asList("editor:#a", "sound:#a", "view:#a"), calls);
+        Assert.assertEquals(3, dispatcher.getDeliveries(EventType.NEW_MESSAGE));
+    }
+
+    @Test
+    public void testTargets() {
+        List<String> calls = new ArrayList<String>();
+        IrcModelEventDispatcher dispatcher = new IrcModelEventDispatcher();
+        Listener a = new Listener("a", 0f, calls);
+        Listener b = new Listener("b", 0f, calls);
+        dispatcher.subscribe(a, "#a", EventType.NEW_MESSAGE);
+        dispatcher.subscribe(b, "#b", EventType.NEW_MESSAGE, EventType.LOG_STATE_CHANGED);
+
+        dispatcher.dispatch(newMessage("#a"), "#a", RETHROW);
+        dispatcher.dispatch(newMessage("#b"), "#b", RETHROW);
+        dispatcher.dispatch(newMessage("#c"), "#c", RETHROW);
+        dispatcher.dispatch(new IrcModelEvent(EventType.LOG_STATE_CHANGED, "#a"), "#a", RETHROW);
+        dispatcher.dispatch(new IrcModelEvent(EventType.ACCOUNT_ADDED, "acc"), null, RETHROW);
+        Assert.assertEquals(Arrays.asList("a:#a", "b:#b"), calls);
+        Assert.assertEquals(3, dispatcher.getDispatches(EventType.NEW_MESSAGE));
+        Assert.assertEquals(2, dispatcher.getDeliveries(EventType.NEW_MESSAGE));
+        Assert.assertEquals(1, dispatcher.getDispatches(EventType.ACCOUNT_ADDED));
+        Assert.assertEquals(0, dispatcher.getDeliveries(EventType.ACCOUNT_ADDED));
+    }
+
+    /**
+     * A listener that is not {@link IrcModelEventListener#isBatched()} gets
+     * the events when they are fired, the others get all of them, the
+     * repeated ones included, with the delta.
+     */
+    @Test
+    public void testUnbatched() {
+        final List<String> calls = new ArrayList<String>();
+        IrcModelEventDispatcher dispatcher = new IrcModelEventDispatcher();
+        dispatcher.subscribe(new Listener("log", 0f, calls) {
+            @Override
+            public boolean isBatched() {
+                return false;
+            }
+        }, EventType.CHANNEL_JOINED_CHANGED);
+        dispatcher.subscribe(new Listener("editor", -1f, calls), "#a", EventType.CHANNEL_JOINED_CHANGED);
+
+        IrcModelDelta delta = new IrcModelDelta();
+        /* left and rejoined within a batch */
+        for (int i = 0; i < 2; i++) {
+            IrcModelEvent e = new IrcModelEvent(EventType.CHANNEL_JOINED_CHANGED, "#a");
+            delta.add(e, "#a");
+            dispatcher.dispatchUnbatched(e, "#a", RETHROW);
+        }
+        Assert.assertEquals(Arrays.asList("log:#a", "log:#a"), calls);
+        Assert.assertEquals(0, dispatcher.getDispatches(EventType.CHANNEL_JOINED_CHANGED));
+
+        dispatcher.dispatch(delta, RETHROW);
+        Assert.assertEquals(Arrays.asList("log:#a", "log:#a", "editor:#a", "editor:#a"), calls);
+        Assert.assertEquals(2, dispatcher.getDispatches(EventType.CHANNEL_JOINED_CHANGED));
+        Assert.assertEquals(4, dispatcher.getDeliveries(EventType.CHANNEL_JOINED_CHANGED));
+        Assert.assertEquals(1, dispatcher.getDeltaDeliveries());
+    }
+
+    @Test
+    public void testUnsubscribeWhileDispatching() {
+        final List<String> calls = new ArrayList<String>();
+        final IrcModelEventDispatcher dispatcher = new IrcModelEventDispatcher();
+        final Listener b = new Listener("b", 1f, calls);
+        dispatcher.subscribe(new IrcModelEventListener() {
+            @Override
+            public void handle(IrcModelEvent e) {
+                calls.add("a:" + e.getModelObject());
+                dispatcher.unsubscribe(this);
+                dispatcher.unsubscribe(b);
+            }
+        }, "#a", EventType.NEW_MESSAGE);
+        dispatcher.subscribe(b, "#a", EventType.NEW_MESSAGE);
+
+        /* the listeners of a running dispatch still get the event */
+        dispatcher.dispatch(newMessage("#a"), "#a", RETHROW);
+        dispatcher.dispatch(newMessage("#a"), "#a", RETHROW);
+        Assert.assertEquals(Arrays.asList("a:#a", "b:#a"), calls);
+        Assert.assertTrue(dispatcher.getListeners(EventType.NEW_MESSAGE, "#a").isEmpty());
+    }
+
+}
@@ -11,12 +11,22 @@ package org.l2x6.eircc.ui.tests;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.l2x6.eircc.core.EirccCoreSuite;
+import org.l2x6.eircc.core.IrcWriteBehindSaverTest;
+import org.l2x6.eircc.core.client.IrcEventPumpTest;
+import org.l2x6.eircc.core.client.fake.IrcClientLoadTest;
+import org.l2x6.eircc.core.client.fake.IrcClientTest;
+import org.l2x6.eircc.core.client.fake.IrcDccTest;
+import org.l2x6.eircc.core.client.nio.NioIrcConnectionTest;
+import org.l2x6.eircc.core.model.IrcModelTest;
+import org.l2x6.eircc.core.model.IrcServerTest;
 
 /**
  * All tests wrapper.
  *
  */
 @RunWith(Suite.class)
-@Suite.SuiteClasses({ EirccCoreSuite.class })
+@Suite.SuiteClasses({ EirccCoreSuite.class, IrcClientLoadTest.class, IrcClientTest.class, IrcDccTest.class,
+        IrcEventPumpTest.class, IrcModelTest.class, IrcServerTest.class, IrcWriteBehindSaverTest.class,
+        NioIrcConnectionTest.class })
 public class AllTests {
 }
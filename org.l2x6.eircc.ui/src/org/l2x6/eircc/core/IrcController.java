@@ -9,36 +9,162 @@
 package org.l2x6.eircc.core;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.text.MessageFormat;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+import org.eclipse.swt.widgets.Display;
 
 import org.l2x6.eircc.core.client.IrcClient;
+import org.l2x6.eircc.core.client.IrcCommandTimeoutScheduler;
+import org.l2x6.eircc.core.client.IrcConnectGate;
+import org.l2x6.eircc.core.client.IrcEventPump;
+import org.l2x6.eircc.core.client.IrcOutboundQueue;
+import org.l2x6.eircc.core.client.IrcReconnectBackoff;
+import org.l2x6.eircc.core.client.IrcWhoScheduler;
 import org.l2x6.eircc.core.client.cmd.IrcCommandMessage;
 import org.l2x6.eircc.core.client.cmd.IrcCommandMessageFactory;
+import org.l2x6.eircc.core.client.dcc.IrcDccManager;
+import org.l2x6.eircc.core.client.nio.IrcSelectorLoop;
+import org.l2x6.eircc.core.client.nio.NioIrcConnection;
 import org.l2x6.eircc.core.model.AbstractIrcChannel;
 import org.l2x6.eircc.core.model.IrcAccount;
 import org.l2x6.eircc.core.model.IrcAccount.IrcAccountState;
+import org.l2x6.eircc.core.model.IrcChannel;
 import org.l2x6.eircc.core.model.IrcLog;
 import org.l2x6.eircc.core.model.IrcNick;
 import org.l2x6.eircc.core.model.IrcObject;
 import org.l2x6.eircc.core.model.IrcServer;
 import org.l2x6.eircc.core.model.IrcUser;
 import org.l2x6.eircc.core.model.IrcUserBase;
+import org.l2x6.eircc.core.model.IrcUserFlags;
 import org.l2x6.eircc.core.model.PlainIrcChannel;
 import org.l2x6.eircc.core.model.resource.IrcResourceException;
 import org.l2x6.eircc.core.util.IrcUtils;
 import org.l2x6.eircc.ui.EirccUi;
+import org.l2x6.eircc.ui.IrcUiMessages;
+import org.schwering.irc.lib.IRCConfig;
+import org.schwering.irc.lib.IRCConnection;
+import org.schwering.irc.lib.IRCConnectionFactory;
+import org.schwering.irc.lib.util.CTCPCommand;
+import org.schwering.irc.lib.util.IRCCommand;
 
 /**
  * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
  */
 public class IrcController {
+
+    /**
+     * The state of an account whose connection was lost, from the
+     * disconnection till all channels are rejoined and in sync again.
+     */
+    private static class Reconnect {
+        /** The number of the failed reconnect attempts so far */
+        private int attempt = 0;
+        /** The channels joined at the time of the disconnection */
+        private final List<AbstractIrcChannel> channelsToRejoin = new ArrayList<AbstractIrcChannel>();
+        /** The names of the channels whose users were not reconciled yet */
+        private final Set<String> channelsToSync = new HashSet<String>();
+        private final long lostAt = System.nanoTime();
+        private boolean registered = false;
+        private boolean scheduled = false;
+    }
+
+    /**
+     * Joins the autojoin channels of the first account from
+     * {@link #pendingAutoJoins} and reschedules itself after
+     * {@link #autoJoinSpacing}. Runs on the UI thread.
+     */
+    private final Runnable autoJoinNext = new Runnable() {
+        @Override
+        public void run() {
+            Map.Entry<String, IrcAccount> first = pendingAutoJoins.pollFirstEntry();
+            if (first == null) {
+                autoJoinScheduled = false;
+                return;
+            }
+            IrcAccount account = first.getValue();
+            if (account.getState() == IrcAccountState.ONLINE) {
+                List<AbstractIrcChannel> channels = new ArrayList<AbstractIrcChannel>();
+                for (AbstractIrcChannel channel : account.getChannels()) {
+                    if (channel.isAutoJoin() && !channel.isJoined()) {
+                        channels.add(channel);
+                    }
+                }
+                Collections.sort(channels, new Comparator<AbstractIrcChannel>() {
+                    @Override
+                    public int compare(AbstractIrcChannel c1, AbstractIrcChannel c2) {
+                        return c1.getName().compareTo(c2.getName());
+                    }
+                });
+                try {
+                    joinChannels(account, channels);
+                } catch (IrcException e) {
+                    EirccUi.log(e);
+                }
+            }
+            Display.getDefault().timerExec((int) Math.min(autoJoinSpacing.toMillis(), Integer.MAX_VALUE), this);
+        }
+    };
+    private boolean autoJoinScheduled = false;
+    private Duration autoJoinSpacing = Duration.ofMillis(250);
     private final Map<String, IrcClient> clients = new HashMap<String, IrcClient>();
     private Duration commandTimeout;
+    private IrcConnectGate connectGate = new IrcConnectGate(IrcConnectGate.DEFAULT_MAX_CONCURRENT);
+    private final IrcDccManager dccManager = new IrcDccManager(this);
+    private int eventPumpBatchSize = IrcEventPump.DEFAULT_MAX_BATCH_SIZE;
+    private Duration eventPumpInterval = IrcEventPump.DEFAULT_INTERVAL;
+    private int floodControlBurstBytes = IrcOutboundQueue.DEFAULT_BURST_BYTES;
+    private int floodControlBytesPerSecond = IrcOutboundQueue.DEFAULT_BYTES_PER_SECOND;
+    private Duration lastStartupConnectTime;
+    private boolean nioEnabled = false;
+    /** The accounts waiting for {@link #autoJoinNext} by account label */
+    private final TreeMap<String, IrcAccount> pendingAutoJoins = new TreeMap<String, IrcAccount>();
     private Duration pingInterval;
+
+    private IrcReconnectBackoff reconnectBackoff = new IrcReconnectBackoff(IrcReconnectBackoff.DEFAULT_INITIAL_DELAY,
+            IrcReconnectBackoff.DEFAULT_MAX_DELAY, IrcReconnectBackoff.DEFAULT_MIN_SPACING, new Random());
+
+    /** Metrics, see the respective getters */
+    private long reconnectAttemptCount = 0;
+    private long reconnectCount = 0;
+    private boolean reconnectEnabled = true;
+    private Duration lastResyncTime;
+    private Duration maxResyncTime;
+
+    /** The accounts being reconnected by account label */
+    private final Map<String, Reconnect> reconnects = new HashMap<String, Reconnect>();
+
+    /** Created lazily by {@link #newConnection(IRCConfig)} */
+    private IrcSelectorLoop selectorLoop;
+    private final IrcCommandTimeoutScheduler timeoutScheduler = new IrcCommandTimeoutScheduler();
+    /** The labels of the accounts from {@link #connectAll(Collection)} that have not registered yet */
+    private final Set<String> startupConnects = new HashSet<String>();
+    private long startupConnectStartedNanos;
+    private int whoMaxInFlight = IrcWhoScheduler.DEFAULT_MAX_IN_FLIGHT;
+
+    /** All channels have the same priority unless set otherwise */
+    private ToIntFunction<AbstractIrcChannel> whoPriority = new ToIntFunction<AbstractIrcChannel>() {
+        @Override
+        public int applyAsInt(AbstractIrcChannel channel) {
+            return 0;
+        }
+    };
+
     /**
      *
      */
@@ -46,18 +172,148 @@ public class IrcController {
         super();
     }
 
+    /**
+     * Joins the autojoin channels of the given {@code account} that has just
+     * gone online. The accounts going online at about the same time join
+     * their channels one after the other, ordered by label and spaced by
+     * {@link #setAutoJoinSpacing(Duration)}, so that the UI does not get all
+     * the joins at once.
+     *
+     * @param account
+     */
+    public void autoJoin(IrcAccount account) {
+        IrcUtils.assertUiThread();
+        pendingAutoJoins.put(account.getLabel(), account);
+        if (!autoJoinScheduled) {
+            autoJoinScheduled = true;
+            /* let the accounts going online in the same batch queue up */
+            Display.getDefault().asyncExec(autoJoinNext);
+        }
+    }
+
     public void changeNick(IrcServer server, IrcUserBase user, String newNick) {
         IrcUtils.assertUiThread();
         server.changeNick(user, newNick);
     }
 
+    /**
+     * Called by {@link IrcClient} when all users of the given
+     * {@code channel} have been reconciled after a JOIN.
+     *
+     * @param client
+     * @param channel
+     */
+    public void channelSynced(IrcClient client, AbstractIrcChannel channel) {
+        IrcUtils.assertUiThread();
+        IrcAccount account = client.getAccount();
+        Reconnect reconnect = reconnects.get(account.getLabel());
+        if (reconnect != null && reconnect.channelsToSync.remove(channel.getName())) {
+            finishResyncIfDone(account, reconnect);
+        }
+    }
+
     public void connect(IrcAccount account) throws IrcException {
         IrcUtils.assertUiThread();
+        /* the user wants to connect now, so no need to wait for the backoff */
+        reconnects.remove(account.getLabel());
         getClientOrConnect(account);
     }
 
+    /**
+     * Connects the given {@code accounts} ordered by label. At most
+     * {@link #getMaxConcurrentConnects()} of them are connecting at once, the
+     * others wait for their turn in that order. See
+     * {@link #getLastStartupConnectTime()}.
+     *
+     * @param accounts
+     */
+    public void connectAll(Collection<IrcAccount> accounts) {
+        IrcUtils.assertUiThread();
+        List<IrcAccount> sorted = new ArrayList<IrcAccount>(accounts);
+        Collections.sort(sorted, new Comparator<IrcAccount>() {
+            @Override
+            public int compare(IrcAccount a1, IrcAccount a2) {
+                return a1.getLabel().compareTo(a2.getLabel());
+            }
+        });
+        startupConnects.clear();
+        startupConnectStartedNanos = System.nanoTime();
+        for (IrcAccount account : sorted) {
+            try {
+                startupConnects.add(account.getLabel());
+                connect(account);
+            } catch (IrcException e) {
+                startupConnects.remove(account.getLabel());
+                EirccUi.log(e);
+            }
+        }
+    }
+
+    /**
+     * Called when the connection of the given {@code client} was lost or when
+     * the {@code client} failed to execute a command. Closes the
+     * {@code client}, sets its account offline and schedules a reconnect if
+     * {@link #isReconnectEnabled()}. Does nothing if {@code client} is not the
+     * current client of its account anymore, e.g. because the user has
+     * disconnected it intentionally.
+     *
+     * @param client
+     * @param e
+     *            the cause
+     */
+    public void connectionLost(IrcClient client, IrcException e) {
+        IrcUtils.assertUiThread();
+        IrcAccount account = client.getAccount();
+        if (clients.get(account.getLabel()) != client) {
+            return;
+        }
+        clients.remove(account.getLabel());
+        client.close();
+
+        Reconnect reconnect = reconnects.get(account.getLabel());
+        if (reconnect == null || reconnect.registered) {
+            /* a fresh disconnection: remember the channels before setOffline() parts them */
+            reconnect = new Reconnect();
+            for (AbstractIrcChannel channel : account.getChannels()) {
+                if (channel.isJoined()) {
+                    reconnect.channelsToRejoin.add(channel);
+                    if (channel instanceof IrcChannel) {
+                        reconnect.channelsToSync.add(channel.getName());
+                    }
+                }
+            }
+            reconnects.put(account.getLabel(), reconnect);
+        }
+        account.setOffline(e);
+        if (reconnectEnabled) {
+            scheduleReconnect(account, reconnect);
+        }
+    }
+
     public void dispose() {
+        dccManager.dispose();
         quitAll();
+        timeoutScheduler.dispose();
+        synchronized (this) {
+            if (selectorLoop != null) {
+                selectorLoop.dispose();
+                selectorLoop = null;
+            }
+        }
+    }
+
+    /**
+     * @param account
+     * @param reconnect
+     */
+    private void finishResyncIfDone(IrcAccount account, Reconnect reconnect) {
+        if (reconnect.registered && reconnect.channelsToSync.isEmpty()) {
+            reconnects.remove(account.getLabel());
+            lastResyncTime = Duration.ofNanos(System.nanoTime() - reconnect.lostAt);
+            if (maxResyncTime == null || lastResyncTime.compareTo(maxResyncTime) > 0) {
+                maxResyncTime = lastResyncTime;
+            }
+        }
     }
 
     public AbstractIrcChannel getAccountChannel(IrcAccount ircAccount, String channelName) {
@@ -77,7 +333,10 @@ public class IrcController {
             client = null;
         }
         if (client == null) {
-            client = new IrcClient(this, commandTimeout, pingInterval);
+            IrcOutboundQueue outboundQueue = new IrcOutboundQueue(floodControlBurstBytes,
+                    floodControlBytesPerSecond, IrcOutboundQueue.NanoClock.SYSTEM);
+            client = new IrcClient(this, timeoutScheduler, commandTimeout, pingInterval, outboundQueue,
+                    eventPumpInterval, eventPumpBatchSize, whoMaxInFlight, connectGate);
             try {
                 client.connect(account);
                 clients.put(account.getLabel(), client);
@@ -89,10 +348,48 @@ public class IrcController {
         return client;
     }
 
+    public Duration getAutoJoinSpacing() {
+        return autoJoinSpacing;
+    }
+
     public Duration getCommandTimeout() {
         return commandTimeout;
     }
 
+    /**
+     * @return the manager of the DCC file transfers
+     */
+    public IrcDccManager getDccManager() {
+        return dccManager;
+    }
+
+    public int getEventPumpBatchSize() {
+        return eventPumpBatchSize;
+    }
+
+    public Duration getEventPumpInterval() {
+        return eventPumpInterval;
+    }
+
+    public int getFloodControlBurstBytes() {
+        return floodControlBurstBytes;
+    }
+
+    public int getFloodControlBytesPerSecond() {
+        return floodControlBytesPerSecond;
+    }
+
+    /**
+     * @param account
+     * @return the local address of the connection of the given
+     *         {@code account} or {@code null} if the {@code account} is not
+     *         connected
+     */
+    public InetAddress getLocalAddress(IrcAccount account) {
+        IrcClient client = clients.get(account.getLabel());
+        return client == null || !client.isConnected() ? null : client.getLocalAddress();
+    }
+
     public AbstractIrcChannel getOrCreateAccountChannel(IrcAccount ircAccount, String channelName)
             throws IrcResourceException {
         IrcUtils.assertUiThread();
@@ -129,6 +426,90 @@ public class IrcController {
         return pingInterval;
     }
 
+    /**
+     * @param account
+     * @return the number of commands waiting in the flood control queue of
+     *         the given {@code account} or {@code 0} if the {@code account}
+     *         is not connected
+     */
+    public int getOutboundQueueLength(IrcAccount account) {
+        IrcClient client = clients.get(account.getLabel());
+        return client == null ? 0 : client.getOutboundQueue().size();
+    }
+
+    /**
+     * @return the loop serving the sockets of all NIO connections or
+     *         {@code null} if no NIO connection has been created yet
+     */
+    public synchronized IrcSelectorLoop getSelectorLoop() {
+        return selectorLoop;
+    }
+
+    /**
+     * @return the time between the last disconnection and the moment when all
+     *         channels joined before it were rejoined and their users were
+     *         reconciled or {@code null} if no resync has finished so far
+     */
+    public Duration getLastResyncTime() {
+        return lastResyncTime;
+    }
+
+    /**
+     * @return the time from the last {@link #connectAll(Collection)} till all
+     *         its accounts registered with their servers or {@code null} if
+     *         that has not happened yet
+     */
+    public Duration getLastStartupConnectTime() {
+        return lastStartupConnectTime;
+    }
+
+    /**
+     * @return the maximal number of accounts connecting at once
+     */
+    public int getMaxConcurrentConnects() {
+        return connectGate.getMaxConcurrent();
+    }
+
+    /**
+     * @return the maximum of {@link #getLastResyncTime()} so far or
+     *         {@code null} if no resync has finished so far
+     */
+    public Duration getMaxResyncTime() {
+        return maxResyncTime;
+    }
+
+    /**
+     * @return the number of automatic reconnect attempts so far, including
+     *         the failed ones
+     */
+    public long getReconnectAttemptCount() {
+        return reconnectAttemptCount;
+    }
+
+    public IrcReconnectBackoff getReconnectBackoff() {
+        return reconnectBackoff;
+    }
+
+    /**
+     * @return the number of automatic reconnect attempts that ended with a
+     *         successful registration
+     */
+    public long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    public IrcCommandTimeoutScheduler getTimeoutScheduler() {
+        return timeoutScheduler;
+    }
+
+    public int getWhoMaxInFlight() {
+        return whoMaxInFlight;
+    }
+
+    public ToIntFunction<AbstractIrcChannel> getWhoPriority() {
+        return whoPriority;
+    }
+
     /**
      * @param ircException
      */
@@ -174,6 +555,41 @@ public class IrcController {
         }
     }
 
+    /**
+     * Joins the given channels of the given {@code account} using as few
+     * {@code JOIN} commands as the server allows.
+     *
+     * @param account
+     * @param channels
+     * @throws IrcException
+     */
+    public void joinChannels(IrcAccount account, Collection<? extends AbstractIrcChannel> channels)
+            throws IrcException {
+        IrcUtils.assertUiThread();
+        List<AbstractIrcChannel> toJoin = new ArrayList<AbstractIrcChannel>(channels.size());
+        for (AbstractIrcChannel channel : channels) {
+            if (!channel.isJoined()) {
+                toJoin.add(channel);
+            }
+        }
+        if (toJoin.isEmpty()) {
+            return;
+        }
+        IrcClient client = getClientOrConnect(account);
+        List<AbstractIrcChannel> serverChannels = new ArrayList<AbstractIrcChannel>(toJoin.size());
+        for (AbstractIrcChannel channel : toJoin) {
+            if (!channel.isP2p()) {
+                serverChannels.add(channel);
+            } else {
+                /* see joinChannel(AbstractIrcChannel) */
+                channel.setJoined(true);
+            }
+        }
+        if (!serverChannels.isEmpty()) {
+            client.joinChannels(serverChannels);
+        }
+    }
+
     /**
      * @param channel
      * @throws IrcResourceException
@@ -223,6 +639,10 @@ public class IrcController {
         IrcUtils.assertUiThread();
         IrcClient client = getClientOrConnect(channel.getAccount());
 
+        if (CTCPCommand.DCC.name().equals(IrcCommandMessageFactory.getInitialCommand(text))) {
+            dccManager.execute(channel, text);
+            return;
+        }
         IrcCommandMessage cmd = IrcCommandMessageFactory.createCommandMessage(channel, text);
         if (cmd != null) {
             for (IrcClient c : clients.values()) {
@@ -235,8 +655,69 @@ public class IrcController {
         }
     }
 
+    /**
+     * Sends the given {@code ctcp} message to the given {@code nick}.
+     *
+     * @param account
+     * @param nick
+     * @param ctcp
+     *            the CTCP message without the {@link CTCPCommand#QUOTE_CHAR}s
+     * @throws IrcException
+     */
+    public void postCtcp(IrcAccount account, String nick, String ctcp) throws IrcException {
+        IrcUtils.assertUiThread();
+        getClientOrConnect(account).postRaw(IRCCommand.PRIVMSG.name() + " " + nick + " :" + CTCPCommand.QUOTE_CHAR
+                + ctcp + CTCPCommand.QUOTE_CHAR);
+    }
+
+    /**
+     * @param account
+     * @return {@code true} if an automatic reconnect of the given
+     *         {@code account} is pending
+     */
+    public boolean isReconnecting(IrcAccount account) {
+        Reconnect reconnect = reconnects.get(account.getLabel());
+        return reconnect != null && !reconnect.registered;
+    }
+
+    public boolean isReconnectEnabled() {
+        return reconnectEnabled;
+    }
+
+    public boolean isNioEnabled() {
+        return nioEnabled;
+    }
+
+    /**
+     * Creates a new unconnected {@link IRCConnection} using either the
+     * {@link IrcSelectorLoop} based implementation or the one that comes with
+     * irclib, depending on {@link #isNioEnabled()} and on whether the given
+     * {@code config} is supported by {@link NioIrcConnection}. Can be called
+     * from any thread.
+     *
+     * @param config
+     * @return a new {@link IRCConnection}
+     * @throws IrcException
+     */
+    public IRCConnection newConnection(IRCConfig config) throws IrcException {
+        if (nioEnabled && NioIrcConnection.supports(config)) {
+            synchronized (this) {
+                if (selectorLoop == null) {
+                    try {
+                        selectorLoop = new IrcSelectorLoop();
+                    } catch (IOException e) {
+                        throw new IrcException("Could not open a selector", e, null);
+                    }
+                }
+                return new NioIrcConnection(selectorLoop, config);
+            }
+        }
+        return IRCConnectionFactory.newConnection(config);
+    }
+
     public void quit(IrcAccount ircAccount) {
         IrcUtils.assertUiThread();
+        reconnects.remove(ircAccount.getLabel());
         IrcClient client = clients.remove(ircAccount.getLabel());
         if (client != null && client.isConnected()) {
             client.quitAndClose();
@@ -253,6 +734,65 @@ public class IrcController {
         }
     }
 
+    /**
+     * Performs a scheduled reconnect attempt unless it has been cancelled in
+     * the meantime.
+     *
+     * @param account
+     * @param reconnect
+     */
+    private void reconnect(IrcAccount account, Reconnect reconnect) {
+        if (reconnects.get(account.getLabel()) != reconnect || account.getState() == IrcAccountState.ONLINE) {
+            /* cancelled or connected manually */
+            return;
+        }
+        reconnectAttemptCount++;
+        reconnect.attempt++;
+        try {
+            getClientOrConnect(account);
+        } catch (IrcException e) {
+            EirccUi.log(e);
+            scheduleReconnect(account, reconnect);
+        }
+    }
+
+    /**
+     * Called by {@link IrcClient} when the given {@code client} has
+     * registered with its server. Rejoins the channels that were joined before
+     * a disconnection.
+     *
+     * @param client
+     */
+    public void registered(IrcClient client) {
+        IrcUtils.assertUiThread();
+        IrcAccount account = client.getAccount();
+        if (startupConnects.remove(account.getLabel()) && startupConnects.isEmpty()) {
+            lastStartupConnectTime = Duration.ofNanos(System.nanoTime() - startupConnectStartedNanos);
+        }
+        Reconnect reconnect = reconnects.get(account.getLabel());
+        if (reconnect == null || reconnect.registered) {
+            return;
+        }
+        reconnect.registered = true;
+        reconnectCount++;
+        List<AbstractIrcChannel> toRejoin = new ArrayList<AbstractIrcChannel>(reconnect.channelsToRejoin.size());
+        for (AbstractIrcChannel channel : reconnect.channelsToRejoin) {
+            /* the autojoin ones are joined by the ACCOUNT_STATE_CHANGED listener already */
+            if (!channel.isAutoJoin() && !channel.isJoined()) {
+                toRejoin.add(channel);
+            }
+        }
+        try {
+            joinChannels(account, toRejoin);
+        } catch (IrcException e) {
+            EirccUi.log(e);
+            for (AbstractIrcChannel channel : toRejoin) {
+                reconnect.channelsToSync.remove(channel.getName());
+            }
+        }
+        finishResyncIfDone(account, reconnect);
+    }
+
     /**
      * @param unseenNicks
      * @throws IOException
@@ -265,14 +805,134 @@ public class IrcController {
         // getClientOrConnect(server.getAccount()).whois(nicks);
     }
 
+    /**
+     * @param account
+     * @param reconnect
+     */
+    private void scheduleReconnect(final IrcAccount account, final Reconnect reconnect) {
+        if (reconnect.scheduled) {
+            return;
+        }
+        reconnect.scheduled = true;
+        long delay = reconnectBackoff.schedule(reconnect.attempt, TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+        Display.getDefault().timerExec((int) Math.min(delay, Integer.MAX_VALUE), new Runnable() {
+            @Override
+            public void run() {
+                reconnect.scheduled = false;
+                reconnect(account, reconnect);
+            }
+        });
+    }
+
+    /**
+     * @param autoJoinSpacing
+     *            see {@link #autoJoin(IrcAccount)}
+     */
+    public void setAutoJoinSpacing(Duration autoJoinSpacing) {
+        this.autoJoinSpacing = autoJoinSpacing;
+    }
+
     public void setCommandTimeout(Duration commandTimeout) {
         this.commandTimeout = commandTimeout;
     }
 
+    /**
+     * Takes effect for clients created after this call.
+     *
+     * @param eventPumpBatchSize
+     */
+    public void setEventPumpBatchSize(int eventPumpBatchSize) {
+        this.eventPumpBatchSize = eventPumpBatchSize;
+    }
+
+    /**
+     * Takes effect for clients created after this call.
+     *
+     * @param eventPumpInterval
+     */
+    public void setEventPumpInterval(Duration eventPumpInterval) {
+        this.eventPumpInterval = eventPumpInterval;
+    }
+
+    /**
+     * Takes effect for clients created after this call.
+     *
+     * @param floodControlBurstBytes
+     *            see {@link IrcOutboundQueue#getBurstBytes()}
+     */
+    public void setFloodControlBurstBytes(int floodControlBurstBytes) {
+        this.floodControlBurstBytes = floodControlBurstBytes;
+    }
+
+    /**
+     * Takes effect for clients created after this call.
+     *
+     * @param floodControlBytesPerSecond
+     *            see {@link IrcOutboundQueue#getBytesPerSecond()}
+     */
+    public void setFloodControlBytesPerSecond(int floodControlBytesPerSecond) {
+        this.floodControlBytesPerSecond = floodControlBytesPerSecond;
+    }
+
+    /**
+     * Takes effect for clients created after this call.
+     *
+     * @param maxConcurrentConnects
+     *            the maximal number of accounts connecting at once
+     */
+    public void setMaxConcurrentConnects(int maxConcurrentConnects) {
+        this.connectGate = new IrcConnectGate(maxConcurrentConnects);
+    }
+
+    /**
+     * Takes effect for clients created after this call.
+     *
+     * @param nioEnabled
+     *            if {@code true} the connections will be served by a single
+     *            shared {@link IrcSelectorLoop} rather than by a thread per
+     *            connection
+     */
+    public void setNioEnabled(boolean nioEnabled) {
+        this.nioEnabled = nioEnabled;
+    }
+
+    public void setReconnectBackoff(IrcReconnectBackoff reconnectBackoff) {
+        this.reconnectBackoff = reconnectBackoff;
+    }
+
+    /**
+     * @param reconnectEnabled
+     *            if {@code true} the accounts whose connection was lost will
+     *            be reconnected automatically
+     */
+    public void setReconnectEnabled(boolean reconnectEnabled) {
+        this.reconnectEnabled = reconnectEnabled;
+    }
+
     public void setPingInterval(Duration pingInterval) {
         this.pingInterval = pingInterval;
     }
 
+    /**
+     * Takes effect for clients created after this call.
+     *
+     * @param whoMaxInFlight
+     *            see {@link IrcWhoScheduler#getMaxInFlight()}
+     */
+    public void setWhoMaxInFlight(int whoMaxInFlight) {
+        this.whoMaxInFlight = whoMaxInFlight;
+    }
+
+    /**
+     * @param whoPriority
+     *            gives the order in which the channels get their users
+     *            listed via {@code WHO} after a join; lower values go first.
+     *            Called from the UI thread.
+     */
+    public void setWhoPriority(ToIntFunction<AbstractIrcChannel> whoPriority) {
+        this.whoPriority = whoPriority;
+    }
+
     /**
      * @param channel
      * @param nick
@@ -287,6 +947,60 @@ public class IrcController {
         }
     }
 
+    /**
+     * Adds the users who came back after a netsplit to the given channel in
+     * one go and notes that in the channel's log with a single line.
+     *
+     * @param account
+     * @param channelName
+     * @param servers
+     *            the names of the two servers whose link was broken
+     * @param nicks
+     * @throws IrcResourceException
+     */
+    public void usersNetjoined(IrcAccount account, String channelName, String servers, Collection<String> nicks)
+            throws IrcResourceException {
+        IrcUtils.assertUiThread();
+        AbstractIrcChannel channel = getOrCreateAccountChannel(account, channelName);
+        IrcServer server = account.getServer();
+        List<IrcUser> users = new ArrayList<IrcUser>(nicks.size());
+        for (String nick : nicks) {
+            IrcUser user = server.findUser(nick);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        int count = channel.addUsers(users, IrcUserFlags.EMPTY);
+        IrcLog log = channel.getLog();
+        if (count > 0 && log != null) {
+            log.appendSystemMessage(MessageFormat.format(IrcUiMessages.Message_Netjoin_x_y_users, servers, count));
+        }
+    }
+
+    /**
+     * Removes the users who quit due to a netsplit from all joined channels of
+     * the given {@code account} in one go per channel and notes that in each
+     * affected channel's log with a single line.
+     *
+     * @param account
+     * @param servers
+     *            the names of the two servers whose link was broken
+     * @param nicks
+     */
+    public void usersSplit(IrcAccount account, String servers, Collection<String> nicks) {
+        IrcUtils.assertUiThread();
+        for (AbstractIrcChannel channel : account.getChannels()) {
+            if (channel.isJoined()) {
+                int count = channel.removeUsers(nicks, servers);
+                IrcLog log = channel.getLog();
+                if (count > 0 && log != null) {
+                    log.appendSystemMessage(MessageFormat.format(IrcUiMessages.Message_Netsplit_x_y_users, servers,
+                            count));
+                }
+            }
+        }
+    }
+
     public void userQuit(IrcAccount account, String nick, String msg) {
         IrcUtils.assertUiThread();
         if (nick.equals(account.getAcceptedNick())) {
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.swt.widgets.Display;
+import org.l2x6.eircc.core.model.PersistentIrcObject;
+import org.l2x6.eircc.core.util.IrcUtils;
+import org.l2x6.eircc.ui.EirccUi;
+import org.l2x6.eircc.ui.IrcUiMessages;
+
+/**
+ * Saves {@link PersistentIrcObject}s in batches from a background {@link Job}
+ * rather than one by one on the UI thread. An object passed to
+ * {@link #save(PersistentIrcObject)} gets saved not later than
+ * {@link #getMaxDelay()} afterwards, together with all other objects passed
+ * in the meantime, each of them only once.
+ * <p>
+ * The records of the objects are taken on the UI thread when the delay
+ * elapses so that the job does not need to access the model. Call
+ * {@link #flush()} before shutdown to save all pending objects
+ * synchronously.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcWriteBehindSaver {
+
+    /** A record taken from an object on the UI thread */
+    private static class PendingRecord {
+        private final PersistentIrcObject object;
+        private final Map<String, String> record;
+
+        PendingRecord(PersistentIrcObject object, Map<String, String> record) {
+            super();
+            this.object = object;
+            this.record = record;
+        }
+    }
+
+    public static final Duration DEFAULT_MAX_DELAY = Duration.ofSeconds(2);
+
+    /** Takes the records of {@link #dirty} and hands them over to {@link #job} */
+    private final Runnable collect = new Runnable() {
+        @Override
+        public void run() {
+            collectScheduled = false;
+            if (collect()) {
+                job.schedule();
+            }
+        }
+    };
+
+    /** {@code true} if {@link #collect} is waiting for its timer. Accessed only from the UI thread. */
+    private boolean collectScheduled = false;
+
+    /** Objects waiting for {@link #collect}. Accessed only from the UI thread. */
+    private final Set<PersistentIrcObject> dirty = new LinkedHashSet<PersistentIrcObject>();
+
+    private final Job job = new Job(IrcUiMessages.WriteBehindSaver_job) {
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            write(monitor);
+            return Status.OK_STATUS;
+        }
+    };
+
+    private final Duration maxDelay;
+
+    /** Records waiting for {@link #job}, guarded by {@link #pendingLock} */
+    private List<PendingRecord> pending = new ArrayList<PendingRecord>();
+
+    /** Held only briefly so that the UI thread never waits for the disk */
+    private final Object pendingLock = new Object();
+
+    /** Held while a batch is being written */
+    private final Object writeLock = new Object();
+
+    public IrcWriteBehindSaver() {
+        this(DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * @param maxDelay
+     *            see {@link #getMaxDelay()}
+     */
+    public IrcWriteBehindSaver(Duration maxDelay) {
+        super();
+        this.maxDelay = maxDelay;
+        job.setSystem(true);
+    }
+
+    /**
+     * Takes the records of {@link #dirty} and appends them to
+     * {@link #pending}.
+     *
+     * @return {@code true} if there was anything to take
+     */
+    private boolean collect() {
+        if (dirty.isEmpty()) {
+            return false;
+        }
+        List<PendingRecord> records = new ArrayList<PendingRecord>(dirty.size());
+        for (PersistentIrcObject object : dirty) {
+            records.add(new PendingRecord(object, object.toRecord()));
+        }
+        dirty.clear();
+        synchronized (pendingLock) {
+            pending.addAll(records);
+        }
+        return true;
+    }
+
+    /**
+     * Saves all objects passed to {@link #save(PersistentIrcObject)} so far,
+     * waiting for the background job if it is running. Must be called from
+     * the UI thread.
+     *
+     * @throws InterruptedException
+     */
+    public void flush() throws InterruptedException {
+        IrcUtils.assertUiThread();
+        collect();
+        job.cancel();
+        job.join();
+        write(new NullProgressMonitor());
+    }
+
+    /**
+     * @return the longest time an object waits after
+     *         {@link #save(PersistentIrcObject)} before its record is taken
+     *         and written
+     */
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Marks the given {@code object} for saving within {@link #getMaxDelay()}.
+     * Must be called from the UI thread.
+     *
+     * @param object
+     */
+    public void save(PersistentIrcObject object) {
+        IrcUtils.assertUiThread();
+        dirty.add(object);
+        if (!collectScheduled) {
+            collectScheduled = true;
+            Display.getDefault().timerExec((int) Math.min(maxDelay.toMillis(), Integer.MAX_VALUE), collect);
+        }
+    }
+
+    /**
+     * Writes and clears {@link #pending}. The records are written in the
+     * order they were taken, so a later record of an object always wins.
+     *
+     * @param monitor
+     */
+    private void write(IProgressMonitor monitor) {
+        synchronized (writeLock) {
+            List<PendingRecord> batch;
+            synchronized (pendingLock) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<PendingRecord>();
+            }
+            for (PendingRecord pendingRecord : batch) {
+                try {
+                    pendingRecord.object.save(pendingRecord.record, monitor);
+                } catch (CoreException e) {
+                    EirccUi.log(e);
+                }
+            }
+        }
+    }
+
+}
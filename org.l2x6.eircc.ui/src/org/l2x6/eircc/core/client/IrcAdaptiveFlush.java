@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.time.Duration;
+
+/**
+ * Decides when a buffer of streamed items should be passed to the UI. The
+ * first flush happens after a few items so that the user sees the results
+ * quickly. Each further flush doubles the size threshold up to a maximum, so
+ * that a long stream causes only a logarithmic number of UI updates. A
+ * buffer is flushed also when the maximal delay since the last flush has
+ * elapsed, so that a slow stream still shows progress.
+ * <p>
+ * Not thread safe.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcAdaptiveFlush {
+
+    private long lastFlushNanos;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final int minBatchSize;
+    private int threshold;
+
+    /**
+     * @param minBatchSize
+     *            the size threshold of the first flush
+     * @param maxBatchSize
+     *            the maximal size threshold
+     * @param maxDelay
+     *            the maximal time between two flushes of a non-empty buffer
+     */
+    public IrcAdaptiveFlush(int minBatchSize, int maxBatchSize, Duration maxDelay) {
+        super();
+        if (minBatchSize <= 0 || maxBatchSize < minBatchSize) {
+            throw new IllegalArgumentException("Must be 0 < minBatchSize <= maxBatchSize");
+        }
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.threshold = minBatchSize;
+    }
+
+    /**
+     * Records a flush and raises the size threshold for the next one.
+     *
+     * @param nowNanos
+     *            the current {@link System#nanoTime()}
+     */
+    public void flushed(long nowNanos) {
+        lastFlushNanos = nowNanos;
+        threshold = (int) Math.min((long) threshold * 2, maxBatchSize);
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @param bufferSize
+     *            the number of items in the buffer
+     * @param nowNanos
+     *            the current {@link System#nanoTime()}
+     * @return {@code true} if the buffer should be flushed now
+     */
+    public boolean isDue(int bufferSize, long nowNanos) {
+        return bufferSize >= threshold || (bufferSize > 0 && nowNanos - lastFlushNanos >= maxDelayNanos);
+    }
+
+    /**
+     * Starts a new stream.
+     *
+     * @param nowNanos
+     *            the current {@link System#nanoTime()}
+     */
+    public void reset(long nowNanos) {
+        lastFlushNanos = nowNanos;
+        threshold = minBatchSize;
+    }
+
+}
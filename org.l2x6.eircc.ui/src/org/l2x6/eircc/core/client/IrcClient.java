@@ -9,46 +9,62 @@
 package org.l2x6.eircc.core.client;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 import org.eclipse.swt.widgets.Display;
 import org.l2x6.eircc.core.IrcController;
 import org.l2x6.eircc.core.IrcException;
+import org.l2x6.eircc.core.client.IrcCommandTimeoutScheduler.Deadline;
+import org.l2x6.eircc.core.client.IrcOutboundQueue.Entry;
+import org.l2x6.eircc.core.client.IrcOutboundQueue.Lane;
 import org.l2x6.eircc.core.client.cmd.CtcpIrcCommandCallback;
 import org.l2x6.eircc.core.client.cmd.IrcCommandCallbackList;
 import org.l2x6.eircc.core.client.cmd.IrcCommandMessage;
 import org.l2x6.eircc.core.client.cmd.NickIrcCommandCallback;
+import org.l2x6.eircc.core.client.nio.AbstractIrcConnection;
+import org.l2x6.eircc.core.client.nio.IrcLine;
 import org.l2x6.eircc.core.model.AbstractIrcChannel;
 import org.l2x6.eircc.core.model.IrcAccount;
 import org.l2x6.eircc.core.model.IrcAccount.IrcAccountState;
 import org.l2x6.eircc.core.model.IrcChannel;
+import org.l2x6.eircc.core.model.IrcChannelList;
 import org.l2x6.eircc.core.model.IrcLog;
 import org.l2x6.eircc.core.model.IrcMessage;
+import org.l2x6.eircc.core.model.IrcServer;
 import org.l2x6.eircc.core.model.IrcUser;
 import org.l2x6.eircc.core.model.IrcUserFlags;
 import org.l2x6.eircc.core.model.IrcWhoUser;
-import org.l2x6.eircc.core.model.PlainIrcChannel;
 import org.l2x6.eircc.core.model.PlainIrcMessage.IrcMessageType;
 import org.l2x6.eircc.core.model.PlainIrcUser;
+import org.l2x6.eircc.core.model.event.IrcModelEvent;
+import org.l2x6.eircc.core.model.event.IrcModelEvent.EventType;
 import org.l2x6.eircc.core.model.resource.IrcResourceException;
 import org.l2x6.eircc.core.util.IrcUtils;
 import org.l2x6.eircc.ui.EirccUi;
@@ -56,8 +72,8 @@ import org.l2x6.eircc.ui.IrcUiMessages;
 import org.schwering.irc.lib.IRCConfig;
 import org.schwering.irc.lib.IRCConfigBuilder;
 import org.schwering.irc.lib.IRCConnection;
-import org.schwering.irc.lib.IRCConnectionFactory;
 import org.schwering.irc.lib.IRCEventListener;
+import org.schwering.irc.lib.IRCTrafficLogger;
 import org.schwering.irc.lib.IRCUser;
 import org.schwering.irc.lib.impl.DefaultIRCSSLSupport;
 import org.schwering.irc.lib.util.CTCPCommand;
@@ -72,7 +88,7 @@ public class IrcClient {
     /**
      * A single thread Executor.
      */
-    private static class IrcExecutor extends ThreadPoolExecutor {
+    private static class IrcExecutor extends ScheduledThreadPoolExecutor {
         /**
          * @param executorType
          * @return
@@ -91,28 +107,26 @@ public class IrcClient {
 
         /**
          * @param executorType
-         * @param corePoolSize
-         * @param maximumPoolSize
-         * @param keepAliveTime
-         * @param unit
-         * @param workQueue
          */
         public IrcExecutor(String executorType) {
-            super(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
-                    createThreadFactory(executorType));
+            super(1, createThreadFactory(executorType));
         }
 
     }
 
-    private class TimeoutCheckTask implements Runnable {
-        private final Future<?> future;
+    /**
+     * Arms a deadline in {@link IrcClient#timeoutScheduler} before running the
+     * wrapped command and disarms it when the command is done.
+     */
+    private class DeadlineTask implements Runnable {
+        private final Runnable command;
 
         /**
-         * @param future
+         * @param command
          */
-        public TimeoutCheckTask(Future<?> future) {
+        public DeadlineTask(Runnable command) {
             super();
-            this.future = future;
+            this.command = command;
         }
 
         /**
@@ -120,33 +134,130 @@ public class IrcClient {
          */
         @Override
         public void run() {
-
+            Deadline deadline = timeoutScheduler.arm(commandTimeout, new Runnable() {
+                @Override
+                public void run() {
+                    notifyUi(new IrcException(IrcUiMessages.IrcClient_commandTimeOut, new TimeoutException(),
+                            account));
+                }
+            });
             try {
-                future.get(commandTimeout.toMillis(), TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-            } catch (ExecutionException e) {
+                command.run();
+            } catch (RuntimeException e) {
                 String msg = MessageFormat.format(IrcUiMessages.IrcClient_commandExecutionException, e.getMessage());
-                account.setOffline(new IrcException(msg, e, account));
-            } catch (TimeoutException e) {
-                account.setOffline(new IrcException(IrcUiMessages.IrcClient_commandTimeOut, e, account));
+                notifyUi(new IrcException(msg, e, account));
+            } finally {
+                deadline.disarm();
             }
+        }
+
+    }
+
+    /**
+     * The messages of a {@code chathistory} batch collected on the
+     * {@link #connection}'s receiving thread till the end of the batch.
+     */
+    private static class ChatHistoryBatch {
+        private final List<OffsetDateTime> arrivedAts = new ArrayList<OffsetDateTime>();
+        private final List<String> texts = new ArrayList<String>();
+        private final String target;
+        private final List<PlainIrcUser> users = new ArrayList<PlainIrcUser>();
+
+        public ChatHistoryBatch(String target) {
+            super();
+            this.target = target;
+        }
+
+        public void add(OffsetDateTime arrivedAt, PlainIrcUser user, String text) {
+            arrivedAts.add(arrivedAt);
+            users.add(user);
+            texts.add(text);
+        }
+    }
+
+    /**
+     * A message being sent by {@link IrcClient#postMessage(AbstractIrcChannel, String)}
+     * in one or more chunks. Accessed only from the {@link IrcClient#executor}'s
+     * thread.
+     */
+    private static class OutgoingMessage {
+        private final AbstractIrcChannel channel;
+        /** Set when the rest of the chunks must not be sent */
+        private boolean done = false;
+        /** The chunks sent so far */
+        private final List<String> sent;
+
+        public OutgoingMessage(AbstractIrcChannel channel, int chunkCount) {
+            super();
+            this.channel = channel;
+            this.sent = new ArrayList<String>(chunkCount);
+        }
+    }
+
+    /**
+     * Notes the time when irclib's own connection has read a line from the
+     * socket and passes all lines to the account's traffic logger.
+     * irclib calls {@link #in(String)} on its reading thread before parsing
+     * the line.
+     */
+    private class ReceiveTimeTrafficLogger implements IRCTrafficLogger {
+        private final IRCTrafficLogger delegate;
 
+        public ReceiveTimeTrafficLogger(IRCTrafficLogger delegate) {
+            super();
+            this.delegate = delegate;
         }
 
+        /**
+         * @see org.schwering.irc.lib.IRCTrafficLogger#in(java.lang.String)
+         */
+        @Override
+        public void in(String line) {
+            if (line != null) {
+                lastReceivedNanos = System.nanoTime();
+            }
+            if (delegate != null) {
+                delegate.in(line);
+            }
+        }
+
+        /**
+         * @see org.schwering.irc.lib.IRCTrafficLogger#out(java.lang.String)
+         */
+        @Override
+        public void out(String line) {
+            if (delegate != null) {
+                delegate.out(line);
+            }
+        }
     }
 
     private class UiListener implements IRCEventListener {
 
-        private final List<PlainIrcChannel> channelBuffer = new ArrayList<PlainIrcChannel>(LIST_BUFFER_SIZE);
+        /** Open {@code chathistory} batches by reference tag */
+        private final Map<String, ChatHistoryBatch> chatHistoryBatches = new HashMap<String, ChatHistoryBatch>();
+
+        /** The {@code LIST} replies not passed to the UI yet */
+        private IrcChannelList channelBuffer = new IrcChannelList(LIST_BUFFER_SIZE);
+
+        private final IrcAdaptiveFlush channelBufferFlush = new IrcAdaptiveFlush(LIST_BUFFER_SIZE,
+                LIST_MAX_BUFFER_SIZE, LIST_MAX_FLUSH_DELAY);
+
+        /** {@code true} between the first {@code LIST} reply and {@code RPL_LISTEND} */
+        private boolean listing = false;
         private final Map<String, List<IrcWhoUser>> whoBuffers = new HashMap<String, List<IrcWhoUser>>();
 
+        /** The nicks of all users seen so far in the pending WHO replies by channel */
+        private final Map<String, Set<String>> whoNicks = new HashMap<String, Set<String>>();
+
         /**
          *
          */
         private void flushChannelBuffer() {
-            final PlainIrcChannel[] channels = channelBuffer.toArray(new PlainIrcChannel[channelBuffer.size()]);
-            channelBuffer.clear();
-            Display.getDefault().asyncExec(new Runnable() {
+            final IrcChannelList channels = channelBuffer;
+            channelBufferFlush.flushed(System.nanoTime());
+            channelBuffer = new IrcChannelList(channelBufferFlush.getThreshold());
+            eventPump.post(new Runnable() {
                 @Override
                 public void run() {
                     account.getServer().addChannels(channels);
@@ -161,7 +272,7 @@ public class IrcClient {
             if (whoBuffer != null && !whoBuffer.isEmpty()) {
                 final IrcWhoUser[] users = whoBuffer.toArray(new IrcWhoUser[whoBuffer.size()]);
                 whoBuffer.clear();
-                Display.getDefault().asyncExec(new Runnable() {
+                eventPump.post(new Runnable() {
                     @Override
                     public void run() {
                         IrcChannel channel = account.findChannel(channelName);
@@ -173,6 +284,86 @@ public class IrcClient {
             }
         }
 
+        /**
+         * Appends the messages of the given {@code batch} to the log of its
+         * channel in one go.
+         *
+         * @param batch
+         */
+        private void flushChatHistory(final ChatHistoryBatch batch) {
+            if (batch.texts.isEmpty()) {
+                return;
+            }
+            eventPump.post(new Runnable() {
+                @Override
+                public void run() {
+                    AbstractIrcChannel channel = controller.getAccountChannel(account, batch.target);
+                    if (channel == null) {
+                        return;
+                    }
+                    IrcServer server = account.getServer();
+                    List<Function<IrcLog, IrcMessage>> factories = new ArrayList<Function<IrcLog, IrcMessage>>(
+                            batch.texts.size());
+                    for (int i = 0; i < batch.texts.size(); i++) {
+                        final OffsetDateTime arrivedAt = batch.arrivedAts.get(i);
+                        final String text = batch.texts.get(i);
+                        PlainIrcUser user = batch.users.get(i);
+                        final IrcUser ircUser = controller.getOrCreateUser(server, user.getNick(),
+                                user.getUsername(), user.getHost());
+                        factories.add(log -> new IrcMessage(log, arrivedAt, ircUser, text, channel.isP2p(),
+                                IrcMessageType.CHAT));
+                    }
+                    channel.getLog().appendMessages(factories);
+                }
+            });
+        }
+
+        /**
+         * Handles {@code BATCH +ref type params} and {@code BATCH -ref} as
+         * specified in http://ircv3.net/specs/extensions/batch-3.2.html
+         *
+         * @param line
+         */
+        private void handleBatch(IrcLine line) {
+            String ref = line.getParam(0);
+            if (ref.length() < 2) {
+                return;
+            }
+            if (ref.charAt(0) == '+') {
+                if (BATCH_TYPE_CHATHISTORY.equals(line.getParam(1))) {
+                    chatHistoryBatches.put(ref.substring(1), new ChatHistoryBatch(line.getParam(2)));
+                }
+            } else if (ref.charAt(0) == '-') {
+                ChatHistoryBatch batch = chatHistoryBatches.remove(ref.substring(1));
+                if (batch != null) {
+                    flushChatHistory(batch);
+                }
+            }
+        }
+
+        /**
+         * Removes the users who were not listed in the WHO reply from the
+         * given channel, i.e. the ones who left while we were disconnected.
+         *
+         * @param channelName
+         * @param nicks
+         *            all nicks listed in the WHO reply
+         */
+        private void retainWhoUsers(final String channelName, Set<String> nicks) {
+            final Set<String> presentNicks = nicks != null ? nicks : Collections.<String> emptySet();
+            eventPump.post(new Runnable() {
+                @Override
+                public void run() {
+                    IrcChannel channel = account.findChannel(channelName);
+                    if (channel != null) {
+                        channel.retainUsers(presentNicks);
+                        controller.channelSynced(IrcClient.this, channel);
+                    }
+                    whoScheduler.done(channelName);
+                }
+            });
+        }
+
         /**
          * @param num
          * @param value
@@ -187,10 +378,22 @@ public class IrcClient {
                     EirccUi.warn("Probably something wrong: " + myNick + " != " + account.getAcceptedNick());
                 }
                 if (st.hasMoreTokens()) {
-                    final String channelName = st.nextToken();
-                    PlainIrcChannel channel = account.getServer().createChannel(channelName);
-                    channelBuffer.add(channel);
-                    if (channelBuffer.size() >= LIST_BUFFER_SIZE) {
+                    long now = System.nanoTime();
+                    if (!listing) {
+                        listing = true;
+                        channelBufferFlush.reset(now);
+                    }
+                    String channelName = st.nextToken();
+                    int userCount = -1;
+                    if (st.hasMoreTokens()) {
+                        try {
+                            userCount = Integer.parseInt(st.nextToken());
+                        } catch (NumberFormatException e) {
+                            /* ignore */
+                        }
+                    }
+                    channelBuffer.add(channelName, userCount, msg);
+                    if (channelBufferFlush.isDue(channelBuffer.size(), now)) {
                         flushChannelBuffer();
                     }
                 }
@@ -277,6 +480,12 @@ public class IrcClient {
                                 String server = st.nextToken();
                                 if (st.hasMoreTokens()) {
                                     String nick = st.nextToken();
+                                    Set<String> nicks = whoNicks.get(channelName);
+                                    if (nicks == null) {
+                                        nicks = new HashSet<String>();
+                                        whoNicks.put(channelName, nicks);
+                                    }
+                                    nicks.add(nick);
                                     if (st.hasMoreTokens()) {
                                         String flags = st.nextToken();
 
@@ -303,12 +512,55 @@ public class IrcClient {
 
         }
 
+        /**
+         * Handles a {@value IrcClient#RPL_WHOSPCRPL} reply to the query sent
+         * by {@link IrcClient#sendWho(String)}, i.e.
+         * {@code <me> <token> <channel> <user> <host> <nick> <flags>}.
+         *
+         * @param middle
+         * @param tail
+         */
+        private void handleWhoxReply(String middle, String tail) {
+            StringTokenizer st = new StringTokenizer(middle, " ");
+            if (st.countTokens() == 6) {
+                @SuppressWarnings("unused")
+                String myNick = st.nextToken();
+                if (WHOX_TOKEN.equals(st.nextToken())) {
+                    String channelName = st.nextToken();
+                    String username = st.nextToken();
+                    String host = st.nextToken();
+                    String nick = st.nextToken();
+                    Set<String> nicks = whoNicks.get(channelName);
+                    if (nicks == null) {
+                        nicks = new HashSet<String>();
+                        whoNicks.put(channelName, nicks);
+                    }
+                    nicks.add(nick);
+                    List<IrcWhoUser> whoBuffer = whoBuffers.get(channelName);
+                    if (whoBuffer == null) {
+                        whoBuffer = new ArrayList<IrcWhoUser>();
+                        whoBuffers.put(channelName, whoBuffer);
+                    }
+                    whoBuffer.add(new IrcWhoUser(nick, username, host, null, new IrcUserFlags(tail)));
+                    if (whoBuffer.size() >= LIST_BUFFER_SIZE) {
+                        flushWhoBuffer(channelName, whoBuffer);
+                    }
+                }
+            }
+        }
+
         /**
          * @see org.schwering.irc.lib.IRCEventListener#onDisconnected()
          */
         @Override
         public void onDisconnected() {
-            System.out.println("disconnected");
+            eventPump.post(new Runnable() {
+                @Override
+                public void run() {
+                    controller.connectionLost(IrcClient.this, new IrcException(IrcUiMessages.IrcClient_connectionLost,
+                            account));
+                }
+            });
         }
 
         /**
@@ -330,6 +582,9 @@ public class IrcClient {
                         connection.doQuit();
                     }
                     break;
+                case ERR_NOMOTD:
+                    eventPump.post(iSupportCompleted);
+                    break;
                 default:
                     break;
                 }
@@ -359,7 +614,7 @@ public class IrcClient {
          */
         @Override
         public void onJoin(final String chan, final IRCUser user) {
-            Display.getDefault().asyncExec(new Runnable() {
+            eventPump.post(new Runnable() {
                 @Override
                 public void run() {
                     try {
@@ -368,13 +623,22 @@ public class IrcClient {
                         if (nick.equals(account.getAcceptedNick())) {
                             /* It is me who joined */
                             channel.setJoined(true);
+                            requestChatHistory(channel);
+                            if (channel instanceof IrcChannel) {
+                                whoScheduler.enqueue(channel.getName());
+                            }
                         } else {
                             /* make sure the user info is stored in server */
                             IrcUser u = controller.getOrCreateUser(account.getServer(), nick, user.getUsername(),
                                     user.getHost());
-                            // TODO issue WHO or similar to figure out the real
-                            // flags
-                            channel.addUser(u, IrcUserFlags.EMPTY);
+                            if (netsplits.join(channel.getName(), nick, System.nanoTime())) {
+                                scheduleNetsplitFlush();
+                            } else {
+                                flushNetsplits();
+                                // TODO issue WHO or similar to figure out the
+                                // real flags
+                                channel.addUser(u, IrcUserFlags.EMPTY);
+                            }
                         }
                     } catch (IrcResourceException e) {
                         EirccUi.log(e);
@@ -418,8 +682,15 @@ public class IrcClient {
          */
         @Override
         public void onNick(IRCUser user, String newNick) {
-            PlainIrcUser plainUser = toPlainUser(user);
-            callbacks.forEach(callback -> callback.onNick(account, plainUser, newNick));
+            final PlainIrcUser plainUser = toPlainUser(user);
+            final IrcCommandCallbackList cbs = callbacks;
+            eventPump.post(new Runnable() {
+                @Override
+                public void run() {
+                    flushNetsplits();
+                    cbs.forEach(callback -> callback.onNick(account, plainUser, newNick));
+                }
+            });
         }
 
         /**
@@ -437,11 +708,15 @@ public class IrcClient {
          */
         @Override
         public void onPart(final String chan, final IRCUser user, final String msg) {
-            Display.getDefault().asyncExec(new Runnable() {
+            eventPump.post(new Runnable() {
                 @Override
                 public void run() {
+                    flushNetsplits();
                     AbstractIrcChannel channel = controller.getAccountChannel(account, chan);
                     if (channel != null) {
+                        if (user.getNick().equals(account.getAcceptedNick())) {
+                            whoScheduler.remove(channel.getName());
+                        }
                         controller.userLeft(channel, user.getNick(), msg);
                     }
                 }
@@ -462,7 +737,21 @@ public class IrcClient {
          */
         @Override
         public void onPrivmsg(String target, final IRCUser user, final String msg) {
-            Display.getDefault().asyncExec(new Runnable() {
+            /* on this thread rather than in the runnable so that UI load does not skew it */
+            final OffsetDateTime arrivedAt = currentLineTime();
+            final long receivedNanos = lastReceivedNanos();
+            IrcLine line = currentLine();
+            if (line != null) {
+                String batchRef = line.getTagValue("batch");
+                ChatHistoryBatch batch = batchRef != null ? chatHistoryBatches.get(batchRef) : null;
+                if (batch != null) {
+                    if (IrcUtils.getCtcpCommand(msg) == null) {
+                        batch.add(arrivedAt, toPlainUser(user), msg);
+                    }
+                    return;
+                }
+            }
+            eventPump.post(new Runnable() {
                 @Override
                 public void run() {
                     try {
@@ -482,9 +771,11 @@ public class IrcClient {
                             callbacks.forEach(callback -> callback.onCtcp(channel, plainUser, ctcpCommand, msg));
                         } else {
                             IrcLog log = channel.getLog();
-                            IrcMessage message = new IrcMessage(log, OffsetDateTime.now(), ircUser, msg, channel
-                                    .isP2p(), IrcMessageType.CHAT);
+                            IrcMessage message = new IrcMessage(log, arrivedAt, ircUser, msg, channel.isP2p(),
+                                    IrcMessageType.CHAT);
                             log.appendMessage(message);
+                            account.getLatencyStats().getReadToLogHistogram()
+                                    .record(System.nanoTime() - receivedNanos);
                         }
                     } catch (IrcResourceException e) {
                         EirccUi.log(e);
@@ -499,10 +790,21 @@ public class IrcClient {
          */
         @Override
         public void onQuit(final IRCUser user, final String msg) {
-            Display.getDefault().asyncExec(new Runnable() {
+            eventPump.post(new Runnable() {
                 @Override
                 public void run() {
-                    controller.userQuit(account, user.getNick(), msg);
+                    String nick = user.getNick();
+                    if (!nick.equals(account.getAcceptedNick()) && IrcNetsplitTracker.isSplitMessage(msg)) {
+                        if (netsplits.hasPendingJoins()) {
+                            /* the netjoins must not be applied after this */
+                            flushNetsplits();
+                        }
+                        netsplits.quit(nick, msg, System.nanoTime());
+                        scheduleNetsplitFlush();
+                    } else {
+                        flushNetsplits();
+                        controller.userQuit(account, nick, msg);
+                    }
                 }
             });
         }
@@ -512,13 +814,25 @@ public class IrcClient {
          */
         @Override
         public void onRegistered() {
-            Display.getDefault().asyncExec(new Runnable() {
+            eventPump.post(new Runnable() {
                 @Override
                 public void run() {
                     IrcUser me = controller.getOrCreateUser(account.getServer(), connection.getNick(),
                             account.getUsername(), "localhost");
                     account.setMe(me);
+                    long started = connectStartedNanos;
+                    if (started != 0) {
+                        account.getLatencyStats().getConnectToRegisteredHistogram()
+                                .record(System.nanoTime() - started);
+                    }
                     account.setState(IrcAccountState.ONLINE);
+                    controller.registered(IrcClient.this);
+                    /* in case the server sends neither RPL_ENDOFMOTD nor ERR_NOMOTD */
+                    Display.getDefault().timerExec(ISUPPORT_TIMEOUT_MILLIS, iSupportCompleted);
+                    if (pingInterval != null) {
+                        Display.getDefault().timerExec(IrcEventPump.toTimerMillis(pingInterval.toNanos()),
+                                keepalive);
+                    }
                 }
             });
         }
@@ -530,9 +844,28 @@ public class IrcClient {
         @Override
         public void onReply(int num, String value, String msg) {
             try {
+                if (num == RPL_WHOSPCRPL) {
+                    handleWhoxReply(value, msg);
+                    return;
+                }
                 IRCReply rpl = IRCReply.valueByCode(num);
                 if (rpl != null) {
                     switch (rpl) {
+                    case RPL_ISUPPORT:
+                        final int spacePos = value.indexOf(' ');
+                        if (spacePos >= 0) {
+                            eventPump.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    iSupport.addTokens(value.substring(spacePos + 1));
+                                    account.getServer().setCaseMapping(iSupport.getCaseMapping());
+                                }
+                            });
+                        }
+                        break;
+                    case RPL_ENDOFMOTD:
+                        eventPump.post(iSupportCompleted);
+                        break;
                     case RPL_LISTSTART:
                         /* ignore */
                         break;
@@ -543,6 +876,13 @@ public class IrcClient {
                         if (!channelBuffer.isEmpty()) {
                             flushChannelBuffer();
                         }
+                        listing = false;
+                        eventPump.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                account.getServer().channelsListed(OffsetDateTime.now());
+                            }
+                        });
                         break;
                     case RPL_NAMREPLY:
                         handleNamReply(num, value, msg);
@@ -558,6 +898,7 @@ public class IrcClient {
                         st.nextToken();
                         String channelName = st.nextToken();
                         flushWhoBuffer(channelName, whoBuffers.get(channelName));
+                        retainWhoUsers(channelName, whoNicks.remove(channelName));
                         break;
                     default:
                         break;
@@ -583,6 +924,16 @@ public class IrcClient {
          */
         @Override
         public void unknown(String prefix, String command, String middle, String trailing) {
+            if ("BATCH".equalsIgnoreCase(command)) {
+                IrcLine line = currentLine();
+                if (line != null) {
+                    handleBatch(line);
+                    return;
+                }
+            } else if ("PONG".equalsIgnoreCase(command)) {
+                account.getLatencyStats().pongReceived(trailing, lastReceivedNanos());
+                return;
+            }
             System.out.println("unknown " + prefix + " " + command + " " + middle + " " + trailing);
         }
 
@@ -596,11 +947,80 @@ public class IrcClient {
         return new PlainIrcUser(user.getNick(), user.getUsername(), user.getHost());
     }
 
+    private static final String BATCH_TYPE_CHATHISTORY = "chathistory";
+
+    /** See http://ircv3.net/specs/extensions/batch-3.2.html */
+    public static final String CAP_BATCH = "batch";
+
+    /** See https://ircv3.net/specs/extensions/chathistory */
+    public static final String CAP_CHATHISTORY = "draft/chathistory";
+
+    /** The maximal number of messages to request via {@code CHATHISTORY} */
+    private static final int CHATHISTORY_LIMIT = 100;
+
+    /** The timestamp format required by {@code CHATHISTORY} */
+    private static final DateTimeFormatter CHATHISTORY_TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern(
+            "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
     public static final int DEFAULT_PORT = 6667;
 
+    /**
+     * The time to wait for the end of the {@code RPL_ISUPPORT} replies after
+     * the registration
+     */
+    private static final int ISUPPORT_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * A {@code PING} is sent after {@link #pingInterval} of silence and at
+     * least every {@code MAX_PING_INTERVAL_FACTOR * pingInterval} so that the
+     * lag shown to the user does not get too old on busy connections
+     */
+    private static final int MAX_PING_INTERVAL_FACTOR = 5;
+
     /** Update UI by this many list entries. */
     private static final int LIST_BUFFER_SIZE = 16;
 
+    /**
+     * The {@code LIST} replies are passed to the UI in chunks growing from
+     * {@link #LIST_BUFFER_SIZE} up to this size
+     */
+    private static final int LIST_MAX_BUFFER_SIZE = 8192;
+
+    /** Pass the {@code LIST} replies to the UI at least this often */
+    private static final Duration LIST_MAX_FLUSH_DELAY = Duration.ofMillis(500);
+
+    /**
+     * The {@code QUIT}s and {@code JOIN}s of a netsplit or netjoin arriving
+     * within this time from the first one are applied to the model at once
+     */
+    private static final int NETSPLIT_BURST_MILLIS = 1000;
+
+    /**
+     * Negotiated only by {@link AbstractIrcConnection}s, i.e. if
+     * {@link IrcController#isNioEnabled()}; the connections that come with
+     * irclib never send {@code CAP LS}
+     */
+    private static final List<String> REQUESTED_CAPABILITIES = Arrays.asList(
+            AbstractIrcConnection.CAP_SERVER_TIME, CAP_BATCH, CAP_CHATHISTORY);
+
+    /** The reply to a {@code WHOX} query, see http://faerion.sourceforge.net/doc/irc/whox.var */
+    private static final int RPL_WHOSPCRPL = 354;
+
+    /**
+     * The {@code WHOX} fields we need: token, channel, user, host, nick and
+     * flags
+     */
+    private static final String WHOX_FIELDS = "%tcuhnf";
+
+    /** Lets us recognize the replies to our own {@code WHOX} queries */
+    private static final String WHOX_TOKEN = "152";
+
+    /**
+     * The time after which a {@code WHO} query without {@code RPL_ENDOFWHO}
+     * stops blocking the next ones
+     */
+    private static final int WHO_TIMEOUT_MILLIS = 30000;
+
     private IrcAccount account;
 
     /**
@@ -611,6 +1031,19 @@ public class IrcClient {
 
     private Duration commandTimeout;
 
+    /** Shared by all {@link IrcClient}s of the {@link #controller} */
+    private final IrcConnectGate connectGate;
+
+    /**
+     * The {@link System#nanoTime()} when {@link #connection} started to
+     * connect; {@code 0} before that. Written from {@link #executor} thread
+     * and read from the UI thread.
+     */
+    private volatile long connectStartedNanos = 0;
+
+    /** Our {@link #connectGate} ticket; {@code -1} if none. Accessed only from the UI thread. */
+    private long connectTicket = -1;
+
     private IRCConnection connection;
 
     private final IrcController controller;
@@ -619,32 +1052,198 @@ public class IrcClient {
      * An executor whose single thread is used to send IRC messages over
      * {@link #connection}.
      */
-    private ExecutorService executor;
+    private ScheduledExecutorService executor;
+
+    /**
+     * The channels passed to {@link #joinChannels(List)} before
+     * {@link #iSupportComplete}. Accessed only from the UI thread.
+     */
+    private final List<AbstractIrcChannel> deferredJoins = new ArrayList<AbstractIrcChannel>();
+
+    /** What the server has told us about itself. Accessed only from the UI thread. */
+    private final IrcISupport iSupport = new IrcISupport();
+
+    /**
+     * {@code true} once the server has sent all its {@code RPL_ISUPPORT}
+     * replies. Accessed only from the UI thread.
+     */
+    private boolean iSupportComplete = false;
+
+    /** Joins {@link #deferredJoins} once {@link #iSupport} is known. Runs on the UI thread. */
+    private final Runnable iSupportCompleted = new Runnable() {
+        @Override
+        public void run() {
+            if (!iSupportComplete) {
+                iSupportComplete = true;
+                List<AbstractIrcChannel> channels = new ArrayList<AbstractIrcChannel>(deferredJoins);
+                deferredJoins.clear();
+                try {
+                    joinChannels(channels);
+                } catch (IrcException e) {
+                    EirccUi.log(e);
+                }
+            }
+        }
+    };
+
+    /** Applies the bursts collected by {@link #netsplits}. Runs on the UI thread. */
+    private final Runnable netsplitFlush = new Runnable() {
+        @Override
+        public void run() {
+            netsplitFlushScheduled = false;
+            flushNetsplits();
+        }
+    };
+
+    /** Accessed only from the UI thread. */
+    private boolean netsplitFlushScheduled = false;
+
+    /** Accessed only from the UI thread. */
+    private final IrcNetsplitTracker netsplits = new IrcNetsplitTracker();
 
     private final IrcNickGenerator nickGenerator = IrcNickGenerator.DEFAULT;
 
+    /**
+     * Passes the updates decoded on {@link #connection}'s receiving thread to
+     * the UI thread.
+     */
+    private final IrcEventPump eventPump;
+
+    /**
+     * The commands waiting for {@link #sender} to send them over
+     * {@link #connection}.
+     */
+    private final IrcOutboundQueue outboundQueue;
+
+    private final AtomicBoolean outboundQueueChangeNotified = new AtomicBoolean(false);
+
+    /**
+     * The messages some but not all chunks of which have been sent. Accessed
+     * only from the {@link #executor}'s thread.
+     */
+    private final List<OutgoingMessage> outgoingMessages = new ArrayList<OutgoingMessage>();
+
+    /**
+     * Pings the server if it has been silent for {@link #pingInterval}, so
+     * that idle connections are kept alive and the lag gets measured while
+     * busy connections are not bothered with needless pings. Runs on the UI
+     * thread till this client gets disconnected.
+     */
+    private final Runnable keepalive = new Runnable() {
+        @Override
+        public void run() {
+            Duration interval = pingInterval;
+            if (!isConnected() || interval == null) {
+                return;
+            }
+            long intervalNanos = interval.toNanos();
+            long maxIntervalNanos = intervalNanos * MAX_PING_INTERVAL_FACTOR;
+            long now = System.nanoTime();
+            long idle = now - lastReceivedNanos();
+            long sincePing = now - lastPingNanos;
+            long delay;
+            if (idle >= intervalNanos || sincePing >= maxIntervalNanos) {
+                ping();
+                delay = intervalNanos;
+            } else {
+                delay = Math.min(intervalNanos - idle, maxIntervalNanos - sincePing);
+            }
+            Display.getDefault().timerExec(IrcEventPump.toTimerMillis(delay), this);
+        }
+    };
+
+    /** The {@link System#nanoTime()} of the last {@link #ping()}. Accessed only from the UI thread. */
+    private long lastPingNanos = System.nanoTime();
+
+    /**
+     * The {@link System#nanoTime()} when irclib's own connection has read the
+     * last line, see {@link ReceiveTimeTrafficLogger}
+     */
+    private volatile long lastReceivedNanos = System.nanoTime();
+
     private Duration pingInterval;
-    private final IrcExecutor timeoutChecker;
 
     /**
+     * Sends as many commands from {@link #outboundQueue} as the flood control
+     * allows. Runs on {@link #executor}'s thread.
+     */
+    private final Runnable sender = new Runnable() {
+        @Override
+        public void run() {
+            Entry entry;
+            while ((entry = outboundQueue.poll()) != null) {
+                new DeadlineTask(entry.getCommand()).run();
+            }
+            senderScheduled.set(false);
+            scheduleSender();
+            notifyOutboundQueueChanged();
+        }
+    };
+
+    private final AtomicBoolean senderScheduled = new AtomicBoolean(false);
+
+    /** Shared by all {@link IrcClient}s of the {@link #controller} */
+    private final IrcCommandTimeoutScheduler timeoutScheduler;
+
+    /** Spreads the {@code WHO} queries over time. Accessed only from the UI thread. */
+    private final IrcWhoScheduler whoScheduler;
+
+    /**
+     * @param controller
+     * @param timeoutScheduler
+     *            the scheduler to track the {@code commandTimeout}s with
      * @param commandTimeout
+     *            the time a command may take to execute; {@code null} means
+     *            no timeout
      * @param pingInterval
-     *
+     * @param outboundQueue
+     *            the flood control queue to pass the outgoing commands through
+     * @param eventPumpInterval
+     *            see {@link IrcEventPump#getInterval()}
+     * @param eventPumpBatchSize
+     *            see {@link IrcEventPump#getMaxBatchSize()}
+     * @param whoMaxInFlight
+     *            see {@link IrcWhoScheduler#getMaxInFlight()}
+     * @param connectGate
+     *            the gate to pass through when connecting
      */
-    public IrcClient(IrcController controller, Duration commandTimeout, Duration pingInterval) {
+    public IrcClient(IrcController controller, IrcCommandTimeoutScheduler timeoutScheduler, Duration commandTimeout,
+            Duration pingInterval, IrcOutboundQueue outboundQueue, Duration eventPumpInterval, int eventPumpBatchSize,
+            int whoMaxInFlight, IrcConnectGate connectGate) {
         super();
+        this.connectGate = connectGate;
+        this.outboundQueue = outboundQueue;
         this.controller = controller;
+        this.timeoutScheduler = timeoutScheduler;
         this.pingInterval = pingInterval;
         this.commandTimeout = commandTimeout;
+        this.eventPump = new IrcEventPump(Display.getDefault(), eventPumpInterval, eventPumpBatchSize);
         this.executor = new IrcExecutor("Executor");
-        this.timeoutChecker = new IrcExecutor("TaskValidator");
         this.callbacks = IrcCommandCallbackList.empty()
                 .add(new NickIrcCommandCallback(controller))
                 .add(new CtcpIrcCommandCallback(controller));
+        this.whoScheduler = new IrcWhoScheduler(whoMaxInFlight, new ToIntFunction<String>() {
+            @Override
+            public int applyAsInt(String channelName) {
+                AbstractIrcChannel channel = account.findChannel(channelName);
+                return channel != null ? IrcClient.this.controller.getWhoPriority().applyAsInt(channel)
+                        : Integer.MAX_VALUE;
+            }
+        }, new Consumer<String>() {
+            @Override
+            public void accept(String channelName) {
+                sendWho(channelName);
+            }
+        });
     }
 
     public void close() {
         IrcUtils.assertUiThread();
+        clearOutboundQueue();
+        whoScheduler.clear();
+        netsplits.clear();
+        /* in case we are still waiting for our turn to connect */
+        connectGate.cancel(connectTicket);
         if (connection != null) {
             executor.submit(new Runnable() {
                 @Override
@@ -656,11 +1255,14 @@ public class IrcClient {
                 }
             });
         }
+        /* a closed client is never reused, let its thread go after the above */
+        executor.shutdown();
     }
 
     public void connect(IrcAccount account) throws IrcException {
         IrcUtils.assertUiThread();
         this.account = account;
+        eventPump.setModel(account.getModel());
         IRCConfigBuilder builder = IRCConfigBuilder.newBuilder()
                 .stripColors(true)
                 .host(account.getHost())
@@ -669,7 +1271,7 @@ public class IrcClient {
                 .nick(account.getPreferedNickOrUser())
                 .username(account.getUsername())
                 .realname(account.getName())
-                .trafficLogger(account.getTraffciLogger())
+                .trafficLogger(new ReceiveTimeTrafficLogger(account.getTraffciLogger()))
                 .exceptionHandler(account.getExceptionHandler());
 
         if (
@@ -686,23 +1288,81 @@ public class IrcClient {
 
         IRCConfig config = builder.build();
 
-        connection = IRCConnectionFactory.newConnection(config);
+        connection = controller.newConnection(config);
+        if (connection instanceof AbstractIrcConnection) {
+            /* irclib's own connection cannot parse IRCv3 message tags */
+            ((AbstractIrcConnection) connection).setRequestedCapabilities(REQUESTED_CAPABILITIES);
+        }
 
         connection.addIRCEventListener(new UiListener());
+        final long ticket = connectGate.issue();
+        this.connectTicket = ticket;
+        final long requestedNanos = System.nanoTime();
         executor.submit(new Runnable() {
             @Override
             public void run() {
                 try {
+                    if (!connectGate.enter(ticket)) {
+                        /* closed before our turn came */
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    long started = System.nanoTime();
+                    account.getLatencyStats().getConnectWaitHistogram().record(started - requestedNanos);
+                    connectStartedNanos = started;
                     connection.connect();
                 } catch (Exception e) {
-                    controller.handle(new IrcException("Could not connect to '" + account.getLabel() + "': "
+                    notifyUi(new IrcException("Could not connect to '" + account.getLabel() + "': "
                             + e.getClass().getName() + ": " + e.getMessage(), e, account));
+                } finally {
+                    connectGate.leave();
                 }
             }
         });
 
     }
 
+    /**
+     * @return the line being currently dispatched by {@link #connection} or
+     *         {@code null} if {@link #connection} does not provide it. Can be
+     *         called only from the {@link UiListener} methods.
+     */
+    private IrcLine currentLine() {
+        IRCConnection c = connection;
+        return c instanceof AbstractIrcConnection ? ((AbstractIrcConnection) c).getCurrentLine() : null;
+    }
+
+    /**
+     * @return the {@code server-time} of the line being currently dispatched
+     *         by {@link #connection} if available or the current time
+     *         otherwise. Can be called only from the {@link UiListener}
+     *         methods.
+     */
+    private OffsetDateTime currentLineTime() {
+        IRCConnection c = connection;
+        if (c instanceof AbstractIrcConnection) {
+            OffsetDateTime result = ((AbstractIrcConnection) c).getCurrentLineServerTime();
+            if (result != null) {
+                return result;
+            }
+        }
+        return OffsetDateTime.now();
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} when {@link #connection} has
+     *         received the last line
+     */
+    private long lastReceivedNanos() {
+        IRCConnection c = connection;
+        return c instanceof AbstractIrcConnection ? ((AbstractIrcConnection) c).getLastReceivedNanos()
+                : lastReceivedNanos;
+    }
+
     /**
      * Only from UI thread
      *
@@ -723,6 +1383,27 @@ public class IrcClient {
         }
     }
 
+    /**
+     * Applies the netsplits and netjoins collected so far. Called on the UI
+     * thread when the burst is over and before any other change of channel
+     * users so that the model sees the events in the order they came.
+     */
+    private void flushNetsplits() {
+        if (!netsplits.hasPending()) {
+            return;
+        }
+        for (IrcNetsplitTracker.Burst burst : netsplits.drainQuits(System.nanoTime())) {
+            controller.usersSplit(account, burst.getServers(), burst.getNicks());
+        }
+        for (IrcNetsplitTracker.Burst burst : netsplits.drainJoins()) {
+            try {
+                controller.usersNetjoined(account, burst.getChannelName(), burst.getServers(), burst.getNicks());
+            } catch (IrcResourceException e) {
+                EirccUi.log(e);
+            }
+        }
+    }
+
     public IrcAccount getAccount() {
         return account;
     }
@@ -731,6 +1412,30 @@ public class IrcClient {
         return commandTimeout;
     }
 
+    /**
+     * @return the {@link IrcEventPump} whose counters can be used to find out
+     *         whether the UI thread keeps pace with the incoming traffic
+     */
+    public IrcEventPump getEventPump() {
+        return eventPump;
+    }
+
+    /**
+     * @return the local address of the connection to the IRC server or
+     *         {@code null} if not connected
+     */
+    public InetAddress getLocalAddress() {
+        IRCConnection c = connection;
+        return c == null ? null : c.getLocalAddress();
+    }
+
+    /**
+     * @return the flood control queue the outgoing commands pass through
+     */
+    public IrcOutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
     public Duration getPingInterval() {
         return pingInterval;
     }
@@ -744,28 +1449,81 @@ public class IrcClient {
 
     /**
      * @param channel
-     * @throws IOException
+     * @throws IrcException
      */
-    public void joinChannel(final AbstractIrcChannel channel) throws IrcException {
-        submit(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    ensureConnected();
-                    String channelName = channel.getName();
-                    connection.doJoin(channelName);
-                    if (channel instanceof IrcChannel) {
-                        connection.doWho(channelName);
+    public void joinChannel(AbstractIrcChannel channel) throws IrcException {
+        joinChannels(Collections.singletonList(channel));
+    }
+
+    /**
+     * Joins the given {@code channels} using as few {@code JOIN} commands as
+     * the server's {@code TARGMAX} and line length allow. The channels that
+     * would exceed the server's {@code CHANLIMIT} are not joined and an error
+     * is reported to their logs. The joins requested before the server has
+     * sent all its {@code RPL_ISUPPORT} replies are deferred till then.
+     * <p>
+     * The users of the joined channels are listed later via
+     * {@link #who(String)}.
+     *
+     * @param channels
+     * @throws IrcException
+     */
+    public void joinChannels(List<? extends AbstractIrcChannel> channels) throws IrcException {
+        IrcUtils.assertUiThread();
+        if (!iSupportComplete) {
+            deferredJoins.addAll(channels);
+            return;
+        }
+        Map<Character, Integer> joinedCounts = new HashMap<Character, Integer>();
+        for (AbstractIrcChannel channel : account.getChannels()) {
+            if (channel.isJoined() && !channel.isP2p()) {
+                Character prefix = channel.getName().charAt(0);
+                Integer count = joinedCounts.get(prefix);
+                joinedCounts.put(prefix, count == null ? 1 : count + 1);
+            }
+        }
+        List<String> channelNames = new ArrayList<String>(channels.size());
+        for (AbstractIrcChannel channel : channels) {
+            String channelName = channel.getName();
+            if (channel.isJoined() || channelNames.contains(channelName)) {
+                continue;
+            }
+            Character prefix = channelName.charAt(0);
+            Integer count = joinedCounts.get(prefix);
+            int newCount = count == null ? 1 : count + 1;
+            int limit = iSupport.getChannelLimit(channelName);
+            if (newCount > limit) {
+                String msg = MessageFormat.format(IrcUiMessages.IrcClient_channelLimitReached, channelName, limit);
+                controller.handle(new IrcException(msg, channel));
+                continue;
+            }
+            joinedCounts.put(prefix, newCount);
+            channelNames.add(channelName);
+        }
+        for (final String command : iSupport.toJoinCommands(channelNames)) {
+            submit(Lane.BACKGROUND, IrcOutboundQueue.wireBytes(command), new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ensureConnected();
+                        connection.send(command);
+                    } catch (final IrcException e) {
+                        notifyUi(e);
                     }
-                } catch (final IrcException e) {
-                    notifyUi(e);
                 }
-            }
-        });
+            });
+        }
     }
 
+    /**
+     * Replaces the channels listed by the server so far with the result of
+     * a new {@code LIST}.
+     *
+     * @throws IrcException
+     */
     public void listChannels() throws IrcException {
-        submit(new Runnable() {
+        account.getServer().clearChannels();
+        submit(Lane.USER, IrcOutboundQueue.wireBytes("LIST"), new Runnable() {
             @Override
             public void run() {
                 try {
@@ -779,7 +1537,7 @@ public class IrcClient {
     }
 
     public void nick(final String newNick) throws IrcException {
-        submit(new Runnable() {
+        submit(Lane.USER, IrcOutboundQueue.wireBytes(IRCCommand.NICK.name() + " " + newNick), new Runnable() {
             @Override
             public void run() {
                 try {
@@ -797,7 +1555,7 @@ public class IrcClient {
             @Override
             public void run() {
                 controller.handle(e);
-                account.setOffline(e);
+                controller.connectionLost(IrcClient.this, e);
             }
         });
     }
@@ -818,13 +1576,21 @@ public class IrcClient {
         }
     }
 
-    public void ping() throws IrcException {
-        submit(new Runnable() {
+    /**
+     * Sends a {@code PING} whose {@code PONG} gets recorded in the
+     * {@link IrcAccount#getLatencyStats()}.
+     */
+    public void ping() {
+        lastPingNanos = System.nanoTime();
+        final IrcLatencyStats latencyStats = account.getLatencyStats();
+        int wireBytes = IrcOutboundQueue.wireBytes(IRCCommand.PING.name() + " :"
+                + IrcLatencyStats.PING_TOKEN_PREFIX + lastPingNanos);
+        submit(Lane.KEEPALIVE, wireBytes, new Runnable() {
             @Override
             public void run() {
                 try {
                     ensureConnected();
-                    connection.send(IRCCommand.PING.name());
+                    connection.send(IRCCommand.PING.name() + " :" + latencyStats.pingSent(System.nanoTime()));
                 } catch (IrcException e) {
                     notifyUi(e);
                 }
@@ -836,7 +1602,7 @@ public class IrcClient {
      * @param cmd
      */
     public void post(final IrcCommandMessage cmd) {
-        submit(new Runnable() {
+        submit(Lane.USER, IrcOutboundQueue.wireBytes(cmd.getProtocolCommand()), new Runnable() {
             @Override
             public void run() {
                 try {
@@ -851,44 +1617,123 @@ public class IrcClient {
         });
     }
 
+    /**
+     * Sends the given {@code message} to the given {@code channel}. A message
+     * longer than a single protocol line allows is split into several
+     * {@code PRIVMSG}s by {@link IrcMessageSplitter}. The chunks are queued
+     * back to back so that the sender can pipeline them as fast as the flood
+     * control allows, and they are appended to the channel's log in a single
+     * batch once the last of them has been sent. If the remaining chunks
+     * cannot be sent, because of an error or because this client gets closed,
+     * the chunks sent so far are appended.
+     *
+     * @param channel
+     * @param message
+     * @throws IrcException
+     */
     public void postMessage(final AbstractIrcChannel channel, final String message) throws IrcException {
-        submit(new Runnable() {
+        final String target = channel.getName();
+        final String acceptedNick = account.getAcceptedNick();
+        int maxTextBytes = IrcMessageSplitter.maxTextBytes(iSupport.getLineLength(), IRCCommand.PRIVMSG.name(),
+                target, acceptedNick != null ? acceptedNick : account.getPreferedNick());
+        final List<String> chunks = IrcMessageSplitter.split(message, maxTextBytes);
+        if (chunks.isEmpty()) {
+            return;
+        }
+        final OutgoingMessage outgoing = new OutgoingMessage(channel, chunks.size());
+        final int last = chunks.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            final String chunk = chunks.get(i);
+            final boolean isLast = i == last;
+            int wireBytes = IrcOutboundQueue.wireBytes(IRCCommand.PRIVMSG.name() + " " + target + " :" + chunk);
+            submit(Lane.USER, wireBytes, new Runnable() {
+                @Override
+                public void run() {
+                    if (outgoing.done) {
+                        /* do not send the rest of a message that has failed or was cut short */
+                        return;
+                    }
+                    try {
+                        ensureConnected();
+                        connection.doPrivmsg(target, chunk);
+                        if (outgoing.sent.isEmpty() && !isLast) {
+                            outgoingMessages.add(outgoing);
+                        }
+                        outgoing.sent.add(chunk);
+                        if (isLast) {
+                            appendSent(outgoing);
+                        }
+                    } catch (IrcException e) {
+                        /* log at least what has reached the server */
+                        appendSent(outgoing);
+                        notifyUi(e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Appends the chunks of the given {@code outgoing} message sent so far to
+     * its channel's log in a single batch and marks the message as done.
+     * Called from the {@link #executor}'s thread.
+     *
+     * @param outgoing
+     */
+    private void appendSent(OutgoingMessage outgoing) {
+        outgoing.done = true;
+        outgoingMessages.remove(outgoing);
+        final AbstractIrcChannel channel = outgoing.channel;
+        final String[] texts = outgoing.sent.toArray(new String[outgoing.sent.size()]);
+        if (texts.length == 0) {
+            return;
+        }
+        eventPump.post(new Runnable() {
             @Override
             public void run() {
                 try {
-                    ensureConnected();
-                    connection.doPrivmsg(channel.getName(), message);
-                    /*
-                     * post back to model only after the above has not thrown an
-                     * exception
-                     */
-                    Display.getDefault().asyncExec(new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                IrcLog log = channel.getLog();
-                                IrcMessage m = new IrcMessage(log, OffsetDateTime.now(), account.getMe(), message, log
-                                        .getChannel().getAccount().getAcceptedNick(), channel.isP2p(), IrcMessageType.CHAT,
-                                        null);
-                                channel.getLog().appendMessage(m);
-                            } catch (Exception e) {
-                                EirccUi.log(e);
-                            }
-                        }
-                    });
-                } catch (IrcException e) {
-                    notifyUi(e);
+                    final OffsetDateTime now = OffsetDateTime.now();
+                    final String myNick = account.getAcceptedNick();
+                    List<Function<IrcLog, IrcMessage>> factories = new ArrayList<Function<IrcLog, IrcMessage>>(
+                            texts.length);
+                    for (final String text : texts) {
+                        factories.add(log -> new IrcMessage(log, now, account.getMe(), text, myNick,
+                                channel.isP2p(), IrcMessageType.CHAT, null));
+                    }
+                    channel.getLog().appendMessages(factories, false);
+                } catch (Exception e) {
+                    EirccUi.log(e);
                 }
             }
         });
     }
 
+    /**
+     * Drops the commands waiting in {@link #outboundQueue} and appends the
+     * chunks sent so far of the messages whose remaining chunks were among
+     * them.
+     */
+    private void clearOutboundQueue() {
+        outboundQueue.clear();
+        if (!executor.isShutdown()) {
+            /* runs after the command being sent right now, if any */
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (OutgoingMessage outgoing : new ArrayList<OutgoingMessage>(outgoingMessages)) {
+                        appendSent(outgoing);
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * @param rawCommand
      * @throws IOException
      */
     public void postRaw(final String rawCommand) throws IrcException {
-        submit(new Runnable() {
+        submit(Lane.USER, IrcOutboundQueue.wireBytes(rawCommand), new Runnable() {
             @Override
             public void run() {
                 try {
@@ -906,6 +1751,8 @@ public class IrcClient {
      */
     public void quitAndClose() {
         IrcUtils.assertUiThread();
+        clearOutboundQueue();
+        whoScheduler.clear();
         if (isConnected()) {
             executor.submit(new Runnable() {
                 @Override
@@ -926,11 +1773,49 @@ public class IrcClient {
                 }
             });
         }
+        executor.shutdown();
         if (account.getState() == IrcAccountState.ONLINE) {
             account.setState(IrcAccountState.OFFLINE);
         }
     }
 
+    /**
+     * Asks the server for the messages that the given {@code channel} missed
+     * since the last message in its log, provided that the server supports
+     * {@value #CAP_CHATHISTORY} and that the capability was negotiated, which
+     * happens only if {@link IrcController#isNioEnabled()}. The messages
+     * arrive in a single batch and get appended to the log via
+     * {@link IrcLog#appendMessages(List)}.
+     *
+     * @param channel
+     */
+    private void requestChatHistory(AbstractIrcChannel channel) {
+        IrcUtils.assertUiThread();
+        IRCConnection c = connection;
+        if (!(c instanceof AbstractIrcConnection) || !((AbstractIrcConnection) c).isCapabilityEnabled(CAP_CHATHISTORY)) {
+            return;
+        }
+        IrcMessage lastMessage = channel.getLog().getLastMessage();
+        final String command;
+        if (lastMessage == null) {
+            command = "CHATHISTORY LATEST " + channel.getName() + " * " + CHATHISTORY_LIMIT;
+        } else {
+            command = "CHATHISTORY AFTER " + channel.getName() + " timestamp="
+                    + CHATHISTORY_TIMESTAMP_FORMATTER.format(lastMessage.getArrivedAt()) + " " + CHATHISTORY_LIMIT;
+        }
+        submit(Lane.BACKGROUND, IrcOutboundQueue.wireBytes(command), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ensureConnected();
+                    connection.send(command);
+                } catch (IrcException e) {
+                    notifyUi(e);
+                }
+            }
+        });
+    }
+
     public void setCommandTimeout(Duration commandTimeout) {
         this.commandTimeout = commandTimeout;
     }
@@ -940,28 +1825,101 @@ public class IrcClient {
     }
 
     /**
+     * Called from {@link #executor}'s thread.
+     */
+    private void notifyOutboundQueueChanged() {
+        if (outboundQueueChangeNotified.compareAndSet(false, true)) {
+            eventPump.post(new Runnable() {
+                @Override
+                public void run() {
+                    outboundQueueChangeNotified.set(false);
+                    account.getModel().fire(new IrcModelEvent(EventType.ACCOUNT_OUTBOUND_QUEUE_CHANGED, account));
+                }
+            });
+        }
+    }
+
+    /**
+     * Only from UI thread
+     */
+    private void scheduleNetsplitFlush() {
+        if (!netsplitFlushScheduled) {
+            netsplitFlushScheduled = true;
+            Display.getDefault().timerExec(NETSPLIT_BURST_MILLIS, netsplitFlush);
+        }
+    }
+
+    private void scheduleSender() {
+        if (!outboundQueue.isEmpty() && !executor.isShutdown() && senderScheduled.compareAndSet(false, true)) {
+            executor.schedule(sender, outboundQueue.nanosTillNext(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Puts the given {@code task} to {@link #outboundQueue}.
      *
+     * @param lane
+     * @param wireBytes
+     *            the number of bytes {@code task} is going to send, see
+     *            {@link IrcOutboundQueue#wireBytes(String...)}
+     * @param task
      */
-    private void submit(Runnable task) {
+    private void submit(Lane lane, int wireBytes, Runnable task) {
         IrcUtils.assertUiThread();
-        Future<?> future = executor.submit(task);
-        timeoutChecker.submit(new TimeoutCheckTask(future));
+        outboundQueue.add(lane, wireBytes, task);
+        if (lane == Lane.KEEPALIVE) {
+            /* do not wait for a sender that might be waiting for tokens */
+            executor.execute(sender);
+        } else {
+            scheduleSender();
+        }
+        notifyOutboundQueueChanged();
     }
 
+    /**
+     * Sends a {@code WHO} query for the given channel, preferably in the
+     * {@code WHOX} form asking only for the fields we need. Called by
+     * {@link #whoScheduler}.
+     *
+     * @param channelName
+     */
+    private void sendWho(final String channelName) {
+        final String command = iSupport.isWhox() ? "WHO " + channelName + " " + WHOX_FIELDS + "," + WHOX_TOKEN
+                : "WHO " + channelName;
+        submit(Lane.BACKGROUND, IrcOutboundQueue.wireBytes(command), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ensureConnected();
+                    connection.send(command);
+                } catch (IrcException e) {
+                    notifyUi(e);
+                }
+            }
+        });
+        /* a stale timeout must not complete a later query of the same channel */
+        final long queryId = whoScheduler.getQueryId(channelName);
+        Display.getDefault().timerExec(WHO_TIMEOUT_MILLIS, new Runnable() {
+            @Override
+            public void run() {
+                whoScheduler.expire(channelName, queryId);
+            }
+        });
+    }
+
+    /**
+     * Schedules a {@code WHO} query for the given channel. The queries are
+     * sent through {@link #whoScheduler} so that only a few of them are
+     * outstanding at any time, the channels with the lowest
+     * {@link IrcController#getWhoPriority()} first.
+     *
+     * @param channelName
+     * @throws IrcException
+     */
     public void who(final String channelName) throws IrcException {
         if (channelName != null) {
             IrcUtils.assertUiThread();
-            submit(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        ensureConnected();
-                        connection.doWho(channelName);
-                    } catch (IrcException e) {
-                        notifyUi(e);
-                    }
-                }
-            });
+            whoScheduler.enqueue(channelName);
         }
     }
 
@@ -969,7 +1927,7 @@ public class IrcClient {
         if (nicks != null && !nicks.isEmpty()) {
             IrcUtils.assertUiThread();
             for (final String nick : nicks) {
-                submit(new Runnable() {
+                submit(Lane.BACKGROUND, IrcOutboundQueue.wireBytes("WHOIS " + nick), new Runnable() {
                     @Override
                     public void run() {
                         try {
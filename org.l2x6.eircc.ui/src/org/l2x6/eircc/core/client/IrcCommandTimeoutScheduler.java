@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the deadlines of the IRC commands in flight of all {@link IrcClient}s
+ * using a single timer thread. A deadline is armed via
+ * {@link #arm(Duration, Runnable)} when a command starts executing and it is
+ * disarmed via {@link Deadline#disarm()} when the command finishes. Both
+ * operations are cheap and do not block, no matter how many commands are
+ * queued.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcCommandTimeoutScheduler {
+
+    /**
+     * A handle of an armed deadline.
+     */
+    public final class Deadline {
+        /** {@code null} in {@link IrcCommandTimeoutScheduler#noDeadline} */
+        private final ScheduledFuture<?> future;
+
+        private Deadline(ScheduledFuture<?> future) {
+            super();
+            this.future = future;
+        }
+
+        /**
+         * Cancels this {@link Deadline} so that its timeout handler is not
+         * called. Does nothing if the timeout handler has been called already.
+         */
+        public void disarm() {
+            if (future != null && future.cancel(false)) {
+                disarmedCount.incrementAndGet();
+            }
+        }
+    }
+
+    private final AtomicLong armedCount = new AtomicLong();
+    private final AtomicLong disarmedCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    /** Returned by {@link #arm(Duration, Runnable)} when there is nothing to arm; disarming it does nothing */
+    private final Deadline noDeadline = new Deadline(null);
+    private final ScheduledThreadPoolExecutor timer;
+
+    /**
+     *
+     */
+    public IrcCommandTimeoutScheduler() {
+        super();
+        this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+            public Thread newThread(final Runnable r) {
+                Thread thread = defaultFactory.newThread(r);
+                thread.setName("IrcCommandTimeoutScheduler-" + thread.getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        /* do not let the disarmed deadlines pile up in the timer's queue */
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Schedules the given {@code onTimeout} handler to be run on the timer
+     * thread after the given {@code timeout}, unless the returned
+     * {@link Deadline} gets disarmed earlier.
+     *
+     * @param timeout
+     *            the time after which {@code onTimeout} should be called;
+     *            {@code null} means no timeout
+     * @param onTimeout
+     *            the handler to run when the {@code timeout} expires. Should
+     *            return quickly because all deadlines share one thread.
+     * @return a new {@link Deadline} or a {@link Deadline} that never expires
+     *         if {@code timeout} is {@code null} or this scheduler has been
+     *         disposed already; never {@code null}
+     */
+    public Deadline arm(Duration timeout, final Runnable onTimeout) {
+        if (timeout == null || timer.isShutdown()) {
+            return noDeadline;
+        }
+        armedCount.incrementAndGet();
+        ScheduledFuture<?> future = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                expiredCount.incrementAndGet();
+                onTimeout.run();
+            }
+        }, timeout.toMillis(), TimeUnit.MILLISECONDS);
+        return new Deadline(future);
+    }
+
+    public void dispose() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * @return the number of deadlines armed so far
+     */
+    public long getArmedCount() {
+        return armedCount.get();
+    }
+
+    /**
+     * @return the number of deadlines disarmed before their expiration so far
+     */
+    public long getDisarmedCount() {
+        return disarmedCount.get();
+    }
+
+    /**
+     * @return the number of deadlines that expired so far
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * @return the number of deadlines currently armed
+     */
+    public int getPendingCount() {
+        return timer.getQueue().size();
+    }
+
+    @Override
+    public String toString() {
+        return "IrcCommandTimeoutScheduler [pending=" + getPendingCount() + ", armed=" + getArmedCount()
+                + ", disarmed=" + getDisarmedCount() + ", expired=" + getExpiredCount() + "]";
+    }
+
+}
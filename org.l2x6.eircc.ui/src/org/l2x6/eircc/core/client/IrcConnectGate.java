@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.util.TreeSet;
+
+/**
+ * Bounds the number of connections being established at once. Each
+ * {@link IrcClient} takes a ticket on the UI thread when it is asked to
+ * connect and then waits on its own executor thread till its ticket is
+ * admitted. The tickets are admitted strictly in the order they were issued,
+ * so that the accounts come online in a deterministic order no matter how the
+ * executor threads get scheduled.
+ * <p>
+ * Thread safe.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcConnectGate {
+
+    public static final int DEFAULT_MAX_CONCURRENT = 4;
+
+    private final int maxConcurrent;
+
+    private long nextTicket = 0;
+
+    private int running = 0;
+
+    /** The tickets issued but neither admitted nor cancelled yet */
+    private final TreeSet<Long> waiting = new TreeSet<Long>();
+
+    /**
+     * @param maxConcurrent
+     *            the maximal number of connections being established at once
+     */
+    public IrcConnectGate(int maxConcurrent) {
+        super();
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be >= 1");
+        }
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * Called with the lock of this gate held when the given {@code ticket}
+     * has been admitted, so that the calls come in the order of admission.
+     * Does nothing by default.
+     *
+     * @param ticket
+     */
+    protected void admitted(long ticket) {
+    }
+
+    /**
+     * Blocks till the given {@code ticket} is the oldest waiting one and
+     * there is a free slot. Each call returning {@code true} must be
+     * followed by {@link #leave()}.
+     *
+     * @param ticket
+     *            as returned by {@link #issue()}
+     * @return {@code true} if admitted, {@code false} if the {@code ticket}
+     *         has been cancelled
+     * @throws InterruptedException
+     *             in which case the ticket is cancelled
+     */
+    public synchronized boolean enter(long ticket) throws InterruptedException {
+        try {
+            while (waiting.contains(ticket)
+                    && (running >= maxConcurrent || waiting.first().longValue() != ticket)) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            cancel(ticket);
+            throw e;
+        }
+        if (!waiting.remove(ticket)) {
+            return false;
+        }
+        running++;
+        admitted(ticket);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Gives up the given {@code ticket} that has not entered yet, e.g.
+     * because the client was closed before it got to connecting. Does nothing
+     * if the ticket has entered or has been cancelled already.
+     *
+     * @param ticket
+     */
+    public synchronized void cancel(long ticket) {
+        if (waiting.remove(ticket)) {
+            notifyAll();
+        }
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * @return the number of connections being established right now
+     */
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * @return the number of tickets waiting to enter
+     */
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * @return a new ticket that will be admitted after all tickets issued
+     *         before
+     */
+    public synchronized long issue() {
+        long result = nextTicket++;
+        waiting.add(result);
+        return result;
+    }
+
+    /**
+     * Frees the slot taken by a successful {@link #enter(long)}.
+     */
+    public synchronized void leave() {
+        if (running <= 0) {
+            throw new IllegalStateException("leave() without enter()");
+        }
+        running--;
+        notifyAll();
+    }
+
+}
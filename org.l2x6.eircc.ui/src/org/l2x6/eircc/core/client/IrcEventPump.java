@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.swt.widgets.Display;
+import org.l2x6.eircc.core.model.IrcModel;
+import org.l2x6.eircc.ui.EirccUi;
+
+/**
+ * Passes the model updates decoded on the {@link IrcClient}'s receiving thread
+ * to the UI thread. The updates are queued and applied in batches of at most
+ * {@link #getMaxBatchSize()} updates, at most once per {@link #getInterval()},
+ * using a single {@link Display#asyncExec(Runnable)} or
+ * {@link Display#timerExec(int, Runnable)} per drain. If a model is set, see
+ * {@link #setModel(IrcModel)}, each drain runs within a
+ * {@link IrcModel#beginBatch()} so that the listeners get the model events
+ * fired by the whole drain at once.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcEventPump {
+
+    private static class QueuedTask {
+        private final long enqueuedAt;
+        private final Runnable task;
+
+        /**
+         * @param task
+         */
+        public QueuedTask(Runnable task) {
+            super();
+            this.task = task;
+            this.enqueuedAt = System.nanoTime();
+        }
+    }
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    /** Roughly one frame at 60 FPS */
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMillis(16);
+
+    private final Display display;
+
+    private final Runnable drainer = new Runnable() {
+        /**
+         * Always called on the UI thread.
+         *
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            if (display.isDisposed()) {
+                return;
+            }
+            long now = System.nanoTime();
+            long wait = lastDrainAt + intervalNanos - now;
+            if (lastDrainAt != 0 && wait > 0) {
+                /* too early, let us wait till the next frame */
+                display.timerExec(toTimerMillis(wait), this);
+                return;
+            }
+            lastDrainAt = now;
+            drain(now);
+
+            drainScheduled.set(false);
+            if (!queue.isEmpty() && drainScheduled.compareAndSet(false, true)) {
+                display.timerExec(toTimerMillis(intervalNanos), this);
+            }
+        }
+    };
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    private final AtomicLong drainCount = new AtomicLong();
+    private final Duration interval;
+    private final long intervalNanos;
+
+    /** Accessed only from the UI thread */
+    private long lastDrainAt = 0;
+    private volatile long lastDrainLatencyNanos = 0;
+    private final int maxBatchSize;
+    private volatile long maxDrainLatencyNanos = 0;
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private volatile IrcModel model;
+    private final ConcurrentLinkedQueue<QueuedTask> queue = new ConcurrentLinkedQueue<QueuedTask>();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    private final AtomicLong taskCount = new AtomicLong();
+
+    /**
+     * @param display
+     *            the {@link Display} whose UI thread should execute the posted
+     *            tasks
+     * @param interval
+     *            the minimal time between two subsequent drains
+     * @param maxBatchSize
+     *            the maximal number of tasks executed in one drain
+     */
+    public IrcEventPump(Display display, Duration interval, int maxBatchSize) {
+        super();
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be > 0");
+        }
+        this.display = display;
+        this.interval = interval;
+        this.intervalNanos = interval.toNanos();
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Runs at most {@link #maxBatchSize} queued tasks. Must be called on the UI
+     * thread.
+     *
+     * @param now
+     */
+    private void drain(long now) {
+        QueuedTask first = queue.peek();
+        if (first != null) {
+            long latency = now - first.enqueuedAt;
+            lastDrainLatencyNanos = latency;
+            if (latency > maxDrainLatencyNanos) {
+                maxDrainLatencyNanos = latency;
+            }
+        }
+        int i = 0;
+        IrcModel batchModel = model;
+        if (batchModel != null) {
+            batchModel.beginBatch();
+        }
+        try {
+            QueuedTask queuedTask;
+            while (i < maxBatchSize && (queuedTask = queue.poll()) != null) {
+                queueDepth.decrementAndGet();
+                try {
+                    queuedTask.task.run();
+                } catch (Exception e) {
+                    EirccUi.log(e);
+                }
+                i++;
+            }
+        } finally {
+            if (batchModel != null) {
+                batchModel.commitBatch();
+            }
+        }
+        if (i > 0) {
+            drainCount.incrementAndGet();
+            taskCount.addAndGet(i);
+        }
+    }
+
+    /**
+     * Runs all queued tasks synchronously. Must be called on the UI thread.
+     */
+    public void flush() {
+        while (!queue.isEmpty()) {
+            drain(System.nanoTime());
+        }
+    }
+
+    /**
+     * @return the number of drains performed so far
+     */
+    public long getDrainCount() {
+        return drainCount.get();
+    }
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return the time the oldest task of the last drain spent in the queue
+     */
+    public Duration getLastDrainLatency() {
+        return Duration.ofNanos(lastDrainLatencyNanos);
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return the maximal time a task spent in the queue so far
+     */
+    public Duration getMaxDrainLatency() {
+        return Duration.ofNanos(maxDrainLatencyNanos);
+    }
+
+    /**
+     * @return the maximal number of tasks that were waiting in the queue at
+     *         once so far
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return the number of tasks currently waiting in the queue
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return the number of tasks executed so far
+     */
+    public long getTaskCount() {
+        return taskCount.get();
+    }
+
+    /**
+     * Queues the given {@code task} for execution on the UI thread. Can be
+     * called from any thread.
+     *
+     * @param task
+     */
+    public void post(Runnable task) {
+        queue.add(new QueuedTask(task));
+        int depth = queueDepth.incrementAndGet();
+        int max;
+        while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+            /* retry */
+        }
+        if (drainScheduled.compareAndSet(false, true) && !display.isDisposed()) {
+            display.asyncExec(drainer);
+        }
+    }
+
+    /**
+     * @param model
+     *            the model to batch the events of during a drain or
+     *            {@code null}
+     */
+    public void setModel(IrcModel model) {
+        this.model = model;
+    }
+
+    /**
+     * @param nanos
+     * @return {@code nanos} converted to milliseconds, at least {@code 1},
+     *         as expected by {@link Display#timerExec(int, Runnable)}
+     */
+    static int toTimerMillis(long nanos) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1L, TimeUnit.NANOSECONDS.toMillis(nanos)));
+    }
+
+    @Override
+    public String toString() {
+        return "IrcEventPump [queueDepth=" + getQueueDepth() + ", maxQueueDepth=" + getMaxQueueDepth()
+                + ", drainCount=" + getDrainCount() + ", taskCount=" + getTaskCount() + ", lastDrainLatency="
+                + getLastDrainLatency().toMillis() + "ms, maxDrainLatency=" + getMaxDrainLatency().toMillis() + "ms]";
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.l2x6.eircc.core.model.IrcCaseMapping;
+
+/**
+ * The limits and features a server advertises through the
+ * {@code RPL_ISUPPORT} ({@code 005}) replies, see
+ * http://www.irc.org/tech_docs/draft-brocklesby-irc-isupport-03.txt
+ * <p>
+ * Only the tokens relevant for the client are kept. Before the server has sent
+ * anything, the getters return the defaults that are safe with any server.
+ * <p>
+ * Not thread safe.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcISupport {
+
+    /** The maximal length of a line including the trailing CR LF, see RFC 1459, 2.3 */
+    public static final int DEFAULT_LINE_LENGTH = 512;
+
+    private static final String JOIN = "JOIN";
+
+    private static final String NO_LIMIT = "";
+
+    private IrcCaseMapping caseMapping = IrcCaseMapping.DEFAULT;
+
+    /** {@code CHANLIMIT} by channel prefix */
+    private final Map<Character, Integer> channelLimits = new HashMap<Character, Integer>();
+
+    private int lineLength = DEFAULT_LINE_LENGTH;
+
+    /** {@code TARGMAX} by command */
+    private final Map<String, Integer> maxTargets = new HashMap<String, Integer>();
+
+    private boolean whox = false;
+
+    /**
+     * Parses the tokens of a single {@code RPL_ISUPPORT} reply.
+     *
+     * @param tokens
+     *            the space separated tokens without the leading nick and
+     *            without the trailing {@code :are supported by this server}
+     */
+    public void addTokens(String tokens) {
+        StringTokenizer st = new StringTokenizer(tokens, " ");
+        while (st.hasMoreTokens()) {
+            addToken(st.nextToken());
+        }
+    }
+
+    private void addToken(String token) {
+        boolean negated = token.startsWith("-");
+        int eqPos = token.indexOf('=');
+        String key = token.substring(negated ? 1 : 0, eqPos >= 0 ? eqPos : token.length()).toUpperCase(Locale.ENGLISH);
+        String value = eqPos >= 0 ? token.substring(eqPos + 1) : NO_LIMIT;
+        switch (key) {
+        case "CASEMAPPING":
+            caseMapping = negated ? IrcCaseMapping.DEFAULT : IrcCaseMapping.forToken(value);
+            break;
+        case "CHANLIMIT":
+            channelLimits.clear();
+            if (!negated) {
+                for (String entry : value.split(",")) {
+                    int colonPos = entry.indexOf(':');
+                    if (colonPos > 0) {
+                        int limit = parseLimit(entry.substring(colonPos + 1));
+                        for (int i = 0; i < colonPos; i++) {
+                            channelLimits.put(entry.charAt(i), limit);
+                        }
+                    }
+                }
+            }
+            break;
+        case "LINELEN":
+            lineLength = negated ? DEFAULT_LINE_LENGTH : Math.max(DEFAULT_LINE_LENGTH, parseLimit(value));
+            break;
+        case "TARGMAX":
+            maxTargets.clear();
+            if (!negated) {
+                for (String entry : value.split(",")) {
+                    int colonPos = entry.indexOf(':');
+                    if (colonPos > 0) {
+                        maxTargets.put(entry.substring(0, colonPos).toUpperCase(Locale.ENGLISH),
+                                parseLimit(entry.substring(colonPos + 1)));
+                    }
+                }
+            }
+            break;
+        case "WHOX":
+            whox = !negated;
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * @param value
+     * @return {@link Integer#MAX_VALUE} if the value is empty or invalid
+     */
+    private static int parseLimit(String value) {
+        if (value.isEmpty()) {
+            return Integer.MAX_VALUE;
+        }
+        try {
+            int result = Integer.parseInt(value);
+            return result > 0 ? result : Integer.MAX_VALUE;
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @return the case mapping advertised by the server or
+     *         {@link IrcCaseMapping#DEFAULT}
+     */
+    public IrcCaseMapping getCaseMapping() {
+        return caseMapping;
+    }
+
+    /**
+     * @param channelName
+     * @return the maximal number of channels with the same prefix as
+     *         {@code channelName} one may be joined to at once or
+     *         {@link Integer#MAX_VALUE} if unknown
+     */
+    public int getChannelLimit(String channelName) {
+        if (channelName.isEmpty()) {
+            return Integer.MAX_VALUE;
+        }
+        Integer result = channelLimits.get(channelName.charAt(0));
+        return result != null ? result.intValue() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the maximal length of a line in bytes including the trailing CR
+     *         LF
+     */
+    public int getLineLength() {
+        return lineLength;
+    }
+
+    /**
+     * @param command
+     * @return the maximal number of comma separated targets the given
+     *         {@code command} accepts or {@link Integer#MAX_VALUE} if unknown
+     */
+    public int getMaxTargets(String command) {
+        Integer result = maxTargets.get(command.toUpperCase(Locale.ENGLISH));
+        return result != null ? result.intValue() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return {@code true} if the server supports the extended {@code WHO}
+     *         query with {@code %fields}
+     */
+    public boolean isWhox() {
+        return whox;
+    }
+
+    /**
+     * Packs the given channels into as few {@code JOIN} commands as the
+     * {@code TARGMAX} and the line length allow.
+     *
+     * @param channelNames
+     * @return the {@code JOIN} commands without the trailing CR LF
+     */
+    public List<String> toJoinCommands(List<String> channelNames) {
+        List<String> result = new ArrayList<String>();
+        int maxBytes = lineLength - 2;
+        int maxJoinTargets = getMaxTargets(JOIN);
+        StringBuilder command = new StringBuilder(maxBytes);
+        int commandBytes = 0;
+        int targetCount = 0;
+        for (String channelName : channelNames) {
+            int channelBytes = channelName.getBytes(StandardCharsets.UTF_8).length;
+            if (targetCount > 0 && (targetCount >= maxJoinTargets || commandBytes + 1 + channelBytes > maxBytes)) {
+                result.add(command.toString());
+                targetCount = 0;
+            }
+            if (targetCount == 0) {
+                command.setLength(0);
+                command.append(JOIN).append(' ').append(channelName);
+                commandBytes = JOIN.length() + 1 + channelBytes;
+            } else {
+                command.append(',').append(channelName);
+                commandBytes += 1 + channelBytes;
+            }
+            targetCount++;
+        }
+        if (targetCount > 0) {
+            result.add(command.toString());
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "IrcISupport [channelLimits=" + channelLimits + ", lineLength=" + lineLength + ", maxTargets="
+                + maxTargets + ", whox=" + whox + "]";
+    }
+
+}
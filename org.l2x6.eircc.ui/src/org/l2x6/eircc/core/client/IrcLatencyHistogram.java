@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size latency histogram in the spirit of HdrHistogram: the values
+ * are recorded in microseconds into log-linear buckets, so that the relative
+ * error of any reported value is below {@code 1/}{@link #SUB_BUCKET_COUNT}
+ * while the memory footprint stays constant. Values above
+ * {@link #MAX_TRACKABLE_MICROS} are recorded as that value.
+ * <p>
+ * {@link #record(long)} is lock-free and may be called from any thread.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcLatencyHistogram {
+
+    /**
+     * An immutable summary of an {@link IrcLatencyHistogram}, in milliseconds.
+     * Exposed via JMX, hence the {@link ConstructorProperties}.
+     */
+    public static class Snapshot {
+        private final long count;
+        private final double maxMillis;
+        private final double meanMillis;
+        private final double p50Millis;
+        private final double p90Millis;
+        private final double p99Millis;
+
+        @ConstructorProperties({ "count", "meanMillis", "p50Millis", "p90Millis", "p99Millis", "maxMillis" })
+        public Snapshot(long count, double meanMillis, double p50Millis, double p90Millis, double p99Millis,
+                double maxMillis) {
+            super();
+            this.count = count;
+            this.meanMillis = meanMillis;
+            this.p50Millis = p50Millis;
+            this.p90Millis = p90Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP90Millis() {
+            return p90Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", mean=" + meanMillis + " ms, p50=" + p50Millis + " ms, p90=" + p90Millis
+                    + " ms, p99=" + p99Millis + " ms, max=" + maxMillis + " ms";
+        }
+    }
+
+    /** About 19 hours */
+    public static final long MAX_TRACKABLE_MICROS = (1L << 36) - 1;
+
+    private static final long MAX_TRACKABLE_NANOS = TimeUnit.MICROSECONDS.toNanos(MAX_TRACKABLE_MICROS);
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** The values below this are counted exactly */
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKET_COUNT;
+
+    private static final int BUCKET_COUNT = bucketIndex(MAX_TRACKABLE_MICROS) + 1;
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * @param micros
+     *            must be {@code >= 0} and {@code <= MAX_TRACKABLE_MICROS}
+     * @return the index of the bucket the given value falls into
+     */
+    static int bucketIndex(long micros) {
+        if (micros < LINEAR_LIMIT) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_COUNT + (int) (micros >>> shift);
+    }
+
+    /**
+     * @param index
+     * @return the highest value falling into the bucket with the given
+     *         {@code index}
+     */
+    static long highestValue(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    /**
+     * @return the number of the values recorded so far
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * @return the greatest value recorded so far or {@code 0} if nothing was
+     *         recorded
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @return the arithmetic mean of the values recorded so far or {@code 0}
+     *         if nothing was recorded
+     */
+    public long getMeanNanos() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : totalNanos.get() / count;
+    }
+
+    /**
+     * @param percentile
+     *            from {@code 0} to {@code 100}
+     * @return the value below or equal to which the given {@code percentile}
+     *         of the recorded values falls, or {@code 0} if nothing was
+     *         recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(TimeUnit.MICROSECONDS.toNanos(highestValue(i)), maxNanos.get());
+            }
+        }
+        /* a concurrent record() has bumped totalCount before its bucket */
+        return maxNanos.get();
+    }
+
+    /**
+     * Records the given latency.
+     *
+     * @param nanos
+     *            negative values are recorded as {@code 0}
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        } else if (nanos > MAX_TRACKABLE_NANOS) {
+            nanos = MAX_TRACKABLE_NANOS;
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        counts.incrementAndGet(bucketIndex(micros));
+        totalNanos.addAndGet(nanos);
+        totalCount.incrementAndGet();
+        long max;
+        while ((max = maxNanos.get()) < nanos && !maxNanos.compareAndSet(max, nanos)) {
+            /* retry */
+        }
+    }
+
+    /**
+     * Forgets all values recorded so far. Values recorded concurrently with
+     * this call may or may not survive.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    /**
+     * @return a {@link Snapshot} of the current state
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(getCount(), getMeanNanos() / NANOS_PER_MILLI, getValueAtPercentile(50)
+                / NANOS_PER_MILLI, getValueAtPercentile(90) / NANOS_PER_MILLI, getValueAtPercentile(99)
+                / NANOS_PER_MILLI, getMaxNanos() / NANOS_PER_MILLI);
+    }
+
+}
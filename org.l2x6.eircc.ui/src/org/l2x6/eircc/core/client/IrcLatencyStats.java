@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.l2x6.eircc.core.client.IrcLatencyHistogram.Snapshot;
+
+/**
+ * The latencies observed on a single account: the server lag measured by
+ * {@code PING}/{@code PONG} round trips and our own processing lag from
+ * reading a message from the socket till it is shown in the editor. Also the
+ * times spent connecting: waiting for a free {@link IrcConnectGate} slot and
+ * from opening the socket till the server has registered us.
+ * <p>
+ * Our {@code PING}s carry a token that contains the {@link System#nanoTime()}
+ * of sending, so that the round trip can be computed from the {@code PONG}
+ * alone, even if some {@code PONG}s get lost or come out of order.
+ * <p>
+ * Thread safe.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcLatencyStats implements IrcLatencyStatsMXBean {
+
+    /** Distinguishes the {@code PONG}s to our {@code PING}s from any others */
+    public static final String PING_TOKEN_PREFIX = "eircc-";
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final IrcLatencyHistogram connectToRegistered = new IrcLatencyHistogram();
+    private final IrcLatencyHistogram connectWait = new IrcLatencyHistogram();
+    private final AtomicLong lastRoundTripNanos = new AtomicLong(NONE);
+    private final IrcLatencyHistogram logToRender = new IrcLatencyHistogram();
+    /** The send time of the newest {@code PING} without a {@code PONG} */
+    private final AtomicLong outstandingPingNanos = new AtomicLong(NONE);
+    private final IrcLatencyHistogram pingRoundTrip = new IrcLatencyHistogram();
+    private final IrcLatencyHistogram readToLog = new IrcLatencyHistogram();
+
+    @Override
+    public Snapshot getConnectToRegistered() {
+        return connectToRegistered.snapshot();
+    }
+
+    /**
+     * @return the histogram of the times from starting to connect till the
+     *         server has registered us
+     */
+    public IrcLatencyHistogram getConnectToRegisteredHistogram() {
+        return connectToRegistered;
+    }
+
+    @Override
+    public Snapshot getConnectWait() {
+        return connectWait.snapshot();
+    }
+
+    /**
+     * @return the histogram of the times spent waiting for a free
+     *         {@link IrcConnectGate} slot
+     */
+    public IrcLatencyHistogram getConnectWaitHistogram() {
+        return connectWait;
+    }
+
+    /**
+     * @return the current lag in milliseconds or {@code -1} if not known yet
+     * @see #getLagNanos(long)
+     */
+    @Override
+    public long getLagMillis() {
+        long lag = getLagNanos(System.nanoTime());
+        return lag < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(lag);
+    }
+
+    /**
+     * @param now
+     *            the current {@link System#nanoTime()}
+     * @return the round trip time of the last {@code PING} or the time we
+     *         have been waiting for the {@code PONG} to the newest one,
+     *         whichever is greater; {@code -1} if not known yet
+     */
+    public long getLagNanos(long now) {
+        long last = lastRoundTripNanos.get();
+        long outstanding = outstandingPingNanos.get();
+        long waiting = outstanding == NONE ? NONE : now - outstanding;
+        long result = Math.max(last, waiting);
+        return result == NONE ? -1 : result;
+    }
+
+    @Override
+    public Snapshot getLogToRender() {
+        return logToRender.snapshot();
+    }
+
+    /**
+     * @return the histogram of the times from appending a message to a log
+     *         till it was shown in the editor
+     */
+    public IrcLatencyHistogram getLogToRenderHistogram() {
+        return logToRender;
+    }
+
+    @Override
+    public Snapshot getPingRoundTrip() {
+        return pingRoundTrip.snapshot();
+    }
+
+    /**
+     * @return the histogram of the {@code PING}/{@code PONG} round trip times
+     */
+    public IrcLatencyHistogram getPingRoundTripHistogram() {
+        return pingRoundTrip;
+    }
+
+    @Override
+    public Snapshot getReadToLog() {
+        return readToLog.snapshot();
+    }
+
+    /**
+     * @return the histogram of the times from reading a message from the
+     *         socket till it was appended to its log
+     */
+    public IrcLatencyHistogram getReadToLogHistogram() {
+        return readToLog;
+    }
+
+    /**
+     * @param now
+     *            the current {@link System#nanoTime()}
+     * @return the time since the newest {@code PING} without a {@code PONG}
+     *         was sent or {@code -1} if there is no such {@code PING}
+     */
+    public long getWaitingForPongNanos(long now) {
+        long outstanding = outstandingPingNanos.get();
+        return outstanding == NONE ? -1 : now - outstanding;
+    }
+
+    /**
+     * To be called right before sending a {@code PING}.
+     *
+     * @param now
+     *            the current {@link System#nanoTime()}
+     * @return the token to send with the {@code PING}
+     */
+    public String pingSent(long now) {
+        outstandingPingNanos.set(now);
+        return PING_TOKEN_PREFIX + now;
+    }
+
+    /**
+     * To be called for every {@code PONG} received.
+     *
+     * @param token
+     *            the last parameter of the {@code PONG}
+     * @param now
+     *            the current {@link System#nanoTime()}
+     * @return {@code true} if the {@code PONG} was a reply to our
+     *         {@link #pingSent(long)}, otherwise {@code false}
+     */
+    public boolean pongReceived(String token, long now) {
+        if (token == null || !token.startsWith(PING_TOKEN_PREFIX)) {
+            return false;
+        }
+        long sent;
+        try {
+            sent = Long.parseLong(token.substring(PING_TOKEN_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        long roundTrip = now - sent;
+        pingRoundTrip.record(roundTrip);
+        lastRoundTripNanos.set(roundTrip);
+        /* the PONGs to the older PINGs do not clear the newer one */
+        outstandingPingNanos.compareAndSet(sent, NONE);
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        pingRoundTrip.reset();
+        readToLog.reset();
+        logToRender.reset();
+        connectWait.reset();
+        connectToRegistered.reset();
+    }
+
+}
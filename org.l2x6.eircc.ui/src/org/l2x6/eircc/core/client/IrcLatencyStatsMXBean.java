@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import org.l2x6.eircc.core.client.IrcLatencyHistogram.Snapshot;
+
+/**
+ * The JMX view of {@link IrcLatencyStats}.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public interface IrcLatencyStatsMXBean {
+
+    /**
+     * @return the times from starting to connect till the server has
+     *         registered us
+     */
+    Snapshot getConnectToRegistered();
+
+    /**
+     * @return the times spent waiting for a free {@link IrcConnectGate} slot
+     */
+    Snapshot getConnectWait();
+
+    /**
+     * @return the current lag in milliseconds or {@code -1} if not known yet
+     */
+    long getLagMillis();
+
+    /**
+     * @return the times from appending a message to a log till it was shown
+     *         in the editor
+     */
+    Snapshot getLogToRender();
+
+    /**
+     * @return the {@code PING}/{@code PONG} round trip times
+     */
+    Snapshot getPingRoundTrip();
+
+    /**
+     * @return the times from reading a message from the socket till it was
+     *         appended to its log
+     */
+    Snapshot getReadToLog();
+
+    /**
+     * Forgets all values recorded so far.
+     */
+    void reset();
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits an outgoing text into chunks that fit into single {@code PRIVMSG}
+ * lines. The text is split at the line breaks first and the lines that are
+ * still too long are split so that the UTF-8 encoding of each chunk does not
+ * exceed the given number of bytes, preferably at a whitespace and never
+ * inside a surrogate pair.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcMessageSplitter {
+
+    /** {@code ":" nick "!" user "@" host " " command " " target " :" text CRLF} */
+    private static final int FIXED_OVERHEAD = 1 + 1 + 1 + 1 + 1 + 2 + 2;
+
+    /**
+     * The longest host name we assume the server may put into our prefix. We
+     * do not know for sure how the server sees us, so let us be conservative.
+     */
+    private static final int MAX_HOST_LENGTH = 63;
+
+    /** The longest user name, incl. a possible {@code ~} */
+    private static final int MAX_USER_LENGTH = 11;
+
+    /**
+     * @param text
+     *            must not be {@code null}
+     * @return the length of the UTF-8 encoding of the given {@code text}
+     */
+    public static int byteLength(CharSequence text) {
+        int result = 0;
+        int len = text.length();
+        for (int i = 0; i < len; i++) {
+            result += byteLength(text, i);
+            if (Character.isHighSurrogate(text.charAt(i)) && i + 1 < len
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                i++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of UTF-8 bytes of the code point starting at
+     *         {@code index}
+     */
+    private static int byteLength(CharSequence text, int index) {
+        char ch = text.charAt(index);
+        if (ch < 0x80) {
+            return 1;
+        } else if (ch < 0x800) {
+            return 2;
+        } else if (Character.isHighSurrogate(ch) && index + 1 < text.length()
+                && Character.isLowSurrogate(text.charAt(index + 1))) {
+            return 4;
+        } else {
+            /* incl. unpaired surrogates that get encoded as '?' or U+FFFD */
+            return 3;
+        }
+    }
+
+    /**
+     * @param lineLength
+     *            the maximal length of a protocol line incl. CRLF, typically
+     *            {@link IrcISupport#getLineLength()}
+     * @param command
+     *            e.g. {@code "PRIVMSG"}
+     * @param target
+     *            the channel name or nick the text is sent to
+     * @param nick
+     *            our nick as it will appear in the prefix the server prepends
+     *            when relaying our line to others
+     * @return the maximal number of UTF-8 bytes of the text of a single line
+     */
+    public static int maxTextBytes(int lineLength, String command, String target, String nick) {
+        int overhead = FIXED_OVERHEAD + byteLength(nick) + MAX_USER_LENGTH + MAX_HOST_LENGTH + command.length()
+                + byteLength(target);
+        return Math.max(4, lineLength - overhead);
+    }
+
+    /**
+     * Splits the given {@code text} into chunks of at most
+     * {@code maxTextBytes} UTF-8 bytes. Empty lines are skipped, because the
+     * servers do not accept empty messages.
+     *
+     * @param text
+     * @param maxTextBytes
+     * @return the chunks in the order they should be sent
+     */
+    public static List<String> split(String text, int maxTextBytes) {
+        if (maxTextBytes < 4) {
+            throw new IllegalArgumentException("maxTextBytes must be >= 4 to fit any code point");
+        }
+        List<String> result = new ArrayList<String>();
+        int len = text.length();
+        int lineStart = 0;
+        while (lineStart < len) {
+            int lineEnd = lineStart;
+            while (lineEnd < len && text.charAt(lineEnd) != '\n' && text.charAt(lineEnd) != '\r') {
+                lineEnd++;
+            }
+            splitLine(text, lineStart, lineEnd, maxTextBytes, result);
+            /* skip the line break: \n, \r or \r\n */
+            lineStart = lineEnd;
+            if (lineStart < len && text.charAt(lineStart) == '\r') {
+                lineStart++;
+            }
+            if (lineStart < len && text.charAt(lineStart) == '\n') {
+                lineStart++;
+            }
+        }
+        return result;
+    }
+
+    private static void splitLine(String text, int start, int end, int maxTextBytes, List<String> result) {
+        while (start < end) {
+            int bytes = 0;
+            int i = start;
+            /* the position after the last whitespace within the chunk */
+            int lastBreak = -1;
+            while (i < end) {
+                int cpBytes = byteLength(text, i);
+                if (bytes + cpBytes > maxTextBytes) {
+                    break;
+                }
+                bytes += cpBytes;
+                char ch = text.charAt(i);
+                i += cpBytes == 4 ? 2 : 1;
+                if (Character.isWhitespace(ch)) {
+                    lastBreak = i;
+                }
+            }
+            int chunkEnd = i;
+            if (i < end && lastBreak > start + (i - start) / 2) {
+                /* break at the whitespace unless it would make the chunk too short */
+                chunkEnd = lastBreak;
+            }
+            if (chunkEnd > start) {
+                result.add(text.substring(start, chunkEnd));
+            }
+            start = chunkEnd;
+        }
+    }
+
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recognizes netsplits and netjoins and collects them into {@link Burst}s so
+ * that they can be applied to the model in bulk rather than user by user.
+ * <p>
+ * A netsplit is recognized by the {@code QUIT} message the server sends on
+ * behalf of the users behind the lost link: the names of the two servers
+ * separated by a single space. A netjoin is a {@code JOIN} of a user who has
+ * quit due to a netsplit not longer than {@link #getMemory()} ago.
+ * <p>
+ * Not thread safe, {@link IrcClient} accesses it only from the UI thread.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcNetsplitTracker {
+
+    /**
+     * The users who quit or joined due to the same netsplit. For netjoins, the
+     * users joined the same channel.
+     */
+    public static class Burst {
+        /** {@code null} for netsplits */
+        private final String channelName;
+        private final List<String> nicks = new ArrayList<String>();
+        private final String servers;
+
+        Burst(String channelName, String servers) {
+            super();
+            this.channelName = channelName;
+            this.servers = servers;
+        }
+
+        /**
+         * @return the name of the channel the {@link #getNicks()} joined or
+         *         {@code null} for netsplits
+         */
+        public String getChannelName() {
+            return channelName;
+        }
+
+        public List<String> getNicks() {
+            return Collections.unmodifiableList(nicks);
+        }
+
+        /**
+         * @return the names of the two servers whose link broke, separated by
+         *         a space
+         */
+        public String getServers() {
+            return servers;
+        }
+    }
+
+    private static class Split {
+        private final long nanos;
+        private final String servers;
+
+        Split(String servers, long nanos) {
+            super();
+            this.servers = servers;
+            this.nanos = nanos;
+        }
+    }
+
+    /** Servers usually take a while to relink, so remember the splits for quite a while */
+    public static final Duration DEFAULT_MEMORY = Duration.ofMinutes(30);
+
+    private static boolean isServerName(String name) {
+        int lastDot = name.lastIndexOf('.');
+        if (lastDot <= 0 || lastDot > name.length() - 3 || name.startsWith(".") || name.contains("..")) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            boolean valid = i > lastDot ? Character.isLetter(ch)
+                    : Character.isLetterOrDigit(ch) || ch == '.' || ch == '-' || ch == '*';
+            if (!valid) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param quitMessage
+     * @return {@code true} if the given {@code QUIT} message looks like the
+     *         one sent on a netsplit, such as
+     *         {@code "irc.example.net hub.example.org"}
+     */
+    public static boolean isSplitMessage(String quitMessage) {
+        if (quitMessage == null) {
+            return false;
+        }
+        int space = quitMessage.indexOf(' ');
+        if (space <= 0 || space != quitMessage.lastIndexOf(' ')) {
+            return false;
+        }
+        String server1 = quitMessage.substring(0, space);
+        String server2 = quitMessage.substring(space + 1);
+        return !server1.equals(server2) && isServerName(server1) && isServerName(server2);
+    }
+
+    private final long memoryNanos;
+
+    /** The netjoins not drained yet by channel name and servers */
+    private final Map<String, Burst> pendingJoins = new LinkedHashMap<String, Burst>();
+
+    /** The netsplits not drained yet by servers */
+    private final Map<String, Burst> pendingQuits = new LinkedHashMap<String, Burst>();
+
+    /** The users who quit due to a netsplit and have not come back yet by nick */
+    private final Map<String, Split> splits = new HashMap<String, Split>();
+
+    public IrcNetsplitTracker() {
+        this(DEFAULT_MEMORY);
+    }
+
+    /**
+     * @param memory
+     *            see {@link #getMemory()}
+     */
+    public IrcNetsplitTracker(Duration memory) {
+        super();
+        this.memoryNanos = memory.toNanos();
+    }
+
+    /**
+     * Forgets everything, e.g. after a disconnection.
+     */
+    public void clear() {
+        pendingJoins.clear();
+        pendingQuits.clear();
+        splits.clear();
+    }
+
+    /**
+     * @return the netjoins collected since the last call, in the order of
+     *         their first {@code JOIN}
+     */
+    public List<Burst> drainJoins() {
+        List<Burst> result = new ArrayList<Burst>(pendingJoins.values());
+        pendingJoins.clear();
+        for (Burst burst : result) {
+            for (String nick : burst.nicks) {
+                splits.remove(nick);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param now
+     *            the current {@link System#nanoTime()}
+     * @return the netsplits collected since the last call, in the order of
+     *         their first {@code QUIT}
+     */
+    public List<Burst> drainQuits(long now) {
+        List<Burst> result = new ArrayList<Burst>(pendingQuits.values());
+        pendingQuits.clear();
+        for (Iterator<Split> it = splits.values().iterator(); it.hasNext();) {
+            if (now - it.next().nanos > memoryNanos) {
+                it.remove();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return how long a user who quit due to a netsplit is expected to come
+     *         back
+     */
+    public Duration getMemory() {
+        return Duration.ofNanos(memoryNanos);
+    }
+
+    /**
+     * @return {@code true} if there are any netsplits or netjoins to drain
+     */
+    public boolean hasPending() {
+        return !pendingQuits.isEmpty() || !pendingJoins.isEmpty();
+    }
+
+    /**
+     * @return {@code true} if there are any netjoins to drain
+     */
+    public boolean hasPendingJoins() {
+        return !pendingJoins.isEmpty();
+    }
+
+    /**
+     * @param channelName
+     * @param nick
+     * @param now
+     *            the current {@link System#nanoTime()}
+     * @return {@code true} if the {@code JOIN} is a part of a netjoin and was
+     *         collected for {@link #drainJoins()}, otherwise {@code false}
+     */
+    public boolean join(String channelName, String nick, long now) {
+        Split split = splits.get(nick);
+        if (split == null) {
+            return false;
+        } else if (now - split.nanos > memoryNanos) {
+            splits.remove(nick);
+            return false;
+        }
+        String key = channelName + ' ' + split.servers;
+        Burst burst = pendingJoins.get(key);
+        if (burst == null) {
+            burst = new Burst(channelName, split.servers);
+            pendingJoins.put(key, burst);
+        }
+        burst.nicks.add(nick);
+        return true;
+    }
+
+    /**
+     * @param nick
+     * @param quitMessage
+     * @param now
+     *            the current {@link System#nanoTime()}
+     * @return {@code true} if the {@code QUIT} is a part of a netsplit and was
+     *         collected for {@link #drainQuits(long)}, otherwise {@code false}
+     */
+    public boolean quit(String nick, String quitMessage, long now) {
+        if (!isSplitMessage(quitMessage)) {
+            return false;
+        }
+        splits.put(nick, new Split(quitMessage, now));
+        Burst burst = pendingQuits.get(quitMessage);
+        if (burst == null) {
+            burst = new Burst(null, quitMessage);
+            pendingQuits.put(quitMessage, burst);
+        }
+        burst.nicks.add(nick);
+        return true;
+    }
+
+}
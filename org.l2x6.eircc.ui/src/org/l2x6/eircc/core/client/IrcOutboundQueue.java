@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A flood control queue of the commands to send over a single IRC connection.
+ * The commands are sorted into {@link Lane}s and are taken out by
+ * {@link #poll()} in the order of the lane priority and then in FIFO order.
+ * <p>
+ * The throughput is limited by a token bucket holding at most
+ * {@link #getBurstBytes()} bytes, refilled at the rate of
+ * {@link #getBytesPerSecond()}. Each command costs the number of bytes it
+ * occupies on the wire. Commands in the {@link Lane#KEEPALIVE} lane never wait
+ * for tokens: they may drive the bucket into debt that the other lanes then
+ * have to wait out.
+ * <p>
+ * All methods are thread safe.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcOutboundQueue {
+
+    /**
+     * An entry of {@link IrcOutboundQueue}.
+     */
+    public static class Entry {
+        private final Runnable command;
+        private final Lane lane;
+        private final int wireBytes;
+
+        public Entry(Lane lane, int wireBytes, Runnable command) {
+            super();
+            this.lane = lane;
+            this.wireBytes = wireBytes;
+            this.command = command;
+        }
+
+        public Runnable getCommand() {
+            return command;
+        }
+
+        public Lane getLane() {
+            return lane;
+        }
+
+        public int getWireBytes() {
+            return wireBytes;
+        }
+    }
+
+    /**
+     * Priority lanes of {@link IrcOutboundQueue}, the lower the ordinal the
+     * higher the priority.
+     */
+    public enum Lane {
+        /** PING and PONG */
+        KEEPALIVE,
+        /** Everything the user typed */
+        USER,
+        /** JOIN, WHO, WHOIS and similar work triggered by the client itself */
+        BACKGROUND
+    }
+
+    /**
+     * A source of monotonic time, replaceable in tests.
+     */
+    public interface NanoClock {
+        NanoClock SYSTEM = new NanoClock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+        };
+
+        long nanoTime();
+    }
+
+    /** Many ircds start penalizing a client after about 10 full lines */
+    public static final int DEFAULT_BURST_BYTES = 4 * 1024;
+
+    /** Roughly one full line per second */
+    public static final int DEFAULT_BYTES_PER_SECOND = 512;
+
+    private static final int CRLF_LENGTH = 2;
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * @param lines
+     *            the IRC protocol lines without the trailing CRLF
+     * @return the number of bytes the given {@code lines} occupy on the wire
+     *         incl. the CRLF line terminators
+     */
+    public static int wireBytes(String... lines) {
+        int result = 0;
+        for (String line : lines) {
+            result += line.getBytes(StandardCharsets.UTF_8).length + CRLF_LENGTH;
+        }
+        return result;
+    }
+
+    private final int burstBytes;
+    private final int bytesPerSecond;
+    private final NanoClock clock;
+
+    /** Iterated in the order of {@link Lane} priority */
+    private final EnumMap<Lane, ArrayDeque<Entry>> lanes = new EnumMap<Lane, ArrayDeque<Entry>>(Lane.class);
+
+    private long lastRefillAt;
+
+    private int size = 0;
+
+    /**
+     * In 1/{@link #NANOS_PER_SECOND} fractions of a byte so that the refill
+     * does not suffer from rounding errors. Can be negative, see
+     * {@link Lane#KEEPALIVE}
+     */
+    private long tokens;
+
+    private long totalBytes = 0;
+
+    /**
+     * @param burstBytes
+     *            the capacity of the token bucket
+     * @param bytesPerSecond
+     *            the refill rate of the token bucket
+     * @param clock
+     */
+    public IrcOutboundQueue(int burstBytes, int bytesPerSecond, NanoClock clock) {
+        super();
+        if (burstBytes <= 0) {
+            throw new IllegalArgumentException("burstBytes must be > 0");
+        }
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("bytesPerSecond must be > 0");
+        }
+        this.burstBytes = burstBytes;
+        this.bytesPerSecond = bytesPerSecond;
+        this.clock = clock;
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new ArrayDeque<Entry>());
+        }
+        this.tokens = burstBytes * NANOS_PER_SECOND;
+        this.lastRefillAt = clock.nanoTime();
+    }
+
+    /**
+     * @param lane
+     * @param wireBytes
+     *            see {@link #wireBytes(String...)}
+     * @param command
+     */
+    public synchronized void add(Lane lane, int wireBytes, Runnable command) {
+        lanes.get(lane).add(new Entry(lane, wireBytes, command));
+        size++;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        for (ArrayDeque<Entry> lane : lanes.values()) {
+            lane.clear();
+        }
+        size = 0;
+    }
+
+    /**
+     * @param wireBytes
+     * @return the number of tokens an entry of the given size has to wait for;
+     *         entries larger than the bucket wait for a full bucket
+     */
+    private int cost(int wireBytes) {
+        return Math.min(wireBytes, burstBytes);
+    }
+
+    public int getBurstBytes() {
+        return burstBytes;
+    }
+
+    public int getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return the total number of bytes of the entries returned by
+     *         {@link #poll()} so far
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return {@code true} if there are no entries in this queue
+     */
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of nanoseconds till {@link #poll()} can return the
+     *         next entry, {@code 0} if it can return it right now or
+     *         {@link Long#MAX_VALUE} if this queue is empty
+     */
+    public synchronized long nanosTillNext() {
+        Entry next = peek();
+        if (next == null) {
+            return Long.MAX_VALUE;
+        } else if (next.lane == Lane.KEEPALIVE) {
+            return 0;
+        }
+        refill();
+        long missing = cost(next.wireBytes) * NANOS_PER_SECOND - tokens;
+        if (missing <= 0) {
+            return 0;
+        }
+        return (missing + bytesPerSecond - 1) / bytesPerSecond;
+    }
+
+    private Entry peek() {
+        for (ArrayDeque<Entry> lane : lanes.values()) {
+            Entry e = lane.peek();
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns the entry of the highest priority if there are
+     * enough tokens in the bucket to send it.
+     *
+     * @return the next entry to send or {@code null} if this queue is empty or
+     *         if the next entry has to wait for tokens (see
+     *         {@link #nanosTillNext()})
+     */
+    public synchronized Entry poll() {
+        Entry next = peek();
+        if (next == null) {
+            return null;
+        }
+        refill();
+        if (next.lane != Lane.KEEPALIVE && tokens < cost(next.wireBytes) * NANOS_PER_SECOND) {
+            return null;
+        }
+        lanes.get(next.lane).poll();
+        size--;
+        tokens -= next.wireBytes * NANOS_PER_SECOND;
+        totalBytes += next.wireBytes;
+        return next;
+    }
+
+    private void refill() {
+        long now = clock.nanoTime();
+        long elapsed = now - lastRefillAt;
+        if (elapsed > 0) {
+            long capacity = burstBytes * NANOS_PER_SECOND;
+            /* elapsed * bytesPerSecond could overflow after a long idle period */
+            long tillFull = (capacity - tokens) / bytesPerSecond + 1;
+            tokens = elapsed >= tillFull ? capacity : tokens + elapsed * bytesPerSecond;
+            lastRefillAt = now;
+        }
+    }
+
+    /**
+     * @return the number of entries waiting in this queue
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @param lane
+     * @return the number of entries waiting in the given {@code lane}
+     */
+    public synchronized int size(Lane lane) {
+        return lanes.get(lane).size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "IrcOutboundQueue [keepalive=" + size(Lane.KEEPALIVE) + ", user=" + size(Lane.USER) + ", background="
+                + size(Lane.BACKGROUND) + ", tokens=" + (tokens / NANOS_PER_SECOND) + "/" + burstBytes + "]";
+    }
+
+}
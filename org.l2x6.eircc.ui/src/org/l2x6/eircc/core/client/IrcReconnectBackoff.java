@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.time.Duration;
+import java.util.Random;
+
+/**
+ * Computes the delays of the automatic reconnect attempts. The delay grows
+ * exponentially with the number of the failed attempts up to
+ * {@link #getMaxDelay()} and a random jitter is applied so that the clients
+ * disconnected at the same time do not come back at the same time.
+ * <p>
+ * One instance is shared by all accounts so that it can also act as a
+ * reconnect storm guard: no two reconnect attempts are ever scheduled closer
+ * to each other than {@link #getMinSpacing()}, no matter how many accounts
+ * have lost their connections at once.
+ * <p>
+ * All methods are thread safe.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcReconnectBackoff {
+
+    public static final Duration DEFAULT_INITIAL_DELAY = Duration.ofSeconds(2);
+
+    public static final Duration DEFAULT_MAX_DELAY = Duration.ofMinutes(5);
+
+    public static final Duration DEFAULT_MIN_SPACING = Duration.ofSeconds(1);
+
+    private final Duration initialDelay;
+
+    /** The time of the last attempt scheduled by {@link #schedule(int, long)} */
+    private long lastAttemptAt = Long.MIN_VALUE;
+    private final Duration maxDelay;
+    private final Duration minSpacing;
+
+    private final Random random;
+
+    /**
+     * @param initialDelay
+     *            the upper bound of the delay before the first attempt
+     * @param maxDelay
+     *            the upper bound of the delay before any attempt
+     * @param minSpacing
+     *            the minimal time between any two attempts
+     * @param random
+     *            the source of the jitter
+     */
+    public IrcReconnectBackoff(Duration initialDelay, Duration maxDelay, Duration minSpacing, Random random) {
+        super();
+        if (initialDelay.isNegative() || initialDelay.isZero()) {
+            throw new IllegalArgumentException("initialDelay must be > 0");
+        }
+        if (maxDelay.compareTo(initialDelay) < 0) {
+            throw new IllegalArgumentException("maxDelay must be >= initialDelay");
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.minSpacing = minSpacing;
+        this.random = random;
+    }
+
+    /**
+     * @param attempt
+     *            the number of the failed attempts so far, {@code 0} for the
+     *            first attempt after a disconnection
+     * @return a random delay in milliseconds from the interval
+     *         {@code [cap / 2, cap]} where {@code cap} is
+     *         {@code min(initialDelay * 2^attempt, maxDelay)}
+     */
+    public long getDelayMillis(int attempt) {
+        long max = maxDelay.toMillis();
+        long cap = initialDelay.toMillis();
+        for (int i = 0; i < attempt && cap < max; i++) {
+            cap *= 2;
+        }
+        cap = Math.min(cap, max);
+        long half = cap / 2;
+        synchronized (random) {
+            return half + (long) (random.nextDouble() * (cap - half + 1));
+        }
+    }
+
+    public Duration getInitialDelay() {
+        return initialDelay;
+    }
+
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    public Duration getMinSpacing() {
+        return minSpacing;
+    }
+
+    /**
+     * Reserves a time slot for a reconnect attempt.
+     *
+     * @param attempt
+     *            see {@link #getDelayMillis(int)}
+     * @param nowMillis
+     *            the current time in milliseconds
+     * @return the number of milliseconds to wait before the attempt; at least
+     *         {@link #getDelayMillis(int)} and such that the attempt is at
+     *         least {@link #getMinSpacing()} apart from all attempts scheduled
+     *         before
+     */
+    public synchronized long schedule(int attempt, long nowMillis) {
+        long at = nowMillis + getDelayMillis(attempt);
+        if (lastAttemptAt != Long.MIN_VALUE) {
+            at = Math.max(at, lastAttemptAt + minSpacing.toMillis());
+        }
+        lastAttemptAt = at;
+        return at - nowMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "IrcReconnectBackoff [initialDelay=" + initialDelay + ", maxDelay=" + maxDelay + ", minSpacing="
+                + minSpacing + "]";
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded lock-free multi-producer single-consumer queue. The producers
+ * never block: {@link #offer(Object)} drops the element if the buffer is
+ * full and counts it in {@link #getDroppedCount()}.
+ * <p>
+ * Each slot carries a sequence number telling whether it is free for the
+ * producer of the given round or readable by the consumer, see D. Vyukov's
+ * bounded MPMC queue.
+ * <p>
+ * {@link #offer(Object)} may be called from any thread, {@link #poll()} and
+ * {@link #drain(Consumer, int)} only from a single consumer thread at a time.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcRingBuffer<E> {
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicReferenceArray<E> elements;
+
+    /** The next position to read; accessed only by the consumer */
+    private long head = 0;
+    private final int mask;
+    private final AtomicLongArray sequences;
+
+    /** The next position to write */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            rounded up to the next power of two
+     */
+    public IrcRingBuffer(int capacity) {
+        super();
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity must be in (0, 2^30]");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<E>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Passes up to {@code max} elements to the given {@code consumer}.
+     *
+     * @param consumer
+     * @param max
+     * @return the number of elements passed
+     */
+    public int drain(Consumer<? super E> consumer, int max) {
+        int count = 0;
+        E e;
+        while (count < max && (e = poll()) != null) {
+            consumer.accept(e);
+            count++;
+        }
+        return count;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the number of elements rejected by {@link #offer(Object)}
+     *         because the buffer was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @param e
+     *            must not be {@code null}
+     * @return {@code true} if {@code e} was added, {@code false} if the buffer
+     *         was full
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    elements.lazySet(index, e);
+                    /* publishes the element to the consumer */
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                /* the consumer has not freed the slot of the previous round yet */
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                /* another producer took the slot */
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return the oldest element or {@code null} if there is none
+     */
+    public E poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        E result = elements.get(index);
+        elements.lazySet(index, null);
+        /* frees the slot for the producers of the next round */
+        sequences.set(index, head + mask + 1);
+        head++;
+        return result;
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends lines to a file and renames it to {@code <file>.1} once it would
+ * grow beyond {@link #getMaxBytes()}. The older backups are shifted to
+ * {@code <file>.2}, {@code <file>.3}, etc., and the oldest one beyond
+ * {@link #getMaxBackups()} is deleted.
+ * <p>
+ * Not thread safe.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcRotatingFileWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final Path file;
+    private final int maxBackups;
+    private final long maxBytes;
+    private OutputStream out;
+    private long size;
+
+    /**
+     * @param file
+     * @param maxBytes
+     *            the size after which the file gets rotated
+     * @param maxBackups
+     *            the number of the rotated files to keep
+     */
+    public IrcRotatingFileWriter(Path file, long maxBytes, int maxBackups) {
+        super();
+        if (maxBytes <= 0 || maxBackups < 0) {
+            throw new IllegalArgumentException("Must be maxBytes > 0 and maxBackups >= 0");
+        }
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.maxBackups = maxBackups;
+    }
+
+    private static Path backup(Path file, int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            try {
+                out.close();
+            } finally {
+                out = null;
+            }
+        }
+    }
+
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int getMaxBackups() {
+        return maxBackups;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private void open() throws IOException {
+        Path parent = file.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND), BUFFER_SIZE);
+        size = Files.size(file);
+    }
+
+    private void rotate() throws IOException {
+        close();
+        if (maxBackups == 0) {
+            Files.deleteIfExists(file);
+        } else {
+            Files.deleteIfExists(backup(file, maxBackups));
+            for (int i = maxBackups - 1; i >= 1; i--) {
+                Path src = backup(file, i);
+                if (Files.exists(src)) {
+                    Files.move(src, backup(file, i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (Files.exists(file)) {
+                Files.move(file, backup(file, 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        open();
+    }
+
+    /**
+     * Appends the given {@code line} and a line feed, rotating the file
+     * before if necessary.
+     *
+     * @param line
+     * @throws IOException
+     */
+    public void writeLine(String line) throws IOException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        if (out == null) {
+            open();
+        }
+        if (size > 0 && size + bytes.length + 1 > maxBytes) {
+            rotate();
+        }
+        out.write(bytes);
+        out.write('\n');
+        size += bytes.length + 1;
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Spreads the {@code WHO} queries of many channels over time so that the
+ * server does not throttle us: at most {@link #getMaxInFlight()} queries are
+ * outstanding at any time and the next one is sent only after a previous one
+ * has been answered with {@code RPL_ENDOFWHO}. Among the waiting channels, the
+ * one with the lowest priority value goes first; the channels with the same
+ * priority are served in the order they were enqueued.
+ * <p>
+ * Each query sent gets a new {@link #getQueryId(String) id} so that a timeout
+ * armed for an old query of a channel cannot complete a newer one, see
+ * {@link #expire(String, long)}.
+ * <p>
+ * Not thread safe. {@link IrcClient} uses it from the UI thread only.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcWhoScheduler {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+
+    /** The ids of the outstanding queries by channel name */
+    private final Map<String, Long> inFlight = new HashMap<String, Long>();
+    private final int maxInFlight;
+    private long nextQueryId = 0;
+    private final LinkedHashSet<String> pending = new LinkedHashSet<String>();
+    private final ToIntFunction<String> priority;
+    private final Consumer<String> sender;
+
+    /**
+     * @param maxInFlight
+     *            the maximal number of queries sent but not answered yet
+     * @param priority
+     *            gives the priority of a channel by its name, lower values go
+     *            first; evaluated only when the next channel is picked, so
+     *            that the current visibility of the channels can be taken
+     *            into account
+     * @param sender
+     *            sends the {@code WHO} query for the given channel name
+     */
+    public IrcWhoScheduler(int maxInFlight, ToIntFunction<String> priority, Consumer<String> sender) {
+        super();
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be > 0");
+        }
+        this.maxInFlight = maxInFlight;
+        this.priority = priority;
+        this.sender = sender;
+    }
+
+    /**
+     * Forgets all waiting and outstanding queries.
+     */
+    public void clear() {
+        pending.clear();
+        inFlight.clear();
+    }
+
+    /**
+     * Sends as many waiting queries as {@link #getMaxInFlight()} allows.
+     */
+    private void dispatch() {
+        while (inFlight.size() < maxInFlight && !pending.isEmpty()) {
+            String next = null;
+            int nextPriority = Integer.MAX_VALUE;
+            for (String channelName : pending) {
+                int p = priority.applyAsInt(channelName);
+                if (next == null || p < nextPriority) {
+                    next = channelName;
+                    nextPriority = p;
+                }
+            }
+            pending.remove(next);
+            inFlight.put(next, nextQueryId++);
+            sender.accept(next);
+        }
+    }
+
+    /**
+     * Marks the query for the given channel as answered and sends the next
+     * waiting query, if any.
+     *
+     * @param channelName
+     * @return {@code true} if the query for {@code channelName} was
+     *         outstanding
+     */
+    public boolean done(String channelName) {
+        if (inFlight.remove(channelName) != null) {
+            dispatch();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gives up waiting for the answer to the query with the given
+     * {@code queryId} and sends the next waiting query, if any. Does nothing
+     * if that query has been answered already, even if another query for the
+     * same channel is outstanding in the meantime.
+     *
+     * @param channelName
+     * @param queryId
+     *            the {@link #getQueryId(String)} at the time the query was
+     *            sent
+     * @return {@code true} if the given query was still outstanding
+     */
+    public boolean expire(String channelName, long queryId) {
+        Long current = inFlight.get(channelName);
+        if (current != null && current.longValue() == queryId) {
+            return done(channelName);
+        }
+        return false;
+    }
+
+    /**
+     * Schedules a {@code WHO} query for the given channel unless one is
+     * waiting or outstanding already.
+     *
+     * @param channelName
+     */
+    public void enqueue(String channelName) {
+        if (!inFlight.containsKey(channelName) && pending.add(channelName)) {
+            dispatch();
+        }
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @param channelName
+     * @return the id of the outstanding query for the given channel or
+     *         {@code -1} if there is none; the sender passed to the
+     *         constructor can use it to arm a timeout, see
+     *         {@link #expire(String, long)}
+     */
+    public long getQueryId(String channelName) {
+        Long result = inFlight.get(channelName);
+        return result == null ? -1 : result.longValue();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Removes the given channel from the waiting queries, e.g. because we
+     * have left it in the meantime.
+     *
+     * @param channelName
+     */
+    public void remove(String channelName) {
+        pending.remove(channelName);
+    }
+
+}
@@ -11,7 +11,6 @@ package org.l2x6.eircc.core.client.cmd;
 import java.time.OffsetDateTime;
 import java.util.Locale;
 
-import org.eclipse.swt.widgets.Display;
 import org.l2x6.eircc.core.IrcController;
 import org.l2x6.eircc.core.model.AbstractIrcChannel;
 import org.l2x6.eircc.core.model.IrcAccount;
@@ -83,17 +82,15 @@ public class CtcpIrcCommandCallback implements IrcCommandCallback {
 
     @Override
     public void onCtcp(AbstractIrcChannel channel, PlainIrcUser user, CTCPCommand ctcpCommand, String msg) {
-        Display.getDefault().asyncExec(new Runnable() {
-            @Override
-            public void run() {
-                IrcAccount account = channel.getAccount();
-                IrcUser sender = controller.getOrCreateUser(account.getServer(), user.getNick(), user.getUsername(),
-                        user.getHost());
-                IrcLog log = channel.getLog();
-                IrcMessage m = formatCtcpMessage(log, sender, ctcpCommand, msg);;
-                log.appendMessage(m);
-            }
-        });
+        if (ctcpCommand == CTCPCommand.DCC && controller.getDccManager().handle(channel, user.getNick(), msg)) {
+            return;
+        }
+        IrcAccount account = channel.getAccount();
+        IrcUser sender = controller.getOrCreateUser(account.getServer(), user.getNick(), user.getUsername(),
+                user.getHost());
+        IrcLog log = channel.getLog();
+        IrcMessage m = formatCtcpMessage(log, sender, ctcpCommand, msg);
+        log.appendMessage(m);
     }
 
 }
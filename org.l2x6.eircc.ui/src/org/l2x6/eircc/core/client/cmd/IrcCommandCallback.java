@@ -14,6 +14,8 @@ import org.l2x6.eircc.core.model.PlainIrcUser;
 import org.schwering.irc.lib.util.CTCPCommand;
 
 /**
+ * The methods of this interface are called on the UI thread.
+ *
  * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
  */
 public interface IrcCommandCallback {
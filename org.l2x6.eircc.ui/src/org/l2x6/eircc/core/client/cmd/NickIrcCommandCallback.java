@@ -81,38 +81,33 @@ public class NickIrcCommandCallback implements IrcCommandCallback {
      */
     @Override
     public void onNick(final IrcAccount account, final PlainIrcUser user, final String newNick) {
-        Display.getDefault().asyncExec(new Runnable() {
-            @Override
-            public void run() {
-                controller.changeNick(account.getServer(), user, newNick);
-                String text;
-                String useSrc = null;
-                String oldNick = user.getNick();
-                if (newNick.equals(account.getAcceptedNick())) {
-                    text = MessageFormat.format(IrcUiMessages.Message_You_are_known_as_x, newNick);
-                    useSrc = sourceText;
-
-                    if (timeout != null) {
-                        notifier = new NickTimeoutNotifier(account, LocalDateTime.now().plus(timeout));
-                        Display.getCurrent().timerExec(((int) timeout.getSeconds()) * 1000, notifier);
-                    } else {
-                        notifier = null;
-                    }
-
-                    sourceText = null;
-                    timeout = null;
-                } else {
-                    text = MessageFormat.format(IrcUiMessages.Message_x_is_known_as_y, oldNick, newNick);
-                }
-                for (AbstractIrcChannel channel : account.getChannels()) {
-                    if (channel.isJoined() && channel.isPresent(oldNick)) {
-                        channel.changeNick(oldNick, newNick);
-                        IrcLog log = channel.getLog();
-                        log.appendSystemMessage(text, useSrc);
-                    }
-                }
+        controller.changeNick(account.getServer(), user, newNick);
+        String text;
+        String useSrc = null;
+        String oldNick = user.getNick();
+        if (newNick.equals(account.getAcceptedNick())) {
+            text = MessageFormat.format(IrcUiMessages.Message_You_are_known_as_x, newNick);
+            useSrc = sourceText;
+
+            if (timeout != null) {
+                notifier = new NickTimeoutNotifier(account, LocalDateTime.now().plus(timeout));
+                Display.getCurrent().timerExec(((int) timeout.getSeconds()) * 1000, notifier);
+            } else {
+                notifier = null;
+            }
+
+            sourceText = null;
+            timeout = null;
+        } else {
+            text = MessageFormat.format(IrcUiMessages.Message_x_is_known_as_y, oldNick, newNick);
+        }
+        for (AbstractIrcChannel channel : account.getChannels()) {
+            if (channel.isJoined() && channel.isPresent(oldNick)) {
+                channel.changeNick(oldNick, newNick);
+                IrcLog log = channel.getLog();
+                log.appendSystemMessage(text, useSrc);
             }
-        });
+        }
     }
 
     @Override
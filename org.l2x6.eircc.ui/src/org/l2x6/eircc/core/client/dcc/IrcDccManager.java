@@ -0,0 +1,507 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.dcc;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.swt.widgets.Display;
+import org.l2x6.eircc.core.IrcController;
+import org.l2x6.eircc.core.IrcException;
+import org.l2x6.eircc.core.client.dcc.IrcDccTransfer.Direction;
+import org.l2x6.eircc.core.client.dcc.IrcDccTransfer.State;
+import org.l2x6.eircc.core.model.AbstractIrcChannel;
+import org.l2x6.eircc.core.model.IrcAccount;
+import org.l2x6.eircc.core.model.IrcLog;
+import org.l2x6.eircc.core.util.IrcUtils;
+import org.l2x6.eircc.ui.EirccUi;
+import org.l2x6.eircc.ui.IrcUiMessages;
+
+/**
+ * Keeps track of the DCC file transfers offered by us and to us, reacts on
+ * the incoming {@code DCC} CTCP messages and runs the transfers as
+ * {@link Job}s so that they show up in the Progress view and can be cancelled
+ * from there. All public methods must be called on the UI thread.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcDccManager {
+
+    /**
+     * A transfer together with the place where we report about it.
+     */
+    private static class Entry {
+        private final IrcAccount account;
+        private final AbstractIrcChannel channel;
+        /**
+         * The address to connect to or {@code null} if we are the one who
+         * listens
+         */
+        private InetSocketAddress remote;
+        private final IrcDccTransfer transfer;
+
+        private Entry(AbstractIrcChannel channel, IrcDccTransfer transfer, InetSocketAddress remote) {
+            super();
+            this.account = channel.getAccount();
+            this.channel = channel;
+            this.transfer = transfer;
+            this.remote = remote;
+        }
+
+        /**
+         * @param message
+         *            a {@code RESUME} or {@code ACCEPT} or an answer to our
+         *            passive {@code SEND}
+         * @return {@code true} if the given {@code message} refers to this
+         *         entry
+         */
+        private boolean matches(IrcAccount account, String nick, IrcDccMessage message) {
+            if (this.account != account || !transfer.getPeerNick().equals(nick)) {
+                return false;
+            }
+            String token = transfer.getToken();
+            if (token != null) {
+                return token.equals(message.getToken());
+            }
+            return transfer.getPort() == message.getPort() || remote != null
+                    && remote.getPort() == message.getPort();
+        }
+    }
+
+    private class TransferJob extends Job {
+        private final Entry entry;
+
+        private TransferJob(Entry entry) {
+            super(MessageFormat.format(
+                    entry.transfer.getDirection() == Direction.SEND ? IrcUiMessages.Dcc_Sending_x_to_y
+                            : IrcUiMessages.Dcc_Receiving_x_from_y, entry.transfer.getFileName(), entry.transfer
+                            .getPeerNick()));
+            this.entry = entry;
+            setUser(false);
+        }
+
+        @Override
+        protected void canceling() {
+            entry.transfer.cancel();
+        }
+
+        @Override
+        protected IStatus run(final IProgressMonitor monitor) {
+            final IrcDccTransfer transfer = entry.transfer;
+            final long size = transfer.getSize();
+            monitor.beginTask(getName(), PROGRESS_TICKS);
+            IOException failure = null;
+            try {
+                if (entry.remote == null) {
+                    transfer.acceptConnection(ACCEPT_TIMEOUT_MILLIS);
+                } else {
+                    transfer.connect(entry.remote, CONNECT_TIMEOUT_MILLIS);
+                }
+                final int[] reported = { 0 };
+                transfer.transfer(position -> {
+                    int ticks = size == 0 ? PROGRESS_TICKS : (int) (position * PROGRESS_TICKS / size);
+                    if (ticks > reported[0]) {
+                        monitor.worked(ticks - reported[0]);
+                        reported[0] = ticks;
+                    }
+                });
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                monitor.done();
+            }
+            finished(entry, failure);
+            /* the failures are reported in the channel rather than in a dialog */
+            return transfer.getState() == State.CANCELLED ? Status.CANCEL_STATUS : Status.OK_STATUS;
+        }
+    }
+
+    private static final long ACCEPT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 30000;
+
+    private static final int PROGRESS_TICKS = 1000;
+
+    private final IrcController controller;
+
+    private Path downloadDirectory = Paths.get(System.getProperty("user.home"), "Downloads");
+
+    /** Offered, waiting and running transfers */
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    private int lastToken = 0;
+
+    public IrcDccManager(IrcController controller) {
+        super();
+        this.controller = controller;
+    }
+
+    /**
+     * Cancels all transfers.
+     */
+    public void dispose() {
+        for (Entry entry : entries) {
+            entry.transfer.cancel();
+        }
+        entries.clear();
+    }
+
+    /**
+     * Performs {@code /dcc send <nick> <file>}, {@code /dcc psend <nick> <file>}
+     * (passive send) or {@code /dcc get <nick> [<file>]} typed by the user.
+     * Unlike other commands, these are not sent to the server as they are.
+     *
+     * @param channel
+     *            where the command was typed
+     * @param commandText
+     *            the whole command incl. the leading {@code /dcc}
+     * @throws IrcException
+     *             if the command cannot be parsed or performed
+     */
+    public void execute(AbstractIrcChannel channel, String commandText) throws IrcException {
+        IrcUtils.assertUiThread();
+        String[] tokens = commandText.trim().split("\\s+", 4);
+        if (tokens.length < 3) {
+            throw new IrcException(IrcUiMessages.Dcc_Usage, channel);
+        }
+        String action = tokens[1].toLowerCase(Locale.ENGLISH);
+        String nick = tokens[2];
+        /* the file to send or the name of the file to get; optional for get */
+        String file = tokens.length == 4 ? tokens[3] : null;
+        switch (action) {
+        case "get":
+            get(channel, nick, file);
+            break;
+        case "psend":
+        case "send":
+            if (file == null) {
+                throw new IrcException(IrcUiMessages.Dcc_Usage, channel);
+            }
+            Path path;
+            try {
+                path = Paths.get(file);
+            } catch (InvalidPathException e) {
+                throw new IrcException(e.getLocalizedMessage(), e, channel);
+            }
+            offer(channel, nick, path, "psend".equals(action));
+            break;
+        default:
+            throw new IrcException(IrcUiMessages.Dcc_Usage, channel);
+        }
+    }
+
+    private Entry find(Direction direction, IrcAccount account, String nick, IrcDccMessage message) {
+        for (Entry entry : entries) {
+            if (entry.transfer.getDirection() == direction && entry.matches(account, nick, message)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Called from {@link TransferJob}'s thread.
+     *
+     * @param entry
+     * @param failure
+     */
+    private void finished(final Entry entry, final IOException failure) {
+        Display.getDefault().asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                entries.remove(entry);
+                IrcDccTransfer transfer = entry.transfer;
+                String text;
+                switch (transfer.getState()) {
+                case DONE:
+                    text = transfer.getDirection() == Direction.SEND ? MessageFormat.format(
+                            IrcUiMessages.Dcc_Sent_x_to_y, transfer.getFileName(), transfer.getPeerNick())
+                            : MessageFormat.format(IrcUiMessages.Dcc_Received_x_from_y_into_z,
+                                    transfer.getFileName(), transfer.getPeerNick(), transfer.getFile());
+                    break;
+                case CANCELLED:
+                    text = MessageFormat.format(IrcUiMessages.Dcc_Transfer_of_x_cancelled, transfer.getFileName());
+                    break;
+                default:
+                    text = MessageFormat.format(IrcUiMessages.Dcc_Transfer_of_x_failed_y, transfer.getFileName(),
+                            failure == null ? transfer.getState() : failure.getLocalizedMessage());
+                    break;
+                }
+                appendSystemMessage(entry.channel, text);
+            }
+        });
+    }
+
+    private static void appendSystemMessage(AbstractIrcChannel channel, String text) {
+        IrcLog log = channel.getLog();
+        if (log != null) {
+            log.appendSystemMessage(text);
+        }
+    }
+
+    /**
+     * Starts receiving a file offered to us by the given {@code nick}. If a
+     * part of the file exists in the {@link #getDownloadDirectory()} already,
+     * asks the sender to resume from its end. If a file of the same name that
+     * is not shorter than the offered one exists there, the received file gets
+     * a unique name, see {@link #toUniqueFile(Path)}.
+     *
+     * @param channel
+     *            where to report about the transfer
+     * @param nick
+     *            the sender
+     * @param fileName
+     *            the name of the file as offered or {@code null} to take the
+     *            oldest offer from {@code nick}
+     * @throws IrcException
+     */
+    public void get(AbstractIrcChannel channel, String nick, String fileName) throws IrcException {
+        IrcUtils.assertUiThread();
+        IrcAccount account = channel.getAccount();
+        Entry entry = null;
+        for (Entry e : entries) {
+            IrcDccTransfer t = e.transfer;
+            if (e.account == account && t.getDirection() == Direction.RECEIVE && t.getState() == State.OFFERED
+                    && t.getPeerNick().equals(nick) && (fileName == null || t.getFileName().equals(fileName))) {
+                entry = e;
+                break;
+            }
+        }
+        if (entry == null) {
+            appendSystemMessage(channel, MessageFormat.format(IrcUiMessages.Dcc_No_offer_from_x, nick));
+            return;
+        }
+        IrcDccTransfer transfer = entry.transfer;
+        try {
+            Files.createDirectories(transfer.getFile().getParent());
+            long existing = Files.exists(transfer.getFile()) ? Files.size(transfer.getFile()) : 0;
+            if (existing > 0 && existing < transfer.getSize()) {
+                transfer.setStartPosition(existing);
+                transfer.setWaiting();
+                int port = entry.remote == null ? 0 : entry.remote.getPort();
+                controller.postCtcp(account, nick, IrcDccMessage.resume(transfer.getFileName(), port, existing,
+                        transfer.getToken()).toCtcp());
+                appendSystemMessage(entry.channel, MessageFormat.format(IrcUiMessages.Dcc_Resuming_x_at_y,
+                        transfer.getFileName(), existing));
+            } else {
+                transfer.setFile(toUniqueFile(transfer.getFile()));
+                startReceiving(entry);
+            }
+        } catch (IOException e) {
+            entries.remove(entry);
+            throw new IrcException(e.getLocalizedMessage(), e, channel);
+        }
+    }
+
+    public Path getDownloadDirectory() {
+        return downloadDirectory;
+    }
+
+    /**
+     * @return the transfers offered, waiting or running at the moment
+     */
+    public List<IrcDccTransfer> getTransfers() {
+        List<IrcDccTransfer> result = new ArrayList<IrcDccTransfer>(entries.size());
+        for (Entry entry : entries) {
+            result.add(entry.transfer);
+        }
+        return result;
+    }
+
+    /**
+     * Handles an incoming {@code DCC} CTCP message.
+     *
+     * @param channel
+     *            the private channel with {@code nick}
+     * @param nick
+     *            the sender
+     * @param ctcp
+     *            the CTCP message
+     * @return {@code true} if the message was handled, {@code false} if it is
+     *         not a supported {@code DCC} message
+     */
+    public boolean handle(AbstractIrcChannel channel, String nick, String ctcp) {
+        IrcUtils.assertUiThread();
+        IrcDccMessage message = IrcDccMessage.parse(ctcp);
+        if (message == null) {
+            return false;
+        }
+        IrcAccount account = channel.getAccount();
+        try {
+            switch (message.getType()) {
+            case SEND:
+                Entry passive = message.getToken() != null && message.getPort() != 0 ? find(Direction.SEND,
+                        account, nick, message) : null;
+                if (passive != null) {
+                    /* the answer to our passive offer */
+                    passive.remote = new InetSocketAddress(message.getAddress(), message.getPort());
+                    start(passive);
+                } else {
+                    offered(channel, nick, message);
+                }
+                return true;
+            case RESUME:
+                Entry sending = find(Direction.SEND, account, nick, message);
+                State state = sending == null ? null : sending.transfer.getState();
+                if (state == State.OFFERED || state == State.WAITING) {
+                    /* not connected yet, so it is not too late to change the start position */
+                    sending.transfer.setStartPosition(message.getPosition());
+                    controller.postCtcp(account, nick, IrcDccMessage.accept(message.getFileName(),
+                            message.getPort(), message.getPosition(), message.getToken()).toCtcp());
+                    appendSystemMessage(sending.channel, MessageFormat.format(IrcUiMessages.Dcc_Resuming_x_at_y,
+                            sending.transfer.getFileName(), message.getPosition()));
+                }
+                return true;
+            case ACCEPT:
+                Entry receiving = find(Direction.RECEIVE, account, nick, message);
+                if (receiving != null && receiving.transfer.getState() == State.WAITING
+                        && receiving.transfer.getStartPosition() == message.getPosition()) {
+                    startReceiving(receiving);
+                }
+                return true;
+            default:
+                return false;
+            }
+        } catch (IOException | IrcException | IllegalArgumentException e) {
+            EirccUi.log(e);
+            appendSystemMessage(channel, MessageFormat.format(IrcUiMessages.Dcc_Transfer_of_x_failed_y,
+                    message.getFileName(), e.getLocalizedMessage()));
+            return true;
+        }
+    }
+
+    /**
+     * Offers the given {@code file} to the given {@code nick}.
+     *
+     * @param channel
+     *            where to report about the transfer
+     * @param nick
+     *            the receiver
+     * @param file
+     *            the file to send
+     * @param passive
+     *            if {@code true} the receiver is asked to listen and we
+     *            connect to it, otherwise we listen and the receiver connects
+     *            to us
+     * @throws IrcException
+     */
+    public void offer(AbstractIrcChannel channel, String nick, Path file, boolean passive) throws IrcException {
+        IrcUtils.assertUiThread();
+        IrcAccount account = channel.getAccount();
+        InetAddress localAddress = controller.getLocalAddress(account);
+        if (localAddress == null) {
+            throw new IrcException(MessageFormat.format(IrcUiMessages.Dcc_Account_x_not_connected,
+                    account.getLabel()), channel);
+        }
+        try {
+            long size = Files.size(file);
+            String fileName = file.getFileName().toString();
+            String token = passive ? String.valueOf(++lastToken) : null;
+            IrcDccTransfer transfer = new IrcDccTransfer(Direction.SEND, nick, fileName, file, size, token);
+            Entry entry = new Entry(channel, transfer, null);
+            int port = 0;
+            if (!passive) {
+                port = transfer.listen(localAddress);
+            }
+            entries.add(entry);
+            controller.postCtcp(account, nick, IrcDccMessage.send(fileName, localAddress, port, size, token)
+                    .toCtcp());
+            appendSystemMessage(channel, MessageFormat.format(IrcUiMessages.Dcc_Offering_x_y_bytes_to_z, fileName,
+                    size, nick));
+            if (!passive) {
+                start(entry);
+            }
+        } catch (IOException e) {
+            throw new IrcException(e.getLocalizedMessage(), e, channel);
+        }
+    }
+
+    private void offered(AbstractIrcChannel channel, String nick, IrcDccMessage message) {
+        /* forget any older offer of the same file from the same nick */
+        for (Iterator<Entry> it = entries.iterator(); it.hasNext();) {
+            IrcDccTransfer t = it.next().transfer;
+            if (t.getDirection() == Direction.RECEIVE && t.getState() == State.OFFERED
+                    && t.getPeerNick().equals(nick) && t.getFileName().equals(message.getFileName())) {
+                it.remove();
+            }
+        }
+        Path file = downloadDirectory.resolve(IrcDccMessage.toSafeFileName(message.getFileName()));
+        IrcDccTransfer transfer = new IrcDccTransfer(Direction.RECEIVE, nick, message.getFileName(), file,
+                message.getSize(), message.getToken());
+        InetSocketAddress remote = message.isPassive() ? null : new InetSocketAddress(message.getAddress(),
+                message.getPort());
+        entries.add(new Entry(channel, transfer, remote));
+        appendSystemMessage(channel, MessageFormat.format(IrcUiMessages.Dcc_x_offers_y_z_bytes, nick,
+                message.getFileName(), message.getSize()));
+    }
+
+    /**
+     * Takes effect for the offers received after this call.
+     *
+     * @param downloadDirectory
+     */
+    public void setDownloadDirectory(Path downloadDirectory) {
+        this.downloadDirectory = downloadDirectory;
+    }
+
+    private void start(Entry entry) {
+        entry.transfer.setWaiting();
+        new TransferJob(entry).schedule();
+    }
+
+    private void startReceiving(Entry entry) throws IOException, IrcException {
+        IrcDccTransfer transfer = entry.transfer;
+        if (entry.remote == null) {
+            /* a passive offer: we listen and tell the sender where */
+            InetAddress localAddress = controller.getLocalAddress(entry.account);
+            if (localAddress == null) {
+                throw new IrcException(MessageFormat.format(IrcUiMessages.Dcc_Account_x_not_connected,
+                        entry.account.getLabel()), entry.channel);
+            }
+            int port = transfer.listen(localAddress);
+            controller.postCtcp(entry.account, transfer.getPeerNick(), IrcDccMessage.send(transfer.getFileName(),
+                    localAddress, port, transfer.getSize(), transfer.getToken()).toCtcp());
+        }
+        start(entry);
+    }
+
+    /**
+     * @param file
+     * @return the given {@code file} if it does not exist, otherwise the
+     *         first non-existent sibling named like {@code name (1).ext},
+     *         {@code name (2).ext} and so on
+     */
+    static Path toUniqueFile(Path file) {
+        String fileName = file.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String extension = dot > 0 ? fileName.substring(dot) : "";
+        Path result = file;
+        for (int i = 1; Files.exists(result); i++) {
+            result = file.resolveSibling(base + " (" + i + ")" + extension);
+        }
+        return result;
+    }
+
+}
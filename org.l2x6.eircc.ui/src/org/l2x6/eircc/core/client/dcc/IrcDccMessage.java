@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.dcc;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.schwering.irc.lib.util.CTCPCommand;
+
+/**
+ * A {@code DCC SEND}, {@code DCC RESUME} or {@code DCC ACCEPT} CTCP message
+ * as described in http://www.irchelp.org/protocol/dccspec.html and
+ * https://modern.ircdocs.horse/dcc.html:
+ *
+ * <pre>
+ * DCC SEND &lt;filename&gt; &lt;ip&gt; &lt;port&gt; &lt;size&gt; [&lt;token&gt;]
+ * DCC RESUME &lt;filename&gt; &lt;port&gt; &lt;position&gt; [&lt;token&gt;]
+ * DCC ACCEPT &lt;filename&gt; &lt;port&gt; &lt;position&gt; [&lt;token&gt;]
+ * </pre>
+ *
+ * A {@code SEND} with port {@code 0} and a token is a passive (a.k.a.
+ * reverse) offer: the receiver is expected to listen and to answer with a
+ * {@code SEND} carrying its own address, port and the same token.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcDccMessage {
+    public enum Type {
+        ACCEPT, RESUME, SEND
+    };
+
+    private static final String DCC = CTCPCommand.DCC.name();
+
+    private static final String DEFAULT_FILE_NAME = "dcc-file";
+
+    private static final Pattern DIGITS = Pattern.compile("[0-9]+");
+
+    private static final Pattern IPV4_DOTTED = Pattern.compile("[0-9]{1,3}(\\.[0-9]{1,3}){3}");
+
+    /**
+     * @param ctcp
+     *            the text of a CTCP message with or without the
+     *            {@link CTCPCommand#QUOTE_CHAR}s
+     * @return the parsed message or {@code null} if the given {@code ctcp} is
+     *         not a well formed {@code DCC SEND}, {@code DCC RESUME} or
+     *         {@code DCC ACCEPT}
+     */
+    public static IrcDccMessage parse(String ctcp) {
+        String text = ctcp.replace(String.valueOf(CTCPCommand.QUOTE_CHAR), "").trim();
+        int pos = text.indexOf(' ');
+        if (pos < 0 || !DCC.equalsIgnoreCase(text.substring(0, pos))) {
+            return null;
+        }
+        text = text.substring(pos + 1).trim();
+        pos = text.indexOf(' ');
+        if (pos < 0) {
+            return null;
+        }
+        Type type;
+        try {
+            type = Type.valueOf(text.substring(0, pos).toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        text = text.substring(pos + 1).trim();
+
+        String fileName;
+        String rest;
+        if (text.startsWith("\"")) {
+            int end = text.indexOf('"', 1);
+            if (end < 0) {
+                return null;
+            }
+            fileName = text.substring(1, end);
+            rest = text.substring(end + 1).trim();
+        } else {
+            pos = text.indexOf(' ');
+            if (pos < 0) {
+                return null;
+            }
+            fileName = text.substring(0, pos);
+            rest = text.substring(pos + 1).trim();
+        }
+        List<String> params = new ArrayList<String>();
+        for (String param : rest.split(" +")) {
+            if (!param.isEmpty()) {
+                params.add(param);
+            }
+        }
+
+        try {
+            switch (type) {
+            case SEND:
+                if (params.size() < 3 || params.size() > 4) {
+                    return null;
+                }
+                return new IrcDccMessage(type, fileName, decodeAddress(params.get(0)), Integer.parseInt(params
+                        .get(1)), Long.parseLong(params.get(2)), params.size() == 4 ? params.get(3) : null);
+            default:
+                if (params.size() < 2 || params.size() > 3) {
+                    return null;
+                }
+                return new IrcDccMessage(type, fileName, null, Integer.parseInt(params.get(0)), Long
+                        .parseLong(params.get(1)), params.size() == 3 ? params.get(2) : null);
+            }
+        } catch (IllegalArgumentException | UnknownHostException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param address
+     *            a decimal IPv4 address as used by DCC, a dotted IPv4 address
+     *            or an IPv6 literal
+     * @return the decoded address; never involves a DNS lookup
+     * @throws UnknownHostException
+     *             if the {@code address} is neither of the above
+     */
+    static InetAddress decodeAddress(String address) throws UnknownHostException {
+        if (DIGITS.matcher(address).matches()) {
+            long ip = Long.parseLong(address);
+            if (ip > 0xffffffffL) {
+                throw new UnknownHostException(address);
+            }
+            return InetAddress.getByAddress(new byte[] { (byte) (ip >>> 24), (byte) (ip >>> 16), (byte) (ip >>> 8),
+                    (byte) ip });
+        } else if (address.indexOf(':') >= 0 || IPV4_DOTTED.matcher(address).matches()) {
+            /* a literal, hence no lookup */
+            return InetAddress.getByName(address);
+        }
+        throw new UnknownHostException(address);
+    }
+
+    /**
+     * @param address
+     * @return the given {@code address} in the form used by DCC, i.e. an IPv4
+     *         address as an unsigned decimal number or an IPv6 literal
+     */
+    static String encodeAddress(InetAddress address) {
+        if (address instanceof Inet4Address) {
+            byte[] b = address.getAddress();
+            long ip = ((b[0] & 0xffL) << 24) | ((b[1] & 0xffL) << 16) | ((b[2] & 0xffL) << 8) | (b[3] & 0xffL);
+            return String.valueOf(ip);
+        }
+        return address.getHostAddress();
+    }
+
+    /**
+     * @param fileName
+     *            as offered by a peer
+     * @return the last segment of the given {@code fileName} without any
+     *         characters that could make it point out of the download
+     *         directory
+     */
+    public static String toSafeFileName(String fileName) {
+        int pos = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'));
+        String result = fileName.substring(pos + 1);
+        StringBuilder sb = new StringBuilder(result.length());
+        for (int i = 0; i < result.length(); i++) {
+            char ch = result.charAt(i);
+            sb.append(ch < ' ' || ch == ':' ? '_' : ch);
+        }
+        result = sb.toString().trim();
+        while (result.startsWith(".")) {
+            result = result.substring(1);
+        }
+        return result.isEmpty() ? DEFAULT_FILE_NAME : result;
+    }
+
+    public static IrcDccMessage accept(String fileName, int port, long position, String token) {
+        return new IrcDccMessage(Type.ACCEPT, fileName, null, port, position, token);
+    }
+
+    public static IrcDccMessage resume(String fileName, int port, long position, String token) {
+        return new IrcDccMessage(Type.RESUME, fileName, null, port, position, token);
+    }
+
+    public static IrcDccMessage send(String fileName, InetAddress address, int port, long size, String token) {
+        return new IrcDccMessage(Type.SEND, fileName, address, port, size, token);
+    }
+
+    private final InetAddress address;
+    private final String fileName;
+    private final int port;
+    /** The size for {@link Type#SEND}, the position for the others */
+    private final long sizeOrPosition;
+    private final String token;
+    private final Type type;
+
+    private IrcDccMessage(Type type, String fileName, InetAddress address, int port, long sizeOrPosition,
+            String token) {
+        super();
+        if (port < 0 || port > 0xffff) {
+            throw new IllegalArgumentException("Invalid port " + port);
+        }
+        if (sizeOrPosition < 0) {
+            throw new IllegalArgumentException("Negative size or position " + sizeOrPosition);
+        }
+        this.type = type;
+        this.fileName = fileName;
+        this.address = address;
+        this.port = port;
+        this.sizeOrPosition = sizeOrPosition;
+        this.token = token;
+    }
+
+    /**
+     * @return the address to connect to; {@code null} for {@link Type#RESUME}
+     *         and {@link Type#ACCEPT}
+     */
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the position to resume from; meaningful only for
+     *         {@link Type#RESUME} and {@link Type#ACCEPT}
+     */
+    public long getPosition() {
+        return sizeOrPosition;
+    }
+
+    /**
+     * @return the size of the file; meaningful only for {@link Type#SEND}
+     */
+    public long getSize() {
+        return sizeOrPosition;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return {@code true} if this is a passive {@link Type#SEND} offer the
+     *         receiver should answer by listening
+     */
+    public boolean isPassive() {
+        return type == Type.SEND && port == 0 && token != null;
+    }
+
+    /**
+     * @return this message as the text of a CTCP message, without the
+     *         {@link CTCPCommand#QUOTE_CHAR}s
+     */
+    public String toCtcp() {
+        StringBuilder sb = new StringBuilder(DCC).append(' ').append(type.name()).append(' ');
+        if (fileName.indexOf(' ') >= 0) {
+            sb.append('"').append(fileName).append('"');
+        } else {
+            sb.append(fileName);
+        }
+        if (type == Type.SEND) {
+            /* the address of a passive offer is ignored by the receiver */
+            sb.append(' ').append(address == null ? "0" : encodeAddress(address));
+        }
+        sb.append(' ').append(port).append(' ').append(sizeOrPosition);
+        if (token != null) {
+            sb.append(' ').append(token);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toCtcp();
+    }
+
+}
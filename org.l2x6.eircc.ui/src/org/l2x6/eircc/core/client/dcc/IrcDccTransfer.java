@@ -0,0 +1,431 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.dcc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * A single DCC file transfer. The file data never passes through the Java
+ * heap on the sending side: {@link FileChannel#transferTo(long, long,
+ * java.nio.channels.WritableByteChannel)} lets the kernel copy straight from
+ * the page cache to the socket (sendfile). The receiving side uses
+ * {@link FileChannel#transferFrom(java.nio.channels.ReadableByteChannel, long,
+ * long)} that lets the JDK choose the cheapest path available.
+ * <p>
+ * The blocking methods {@link #acceptConnection(long)},
+ * {@link #connect(InetSocketAddress, int)} and {@link #transfer(LongConsumer)}
+ * are meant to be called from a background thread. {@link #cancel()} may be
+ * called from any thread.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcDccTransfer {
+    public enum Direction {
+        RECEIVE, SEND
+    }
+
+    public enum State {
+        CANCELLED, DONE, FAILED, OFFERED, TRANSFERRING, WAITING;
+
+        public boolean isFinal() {
+            return this == DONE || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    /** The number of bytes to pass to a single transferTo/transferFrom call */
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * How long to wait for the final acknowledgement after the last byte was
+     * sent. Some clients never send any.
+     */
+    private static final long FINAL_ACK_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * The longest time to block in a single select() so that {@link #cancel()}
+     * is noticed: closing a channel does not wake up the selector it is
+     * registered with.
+     */
+    private static final long CANCEL_CHECK_MILLIS = 200;
+
+    /** How long to wait for any progress on the socket */
+    private static final long IDLE_TIMEOUT_MILLIS = 60000;
+
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private volatile SocketChannel channel;
+    private final Direction direction;
+    private volatile Path file;
+    private final String fileName;
+    private final String peerNick;
+    private volatile int port;
+    private volatile long position;
+    private volatile ServerSocketChannel serverChannel;
+    private final long size;
+    private volatile long startPosition;
+    private volatile State state = State.OFFERED;
+    private final String token;
+
+    /**
+     * @param direction
+     * @param peerNick
+     *            the nick of the other party
+     * @param fileName
+     *            the file name as it travels in the CTCP messages
+     * @param file
+     *            the local file to read from or to write to
+     * @param size
+     *            the size of the file as offered by the sender
+     * @param token
+     *            the token of a passive transfer or {@code null}
+     */
+    public IrcDccTransfer(Direction direction, String peerNick, String fileName, Path file, long size, String token) {
+        super();
+        this.direction = direction;
+        this.peerNick = peerNick;
+        this.fileName = fileName;
+        this.file = file;
+        this.size = size;
+        this.token = token;
+    }
+
+    /**
+     * Waits for the peer to connect to the port returned by
+     * {@link #listen(InetAddress)} and stops listening afterwards.
+     *
+     * @param timeoutMillis
+     * @throws IOException
+     */
+    public void acceptConnection(long timeoutMillis) throws IOException {
+        ServerSocketChannel server = this.serverChannel;
+        if (server == null) {
+            throw new IllegalStateException("Call listen() first");
+        }
+        try (Selector selector = Selector.open()) {
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            long deadline = System.nanoTime() + timeoutMillis * NANOS_PER_MILLI;
+            SocketChannel accepted = null;
+            while (accepted == null) {
+                long remaining = (deadline - System.nanoTime()) / NANOS_PER_MILLI;
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("No connection from " + peerNick + " within " + timeoutMillis
+                            + " ms");
+                }
+                selector.select(Math.min(remaining, CANCEL_CHECK_MILLIS));
+                checkCancelled();
+                accepted = server.accept();
+            }
+            this.channel = accepted;
+        } finally {
+            server.close();
+            this.serverChannel = null;
+        }
+    }
+
+    /**
+     * Closes the sockets. A blocked {@link #transfer(LongConsumer)} will
+     * return with an exception shortly.
+     */
+    public void cancel() {
+        state = State.CANCELLED;
+        closeQuietly();
+    }
+
+    private void checkCancelled() throws IOException {
+        if (state == State.CANCELLED) {
+            throw new IOException("Transfer of " + fileName + " cancelled");
+        }
+    }
+
+    private void closeQuietly() {
+        ServerSocketChannel server = this.serverChannel;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException ignored) {
+            }
+        }
+        SocketChannel ch = this.channel;
+        if (ch != null) {
+            try {
+                ch.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Connects to the peer.
+     *
+     * @param address
+     * @param timeoutMillis
+     * @throws IOException
+     */
+    public void connect(InetSocketAddress address, int timeoutMillis) throws IOException {
+        SocketChannel ch = SocketChannel.open();
+        this.channel = ch;
+        checkCancelled();
+        ch.socket().connect(address, timeoutMillis);
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getPeerNick() {
+        return peerNick;
+    }
+
+    /**
+     * @return the port we listen on or {@code 0} if we do not listen
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the absolute position in the file up to which the data was
+     *         transferred
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the position in the file this transfer starts at, non-zero
+     *         for resumed transfers
+     */
+    public long getStartPosition() {
+        return startPosition;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Opens a server socket on an ephemeral port.
+     *
+     * @param bindAddress
+     *            the local address to listen on
+     * @return the port the peer should connect to
+     * @throws IOException
+     */
+    public int listen(InetAddress bindAddress) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(bindAddress, 0), 1);
+        this.serverChannel = server;
+        this.port = server.socket().getLocalPort();
+        return port;
+    }
+
+    private void receive(SocketChannel ch, LongConsumer progress) throws IOException {
+        ch.configureBlocking(true);
+        ByteBuffer ack = ByteBuffer.allocate(4);
+        long pos = startPosition;
+        /* a new transfer must never overwrite an existing file, a resumed one continues an existing file */
+        StandardOpenOption open = pos == 0 ? StandardOpenOption.CREATE_NEW : StandardOpenOption.WRITE;
+        try (FileChannel out = FileChannel.open(file, open, StandardOpenOption.WRITE)) {
+            /* drop whatever follows the resume position */
+            out.truncate(pos);
+            while (pos < size) {
+                long transferred = out.transferFrom(ch, pos, Math.min(CHUNK_SIZE, size - pos));
+                if (transferred == 0) {
+                    /* transferFrom() does not tell EOF from no data, but the channel is blocking */
+                    checkCancelled();
+                    throw new EOFException("Connection closed by " + peerNick + " after " + pos + " of " + size
+                            + " bytes of " + fileName);
+                }
+                pos += transferred;
+                position = pos;
+                progress.accept(pos);
+                /* the acknowledgement is the number of bytes received so far modulo 2^32 */
+                ack.clear();
+                ack.putInt((int) pos);
+                ack.flip();
+                while (ack.hasRemaining()) {
+                    ch.write(ack);
+                }
+            }
+        }
+    }
+
+    private void send(SocketChannel ch, LongConsumer progress) throws IOException {
+        ch.configureBlocking(false);
+        ByteBuffer ack = ByteBuffer.allocate(4);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ); Selector selector = Selector.open()) {
+            SelectionKey key = ch.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            long pos = startPosition;
+            long lastProgress = System.nanoTime();
+            long acked = 0;
+            while (true) {
+                boolean sent = pos >= size;
+                key.interestOps(sent ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                long timeout = sent ? FINAL_ACK_TIMEOUT_MILLIS : IDLE_TIMEOUT_MILLIS;
+                long remaining = timeout - (System.nanoTime() - lastProgress) / NANOS_PER_MILLI;
+                if (remaining <= 0) {
+                    if (sent) {
+                        /* all data is out and the peer is not going to confirm */
+                        return;
+                    }
+                    throw new SocketTimeoutException("No progress sending " + fileName + " to " + peerNick
+                            + " in " + timeout + " ms");
+                }
+                selector.select(Math.min(remaining, CANCEL_CHECK_MILLIS));
+                checkCancelled();
+                selector.selectedKeys().clear();
+
+                /*
+                 * Consume the acknowledgements even while sending, otherwise
+                 * the peer may block writing them and stop reading.
+                 */
+                int read;
+                while ((read = ch.read(ack)) > 0) {
+                    if (!ack.hasRemaining()) {
+                        ack.flip();
+                        acked = ack.getInt() & 0xffffffffL;
+                        ack.clear();
+                        lastProgress = System.nanoTime();
+                    }
+                }
+                if (read < 0) {
+                    if (sent) {
+                        return;
+                    }
+                    throw new EOFException("Connection closed by " + peerNick + " after " + pos + " of " + size
+                            + " bytes of " + fileName);
+                }
+                if (sent && (acked == (size & 0xffffffffL) || acked == ((size - startPosition) & 0xffffffffL))) {
+                    /* some clients acknowledge the absolute position, others just the bytes of this session */
+                    return;
+                }
+
+                if (!sent && key.isValid()) {
+                    long transferred = in.transferTo(pos, Math.min(CHUNK_SIZE, size - pos), ch);
+                    if (transferred > 0) {
+                        pos += transferred;
+                        position = pos;
+                        lastProgress = System.nanoTime();
+                        progress.accept(pos);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the local file to write to or to read from. To be called before
+     * {@link #transfer(LongConsumer)}.
+     *
+     * @param file
+     */
+    public void setFile(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Sets the position the transfer should start at. To be called before
+     * {@link #transfer(LongConsumer)}.
+     *
+     * @param startPosition
+     */
+    public void setStartPosition(long startPosition) {
+        if (startPosition < 0 || startPosition > size) {
+            throw new IllegalArgumentException("Cannot resume " + fileName + " of size " + size + " at "
+                    + startPosition);
+        }
+        this.startPosition = startPosition;
+        this.position = startPosition;
+    }
+
+    /**
+     * Sets the state to {@link State#WAITING} unless the transfer has been
+     * cancelled already.
+     */
+    public void setWaiting() {
+        if (state == State.OFFERED) {
+            state = State.WAITING;
+        }
+    }
+
+    /**
+     * Transfers the file over the connection established via
+     * {@link #acceptConnection(long)} or
+     * {@link #connect(InetSocketAddress, int)} and closes it afterwards.
+     *
+     * @param progress
+     *            gets notified about the current position after each chunk
+     * @throws IOException
+     */
+    public void transfer(LongConsumer progress) throws IOException {
+        SocketChannel ch = this.channel;
+        if (ch == null) {
+            throw new IllegalStateException("Not connected");
+        }
+        try {
+            checkCancelled();
+            state = State.TRANSFERRING;
+            switch (direction) {
+            case SEND:
+                send(ch, progress);
+                break;
+            case RECEIVE:
+                receive(ch, progress);
+                break;
+            default:
+                throw new IllegalStateException("Unexpected " + Direction.class.getSimpleName() + " " + direction);
+            }
+            state = State.DONE;
+        } catch (IOException | RuntimeException e) {
+            if (state != State.CANCELLED) {
+                state = State.FAILED;
+            }
+            throw e;
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return direction + " " + fileName + " " + peerNick + " " + position + "/" + size + " " + state;
+    }
+
+}
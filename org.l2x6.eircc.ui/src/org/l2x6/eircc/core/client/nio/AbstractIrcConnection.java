@@ -0,0 +1,693 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.nio;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.schwering.irc.lib.IRCConfig;
+import org.schwering.irc.lib.IRCConnection;
+import org.schwering.irc.lib.IRCEventListener;
+import org.schwering.irc.lib.IRCExceptionHandler;
+import org.schwering.irc.lib.IRCRuntimeConfig;
+import org.schwering.irc.lib.IRCServerConfig;
+import org.schwering.irc.lib.IRCTrafficLogger;
+import org.schwering.irc.lib.IRCUser;
+import org.schwering.irc.lib.impl.DefaultIRCUser;
+import org.schwering.irc.lib.util.IRCModeParser;
+import org.schwering.irc.lib.util.IRCUtil;
+
+/**
+ * A base for {@link IRCConnection} implementations that do their own I/O. The
+ * subclasses only need to implement the transport, i.e. {@link #connect()},
+ * {@link #close()} and {@link #write(String)} and pass the incoming lines to
+ * {@link #receive(CharSequence)}. The registration, the nick tracking and the
+ * dispatching of the incoming lines to the {@link IRCEventListener}s follow
+ * {@code org.schwering.irc.lib.impl.DefaultIRCConnection} so that the
+ * listeners cannot tell the difference.
+ * <p>
+ * On top of that, the IRCv3 capabilities set via
+ * {@link #setRequestedCapabilities(Collection)} are negotiated during the
+ * registration and the IRCv3 message tags of the line being dispatched are
+ * available to the listeners through {@link #getCurrentLine()}.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public abstract class AbstractIrcConnection implements IRCConnection {
+
+    /** See http://ircv3.net/specs/extensions/server-time-3.2.html */
+    public static final String CAP_SERVER_TIME = "server-time";
+
+    protected static final byte LEVEL_CLOSED = -1;
+    protected static final byte LEVEL_CONNECTED = 1;
+    protected static final byte LEVEL_NEW = 0;
+    protected static final byte LEVEL_NICK_CONFIRMED = 3;
+    protected static final byte LEVEL_REGISTERED = 2;
+
+    /** Set while waiting for CAP LS or CAP ACK during the registration */
+    private volatile boolean capNegotiating = false;
+
+    /** Reused for all incoming lines, see {@link #dispatch(CharSequence)} */
+    private final IrcLine currentLine;
+
+    private final Set<String> enabledCapabilities = ConcurrentHashMap.newKeySet();
+
+    /** The {@link System#nanoTime()} when the last line was received */
+    private volatile long lastReceivedNanos = System.nanoTime();
+
+    private final IRCExceptionHandler exceptionHandler;
+
+    /** Copy on write */
+    private volatile IRCEventListener[] listeners = new IRCEventListener[0];
+
+    /** One of the {@code LEVEL_*} constants */
+    protected volatile byte level = LEVEL_NEW;
+
+    private volatile String nick;
+
+    /** Accessed only from the thread calling {@link #dispatch(CharSequence)} */
+    private final Set<String> offeredCapabilities = new HashSet<String>();
+
+    private volatile Set<String> requestedCapabilities = Collections.emptySet();
+
+    protected final IRCRuntimeConfig runtimeConfig;
+
+    protected final IRCServerConfig serverConfig;
+
+    protected final IRCTrafficLogger trafficLogger;
+
+    /**
+     * @param config
+     */
+    public AbstractIrcConnection(IRCConfig config) {
+        super();
+        this.serverConfig = config;
+        this.runtimeConfig = config;
+        this.trafficLogger = config.getTrafficLogger();
+        this.exceptionHandler = config.getExceptionHandler();
+        this.nick = config.getNick();
+        this.currentLine = new IrcLine(config.isStripColorsEnabled());
+    }
+
+    /**
+     * @param p
+     * @return a new {@link IRCUser} out of the prefix of the given line
+     */
+    private static IRCUser newUser(IrcLine p) {
+        return new DefaultIRCUser(p.getNick(), p.getUsername(), p.getHost());
+    }
+
+    /**
+     * @param p
+     * @param from
+     *            zero based
+     * @return the params starting at {@code from}, each followed by a space
+     *         as {@code org.schwering.irc.lib.util.IRCParser.getParametersFrom(int)}
+     *         does
+     */
+    private static String paramsFrom(IrcLine p, int from) {
+        StringBuilder result = new StringBuilder();
+        for (int i = from; i < p.getParamCount(); i++) {
+            result.append(p.getParam(i)).append(' ');
+        }
+        return result.toString();
+    }
+
+    /**
+     * @param capabilities
+     *            a space separated list of capabilities, possibly with values
+     *            or modifiers, such as {@code -batch} or {@code sasl=PLAIN}
+     * @param add
+     *            if {@code true} the capabilities will be added to
+     *            {@code target}, otherwise they will be removed
+     * @param target
+     */
+    private static void collectCapabilities(String capabilities, boolean add, Set<String> target) {
+        StringTokenizer st = new StringTokenizer(capabilities, " ");
+        while (st.hasMoreTokens()) {
+            String cap = st.nextToken();
+            boolean remove = !add;
+            if (cap.startsWith("-")) {
+                cap = cap.substring(1);
+                remove = true;
+            }
+            int eq = cap.indexOf('=');
+            if (eq >= 0) {
+                cap = cap.substring(0, eq);
+            }
+            if (remove) {
+                target.remove(cap);
+            } else {
+                target.add(cap);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void addIRCEventListener(IRCEventListener l) {
+        if (l == null) {
+            throw new IllegalArgumentException("Listener is null.");
+        }
+        IRCEventListener[] oldListeners = this.listeners;
+        IRCEventListener[] newListeners = new IRCEventListener[oldListeners.length + 1];
+        System.arraycopy(oldListeners, 0, newListeners, 0, oldListeners.length);
+        newListeners[oldListeners.length] = l;
+        this.listeners = newListeners;
+    }
+
+    /**
+     * Passes the given incoming {@code line} to the listeners.
+     *
+     * @param line
+     *            without the trailing CRLF; must not be modified by the caller
+     *            before this method returns
+     */
+    protected void dispatch(CharSequence line) {
+        final IrcLine p;
+        try {
+            p = currentLine.parse(line);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        if (p.isCommand("CAP")) {
+            handleCap(p);
+            return;
+        }
+        IRCEventListener[] listeners = this.listeners;
+        if (p.isCommand("PRIVMSG")) {
+            IRCUser user = newUser(p);
+            String middle = p.getMiddle();
+            String trailing = p.getTrailing();
+            for (int i = listeners.length - 1; i >= 0; i--) {
+                listeners[i].onPrivmsg(middle, user, trailing);
+            }
+        } else if (p.isCommand("MODE")) {
+            String chan = p.getParam(0);
+            IRCUser user = newUser(p);
+            if (IRCUtil.isChan(chan)) {
+                String modes = p.getParam(1);
+                String args = paramsFrom(p, 2);
+                for (int i = listeners.length - 1; i >= 0; i--) {
+                    listeners[i].onMode(chan, user, new IRCModeParser(modes, args));
+                }
+            } else {
+                String modes = paramsFrom(p, 1);
+                for (int i = listeners.length - 1; i >= 0; i--) {
+                    listeners[i].onMode(user, chan, modes);
+                }
+            }
+        } else if (p.isCommand("PING")) {
+            String ping = p.getTrailing();
+            if (runtimeConfig.isAutoPong()) {
+                doPong(ping);
+            } else {
+                for (int i = listeners.length - 1; i >= 0; i--) {
+                    listeners[i].onPing(ping);
+                }
+            }
+            if (level == LEVEL_CONNECTED) {
+                level = LEVEL_REGISTERED;
+                for (int i = listeners.length - 1; i >= 0; i--) {
+                    listeners[i].onRegistered();
+                }
+            }
+        } else if (p.isCommand("JOIN")) {
+            IRCUser user = newUser(p);
+            String trailing = p.getTrailing();
+            for (int i = listeners.length - 1; i >= 0; i--) {
+                listeners[i].onJoin(trailing, user);
+            }
+        } else if (p.isCommand("NICK")) {
+            IRCUser user = newUser(p);
+            String changingNick = p.getNick();
+            String newNick = p.getTrailing();
+            if (changingNick.equalsIgnoreCase(nick)) {
+                nick = newNick;
+            }
+            for (int i = listeners.length - 1; i >= 0; i--) {
+                listeners[i].onNick(user, newNick);
+            }
+        } else if (p.isCommand("QUIT")) {
+            IRCUser user = newUser(p);
+            String trailing = p.getTrailing();
+            for (int i = listeners.length - 1; i >= 0; i--) {
+                listeners[i].onQuit(user, trailing);
+            }
+        } else if (p.isCommand("PART")) {
+            IRCUser user = newUser(p);
+            String chan = p.getParam(0);
+            String msg = p.getParamCount() > 1 ? p.getTrailing() : "";
+            for (int i = listeners.length - 1; i >= 0; i--) {
+                listeners[i].onPart(chan, user, msg);
+            }
+        } else if (p.isCommand("NOTICE")) {
+            IRCUser user = newUser(p);
+            String middle = p.getMiddle();
+            String trailing = p.getTrailing();
+            for (int i = listeners.length - 1; i >= 0; i--) {
+                listeners[i].onNotice(middle, user, trailing);
+            }
+        } else {
+            int reply = p.getNumeric();
+            if (reply >= 1 && reply < 400) {
+                String potNick = p.getParam(0);
+                if ((level == LEVEL_CONNECTED || level == LEVEL_REGISTERED) && nick.length() > potNick.length()
+                        && nick.substring(0, potNick.length()).equalsIgnoreCase(potNick)) {
+                    /* the server has truncated our nick */
+                    nick = potNick;
+                    if (level == LEVEL_REGISTERED) {
+                        level = LEVEL_NICK_CONFIRMED;
+                    }
+                }
+                if (level == LEVEL_CONNECTED && nick.equals(potNick)) {
+                    level = LEVEL_REGISTERED;
+                    for (int i = listeners.length - 1; i >= 0; i--) {
+                        listeners[i].onRegistered();
+                    }
+                }
+                String middle = p.getMiddle();
+                String trailing = p.getTrailing();
+                for (int i = listeners.length - 1; i >= 0; i--) {
+                    listeners[i].onReply(reply, middle, trailing);
+                }
+            } else if (reply >= 400 && reply < 600) {
+                String trailing = p.getTrailing();
+                for (int i = listeners.length - 1; i >= 0; i--) {
+                    listeners[i].onError(reply, trailing);
+                }
+            } else if (p.isCommand("KICK")) {
+                IRCUser user = newUser(p);
+                String chan = p.getParam(0);
+                String passiveNick = p.getParam(1);
+                String msg = p.getParamCount() > 2 ? p.getTrailing() : "";
+                for (int i = listeners.length - 1; i >= 0; i--) {
+                    listeners[i].onKick(chan, user, passiveNick, msg);
+                }
+            } else if (p.isCommand("INVITE")) {
+                IRCUser user = newUser(p);
+                String middle = p.getMiddle();
+                String trailing = p.getTrailing();
+                for (int i = listeners.length - 1; i >= 0; i--) {
+                    listeners[i].onInvite(trailing, user, middle);
+                }
+            } else if (p.isCommand("TOPIC")) {
+                IRCUser user = newUser(p);
+                String middle = p.getMiddle();
+                String trailing = p.getTrailing();
+                for (int i = listeners.length - 1; i >= 0; i--) {
+                    listeners[i].onTopic(middle, user, trailing);
+                }
+            } else if (p.isCommand("ERROR")) {
+                String trailing = p.getTrailing();
+                for (int i = listeners.length - 1; i >= 0; i--) {
+                    listeners[i].onError(trailing);
+                }
+            } else {
+                String prefix = p.getPrefix();
+                String command = p.getCommand();
+                String middle = p.getMiddle();
+                String trailing = p.getTrailing();
+                for (int i = listeners.length - 1; i >= 0; i--) {
+                    listeners[i].unknown(prefix, command, middle, trailing);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void doAway() {
+        send("AWAY");
+    }
+
+    @Override
+    public void doAway(String msg) {
+        send("AWAY :" + msg);
+    }
+
+    @Override
+    public void doInvite(String nick, String chan) {
+        send("INVITE " + nick + " " + chan);
+    }
+
+    @Override
+    public void doIson(String nick) {
+        send("ISON " + nick);
+    }
+
+    @Override
+    public void doJoin(String chan) {
+        send("JOIN " + chan);
+    }
+
+    @Override
+    public void doJoin(String chan, String key) {
+        send("JOIN " + chan + " " + key);
+    }
+
+    @Override
+    public void doKick(String chan, String nick) {
+        send("KICK " + chan + " " + nick);
+    }
+
+    @Override
+    public void doKick(String chan, String nick, String msg) {
+        send("KICK " + chan + " " + nick + " :" + msg);
+    }
+
+    @Override
+    public void doList() {
+        send("LIST");
+    }
+
+    @Override
+    public void doList(String chan) {
+        send("LIST " + chan);
+    }
+
+    @Override
+    public void doMode(String chan) {
+        send("MODE " + chan);
+    }
+
+    @Override
+    public void doMode(String target, String mode) {
+        send("MODE " + target + " " + mode);
+    }
+
+    @Override
+    public void doNames() {
+        send("NAMES");
+    }
+
+    @Override
+    public void doNames(String chan) {
+        send("NAMES " + chan);
+    }
+
+    @Override
+    public void doNick(String nick) {
+        send("NICK " + nick);
+    }
+
+    @Override
+    public void doNotice(String target, String msg) {
+        send("NOTICE " + target + " :" + msg);
+    }
+
+    @Override
+    public void doPart(String chan) {
+        send("PART " + chan);
+    }
+
+    @Override
+    public void doPart(String chan, String msg) {
+        send("PART " + chan + " :" + msg);
+    }
+
+    @Override
+    public void doPong(String ping) {
+        send("PONG :" + ping);
+    }
+
+    @Override
+    public void doPrivmsg(String target, String msg) {
+        send("PRIVMSG " + target + " :" + msg);
+    }
+
+    @Override
+    public void doQuit() {
+        send("QUIT");
+    }
+
+    @Override
+    public void doQuit(String msg) {
+        send("QUIT :" + msg);
+    }
+
+    @Override
+    public void doTopic(String chan) {
+        send("TOPIC " + chan);
+    }
+
+    @Override
+    public void doTopic(String chan, String topic) {
+        send("TOPIC " + chan + " :" + topic);
+    }
+
+    @Override
+    public void doUserhost(String nick) {
+        send("USERHOST " + nick);
+    }
+
+    @Override
+    public void doWho(String criteria) {
+        send("WHO " + criteria);
+    }
+
+    @Override
+    public void doWhois(String nick) {
+        send("WHOIS " + nick);
+    }
+
+    @Override
+    public void doWhowas(String nick) {
+        send("WHOWAS " + nick);
+    }
+
+    /**
+     * Notifies the listeners about the disconnection unless they have been
+     * notified already and removes them.
+     */
+    protected void fireDisconnected() {
+        IRCEventListener[] listeners;
+        synchronized (this) {
+            listeners = this.listeners;
+            this.listeners = new IRCEventListener[0];
+        }
+        for (int i = listeners.length - 1; i >= 0; i--) {
+            listeners[i].onDisconnected();
+        }
+    }
+
+    /**
+     * Sends {@code CAP END} if the capability negotiation is still pending.
+     */
+    private void endCapNegotiation() {
+        if (capNegotiating) {
+            capNegotiating = false;
+            send("CAP END");
+        }
+    }
+
+    /**
+     * @return the view of the line being currently dispatched. Valid only
+     *         within the {@link IRCEventListener} methods and only on the
+     *         thread calling them.
+     */
+    public IrcLine getCurrentLine() {
+        return currentLine;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} when the last line was received,
+     *         or when this connection was created if no line was received
+     *         yet; within the {@link IRCEventListener} methods, this is the
+     *         receive time of the line being dispatched
+     */
+    public long getLastReceivedNanos() {
+        return lastReceivedNanos;
+    }
+
+    /**
+     * @return the time of the line being currently dispatched as sent by the
+     *         server in the {@code time} tag, or {@code null} if
+     *         {@value #CAP_SERVER_TIME} is not enabled or the current line
+     *         has no valid {@code time} tag. The same threading restrictions
+     *         as for {@link #getCurrentLine()} apply.
+     */
+    public OffsetDateTime getCurrentLineServerTime() {
+        if (!enabledCapabilities.contains(CAP_SERVER_TIME)) {
+            return null;
+        }
+        String time = currentLine.getTagValue("time");
+        if (time == null) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.ofInstant(Instant.parse(time), ZoneId.systemDefault());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String getNick() {
+        return nick;
+    }
+
+    /**
+     * Handles the {@code CAP} replies as specified in
+     * http://ircv3.net/specs/core/capability-negotiation-3.2.html
+     *
+     * @param p
+     */
+    private void handleCap(IrcLine p) {
+        String subcommand = p.getParam(1);
+        if ("LS".equalsIgnoreCase(subcommand)) {
+            /* CAP * LS * :caps is followed by further LS lines */
+            boolean more = p.getParamCount() > 3 && "*".equals(p.getParam(2));
+            collectCapabilities(p.getTrailing(), true, offeredCapabilities);
+            if (!more && capNegotiating) {
+                StringBuilder req = new StringBuilder();
+                for (String cap : requestedCapabilities) {
+                    if (offeredCapabilities.contains(cap)) {
+                        if (req.length() > 0) {
+                            req.append(' ');
+                        }
+                        req.append(cap);
+                    }
+                }
+                if (req.length() > 0) {
+                    send("CAP REQ :" + req);
+                } else {
+                    endCapNegotiation();
+                }
+            }
+        } else if ("ACK".equalsIgnoreCase(subcommand)) {
+            collectCapabilities(p.getTrailing(), true, enabledCapabilities);
+            endCapNegotiation();
+        } else if ("NAK".equalsIgnoreCase(subcommand)) {
+            endCapNegotiation();
+        } else if ("DEL".equalsIgnoreCase(subcommand)) {
+            collectCapabilities(p.getTrailing(), false, enabledCapabilities);
+        }
+    }
+
+    /**
+     * @param e
+     */
+    protected void handleException(Throwable e) {
+        if (exceptionHandler != null) {
+            exceptionHandler.exception(this, e);
+        }
+    }
+
+    /**
+     * @param capability
+     * @return {@code true} if the given IRCv3 capability was acknowledged by
+     *         the server
+     */
+    public boolean isCapabilityEnabled(String capability) {
+        return enabledCapabilities.contains(capability);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return level >= LEVEL_CONNECTED;
+    }
+
+    @Override
+    public boolean isSSL() {
+        return runtimeConfig.getSSLSupport() != null;
+    }
+
+    /**
+     * Logs the given incoming {@code line} and passes it to the listeners.
+     *
+     * @param line
+     *            without the trailing CRLF
+     */
+    protected void receive(CharSequence line) {
+        lastReceivedNanos = System.nanoTime();
+        if (trafficLogger != null) {
+            trafficLogger.in(line.toString());
+        }
+        try {
+            dispatch(line);
+        } catch (RuntimeException e) {
+            /* a failing listener must not kill the connection */
+            handleException(e);
+        }
+    }
+
+    /**
+     * Sends CAP LS if there are some capabilities to request and then PASS,
+     * NICK and USER.
+     *
+     * @param localHostAddress
+     */
+    protected void register(String localHostAddress) {
+        if (!requestedCapabilities.isEmpty()) {
+            /* the server suspends the registration till CAP END */
+            capNegotiating = true;
+            send("CAP LS 302");
+        }
+        String pass = serverConfig.getPassword();
+        if (pass != null) {
+            send("PASS " + pass);
+        }
+        send("NICK " + serverConfig.getNick());
+        send("USER " + serverConfig.getUsername() + " " + localHostAddress + " " + serverConfig.getHost() + " :"
+                + serverConfig.getRealname());
+    }
+
+    @Override
+    public synchronized boolean removeIRCEventListener(IRCEventListener l) {
+        IRCEventListener[] oldListeners = this.listeners;
+        for (int i = 0; i < oldListeners.length; i++) {
+            if (oldListeners[i].equals(l)) {
+                IRCEventListener[] newListeners = new IRCEventListener[oldListeners.length - 1];
+                System.arraycopy(oldListeners, 0, newListeners, 0, i);
+                System.arraycopy(oldListeners, i + 1, newListeners, i, newListeners.length - i);
+                this.listeners = newListeners;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the IRCv3 capabilities to request from the server. Has an effect
+     * only if called before {@link #connect()}.
+     *
+     * @param capabilities
+     */
+    public void setRequestedCapabilities(Collection<String> capabilities) {
+        this.requestedCapabilities = Collections.unmodifiableSet(new LinkedHashSet<String>(capabilities));
+    }
+
+    @Override
+    public void send(String line) {
+        if (trafficLogger != null) {
+            trafficLogger.out(line);
+        }
+        write(line);
+        if (level == LEVEL_CONNECTED && line.length() > 5 && line.regionMatches(true, 0, "NICK ", 0, 5)) {
+            nick = line.substring(5).trim();
+        }
+    }
+
+    /**
+     * Queues the given {@code line} for sending. Can be called from any thread.
+     *
+     * @param line
+     *            without the trailing CRLF
+     */
+    protected abstract void write(String line);
+
+}
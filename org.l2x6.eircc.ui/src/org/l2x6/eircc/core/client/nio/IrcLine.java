@@ -0,0 +1,573 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.nio;
+
+import java.util.Arrays;
+
+/**
+ * A reusable flyweight view of a single IRC protocol line, including the
+ * IRCv3 message tags. {@link #parse(CharSequence)} only records the offsets
+ * of the individual parts of the line; no {@link String}s are created until a
+ * part is actually requested through one of the getters.
+ * <p>
+ * The view is valid only as long as the underlying {@link CharSequence} is not
+ * modified. Typical usage is one {@link IrcLine} instance per connection,
+ * re-parsing each incoming line in the reader thread.
+ * <p>
+ * Only the lines received through an {@link AbstractIrcConnection} are parsed
+ * this way, i.e. only if {@link org.l2x6.eircc.core.IrcController#isNioEnabled()}.
+ * The connections that come with irclib parse the lines with their own
+ * {@code org.schwering.irc.lib.util.IRCParser} and the message tags are lost
+ * there.
+ * <p>
+ * Not thread safe.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcLine {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final char MIRC_COLOR = '\u0003';
+
+    /**
+     * Strips the mIRC colors and other formatting characters out of the given
+     * range of {@code src} the same way as
+     * {@code org.schwering.irc.lib.util.IRCUtil.stripColorsAndCTCPDelimiters(StringBuilder)}
+     * does.
+     *
+     * @param src
+     * @param start
+     * @param end
+     * @param removeCtcp
+     *            if {@code true} the CTCP delimiters {@code \u0001} will be
+     *            removed too
+     * @return a new {@link String}
+     */
+    static String strip(CharSequence src, int start, int end, boolean removeCtcp) {
+        StringBuilder result = null;
+        int copiedUpTo = start;
+        int i = start;
+        while (i < end) {
+            char c = src.charAt(i);
+            int j = i;
+            if (c == MIRC_COLOR) {
+                j++;
+                if (j < end && isDigit(src.charAt(j))) {
+                    j++;
+                    if (j < end && isDigit(src.charAt(j))) {
+                        j++;
+                    }
+                }
+                if (j < end && src.charAt(j) == ',') {
+                    j++;
+                    if (j < end && isDigit(src.charAt(j))) {
+                        j++;
+                        if (j < end && isDigit(src.charAt(j))) {
+                            j++;
+                        }
+                    }
+                }
+            } else if ((removeCtcp && c == '\u0001') || c == '\u001f' || c == '\u0002' || c == '\u000f'
+                    || c == '\u0016') {
+                j++;
+            }
+            if (j > i) {
+                if (result == null) {
+                    result = new StringBuilder(end - start);
+                }
+                result.append(src, copiedUpTo, i);
+                copiedUpTo = j;
+                i = j;
+            } else {
+                i++;
+            }
+        }
+        if (result == null) {
+            return src.subSequence(start, end).toString();
+        }
+        result.append(src, copiedUpTo, end);
+        return result.toString();
+    }
+
+    private static boolean isDigit(char c) {
+        return '0' <= c && c <= '9';
+    }
+
+    private static int[] grow(int[] array) {
+        return Arrays.copyOf(array, array.length * 2);
+    }
+
+    private int commandEnd;
+    private int commandStart;
+
+    private int hostStart;
+
+    private CharSequence line;
+
+    private int nickEnd;
+
+    private int paramCount;
+    private int[] paramEnds = new int[INITIAL_CAPACITY];
+    private int[] paramStarts = new int[INITIAL_CAPACITY];
+
+    private int prefixEnd;
+    private int prefixStart;
+
+    private boolean stripColors;
+
+    private int tagCount;
+    private int[] tagKeyEnds = new int[INITIAL_CAPACITY];
+    private int[] tagStarts = new int[INITIAL_CAPACITY];
+    private int[] tagValueEnds = new int[INITIAL_CAPACITY];
+
+    private boolean trailing;
+
+    private int userStart;
+
+    /**
+     * @param stripColors
+     *            if {@code true} the mIRC colors and CTCP delimiters will be
+     *            removed from the params, see {@link #getParam(int)}
+     */
+    public IrcLine(boolean stripColors) {
+        super();
+        this.stripColors = stripColors;
+    }
+
+    /**
+     * @param name
+     * @return {@code true} if the command of this line is equal to the given
+     *         {@code name} ignoring case
+     */
+    public boolean isCommand(String name) {
+        int len = commandEnd - commandStart;
+        if (len != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (Character.toUpperCase(line.charAt(commandStart + i)) != Character.toUpperCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the command, such as {@code PRIVMSG} or {@code 001}
+     */
+    public String getCommand() {
+        return line.subSequence(commandStart, commandEnd).toString();
+    }
+
+    /**
+     * @return the nick part of the prefix, the whole prefix if it is a server
+     *         name or {@code null} if there is no prefix
+     */
+    public String getNick() {
+        if (prefixStart == prefixEnd) {
+            return null;
+        }
+        return line.subSequence(prefixStart, nickEnd).toString();
+    }
+
+    /**
+     * @return the host part of the prefix or {@code null} if there is none
+     */
+    public String getHost() {
+        if (hostStart < 0) {
+            return null;
+        }
+        return line.subSequence(hostStart, prefixEnd).toString();
+    }
+
+    /**
+     * @return the underlying line
+     */
+    public CharSequence getLine() {
+        return line;
+    }
+
+    /**
+     * The middle params joined by a space, i.e. all params but the last one.
+     * This is what irclib passes as {@code middle} to its
+     * {@code IRCEventListener}s.
+     *
+     * @return the middle params or an empty string if there is at most one
+     *         param
+     */
+    public String getMiddle() {
+        if (paramCount < 2) {
+            return "";
+        }
+        int start = paramStarts[0];
+        int end = paramEnds[paramCount - 2];
+        return stripColors ? strip(line, start, end, true) : line.subSequence(start, end).toString();
+    }
+
+    /**
+     * @return the numeric value of the command if it consists of three digits
+     *         or {@code -1} otherwise
+     */
+    public int getNumeric() {
+        if (commandEnd - commandStart != 3) {
+            return -1;
+        }
+        int result = 0;
+        for (int i = commandStart; i < commandEnd; i++) {
+            char c = line.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    /**
+     * @param index
+     *            zero based
+     * @return the param at the given {@code index} or an empty string if
+     *         there is no such param. The trailing param is returned without
+     *         the leading colon.
+     */
+    public String getParam(int index) {
+        if (index < 0 || index >= paramCount) {
+            return "";
+        }
+        int start = paramStarts[index];
+        int end = paramEnds[index];
+        return stripColors ? strip(line, start, end, true) : line.subSequence(start, end).toString();
+    }
+
+    /**
+     * @return the number of params incl. the trailing one
+     */
+    public int getParamCount() {
+        return paramCount;
+    }
+
+    /**
+     * @return the prefix without the leading colon or an empty string if there
+     *         is no prefix
+     */
+    public String getPrefix() {
+        return line.subSequence(prefixStart, prefixEnd).toString();
+    }
+
+    /**
+     * @param index
+     *            zero based
+     * @return the key of the tag at the given {@code index}
+     */
+    public String getTagKey(int index) {
+        if (index < 0 || index >= tagCount) {
+            throw new IndexOutOfBoundsException("Tag index " + index + " out of bounds [0, " + tagCount + ")");
+        }
+        return line.subSequence(tagStarts[index], tagKeyEnds[index]).toString();
+    }
+
+    /**
+     * @return the number of the IRCv3 message tags
+     */
+    public int getTagCount() {
+        return tagCount;
+    }
+
+    /**
+     * @param index
+     *            zero based
+     * @return the unescaped value of the tag at the given {@code index}; an
+     *         empty string if the tag has no value
+     */
+    public String getTagValue(int index) {
+        if (index < 0 || index >= tagCount) {
+            throw new IndexOutOfBoundsException("Tag index " + index + " out of bounds [0, " + tagCount + ")");
+        }
+        int start = tagKeyEnds[index] + 1;
+        int end = tagValueEnds[index];
+        if (start >= end) {
+            return "";
+        }
+        StringBuilder result = null;
+        for (int i = start; i < end; i++) {
+            if (line.charAt(i) == '\\') {
+                result = new StringBuilder(end - start);
+                result.append(line, start, i);
+                unescape(i, end, result);
+                return result.toString();
+            }
+        }
+        return line.subSequence(start, end).toString();
+    }
+
+    /**
+     * @param key
+     * @return the unescaped value of the tag with the given {@code key}, an
+     *         empty string if the tag has no value or {@code null} if there is
+     *         no such tag
+     */
+    public String getTagValue(String key) {
+        int i = indexOfTag(key);
+        return i < 0 ? null : getTagValue(i);
+    }
+
+    /**
+     * @return the last param, without the leading colon if any, or an empty
+     *         string if there are no params. This is what irclib passes as
+     *         {@code trailing} to its {@code IRCEventListener}s.
+     */
+    public String getTrailing() {
+        return getParam(paramCount - 1);
+    }
+
+    /**
+     * @return the user part of the prefix or {@code null} if there is none
+     */
+    public String getUsername() {
+        if (userStart < 0) {
+            return null;
+        }
+        return line.subSequence(userStart, hostStart < 0 ? prefixEnd : hostStart - 1).toString();
+    }
+
+    /**
+     * @return {@code true} if the last param was introduced by a colon
+     */
+    public boolean hasTrailing() {
+        return trailing;
+    }
+
+    /**
+     * @param key
+     * @return the index of the tag with the given {@code key} or {@code -1}
+     *         if there is no such tag
+     */
+    public int indexOfTag(String key) {
+        int len = key.length();
+        for (int i = 0; i < tagCount; i++) {
+            int start = tagStarts[i];
+            if (tagKeyEnds[i] - start == len) {
+                boolean equal = true;
+                for (int j = 0; j < len; j++) {
+                    if (line.charAt(start + j) != key.charAt(j)) {
+                        equal = false;
+                        break;
+                    }
+                }
+                if (equal) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return {@code true} if the mIRC colors and CTCP delimiters are removed
+     *         from the params
+     */
+    public boolean isStripColors() {
+        return stripColors;
+    }
+
+    /**
+     * Parses the given {@code line} into this view, forgetting the previous
+     * one.
+     *
+     * @param line
+     *            a single line without the trailing CRLF
+     * @return this {@link IrcLine}
+     * @throws IllegalArgumentException
+     *             if the {@code line} has no command
+     */
+    public IrcLine parse(CharSequence line) {
+        this.line = line;
+        this.tagCount = 0;
+        this.paramCount = 0;
+        this.trailing = false;
+        this.userStart = -1;
+        this.hostStart = -1;
+
+        final int len = line.length();
+        int i = 0;
+        if (i < len && line.charAt(i) == '@') {
+            i = parseTags(i + 1, len);
+            i = skipSpaces(i, len);
+        }
+
+        if (i < len && line.charAt(i) == ':') {
+            i = parsePrefix(i + 1, len);
+            i = skipSpaces(i, len);
+        } else {
+            prefixStart = prefixEnd = nickEnd = i;
+        }
+
+        commandStart = i;
+        while (i < len && line.charAt(i) != ' ') {
+            i++;
+        }
+        commandEnd = i;
+        if (commandStart == commandEnd) {
+            throw new IllegalArgumentException("No command in IRC line '" + line + "'");
+        }
+
+        while (true) {
+            i = skipSpaces(i, len);
+            if (i >= len) {
+                break;
+            }
+            if (paramCount == paramStarts.length) {
+                paramStarts = grow(paramStarts);
+                paramEnds = grow(paramEnds);
+            }
+            if (line.charAt(i) == ':') {
+                paramStarts[paramCount] = i + 1;
+                paramEnds[paramCount] = len;
+                paramCount++;
+                trailing = true;
+                break;
+            }
+            paramStarts[paramCount] = i;
+            while (i < len && line.charAt(i) != ' ') {
+                i++;
+            }
+            paramEnds[paramCount] = i;
+            paramCount++;
+        }
+        return this;
+    }
+
+    /**
+     * @param i
+     *            the index right after the colon
+     * @param len
+     * @return the index after the prefix
+     */
+    private int parsePrefix(int i, int len) {
+        prefixStart = i;
+        nickEnd = -1;
+        while (i < len) {
+            char c = line.charAt(i);
+            if (c == ' ') {
+                break;
+            } else if (c == '!' && userStart < 0 && hostStart < 0) {
+                nickEnd = i;
+                userStart = i + 1;
+            } else if (c == '@' && hostStart < 0) {
+                if (nickEnd < 0) {
+                    nickEnd = i;
+                }
+                hostStart = i + 1;
+            }
+            i++;
+        }
+        prefixEnd = i;
+        if (nickEnd < 0) {
+            nickEnd = prefixEnd;
+        }
+        return i;
+    }
+
+    /**
+     * @param i
+     *            the index right after the {@code @}
+     * @param len
+     * @return the index after the tags
+     */
+    private int parseTags(int i, int len) {
+        int start = i;
+        int keyEnd = -1;
+        while (true) {
+            char c = i < len ? line.charAt(i) : ' ';
+            if (c == ';' || c == ' ') {
+                if (i > start) {
+                    if (tagCount == tagStarts.length) {
+                        tagStarts = grow(tagStarts);
+                        tagKeyEnds = grow(tagKeyEnds);
+                        tagValueEnds = grow(tagValueEnds);
+                    }
+                    tagStarts[tagCount] = start;
+                    tagKeyEnds[tagCount] = keyEnd < 0 ? i : keyEnd;
+                    tagValueEnds[tagCount] = i;
+                    tagCount++;
+                }
+                if (c == ' ' || i >= len) {
+                    return Math.min(i, len);
+                }
+                start = i + 1;
+                keyEnd = -1;
+            } else if (c == '=' && keyEnd < 0) {
+                keyEnd = i;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * @param stripColors
+     *            see {@link #IrcLine(boolean)}
+     */
+    public void setStripColors(boolean stripColors) {
+        this.stripColors = stripColors;
+    }
+
+    private int skipSpaces(int i, int len) {
+        while (i < len && line.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(line);
+    }
+
+    /**
+     * Unescapes a tag value as specified in
+     * http://ircv3.net/specs/core/message-tags-3.2.html
+     *
+     * @param i
+     * @param end
+     * @param result
+     */
+    private void unescape(int i, int end, StringBuilder result) {
+        while (i < end) {
+            char c = line.charAt(i++);
+            if (c == '\\') {
+                if (i == end) {
+                    /* a lone trailing backslash is dropped */
+                    break;
+                }
+                char escaped = line.charAt(i++);
+                switch (escaped) {
+                case ':':
+                    result.append(';');
+                    break;
+                case 's':
+                    result.append(' ');
+                    break;
+                case 'r':
+                    result.append('\r');
+                    break;
+                case 'n':
+                    result.append('\n');
+                    break;
+                default:
+                    result.append(escaped);
+                    break;
+                }
+            } else {
+                result.append(c);
+            }
+        }
+    }
+
+}
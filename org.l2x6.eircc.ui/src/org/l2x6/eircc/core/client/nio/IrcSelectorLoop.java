@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.nio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.l2x6.eircc.ui.EirccUi;
+
+/**
+ * A single thread multiplexing the sockets of any number of
+ * {@link NioIrcConnection}s using one {@link Selector}. All I/O of the
+ * connections registered with this loop happens on its thread.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcSelectorLoop {
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    private volatile boolean running = true;
+
+    private final Selector selector;
+
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    private final Thread thread;
+
+    /**
+     * Opens a new {@link Selector} and starts the loop thread.
+     *
+     * @throws IOException
+     */
+    public IrcSelectorLoop() throws IOException {
+        super();
+        this.selector = Selector.open();
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "IrcSelectorLoop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the loop thread and closes all channels registered with this loop.
+     * Can be called from any thread.
+     */
+    public void dispose() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Runs the given {@code task} on the loop thread. Can be called from any
+     * thread.
+     *
+     * @param task
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * @return the number of connections currently registered with this loop
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * @return {@code true} if the current thread is the loop thread
+     */
+    public boolean inLoopThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    private void loop() {
+        while (running) {
+            try {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        EirccUi.log(e);
+                    }
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioIrcConnection connection = (NioIrcConnection) key.attachment();
+                    connection.selected(key);
+                }
+            } catch (IOException | RuntimeException e) {
+                EirccUi.log(e);
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            ((NioIrcConnection) key.attachment()).closeNow();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            EirccUi.log(e);
+        }
+    }
+
+    /**
+     * Must be called on the loop thread.
+     *
+     * @param channel
+     * @param ops
+     * @param connection
+     * @return the new {@link SelectionKey}
+     * @throws ClosedChannelException
+     */
+    SelectionKey register(SelectableChannel channel, int ops, NioIrcConnection connection)
+            throws ClosedChannelException {
+        SelectionKey key = channel.register(selector, ops, connection);
+        connectionCount.incrementAndGet();
+        return key;
+    }
+
+    /**
+     * Must be called on the loop thread.
+     *
+     * @param key
+     */
+    void unregister(SelectionKey key) {
+        if (key.isValid()) {
+            key.cancel();
+            connectionCount.decrementAndGet();
+        }
+    }
+
+}
@@ -0,0 +1,642 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.client.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLSession;
+
+import org.schwering.irc.lib.IRCConfig;
+import org.schwering.irc.lib.IRCSSLSupport;
+
+/**
+ * An {@link org.schwering.irc.lib.IRCConnection} whose socket is served by a
+ * shared {@link IrcSelectorLoop} instead of a dedicated thread. TLS is
+ * implemented using {@link SSLEngine}. The incoming bytes are decoded into
+ * lines using buffers allocated once per connection.
+ * <p>
+ * {@link #connect()} blocks until the TCP connection is established, all
+ * other methods return immediately. The {@link org.schwering.irc.lib.IRCEventListener}s
+ * are notified on the loop thread.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class NioIrcConnection extends AbstractIrcConnection {
+
+    /**
+     * Moves application bytes between the buffers of a
+     * {@link NioIrcConnection} and its {@link SocketChannel}.
+     */
+    private interface ChannelIo {
+        /**
+         * @return the size of the buffer that {@link #read(ByteBuffer)} should
+         *         be given
+         */
+        int getApplicationBufferSize();
+
+        /**
+         * @return {@code true} if some bytes produced by
+         *         {@link #write(ByteBuffer)} are still waiting to be written
+         *         to the socket
+         */
+        boolean hasPendingOutput();
+
+        /**
+         * @param dst
+         * @return the number of application bytes read into {@code dst} or
+         *         {@code -1} on end of stream
+         * @throws IOException
+         */
+        int read(ByteBuffer dst) throws IOException;
+
+        /**
+         * Called once the channel is registered with the loop.
+         *
+         * @throws IOException
+         */
+        void start() throws IOException;
+
+        /**
+         * Called before closing the channel.
+         */
+        void stop();
+
+        /**
+         * Writes as many bytes of {@code src} as possible without blocking.
+         *
+         * @param src
+         * @throws IOException
+         */
+        void write(ByteBuffer src) throws IOException;
+    }
+
+    private class PlainIo implements ChannelIo {
+
+        @Override
+        public int getApplicationBufferSize() {
+            return PLAIN_BUFFER_SIZE;
+        }
+
+        @Override
+        public boolean hasPendingOutput() {
+            return false;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            channel.write(src);
+        }
+    }
+
+    private class TlsIo implements ChannelIo {
+        private final SSLEngine engine;
+        private ByteBuffer netIn;
+        /** In fill mode */
+        private ByteBuffer netOut;
+
+        public TlsIo(SSLEngine engine) {
+            super();
+            this.engine = engine;
+            SSLSession session = engine.getSession();
+            this.netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+            this.netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+        }
+
+        /**
+         * @param buffer
+         *            in fill mode
+         * @return a bigger copy of {@code buffer}
+         */
+        private ByteBuffer enlarge(ByteBuffer buffer) {
+            int size = Math.max(engine.getSession().getPacketBufferSize(), buffer.capacity() * 2);
+            ByteBuffer result = ByteBuffer.allocate(size);
+            buffer.flip();
+            result.put(buffer);
+            return result;
+        }
+
+        /**
+         * @return {@code true} if {@link #netOut} has been written completely
+         * @throws IOException
+         */
+        private boolean flushNet() throws IOException {
+            if (netOut.position() == 0) {
+                return true;
+            }
+            netOut.flip();
+            try {
+                channel.write(netOut);
+                return !netOut.hasRemaining();
+            } finally {
+                netOut.compact();
+            }
+        }
+
+        @Override
+        public int getApplicationBufferSize() {
+            return engine.getSession().getApplicationBufferSize();
+        }
+
+        @Override
+        public boolean hasPendingOutput() {
+            return netOut.position() > 0 || engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int n = channel.read(netIn);
+            int produced = 0;
+            boolean closed = false;
+            netIn.flip();
+            try {
+                LOOP: while (netIn.hasRemaining()) {
+                    SSLEngineResult result = engine.unwrap(netIn, dst);
+                    produced += result.bytesProduced();
+                    runDelegatedTasks();
+                    switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW:
+                        /* a partial TLS record, wait for more data */
+                        if (netIn.position() == 0 && netIn.limit() == netIn.capacity()) {
+                            netIn.compact();
+                            netIn = enlarge(netIn);
+                            netIn.flip();
+                            continue LOOP;
+                        }
+                        break LOOP;
+                    case BUFFER_OVERFLOW:
+                        /* dst is full, the caller will drain it and call us again */
+                        break LOOP;
+                    case CLOSED:
+                        closed = true;
+                        break LOOP;
+                    default:
+                        break;
+                    }
+                    if (engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+                        write(EMPTY);
+                    }
+                    if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                        break LOOP;
+                    }
+                }
+            } finally {
+                netIn.compact();
+            }
+            if (produced == 0 && (n < 0 || closed)) {
+                return -1;
+            }
+            return produced;
+        }
+
+        private void runDelegatedTasks() {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }
+
+        @Override
+        public void start() throws IOException {
+            engine.beginHandshake();
+            write(EMPTY);
+        }
+
+        @Override
+        public void stop() {
+            engine.closeOutbound();
+            try {
+                write(EMPTY);
+            } catch (IOException ignored) {
+                /* best effort close_notify */
+            }
+        }
+
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            while (true) {
+                if (!flushNet()) {
+                    /* the socket is full */
+                    return;
+                }
+                HandshakeStatus hs = engine.getHandshakeStatus();
+                if (hs == HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                    continue;
+                } else if (hs == HandshakeStatus.NEED_UNWRAP) {
+                    /* wait for the peer */
+                    return;
+                } else if (hs != HandshakeStatus.NEED_WRAP && !src.hasRemaining()) {
+                    return;
+                }
+                SSLEngineResult result = engine.wrap(src, netOut);
+                switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    if (netOut.position() == 0) {
+                        netOut = enlarge(netOut);
+                    }
+                    continue;
+                case CLOSED:
+                    flushNet();
+                    return;
+                default:
+                    break;
+                }
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    flushNet();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(30);
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /** Do not let a single busy connection starve the others */
+    private static final int MAX_READS_PER_SELECT = 16;
+
+    private static final int PLAIN_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * @param config
+     * @return {@code true} if the given {@code config} can be served by a
+     *         {@link NioIrcConnection}. Proxies are not supported.
+     */
+    public static boolean supports(IRCConfig config) {
+        Proxy proxy = config.getProxy();
+        return proxy == null || proxy.type() == Proxy.Type.DIRECT;
+    }
+
+    /** Set in {@link #connect()}, then accessed only on the loop thread */
+    private SocketChannel channel;
+
+    private final Charset charset;
+
+    /** Accessed only on the loop thread */
+    private ByteBuffer currentOut;
+
+    private final CharsetDecoder decoder;
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            if (key != null && key.isValid()) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    handleException(e);
+                    close();
+                }
+            }
+        }
+    };
+
+    /** Accessed only on the loop thread */
+    private ByteBuffer inBytes;
+
+    /** Accessed only on the loop thread */
+    private final CharBuffer inChars = CharBuffer.allocate(PLAIN_BUFFER_SIZE);
+
+    /** Accessed only on the loop thread */
+    private ChannelIo io;
+
+    /** Accessed only on the loop thread */
+    private SelectionKey key;
+
+    /** Accessed only on the loop thread */
+    private final StringBuilder lineBuffer = new StringBuilder(512);
+
+    private volatile InetAddress localAddress;
+
+    private final IrcSelectorLoop loop;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> outQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    private volatile int remotePort;
+
+    /**
+     * @param loop
+     *            the loop to register with
+     * @param config
+     *            must be {@link #supports(IRCConfig) supported}
+     */
+    public NioIrcConnection(IrcSelectorLoop loop, IRCConfig config) {
+        super(config);
+        if (!supports(config)) {
+            throw new IllegalArgumentException("Proxies are not supported by " + NioIrcConnection.class.getName());
+        }
+        this.loop = loop;
+        this.charset = Charset.forName(config.getEncoding());
+        this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Flushes what can be flushed without blocking and schedules the closing
+     * of the socket on the loop thread. Can be called from any thread.
+     *
+     * @see org.schwering.irc.lib.IRCConnection#close()
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (level == LEVEL_CLOSED) {
+                return;
+            }
+            level = LEVEL_CLOSED;
+        }
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (key != null && key.isValid()) {
+                    try {
+                        flush();
+                    } catch (IOException ignored) {
+                        /* best effort */
+                    }
+                }
+                closeNow();
+            }
+        });
+        fireDisconnected();
+    }
+
+    /**
+     * Closes the socket immediately. Must be called on the loop thread.
+     */
+    void closeNow() {
+        level = LEVEL_CLOSED;
+        if (io != null) {
+            io.stop();
+        }
+        if (key != null) {
+            loop.unregister(key);
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                handleException(e);
+            }
+        }
+        outQueue.clear();
+    }
+
+    /**
+     * Establishes the TCP connection, blocking the calling thread, and then
+     * passes the socket to the {@link IrcSelectorLoop}.
+     *
+     * @see org.schwering.irc.lib.IRCConnection#connect()
+     */
+    @Override
+    public void connect() throws IOException, KeyManagementException, NoSuchAlgorithmException {
+        if (level != LEVEL_NEW) {
+            throw new SocketException("Socket closed or already open (" + level + ")");
+        }
+        String host = serverConfig.getHost();
+        int timeout = runtimeConfig.getTimeout() > 0 ? runtimeConfig.getTimeout() : DEFAULT_CONNECT_TIMEOUT_MILLIS;
+        IOException exception = null;
+        SocketChannel ch = null;
+        for (int i = 0; i < serverConfig.getPortsCount() && ch == null; i++) {
+            int port = serverConfig.getPortAt(i);
+            try {
+                ch = SocketChannel.open();
+                ch.socket().connect(new InetSocketAddress(host, port), timeout);
+                ch.configureBlocking(false);
+                this.remotePort = port;
+                exception = null;
+            } catch (IOException e) {
+                if (ch != null) {
+                    ch.close();
+                }
+                ch = null;
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        final ChannelIo newIo;
+        IRCSSLSupport sslSupport = runtimeConfig.getSSLSupport();
+        if (sslSupport != null) {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(sslSupport.getKeyManagers(), sslSupport.getTrustManagers(), sslSupport.getSecureRandom());
+            SSLEngine engine = sslContext.createSSLEngine(host, remotePort);
+            engine.setUseClientMode(true);
+            newIo = new TlsIo(engine);
+        } else {
+            newIo = new PlainIo();
+        }
+
+        this.channel = ch;
+        this.localAddress = ch.socket().getLocalAddress();
+        this.level = LEVEL_CONNECTED;
+        register(localAddress.getHostAddress());
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    io = newIo;
+                    /*
+                     * twice the size so that there is always room for a whole
+                     * TLS record next to an incomplete multi-byte character
+                     */
+                    inBytes = ByteBuffer.allocate(2 * newIo.getApplicationBufferSize());
+                    key = loop.register(channel, SelectionKey.OP_READ, NioIrcConnection.this);
+                    newIo.start();
+                    flush();
+                } catch (IOException e) {
+                    handleException(e);
+                    close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Decodes the bytes available in {@link #inBytes} and passes the complete
+     * lines to {@link #receive(CharSequence)}.
+     */
+    private void decodeLines() {
+        while (true) {
+            CoderResult result = decoder.decode(inBytes, inChars, false);
+            inChars.flip();
+            while (inChars.hasRemaining()) {
+                char c = inChars.get();
+                if (c == '\n') {
+                    int len = lineBuffer.length();
+                    if (len > 0 && lineBuffer.charAt(len - 1) == '\r') {
+                        lineBuffer.setLength(len - 1);
+                    }
+                    if (lineBuffer.length() > 0) {
+                        /* parsed in place, see IrcLine */
+                        receive(lineBuffer);
+                    }
+                    lineBuffer.setLength(0);
+                } else {
+                    lineBuffer.append(c);
+                }
+            }
+            inChars.clear();
+            if (!result.isOverflow()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes as much of the queued output as possible without blocking. Must
+     * be called on the loop thread.
+     *
+     * @throws IOException
+     */
+    private void flush() throws IOException {
+        while (true) {
+            if (currentOut == null) {
+                currentOut = outQueue.poll();
+                if (currentOut == null) {
+                    if (io.hasPendingOutput()) {
+                        /* let TlsIo finish the handshake if needed */
+                        io.write(EMPTY);
+                    }
+                    break;
+                }
+            }
+            io.write(currentOut);
+            if (currentOut.hasRemaining()) {
+                /* the socket is full */
+                break;
+            }
+            currentOut = null;
+        }
+        if (key.isValid()) {
+            boolean pending = currentOut != null || io.hasPendingOutput();
+            key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    @Override
+    public int getPort() {
+        return remotePort;
+    }
+
+    /**
+     * @return the connect timeout in milliseconds
+     * @see org.schwering.irc.lib.IRCConnection#getTimeout()
+     */
+    @Override
+    public int getTimeout() {
+        return runtimeConfig.getTimeout();
+    }
+
+    /**
+     * Reads and dispatches the available lines. Must be called on the loop
+     * thread.
+     *
+     * @throws IOException
+     */
+    private void read() throws IOException {
+        for (int i = 0; i < MAX_READS_PER_SELECT; i++) {
+            int n = io.read(inBytes);
+            if (n < 0) {
+                close();
+                return;
+            } else if (n == 0) {
+                return;
+            }
+            inBytes.flip();
+            decodeLines();
+            inBytes.compact();
+        }
+    }
+
+    /**
+     * Called by {@link IrcSelectorLoop} when {@code key} is ready for I/O.
+     *
+     * @param key
+     */
+    void selected(SelectionKey key) {
+        try {
+            if (key.isValid() && key.isReadable()) {
+                read();
+            }
+            if (key.isValid()) {
+                /* also after reads as those may have advanced the TLS handshake */
+                flush();
+            }
+        } catch (IOException e) {
+            handleException(e);
+            close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NioIrcConnection [nick=" + getNick() + ", host=" + serverConfig.getHost() + ", port=" + remotePort
+                + "]";
+    }
+
+    /**
+     * @see org.l2x6.eircc.core.client.nio.AbstractIrcConnection#write(java.lang.String)
+     */
+    @Override
+    protected void write(String line) {
+        if (level == LEVEL_CLOSED) {
+            return;
+        }
+        outQueue.add(charset.encode(line + "\r\n"));
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(flushTask);
+        }
+    }
+
+}
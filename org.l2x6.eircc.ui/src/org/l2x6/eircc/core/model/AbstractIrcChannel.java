@@ -8,12 +8,17 @@
 
 package org.l2x6.eircc.core.model;
 
+import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
@@ -49,14 +54,43 @@ public abstract class AbstractIrcChannel extends IrcObject implements Persistent
         }
     }
 
+    /** A system message waiting for the log to be read */
+    private static class PendingSystemMessage {
+        private final String text;
+        private final OffsetDateTime time;
+
+        PendingSystemMessage(OffsetDateTime time, String text) {
+            super();
+            this.time = time;
+            this.text = text;
+        }
+    }
+
+    /** Followed by {@link #getName()} in {@link #getStoreKey()} */
+    public static final String STORE_KEY_PREFIX = "channel/";
+
     protected final IrcAccount account;
+
+    /**
+     * {@code true} while this channel is one of {@link IrcAccount#getChannels()},
+     * see {@link IrcAccount#hasChannel(AbstractIrcChannel)}
+     */
+    private boolean added;
+
     private boolean autoJoin = true;
     private boolean joined;
     protected boolean kept;
+
+    /**
+     * Waiting for {@link #getLog()}, see {@link #appendSystemMessage(String)}.
+     * Accessed only from the UI thread.
+     */
+    private List<PendingSystemMessage> pendingSystemMessages = Collections.emptyList();
+
     private final Map<String, Integer> seenUsers = new HashMap<String, Integer>();
 
-    /** Users by nick */
-    private final Map<String, IrcChannelUser> users = new TreeMap<String, IrcChannelUser>();
+    /** Users by nick compared under {@link IrcServer#getCaseMapping()} */
+    private Map<String, IrcChannelUser> users;
 
     protected IrcChannelUser[] usersArray;
 
@@ -67,6 +101,7 @@ public abstract class AbstractIrcChannel extends IrcObject implements Persistent
         super(account.getModel(), account.getAccountResource().getChannelsFolder().getFullPath());
         this.account = account;
         this.seenUsers.put(account.getAcceptedNick(), Colors.MY_INDEX);
+        this.users = new TreeMap<String, IrcChannelUser>(account.getServer().getCaseMapping().getComparator());
     }
     /**
      * @param oldNick
@@ -92,6 +127,7 @@ public abstract class AbstractIrcChannel extends IrcObject implements Persistent
         }
         IrcChannelUser channelUser = createUser(user, flags);
         users.put(nick, channelUser);
+        user.seen(System.nanoTime());
         usersArray = null;
         return channelUser;
     }
@@ -101,6 +137,66 @@ public abstract class AbstractIrcChannel extends IrcObject implements Persistent
         account.getModel().fire(new IrcModelEvent(EventType.CHANNEL_USER_JOINED, channelUser));
     }
 
+    /**
+     * Adds the given {@code users} that are not present already and fires a
+     * single {@link EventType#CHANNEL_USERS_CHANGED} event if any user was
+     * added. Used for netjoins where hundreds of users join at once.
+     *
+     * @param users
+     * @param flags
+     * @return the number of users added
+     */
+    public int addUsers(Collection<IrcUser> users, IrcUserFlags flags) {
+        int count = 0;
+        for (IrcUser user : users) {
+            if (!this.users.containsKey(user.getNick())) {
+                addUserInternal(user, flags);
+                count++;
+            }
+        }
+        if (count > 0) {
+            account.getModel().fire(new IrcModelEvent(EventType.CHANNEL_USERS_CHANGED, this));
+        }
+        return count;
+    }
+
+    /**
+     * Appends the messages passed to {@link #appendSystemMessage(String)}
+     * while the log was not read yet. To be called by {@link #getLog()} right
+     * after reading the log, before anything else gets appended.
+     *
+     * @param log
+     */
+    protected void appendPendingSystemMessages(IrcLog log) {
+        if (!pendingSystemMessages.isEmpty()) {
+            List<PendingSystemMessage> pending = pendingSystemMessages;
+            pendingSystemMessages = Collections.emptyList();
+            for (PendingSystemMessage m : pending) {
+                log.appendSystemMessage(m.time, m.text, null);
+            }
+        }
+    }
+
+    /**
+     * Appends a system message to the log of this channel without reading
+     * the log from disk. If the log has not been read yet, the message is
+     * kept in memory and appended once {@link #getLog()} reads the log, e.g.
+     * when the next chat message arrives or an editor gets opened.
+     *
+     * @param text
+     */
+    public void appendSystemMessage(String text) {
+        IrcLog log = getLogIfLoaded();
+        if (log != null) {
+            log.appendSystemMessage(text);
+        } else {
+            if (pendingSystemMessages.isEmpty()) {
+                pendingSystemMessages = new ArrayList<PendingSystemMessage>();
+            }
+            pendingSystemMessages.add(new PendingSystemMessage(OffsetDateTime.now(), text));
+        }
+    }
+
     /**
      * @return
      */
@@ -137,8 +233,28 @@ public abstract class AbstractIrcChannel extends IrcObject implements Persistent
         return IrcChannelField.values();
     }
 
+    /**
+     * @return the active log of this channel, read from disk if necessary, or
+     *         {@code null} if it cannot be read
+     */
     public abstract IrcLog getLog();
 
+    /**
+     * @return the active log of this channel if it has been read already,
+     *         otherwise {@code null}. A log that has not been read has no
+     *         unread messages and nothing to save.
+     */
+    public abstract IrcLog getLogIfLoaded();
+
+    /**
+     * @return {@code true} if there are messages passed to
+     *         {@link #appendSystemMessage(String)} waiting for
+     *         {@link #getLog()}
+     */
+    public boolean hasPendingSystemMessages() {
+        return !pendingSystemMessages.isEmpty();
+    }
+
     /**
      * @return
      */
@@ -156,6 +272,22 @@ public abstract class AbstractIrcChannel extends IrcObject implements Persistent
         return getChannelResource().getChannelPropertyFile().getFullPath();
     }
 
+    /**
+     * @see org.l2x6.eircc.core.model.PersistentIrcObject#getStore()
+     */
+    @Override
+    public IrcJournalStore getStore() {
+        return account.getJournalStore();
+    }
+
+    /**
+     * @see org.l2x6.eircc.core.model.PersistentIrcObject#getStoreKey()
+     */
+    @Override
+    public String getStoreKey() {
+        return STORE_KEY_PREFIX + getName();
+    }
+
     /**
      * @param user
      * @return
@@ -185,6 +317,10 @@ public abstract class AbstractIrcChannel extends IrcObject implements Persistent
         return usersArray;
     }
 
+    boolean isAdded() {
+        return added;
+    }
+
     public boolean isAutoJoin() {
         return autoJoin;
     }
@@ -226,18 +362,95 @@ public abstract class AbstractIrcChannel extends IrcObject implements Persistent
         return result;
     }
 
+    /**
+     * Removes the users whose nicks are not in the given {@code nicks} and
+     * fires a single {@link EventType#CHANNEL_USERS_CHANGED} event if any user
+     * was removed. Typically called at the end of a WHO reply to reconcile the
+     * users that survived a disconnection with the actual state.
+     *
+     * @param nicks
+     *            the nicks of all users present in this channel
+     */
+    public void retainUsers(Collection<String> nicks) {
+        Set<String> retained = new TreeSet<String>(account.getServer().getCaseMapping().getComparator());
+        retained.addAll(nicks);
+        String myNick = account.getAcceptedNick();
+        if (myNick != null) {
+            retained.add(myNick);
+        }
+        boolean changed = false;
+        for (Iterator<String> it = users.keySet().iterator(); it.hasNext();) {
+            String nick = it.next();
+            if (!retained.contains(nick)) {
+                it.remove();
+                changed = true;
+            }
+        }
+        if (changed) {
+            usersArray = null;
+            account.getModel().fire(new IrcModelEvent(EventType.CHANNEL_USERS_CHANGED, this));
+        }
+    }
+
     public void removeUser(String nick, String leftWithMessage) {
         IrcChannelUser removed = users.remove(nick);
         if (removed != null) {
+            usersArray = null;
             removed.setLeftWithMessage(leftWithMessage);
             account.getModel().fire(new IrcModelEvent(EventType.CHANNEL_USER_LEFT, removed));
         }
     }
 
+    /**
+     * Removes the users with the given {@code nicks} and fires a single
+     * {@link EventType#CHANNEL_USERS_CHANGED} event if any user was removed.
+     * Used for netsplits where hundreds of users leave at once.
+     *
+     * @param nicks
+     * @param leftWithMessage
+     * @return the number of users removed
+     */
+    public int removeUsers(Collection<String> nicks, String leftWithMessage) {
+        int count = 0;
+        for (String nick : nicks) {
+            IrcChannelUser removed = users.remove(nick);
+            if (removed != null) {
+                removed.setLeftWithMessage(leftWithMessage);
+                count++;
+            }
+        }
+        if (count > 0) {
+            usersArray = null;
+            account.getModel().fire(new IrcModelEvent(EventType.CHANNEL_USERS_CHANGED, this));
+        }
+        return count;
+    }
+
+    void setAdded(boolean added) {
+        this.added = added;
+    }
+
     public void setAutoJoin(boolean autoJoin) {
         this.autoJoin = autoJoin;
     }
 
+    /**
+     * Re-sorts the users present in this channel under the given
+     * {@code caseMapping}. Called by
+     * {@link IrcServer#setCaseMapping(IrcCaseMapping)}.
+     *
+     * @param caseMapping
+     */
+    void setCaseMapping(IrcCaseMapping caseMapping) {
+        Map<String, IrcChannelUser> newUsers = new TreeMap<String, IrcChannelUser>(caseMapping.getComparator());
+        newUsers.putAll(users);
+        users = newUsers;
+        if (!newUsers.isEmpty()) {
+            usersArray = null;
+            account.getModel().fire(new IrcModelEvent(EventType.CHANNEL_USERS_CHANGED, this));
+        }
+    }
+
     public void setJoined(boolean joined) {
         boolean oldState = this.joined;
         this.joined = joined;
@@ -256,15 +469,34 @@ public abstract class AbstractIrcChannel extends IrcObject implements Persistent
     }
 
     /**
+     * Adds the given {@code users} or updates the flags of the ones present
+     * already. Fires a single {@link EventType#CHANNEL_USERS_CHANGED} event if
+     * anything has changed. The {@link EventType#USER_ADDED} events of the
+     * users new to the server are delivered within the same batch, see
+     * {@link IrcModel#beginBatch()}.
+     *
      * @param users
      */
     public void setUsers(IrcWhoUser[] users) {
+        IrcModel model = account.getModel();
         IrcServer server = account.getServer();
-        for (IrcWhoUser u : users) {
-            IrcUser user = server.getOrCreateUser(u.getNick(), u.getUsername(), u.getHost());
-            addUserInternal(user, u.getFlags());
+        model.beginBatch();
+        try {
+            boolean changed = false;
+            for (IrcWhoUser u : users) {
+                IrcUser user = server.getOrCreateUser(u.getNick(), u.getUsername(), u.getHost());
+                IrcChannelUser present = this.users.get(u.getNick());
+                if (present == null || present.getUser() != user || !present.getFlags().equals(u.getFlags())) {
+                    addUserInternal(user, u.getFlags());
+                    changed = true;
+                }
+            }
+            if (changed) {
+                model.fire(new IrcModelEvent(EventType.CHANNEL_USERS_CHANGED, this));
+            }
+        } finally {
+            model.commitBatch();
         }
-        account.getModel().fire(new IrcModelEvent(EventType.CHANNEL_USERS_CHANGED, this));
     }
 
 }
@@ -12,9 +12,11 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.text.MessageFormat;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -27,6 +29,8 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.l2x6.eircc.core.IrcException;
+import org.l2x6.eircc.core.client.IrcLatencyStats;
+import org.l2x6.eircc.core.model.IrcUser.IrcUserField;
 import org.l2x6.eircc.core.model.PlainIrcMessage.IrcMessageType;
 import org.l2x6.eircc.core.model.event.IrcModelEvent;
 import org.l2x6.eircc.core.model.event.IrcModelEvent.EventType;
@@ -166,9 +170,18 @@ public class IrcAccount extends InitialIrcAccount implements PersistentIrcObject
 
     private IRCExceptionHandler exceptionHandler;
 
+    /** Where the users and channels of this account get saved */
+    private final IrcJournalStore journalStore;
+
     private AbstractIrcChannel[] keptChannelsArray;
     private IrcException lastException;
 
+    /** Survives reconnects, unlike the {@code IrcClient}s */
+    private final IrcLatencyStats latencyStats = new IrcLatencyStats();
+
+    /** How long the constructor reading the account file took */
+    private Duration loadTime = Duration.ZERO;
+
     private IrcUser me;
     private final IrcServer server;
 
@@ -202,31 +215,31 @@ public class IrcAccount extends InitialIrcAccount implements PersistentIrcObject
     public IrcAccount(IrcModel model, IFile f) throws UnsupportedEncodingException, FileNotFoundException, IOException,
             CoreException, IrcResourceException {
         super(model, IrcAccountResource.getAccountName(f));
+        long start = System.nanoTime();
         this.accountResource = model.getRootResource().getOrCreateAccountResource(getLabel());
+        this.journalStore = createJournalStore(accountResource);
         this.server = new IrcServer(this);
         load(f);
 
-        IWorkspaceRoot root = model.getRoot();
-        IPath channelsFolderPath = accountResource.getChannelsFolder().getFullPath();
-        if (root.exists(channelsFolderPath)) {
-            IFolder channelsFolder = root.getFolder(channelsFolderPath);
-            for (IResource m : channelsFolder.members()) {
-                if (IrcChannelResource.isChannelFile(m) && m.exists()) {
-                    IrcChannel channel = new IrcChannel(this, (IFile) m);
-                    channels.add(channel);
-                }
-            }
+        if (journalStore.hasSnapshot()) {
+            journalStore.load();
+        } else {
+            /* the snapshot is written at the end of the migration, so there was none or it did not finish */
+            migrate();
         }
-        IPath usersFolderPath = accountResource.getUsersFolder().getFullPath();
-        if (root.exists(usersFolderPath)) {
-            IFolder usersFolder = root.getFolder(usersFolderPath);
-            for (IResource m : usersFolder.members()) {
-                if (IrcUser.isUserFile(m)) {
-                    IrcUser user = new IrcUser(server, (IFile) m);
-                    server.getUsers().put(user.getId(), user);
-                }
-            }
+        Map<String, Map<String, String>> channelRecords = new LinkedHashMap<String, Map<String, String>>();
+        journalStore.forEach(AbstractIrcChannel.STORE_KEY_PREFIX, channelRecords::put);
+        for (Map.Entry<String, Map<String, String>> record : channelRecords.entrySet()) {
+            String channelName = record.getKey().substring(AbstractIrcChannel.STORE_KEY_PREFIX.length());
+            addChannelInternal(new IrcChannel(this, channelName, record.getValue()));
         }
+        /* the users are loaded on demand, typically only the few ones present in the logs being opened */
+        journalStore.forEach(IrcUser.STORE_KEY_PREFIX, (key, record) -> {
+            UUID id = UUID.fromString(key.substring(IrcUser.STORE_KEY_PREFIX.length()));
+            server.addDormantUser(id, record.get(IrcUserField.nick.name()));
+        });
+        server.loadChannelList();
+        this.loadTime = Duration.ofNanos(System.nanoTime() - start);
     }
 
     /**
@@ -237,10 +250,16 @@ public class IrcAccount extends InitialIrcAccount implements PersistentIrcObject
     public IrcAccount(IrcModel model, String label, long createdOn) throws IrcResourceException {
         super(model, label);
         this.accountResource = model.getRootResource().getOrCreateAccountResource(label);
+        this.journalStore = createJournalStore(accountResource);
         this.createdOn = createdOn;
         this.server = new IrcServer(this);
     }
 
+    private static IrcJournalStore createJournalStore(IrcAccountResource accountResource) {
+        return new IrcJournalStore(accountResource.getStoreFile().getLocation().toFile().toPath(), accountResource
+                .getStoreJournalFile().getLocation().toFile().toPath());
+    }
+
     public void addChannel(AbstractIrcChannel channel) {
         if (channel.getAccount() != this) {
             throw new IllegalArgumentException("Cannot add channel with parent distinct from this "
@@ -253,11 +272,17 @@ public class IrcAccount extends InitialIrcAccount implements PersistentIrcObject
             throw new IllegalArgumentException("Channel with name '" + channelName
                     + "' already available under account '" + this.getLabel() + "'");
         }
-        channels.add(channel);
+        addChannelInternal(channel);
         keptChannelsArray = null;
+        model.channelAdded(channel);
         model.fire(new IrcModelEvent(EventType.ACCOUNT_CHANNEL_ADDED, channel));
     }
 
+    private void addChannelInternal(AbstractIrcChannel channel) {
+        channels.add(channel);
+        channel.setAdded(true);
+    }
+
     public IrcChannel createChannel(String name) throws IrcResourceException {
         return new IrcChannel(this, name);
     }
@@ -345,8 +370,10 @@ public class IrcAccount extends InitialIrcAccount implements PersistentIrcObject
         String text = MessageFormat.format(IrcUiMessages.Message_Still_nick, myNick);
         for (AbstractIrcChannel channel : channels) {
             IrcLog log = channel.getLog();
-            NickTimeoutMessageReplacer replacer = new NickTimeoutMessageReplacer(text);
-            log.replaceOrAppendMessage(replacer, true);
+            if (log != null) {
+                NickTimeoutMessageReplacer replacer = new NickTimeoutMessageReplacer(text);
+                log.replaceOrAppendMessage(replacer, true);
+            }
         }
 
     }
@@ -392,6 +419,29 @@ public class IrcAccount extends InitialIrcAccount implements PersistentIrcObject
         return lastException;
     }
 
+    /**
+     * @return the store of the users and channels of this account
+     */
+    public IrcJournalStore getJournalStore() {
+        return journalStore;
+    }
+
+    /**
+     * @return the time it took to read this account, its channels and users
+     *         from disk, {@link Duration#ZERO} for an account created in this
+     *         session
+     */
+    public Duration getLoadTime() {
+        return loadTime;
+    }
+
+    /**
+     * @return the latencies observed on this account
+     */
+    public IrcLatencyStats getLatencyStats() {
+        return latencyStats;
+    }
+
     /**
      * @return
      */
@@ -484,8 +534,62 @@ public class IrcAccount extends InitialIrcAccount implements PersistentIrcObject
         return label == null ? 0 : label.hashCode();
     }
 
+    /**
+     * Loads the channels and users from the per-object properties files
+     * written by the previous versions and saves them to
+     * {@link #journalStore} so that the next start can load them in one
+     * sequential read. The properties files are left in place.
+     * <p>
+     * All records are written by a single {@link IrcJournalStore#compact(Map)}
+     * whose snapshot marks the migration as done. The records of the journal
+     * written so far, e.g. by a new account that has not been compacted yet,
+     * are kept.
+     *
+     * @throws IOException
+     * @throws CoreException
+     * @throws IrcResourceException
+     */
+    private void migrate() throws IOException, CoreException, IrcResourceException {
+        journalStore.load();
+        Map<String, Map<String, String>> records = new LinkedHashMap<String, Map<String, String>>();
+        IWorkspaceRoot root = model.getRoot();
+        IPath channelsFolderPath = accountResource.getChannelsFolder().getFullPath();
+        if (root.exists(channelsFolderPath)) {
+            IFolder channelsFolder = root.getFolder(channelsFolderPath);
+            for (IResource m : channelsFolder.members()) {
+                if (IrcChannelResource.isChannelFile(m) && m.exists()) {
+                    IrcChannel channel = new IrcChannel(this, (IFile) m);
+                    records.put(channel.getStoreKey(), channel.toRecord());
+                }
+            }
+        }
+        IPath usersFolderPath = accountResource.getUsersFolder().getFullPath();
+        if (root.exists(usersFolderPath)) {
+            IFolder usersFolder = root.getFolder(usersFolderPath);
+            for (IResource m : usersFolder.members()) {
+                if (IrcUser.isUserFile(m)) {
+                    IrcUser user = new IrcUser(server, (IFile) m);
+                    records.put(user.getStoreKey(), user.toRecord());
+                }
+            }
+        }
+        journalStore.compact(records);
+    }
+
+    /**
+     * @param channel
+     * @return {@code true} if the given {@code channel} was added to this
+     *         account and not removed since
+     */
+    boolean hasChannel(AbstractIrcChannel channel) {
+        return channel.isAdded() && channel.getAccount() == this;
+    }
+
     public void removeChannel(AbstractIrcChannel channel) {
-        channels.remove(channel);
+        if (hasChannel(channel) && channels.remove(channel)) {
+            channel.setAdded(false);
+            model.channelRemoved(channel);
+        }
         keptChannelsArray = null;
         model.fire(new IrcModelEvent(EventType.ACCOUNT_CHANNEL_REMOVED, channel));
     }
@@ -500,12 +604,7 @@ public class IrcAccount extends InitialIrcAccount implements PersistentIrcObject
                 }
             }
         }
-        Map<UUID, IrcUser> users = server.getUsers();
-        if (!users.isEmpty()) {
-            for (IrcUser user : users.values()) {
-                user.save(monitor);
-            }
-        }
+        server.saveDirtyUsers(monitor);
     }
 
     public void setCreatedOn(long createdOn) {
@@ -541,6 +640,7 @@ public class IrcAccount extends InitialIrcAccount implements PersistentIrcObject
             this.lastException = null;
         }
         if (oldState != state) {
+            model.accountStateChanged(this, oldState);
             model.fire(new IrcModelEvent(EventType.ACCOUNT_STATE_CHANGED, this));
 
             /* and leave all channels if necessary */
@@ -37,6 +37,22 @@ public class IrcAccountsStatistics {
         this.channelsOfflineAfterError = channelsOfflineAfterError;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        IrcAccountsStatistics other = (IrcAccountsStatistics) obj;
+        return channelsNamingMe == other.channelsNamingMe && channelsOffline == other.channelsOffline
+                && channelsOfflineAfterError == other.channelsOfflineAfterError
+                && channelsOnline == other.channelsOnline
+                && channelsWithUnreadFromTrackedUsers == other.channelsWithUnreadFromTrackedUsers
+                && channelsWithUnreadMessages == other.channelsWithUnreadMessages;
+    }
+
     public int getChannelsNamingMe() {
         return channelsNamingMe;
     }
@@ -61,6 +77,19 @@ public class IrcAccountsStatistics {
         return channelsWithUnreadMessages;
     }
 
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + channelsNamingMe;
+        result = prime * result + channelsOffline;
+        result = prime * result + channelsOfflineAfterError;
+        result = prime * result + channelsOnline;
+        result = prime * result + channelsWithUnreadFromTrackedUsers;
+        result = prime * result + channelsWithUnreadMessages;
+        return result;
+    }
+
     public boolean hasChannelsNamingMe() {
         return channelsNamingMe > 0;
     }
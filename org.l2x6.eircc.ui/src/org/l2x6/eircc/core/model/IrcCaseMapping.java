@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model;
+
+import java.util.Comparator;
+
+/**
+ * The rules a server uses to decide whether two nicks or channel names are
+ * the same, as advertised by the {@code CASEMAPPING} token of
+ * {@code RPL_ISUPPORT}. Due to IRC's Scandinavian origin, {@code []\~} are
+ * the upper case forms of <code>{}|^</code> under {@link #RFC1459}.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public enum IrcCaseMapping {
+    /** Only {@code A-Z} are the upper case forms of {@code a-z} */
+    ASCII("ascii", 'Z'),
+    /** {@code A-Z[]\^} are the upper case forms of <code>a-z{}|~</code> */
+    RFC1459("rfc1459", '^'),
+    /** {@code A-Z[]\} are the upper case forms of <code>a-z{}|</code> */
+    STRICT_RFC1459("strict-rfc1459", ']');
+
+    /** What servers not sending {@code CASEMAPPING} are supposed to use */
+    public static final IrcCaseMapping DEFAULT = RFC1459;
+
+    /**
+     * @param token
+     *            the value of the {@code CASEMAPPING} token
+     * @return the matching {@link IrcCaseMapping} or {@link #DEFAULT} if
+     *         {@code token} is unknown
+     */
+    public static IrcCaseMapping forToken(String token) {
+        for (IrcCaseMapping caseMapping : values()) {
+            if (caseMapping.token.equalsIgnoreCase(token)) {
+                return caseMapping;
+            }
+        }
+        return DEFAULT;
+    }
+
+    /** Orders the strings by their {@link #toLowerCase(String)} forms */
+    private final Comparator<String> comparator = new Comparator<String>() {
+        @Override
+        public int compare(String s1, String s2) {
+            return toLowerCase(s1).compareTo(toLowerCase(s2));
+        }
+    };
+
+    /** The last character of the upper case range starting with {@code 'A'} */
+    private final char maxUpper;
+
+    private final String token;
+
+    private IrcCaseMapping(String token, char maxUpper) {
+        this.token = token;
+        this.maxUpper = maxUpper;
+    }
+
+    /**
+     * @param s1
+     * @param s2
+     * @return {@code true} if the given strings are the same under this
+     *         {@link IrcCaseMapping}
+     */
+    public boolean equals(String s1, String s2) {
+        return toLowerCase(s1).equals(toLowerCase(s2));
+    }
+
+    /**
+     * @return a {@link Comparator} considering the strings that are the same
+     *         under this {@link IrcCaseMapping} equal
+     */
+    public Comparator<String> getComparator() {
+        return comparator;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @param s
+     *            a nick or channel name
+     * @return the lower case form of {@code s}; {@code s} itself if it is in
+     *         lower case already
+     */
+    public String toLowerCase(String s) {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char ch = s.charAt(i);
+            if (ch >= 'A' && ch <= maxUpper) {
+                char[] chars = s.toCharArray();
+                for (int j = i; j < len; j++) {
+                    ch = chars[j];
+                    if (ch >= 'A' && ch <= maxUpper) {
+                        /* the lower case forms are 32 code points above in all mappings */
+                        chars[j] = (char) (ch + ('a' - 'A'));
+                    }
+                }
+                return new String(chars);
+            }
+        }
+        return s;
+    }
+
+}
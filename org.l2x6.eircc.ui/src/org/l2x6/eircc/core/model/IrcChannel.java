@@ -11,19 +11,21 @@ package org.l2x6.eircc.core.model;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.Map;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.CoreException;
 import org.l2x6.eircc.core.model.resource.IrcChannelResource;
-import org.l2x6.eircc.core.model.resource.IrcLogResource;
 import org.l2x6.eircc.core.model.resource.IrcResourceException;
+import org.l2x6.eircc.ui.EirccUi;
 
 /**
  * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
  */
 public class IrcChannel extends AbstractIrcChannel {
     private final IrcChannelResource channelResource;
-    private final IrcLog log;
+    /** Created lazily by {@link #getLog()}. Accessed only from the UI thread. */
+    private IrcLog log;
     private final String name;
 
     /**
@@ -41,9 +43,20 @@ public class IrcChannel extends AbstractIrcChannel {
         this.name = IrcChannelResource.getChannelNameFromChannelPropsFile(channelPropsFile);
         this.channelResource = account.getAccountResource().getChannelResource(name);
         load(channelPropsFile);
-        IrcLogResource logResource = channelResource.getActiveLogResource();
-        this.log = new IrcLog(this, logResource);
+    }
 
+    /**
+     * @param account
+     * @param name
+     * @param record
+     *            the fields as stored in {@link IrcAccount#getJournalStore()}
+     * @throws IrcResourceException
+     */
+    public IrcChannel(IrcAccount account, String name, Map<String, String> record) throws IrcResourceException {
+        super(account);
+        this.name = name;
+        this.channelResource = account.getAccountResource().getOrCreateChannelResource(name);
+        load(record);
     }
 
     /**
@@ -56,8 +69,6 @@ public class IrcChannel extends AbstractIrcChannel {
         this.name = name;
         this.channelResource = account.getAccountResource().getOrCreateChannelResource(name);
         this.kept = true;
-        IrcLogResource logResource = channelResource.getActiveLogResource();
-        this.log = new IrcLog(this, logResource);
     }
 
     /**
@@ -94,7 +105,29 @@ public class IrcChannel extends AbstractIrcChannel {
         return channelResource;
     }
 
+    /**
+     * Reads the active log of this channel on the first call.
+     *
+     * @see org.l2x6.eircc.core.model.AbstractIrcChannel#getLog()
+     */
+    @Override
     public IrcLog getLog() {
+        if (log == null) {
+            try {
+                log = new IrcLog(this, channelResource.getActiveLogResource());
+                appendPendingSystemMessages(log);
+            } catch (IrcResourceException e) {
+                EirccUi.log(e);
+            }
+        }
+        return log;
+    }
+
+    /**
+     * @see org.l2x6.eircc.core.model.AbstractIrcChannel#getLogIfLoaded()
+     */
+    @Override
+    public IrcLog getLogIfLoaded() {
         return log;
     }
 
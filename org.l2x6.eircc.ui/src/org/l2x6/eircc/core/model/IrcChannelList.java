@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A compact columnar store of the channels listed by a server via
+ * {@code LIST}. Rather than an object per channel, it keeps three parallel
+ * arrays of channel names, user counts and topics, so that even the networks
+ * with tens of thousands of channels can be held cheaply.
+ * <p>
+ * Rows are kept in the order of their arrival. {@link #getSortedRows()}
+ * provides the order by name.
+ * <p>
+ * Not thread safe.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcChannelList {
+
+    private static final char COLUMN_DELIMITER = '\t';
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] names;
+
+    private int size = 0;
+
+    /** Lazily created by {@link #getSortedRows()} */
+    private int[] sortedRows;
+    private String[] topics;
+    private int[] userCounts;
+
+    public IrcChannelList() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity
+     */
+    public IrcChannelList(int initialCapacity) {
+        super();
+        int capacity = Math.max(initialCapacity, 1);
+        this.names = new String[capacity];
+        this.userCounts = new int[capacity];
+        this.topics = new String[capacity];
+    }
+
+    /**
+     * Appends a row.
+     *
+     * @param name
+     * @param userCount
+     *            the number of users or {@code -1} if unknown
+     * @param topic
+     *            the topic or an empty string
+     */
+    public void add(String name, int userCount, String topic) {
+        ensureCapacity(size + 1);
+        names[size] = name;
+        userCounts[size] = userCount;
+        topics[size] = topic;
+        size++;
+        sortedRows = null;
+    }
+
+    /**
+     * Appends all rows of the given {@code other} list.
+     *
+     * @param other
+     */
+    public void addAll(IrcChannelList other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.names, 0, names, size, other.size);
+        System.arraycopy(other.userCounts, 0, userCounts, size, other.size);
+        System.arraycopy(other.topics, 0, topics, size, other.size);
+        size += other.size;
+        sortedRows = null;
+    }
+
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(topics, 0, size, null);
+        size = 0;
+        sortedRows = null;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > names.length) {
+            int newCapacity = Math.max(capacity, names.length * 2);
+            names = Arrays.copyOf(names, newCapacity);
+            userCounts = Arrays.copyOf(userCounts, newCapacity);
+            topics = Arrays.copyOf(topics, newCapacity);
+        }
+    }
+
+    public String getName(int row) {
+        return names[checkRow(row)];
+    }
+
+    /**
+     * @return the row indexes ordered by channel name
+     */
+    public int[] getSortedRows() {
+        if (sortedRows == null) {
+            Integer[] rows = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                rows[i] = i;
+            }
+            Arrays.sort(rows, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer row1, Integer row2) {
+                    return names[row1].compareTo(names[row2]);
+                }
+            });
+            int[] result = new int[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = rows[i];
+            }
+            sortedRows = result;
+        }
+        return sortedRows;
+    }
+
+    public String getTopic(int row) {
+        return topics[checkRow(row)];
+    }
+
+    public int getUserCount(int row) {
+        return userCounts[checkRow(row)];
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of [0, " + size + ")");
+        }
+        return row;
+    }
+
+    /**
+     * @param name
+     * @return the row of the channel with the given {@code name} or
+     *         {@code -1} if there is no such channel
+     */
+    public int indexOf(String name) {
+        int[] rows = getSortedRows();
+        int low = 0;
+        int high = rows.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = names[rows[mid]].compareTo(name);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return rows[mid];
+            }
+        }
+        return -1;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Appends the rows stored by {@link #write(Writer)} to this list.
+     *
+     * @param in
+     * @throws IOException
+     */
+    public void read(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            int firstDelim = line.indexOf(COLUMN_DELIMITER);
+            int secondDelim = firstDelim >= 0 ? line.indexOf(COLUMN_DELIMITER, firstDelim + 1) : -1;
+            if (secondDelim < 0) {
+                /* ignore corrupted lines */
+                continue;
+            }
+            int userCount;
+            try {
+                userCount = Integer.parseInt(line.substring(firstDelim + 1, secondDelim));
+            } catch (NumberFormatException e) {
+                userCount = -1;
+            }
+            add(line.substring(0, firstDelim), userCount, line.substring(secondDelim + 1));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "IrcChannelList [size=" + size + "]";
+    }
+
+    /**
+     * Writes a line with tab separated name, user count and topic for each
+     * row.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void write(Writer out) throws IOException {
+        for (int i = 0; i < size; i++) {
+            out.write(names[i]);
+            out.write(COLUMN_DELIMITER);
+            out.write(Integer.toString(userCounts[i]));
+            out.write(COLUMN_DELIMITER);
+            String topic = topics[i];
+            for (int j = 0; j < topic.length(); j++) {
+                char ch = topic.charAt(j);
+                /* keep one row per line */
+                out.write(ch == '\n' || ch == '\r' ? ' ' : ch);
+            }
+            out.write('\n');
+        }
+    }
+
+}
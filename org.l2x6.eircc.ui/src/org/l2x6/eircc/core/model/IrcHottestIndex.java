@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Keeps at most one value per key, ordered so that both getting the hottest
+ * of all values and replacing a value take logarithmic time. Used to find the
+ * hottest unread message among all logs without visiting them. The owner is
+ * responsible for calling {@link #put(Object, Object)} whenever the value of a
+ * key changes; the values must not change their hotness while indexed.
+ * <p>
+ * Not thread safe.
+ *
+ * @param <K>
+ *            the type of the keys, e.g. logs
+ * @param <V>
+ *            the type of the values, e.g. messages
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcHottestIndex<K, V> {
+
+    /** A value of a key, the {@link #serial} breaking ties between equally hot values */
+    private static class Entry<K, V> {
+        private final K key;
+        private final long serial;
+        private final V value;
+
+        Entry(K key, V value, long serial) {
+            super();
+            this.key = key;
+            this.value = value;
+            this.serial = serial;
+        }
+    }
+
+    /** The entries by key */
+    private final Map<K, Entry<K, V>> entries = new HashMap<K, Entry<K, V>>();
+
+    /** The next {@link Entry#serial} */
+    private long nextSerial = 0;
+
+    /** The hottest first, then the most recently put */
+    private final TreeSet<Entry<K, V>> sorted;
+
+    /**
+     * @param hotness
+     *            orders the values so that the hottest one is the greatest
+     */
+    public IrcHottestIndex(final Comparator<? super V> hotness) {
+        super();
+        this.sorted = new TreeSet<Entry<K, V>>(new Comparator<Entry<K, V>>() {
+            @Override
+            public int compare(Entry<K, V> e1, Entry<K, V> e2) {
+                int result = hotness.compare(e2.value, e1.value);
+                return result != 0 ? result : Long.compare(e2.serial, e1.serial);
+            }
+        });
+    }
+
+    /**
+     * @param key
+     * @return the value indexed under the given {@code key} or {@code null}
+     */
+    public V get(K key) {
+        Entry<K, V> entry = entries.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * @return the hottest of all indexed values, the most recently put one if
+     *         there are several equally hot values, or {@code null} if this
+     *         index is empty
+     */
+    public V getHottest() {
+        return sorted.isEmpty() ? null : sorted.first().value;
+    }
+
+    /**
+     * @return the key of {@link #getHottest()} or {@code null} if this index
+     *         is empty
+     */
+    public K getHottestKey() {
+        return sorted.isEmpty() ? null : sorted.first().key;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Replaces the value indexed under the given {@code key}.
+     *
+     * @param key
+     * @param value
+     *            the new value or {@code null} to remove the {@code key}
+     */
+    public void put(K key, V value) {
+        Entry<K, V> old = entries.get(key);
+        if (old != null) {
+            if (old.value == value) {
+                return;
+            }
+            sorted.remove(old);
+        }
+        if (value == null) {
+            entries.remove(key);
+        } else {
+            Entry<K, V> entry = new Entry<K, V>(key, value, nextSerial++);
+            entries.put(key, entry);
+            sorted.add(entry);
+        }
+    }
+
+    /**
+     * @param key
+     */
+    public void remove(K key) {
+        put(key, null);
+    }
+
+    /**
+     * @return the number of indexed keys
+     */
+    public int size() {
+        return entries.size();
+    }
+
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the fields of many {@link PersistentIrcObject}s in two files: a
+ * snapshot with all records and a journal to which every change is appended
+ * as a single line. Once the journal has grown larger than the snapshot, both
+ * get compacted into a new snapshot. Loading is a sequential scan of the
+ * snapshot followed by the journal, the later records replacing the earlier
+ * ones with the same key.
+ * <p>
+ * Only the keys and the {@link Location}s of the current records are kept in
+ * memory. The fields are read from the files on demand by {@link #get(String)}
+ * and {@link #forEach(String, BiConsumer)}.
+ * <p>
+ * A record is a line consisting of the key and the {@code name=value} pairs
+ * of the fields, all separated by tabs. Tabs, line breaks, equals signs and
+ * backslashes are escaped. A journal line not terminated by a line break is a
+ * result of an interrupted write and is ignored.
+ * <p>
+ * Thread safe so that the records can be written from a background job, see
+ * {@link org.l2x6.eircc.core.IrcWriteBehindSaver}.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcJournalStore implements Closeable {
+
+    /**
+     * Where a record is stored: the offset and the length of its line
+     * without the line break.
+     */
+    private static class Location {
+        private final boolean journal;
+        private final int length;
+        private final long offset;
+
+        Location(boolean journal, long offset, int length) {
+            super();
+            this.journal = journal;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Reads the lines at the given {@link Location}s, opening each of the
+     * files at most once.
+     */
+    private class RecordReader implements Closeable {
+        private FileChannel journal;
+        private FileChannel snapshot;
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (journal != null) {
+                    journal.close();
+                }
+            } finally {
+                if (snapshot != null) {
+                    snapshot.close();
+                }
+            }
+        }
+
+        byte[] read(Location location) throws IOException {
+            FileChannel ch;
+            if (location.journal) {
+                if (journal == null) {
+                    journal = FileChannel.open(journalFile, StandardOpenOption.READ);
+                }
+                ch = journal;
+            } else {
+                if (snapshot == null) {
+                    snapshot = FileChannel.open(snapshotFile, StandardOpenOption.READ);
+                }
+                ch = snapshot;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(location.length);
+            while (buffer.hasRemaining()) {
+                if (ch.read(buffer, location.offset + buffer.position()) < 0) {
+                    throw new EOFException("Unexpected end of " + (location.journal ? journalFile : snapshotFile));
+                }
+            }
+            return buffer.array();
+        }
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Do not compact small journals, no matter how few records there are */
+    public static final int DEFAULT_MIN_COMPACT_RECORDS = 1024;
+
+    private static final String HEADER = "#eircc-store 1";
+
+    private static void escape(String s, StringBuilder sb) {
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            switch (ch) {
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '=':
+                sb.append("\\=");
+                break;
+            default:
+                sb.append(ch);
+                break;
+            }
+        }
+    }
+
+    /**
+     * @param key
+     * @param fields
+     * @return the given record formatted as a line without the line break
+     */
+    static String format(String key, Map<String, String> fields) {
+        StringBuilder sb = new StringBuilder();
+        escape(key, sb);
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            sb.append('\t');
+            escape(field.getKey(), sb);
+            sb.append('=');
+            escape(field.getValue(), sb);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses a line created by {@link #format(String, Map)}.
+     *
+     * @param line
+     * @param fields
+     *            the map to put the fields to
+     * @return the key
+     */
+    static String parse(String line, Map<String, String> fields) {
+        StringBuilder sb = new StringBuilder();
+        String key = null;
+        String name = null;
+        for (int i = 0; i <= line.length(); i++) {
+            char ch = i < line.length() ? line.charAt(i) : '\t';
+            if (ch == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else if (ch == '\t') {
+                if (key == null) {
+                    key = sb.toString();
+                } else if (name != null) {
+                    fields.put(name, sb.toString());
+                }
+                name = null;
+                sb.setLength(0);
+            } else if (ch == '=' && key != null && name == null) {
+                name = sb.toString();
+                sb.setLength(0);
+            } else {
+                sb.append(ch);
+            }
+        }
+        return key;
+    }
+
+    private final Path journalFile;
+
+    /** The length of the complete lines of {@link #journalFile} */
+    private long journalLength;
+
+    private OutputStream journalOut;
+    private int journalRecords;
+
+    /** The locations of the current records by key */
+    private NavigableMap<String, Location> locations = new TreeMap<String, Location>();
+
+    private final int minCompactRecords;
+    private final Path snapshotFile;
+
+    /**
+     * @param snapshotFile
+     * @param journalFile
+     */
+    public IrcJournalStore(Path snapshotFile, Path journalFile) {
+        this(snapshotFile, journalFile, DEFAULT_MIN_COMPACT_RECORDS);
+    }
+
+    /**
+     * @param snapshotFile
+     * @param journalFile
+     * @param minCompactRecords
+     *            the number of journal records below which no compaction
+     *            happens
+     */
+    public IrcJournalStore(Path snapshotFile, Path journalFile, int minCompactRecords) {
+        super();
+        this.snapshotFile = snapshotFile;
+        this.journalFile = journalFile;
+        this.minCompactRecords = minCompactRecords;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journalOut != null) {
+            try {
+                journalOut.close();
+            } finally {
+                journalOut = null;
+            }
+        }
+    }
+
+    /**
+     * Writes all records to a new snapshot and empties the journal.
+     *
+     * @throws IOException
+     */
+    public synchronized void compact() throws IOException {
+        compact(Collections.<String, Map<String, String>> emptyMap());
+    }
+
+    /**
+     * Writes all records together with the given {@code records} to a new
+     * snapshot and empties the journal. The given {@code records} replace the
+     * stored ones with the same keys. The snapshot is replaced atomically, so
+     * either all or none of the given {@code records} get stored.
+     *
+     * @param records
+     *            the fields by key
+     * @throws IOException
+     */
+    public synchronized void compact(Map<String, Map<String, String>> records) throws IOException {
+        close();
+        NavigableSet<String> keys = new TreeSet<String>(locations.keySet());
+        keys.addAll(records.keySet());
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        Files.createDirectories(snapshotFile.toAbsolutePath().getParent());
+        NavigableMap<String, Location> compacted = new TreeMap<String, Location>();
+        try (RecordReader reader = new RecordReader();
+                OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE)) {
+            byte[] header = (HEADER + '\n').getBytes(StandardCharsets.UTF_8);
+            out.write(header);
+            long offset = header.length;
+            for (String key : keys) {
+                Map<String, String> record = records.get(key);
+                byte[] line = record != null ? format(key, record).getBytes(StandardCharsets.UTF_8) : reader
+                        .read(locations.get(key));
+                out.write(line);
+                out.write('\n');
+                compacted.put(key, new Location(false, offset, line.length));
+                offset += line.length + 1;
+            }
+        }
+        try {
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        locations = compacted;
+        /* a crash before this point just leaves records in the journal that are in the snapshot already */
+        Files.deleteIfExists(journalFile);
+        journalLength = 0;
+        journalRecords = 0;
+    }
+
+    /**
+     * @return {@code true} if either of the files exists
+     */
+    public boolean exists() {
+        return Files.exists(snapshotFile) || Files.exists(journalFile);
+    }
+
+    /**
+     * Reads the records whose keys start with the given {@code prefix} in
+     * ascending order of the keys, opening each of the files only once.
+     *
+     * @param prefix
+     * @param consumer
+     *            gets the key and the fields of each record
+     * @throws IOException
+     */
+    public synchronized void forEach(String prefix, BiConsumer<String, Map<String, String>> consumer)
+            throws IOException {
+        try (RecordReader reader = new RecordReader()) {
+            for (Map.Entry<String, Location> location : locations.subMap(prefix, true, prefix + Character.MAX_VALUE,
+                    true).entrySet()) {
+                Map<String, String> fields = new LinkedHashMap<String, String>();
+                parse(new String(reader.read(location.getValue()), StandardCharsets.UTF_8), fields);
+                consumer.accept(location.getKey(), Collections.unmodifiableMap(fields));
+            }
+        }
+    }
+
+    /**
+     * Reads the record stored under the given {@code key} from the disk.
+     *
+     * @param key
+     * @return the fields stored under the given {@code key} or {@code null}
+     * @throws IOException
+     */
+    public synchronized Map<String, String> get(String key) throws IOException {
+        Location location = locations.get(key);
+        if (location == null) {
+            return null;
+        }
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        try (RecordReader reader = new RecordReader()) {
+            parse(new String(reader.read(location), StandardCharsets.UTF_8), result);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @return the number of records in the journal, i.e. written since the
+     *         last {@link #compact()}
+     */
+    public synchronized int getJournalRecords() {
+        return journalRecords;
+    }
+
+    /**
+     * @return {@code true} if the snapshot exists, i.e. if {@link #compact()}
+     *         has finished at least once
+     */
+    public boolean hasSnapshot() {
+        return Files.exists(snapshotFile);
+    }
+
+    /**
+     * Indexes the complete lines of the given {@code file} without keeping
+     * anything but the keys in memory.
+     *
+     * @param file
+     * @param journal
+     *            {@code true} if {@code file} is the {@link #journalFile}
+     * @return the length of the complete lines of {@code file}
+     * @throws IOException
+     */
+    private long index(Path file, boolean journal) throws IOException {
+        ByteArrayOutputStream key = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long pos = 0;
+        long lineStart = 0;
+        boolean inKey = true;
+        boolean escaped = false;
+        boolean comment = false;
+        try (InputStream in = Files.newInputStream(file)) {
+            int len;
+            while ((len = in.read(buffer)) >= 0) {
+                for (int i = 0; i < len; i++, pos++) {
+                    byte b = buffer[i];
+                    if (b == '\n') {
+                        int length = (int) (pos - lineStart);
+                        if (length > 0 && !comment) {
+                            locations.put(new String(key.toByteArray(), StandardCharsets.UTF_8), new Location(
+                                    journal, lineStart, length));
+                            if (journal) {
+                                journalRecords++;
+                            }
+                        }
+                        key.reset();
+                        inKey = true;
+                        escaped = false;
+                        comment = false;
+                        lineStart = pos + 1;
+                    } else if (!inKey || comment) {
+                        /* only the key is needed */
+                    } else if (pos == lineStart && b == '#' && !journal) {
+                        comment = true;
+                    } else if (escaped) {
+                        /* the escape sequences are ASCII, so they cannot be a part of a multi-byte character */
+                        key.write(b == 't' ? '\t' : b == 'n' ? '\n' : b == 'r' ? '\r' : b);
+                        escaped = false;
+                    } else if (b == '\\') {
+                        escaped = true;
+                    } else if (b == '\t') {
+                        inKey = false;
+                    } else {
+                        key.write(b);
+                    }
+                }
+            }
+        }
+        return lineStart;
+    }
+
+    /**
+     * @param prefix
+     * @return the keys starting with {@code prefix} in ascending order
+     */
+    public synchronized Set<String> keys(String prefix) {
+        return Collections.unmodifiableSet(new LinkedHashSet<String>(locations.subMap(prefix, true,
+                prefix + Character.MAX_VALUE, true).keySet()));
+    }
+
+    /**
+     * Indexes the snapshot and the journal, if they exist. A torn last line of
+     * the journal is cut off so that the subsequent appends start on a new
+     * line.
+     *
+     * @throws IOException
+     */
+    public synchronized void load() throws IOException {
+        close();
+        locations.clear();
+        journalLength = 0;
+        journalRecords = 0;
+        if (Files.exists(snapshotFile)) {
+            index(snapshotFile, false);
+        }
+        if (Files.exists(journalFile)) {
+            journalLength = index(journalFile, true);
+            if (journalLength < Files.size(journalFile)) {
+                try (FileChannel ch = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+                    ch.truncate(journalLength);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the record stored under the given {@code key} and appends it
+     * to the journal, compacting the journal if it has grown larger than the
+     * number of records.
+     *
+     * @param key
+     * @param fields
+     * @throws IOException
+     */
+    public synchronized void put(String key, Map<String, String> fields) throws IOException {
+        byte[] line = (format(key, fields) + '\n').getBytes(StandardCharsets.UTF_8);
+        if (journalOut == null) {
+            Files.createDirectories(journalFile.toAbsolutePath().getParent());
+            journalOut = Files.newOutputStream(journalFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            journalLength = Files.size(journalFile);
+        }
+        /* a single unbuffered write, so that there is nothing to flush */
+        journalOut.write(line);
+        locations.put(key, new Location(true, journalLength, line.length - 1));
+        journalLength += line.length;
+        journalRecords++;
+        if (journalRecords >= minCompactRecords && journalRecords > locations.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * @return the number of records
+     */
+    public synchronized int size() {
+        return locations.size();
+    }
+
+}
@@ -11,9 +11,12 @@ package org.l2x6.eircc.core.model;
 import java.io.IOException;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Set;
+import java.util.function.Function;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -39,13 +42,14 @@ public class IrcLog extends IrcObject implements Iterable<IrcMessage> {
     public static final int NOTHING_SAVED = -1;
     private final AbstractIrcChannel channel;
     private int charLength = 0;
-    private int lastChatMessageIndex = -1;
     /** The user has read all messages till (and including) this instant */
     private int lastReadIndex = -1;
     /** The time of the last non-system message that arrived */
     // private Instant lastMessageTime = Instant.MIN;
     private int lastSavedMessageIndex = IrcLog.NOTHING_SAVED;
     private int firstUpdatedMessageIndex = IrcLog.NOTHING_SAVED;
+    /** See {@link #getHottestMessage()}, maintained as the messages are appended and read */
+    private IrcMessage hottestMessage;
     private int lineIndex = 0;
 
     private boolean loading = false;
@@ -72,6 +76,7 @@ public class IrcLog extends IrcObject implements Iterable<IrcMessage> {
      */
     public void allRead() {
         lastReadIndex = messages.size() - 1;
+        setHottestMessage(null);
         setNotificationLevel(IrcNotificationLevel.NO_NOTIFICATION);
     }
 
@@ -84,6 +89,75 @@ public class IrcLog extends IrcObject implements Iterable<IrcMessage> {
         appendMessage(message, true);
     }
 
+    /**
+     * Appends the messages created by the given {@code factories} in the given
+     * order and fires a single {@link EventType#NEW_MESSAGES} event whose
+     * model object is the array of the appended messages. A message is
+     * skipped if there is a message with the same time, nick and text in this
+     * log already. Intended for bulk imports such as the chat history replayed
+     * by the server after a reconnect.
+     *
+     * @param factories
+     *            the functions creating the messages. Each factory is called
+     *            with this log right before appending its message, because a
+     *            new {@link IrcMessage} takes its position from the log.
+     * @return the messages actually appended
+     */
+    public List<IrcMessage> appendMessages(List<? extends Function<IrcLog, IrcMessage>> factories) {
+        return appendMessages(factories, true);
+    }
+
+    /**
+     * Like {@link #appendMessages(List)} but optionally without skipping the
+     * duplicates, e.g. for the chunks of a long text we have sent ourselves,
+     * where two equal lines within the same second are perfectly legal.
+     *
+     * @param factories
+     * @param skipDuplicates
+     * @return the messages actually appended
+     */
+    public List<IrcMessage> appendMessages(List<? extends Function<IrcLog, IrcMessage>> factories,
+            boolean skipDuplicates) {
+        final int oldSize = messages.size();
+        /* the keys of the old messages not older than the oldest new one */
+        Set<String> seen = new HashSet<String>();
+        int scanIndex = oldSize - 1;
+        List<IrcMessage> appended = new ArrayList<IrcMessage>(factories.size());
+        for (Function<IrcLog, IrcMessage> factory : factories) {
+            IrcMessage message = factory.apply(this);
+            if (skipDuplicates) {
+                OffsetDateTime arrivedAt = message.getArrivedAt();
+                while (scanIndex >= 0) {
+                    IrcMessage old = messages.get(scanIndex);
+                    if (old.getArrivedAt().isBefore(arrivedAt)) {
+                        break;
+                    }
+                    seen.add(dedupKey(old));
+                    scanIndex--;
+                }
+                if (!seen.add(dedupKey(message))) {
+                    continue;
+                }
+            }
+            appendMessage(message, false);
+            appended.add(message);
+        }
+        if (!appended.isEmpty()) {
+            channel.getAccount().getModel()
+                    .fire(new IrcModelEvent(EventType.NEW_MESSAGES, appended.toArray(new IrcMessage[appended.size()])));
+        }
+        return appended;
+    }
+
+    /**
+     * @param m
+     * @return a key to tell if two messages are equal for the purposes of
+     *         {@link #appendMessages(List)}
+     */
+    private static String dedupKey(PlainIrcMessage m) {
+        return m.getArrivedAt().toEpochSecond() + " " + m.getNick() + " " + m.getText();
+    }
+
     public void replaceOrAppendMessage(IrcMessageReplacer replacer, boolean fireEvent) {
         ListIterator<IrcMessage> it = messages.listIterator(messages.size());
         LOOP: while (it.hasPrevious()) {
@@ -125,6 +199,8 @@ public class IrcLog extends IrcObject implements Iterable<IrcMessage> {
             IrcMessage fixedMessage = m.fixOffsets();
             messages.set(index + i, fixedMessage);
         }
+        /* the messages were replaced by new instances, so rather find the hottest one again */
+        setHottestMessage(findHottestMessage());
 
         if (fireEvent) {
             channel.getAccount().getModel().fire(new IrcModelEvent(EventType.MESSAGE_REPLACED, replacement));
@@ -134,7 +210,11 @@ public class IrcLog extends IrcObject implements Iterable<IrcMessage> {
     private void appendMessage(IrcMessage message, boolean fireEvent) {
         messages.add(message);
         if (message.getType() == IrcMessageType.CHAT && !message.isFromMe()) {
-            lastChatMessageIndex = messages.size() - 1;
+            /* the loaded messages get read by allRead() at the end of load() anyway */
+            if (!loading && (hottestMessage == null || message.getNotificationLevel().getLevel() >= hottestMessage
+                    .getNotificationLevel().getLevel())) {
+                setHottestMessage(message);
+            }
         }
         charLength += message.getRecordLenght();
         lineIndex += message.getLineCount();
@@ -152,8 +232,17 @@ public class IrcLog extends IrcObject implements Iterable<IrcMessage> {
      * @param rawInput
      */
     public void appendSystemMessage(String text, String rawInput) {
-        IrcMessage m = new IrcMessage(this, OffsetDateTime.now(), null, text, getChannel().getAccount()
-                .getAcceptedNick(), channel.isP2p(), IrcMessageType.SYSTEM, rawInput);
+        appendSystemMessage(OffsetDateTime.now(), text, rawInput);
+    }
+
+    /**
+     * @param time
+     * @param text
+     * @param rawInput
+     */
+    void appendSystemMessage(OffsetDateTime time, String text, String rawInput) {
+        IrcMessage m = new IrcMessage(this, time, null, text, getChannel().getAccount().getAcceptedNick(),
+                channel.isP2p(), IrcMessageType.SYSTEM, rawInput);
         appendMessage(m);
     }
 
@@ -214,6 +303,30 @@ public class IrcLog extends IrcObject implements Iterable<IrcMessage> {
         }
     }
 
+    /**
+     * Finds {@link #getHottestMessage()} by scanning the unread messages from
+     * the end.
+     *
+     * @return see {@link #getHottestMessage()}
+     */
+    private IrcMessage findHottestMessage() {
+        IrcMessage result = null;
+        for (int i = messages.size() - 1; i > lastReadIndex && i >= 0; i--) {
+            IrcMessage m = messages.get(i);
+            if (m.getType() == IrcMessageType.CHAT && !m.isFromMe()) {
+                IrcNotificationLevel level = m.getNotificationLevel();
+                if (result == null || level.getLevel() > result.getNotificationLevel().getLevel()) {
+                    result = m;
+                    if (level == IrcNotificationLevel.ME_NAMED) {
+                        /* higher level is not possible */
+                        return m;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
     public AbstractIrcChannel getChannel() {
         return channel;
     }
@@ -222,30 +335,14 @@ public class IrcLog extends IrcObject implements Iterable<IrcMessage> {
         return charLength;
     }
 
+    /**
+     * @return the unread chat message not sent by me having the highest
+     *         {@link IrcNotificationLevel}, the most recent one of them if
+     *         there are several, or {@code null} if there are no such
+     *         messages. Maintained incrementally, so this is cheap to call.
+     */
     public IrcMessage getHottestMessage() {
-        IrcMessage result = null;
-        boolean hasUnreadMessages = !messages.isEmpty() && lastReadIndex < lastChatMessageIndex;
-        if (hasUnreadMessages) {
-            ListIterator<IrcMessage> it = messages.listIterator(messages.size());
-            while (it.hasPrevious()) {
-                int i = it.previousIndex();
-                if (lastReadIndex >= i) {
-                    break;
-                }
-                IrcMessage m = it.previous();
-                if (m.getType() == IrcMessageType.CHAT) {
-                    IrcNotificationLevel level = m.getNotificationLevel();
-                    if (result == null || level.getLevel() > result.getNotificationLevel().getLevel()) {
-                        result = m;
-                        if (result.getNotificationLevel() == IrcNotificationLevel.ME_NAMED) {
-                            /* higher level is not possible */
-                            return m;
-                        }
-                    }
-                }
-            }
-        }
-        return result;
+        return hottestMessage;
     }
 
     int getLineIndex() {
@@ -256,6 +353,14 @@ public class IrcLog extends IrcObject implements Iterable<IrcMessage> {
         return logResource;
     }
 
+    /**
+     * @return the last message of this log or {@code null} if this log is
+     *         empty
+     */
+    public IrcMessage getLastMessage() {
+        return messages.isEmpty() ? null : messages.get(messages.size() - 1);
+    }
+
     public int getMessageCount() {
         return messages.size();
     }
@@ -323,11 +428,20 @@ public class IrcLog extends IrcObject implements Iterable<IrcMessage> {
         }
     }
 
+    private void setHottestMessage(IrcMessage message) {
+        if (hottestMessage != message) {
+            hottestMessage = message;
+            channel.getAccount().getModel().hottestMessageChanged(this);
+        }
+    }
+
     public void setNotificationLevel(IrcNotificationLevel state) {
         IrcNotificationLevel oldState = this.notificationLevel;
         this.notificationLevel = state;
         if (oldState != state) {
-            channel.getAccount().getModel().fire(new IrcModelEvent(EventType.LOG_STATE_CHANGED, this));
+            IrcModel model = channel.getAccount().getModel();
+            model.logNotificationLevelChanged(this, oldState);
+            model.fire(new IrcModelEvent(EventType.LOG_STATE_CHANGED, this));
         }
     }
 
@@ -11,12 +11,26 @@ package org.l2x6.eircc.core.model;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
@@ -25,9 +39,13 @@ import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.l2x6.eircc.core.client.IrcClient;
+import org.l2x6.eircc.core.client.IrcLatencyStatsMXBean;
 import org.l2x6.eircc.core.client.TrafficLoggerFactory;
+import org.l2x6.eircc.core.model.IrcAccount.IrcAccountState;
+import org.l2x6.eircc.core.model.event.IrcModelDelta;
 import org.l2x6.eircc.core.model.event.IrcModelEvent;
 import org.l2x6.eircc.core.model.event.IrcModelEvent.EventType;
+import org.l2x6.eircc.core.model.event.IrcModelEventDispatcher;
 import org.l2x6.eircc.core.model.event.IrcModelEventListener;
 import org.l2x6.eircc.core.model.resource.IrcAccountResource;
 import org.l2x6.eircc.core.model.resource.IrcResourceException;
@@ -45,12 +63,112 @@ import org.schwering.irc.lib.IRCTrafficLogger;
  */
 public class IrcModel extends IrcBase {
 
+    private static final Consumer<Exception> LOG_ERROR = new Consumer<Exception>() {
+        @Override
+        public void accept(Exception e) {
+            EirccUi.log(e);
+        }
+    };
+
+    /** The JMX domain of the {@link IrcLatencyStatsMXBean}s of the accounts */
+    public static final String JMX_DOMAIN = "org.l2x6.eircc";
+
+    /** Orders the messages by {@link IrcNotificationLevel} and then by time, the hottest being the greatest */
+    private static final Comparator<IrcMessage> HOTNESS = new Comparator<IrcMessage>() {
+        @Override
+        public int compare(IrcMessage m1, IrcMessage m2) {
+            int result = Integer.compare(m1.getNotificationLevel().getLevel(), m2.getNotificationLevel().getLevel());
+            return result != 0 ? result : m1.getArrivedAt().compareTo(m2.getArrivedAt());
+        }
+    };
+
+    private static ObjectName getLatencyStatsName(IrcAccount account) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=Latency,account=" + ObjectName.quote(account.getLabel()));
+    }
+
+    /**
+     * @param e
+     * @return the channel the given event is about if there is one,
+     *         otherwise the model object of the event
+     */
+    public static Object getTarget(IrcModelEvent e) {
+        Object modelObject = e.getModelObject();
+        if (modelObject instanceof IrcMessage) {
+            return ((IrcMessage) modelObject).getLog().getChannel();
+        } else if (modelObject instanceof IrcMessage[]) {
+            return ((IrcMessage[]) modelObject)[0].getLog().getChannel();
+        } else if (modelObject instanceof IrcLog) {
+            return ((IrcLog) modelObject).getChannel();
+        } else if (modelObject instanceof IrcChannelUser) {
+            return ((IrcChannelUser) modelObject).getChannel();
+        }
+        return modelObject;
+    }
+
+    /**
+     * Exposes the {@link IrcAccount#getLatencyStats()} of the given
+     * {@code account} via JMX, replacing any stale registration of an
+     * account with the same label.
+     *
+     * @param account
+     */
+    private static void registerLatencyStats(IrcAccount account) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = getLatencyStatsName(account);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(account.getLatencyStats(), name);
+        } catch (JMException e) {
+            EirccUi.log(e);
+        }
+    }
+
+    private static void unregisterLatencyStats(IrcAccount account) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = getLatencyStatsName(account);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            EirccUi.log(e);
+        }
+    }
+
     /** {@link IrcAccount}s by {@link IrcAccount#getLabel()} */
     private final Map<String, IrcAccount> accounts = new TreeMap<String, IrcAccount>();
 
     private IrcAccount[] accountsArray;
 
-    private List<IrcModelEventListener> listeners = Collections.emptyList();
+    /** The number of {@link #accounts} by {@link IrcAccountState#ordinal()} */
+    private final int[] accountsByState = new int[IrcAccountState.values().length];
+
+    /** The cached result of {@link #getAccountsStatistics()}, {@code null} after a change of the counters */
+    private IrcAccountsStatistics accountsStatistics;
+
+    /** The events fired since the outermost {@link #beginBatch()}. Accessed only from the UI thread. */
+    private IrcModelDelta batch;
+
+    /** The number of nested {@link #beginBatch()} calls. Accessed only from the UI thread. */
+    private int batchDepth;
+
+    private Duration lastLoadTime;
+
+    private final IrcModelEventDispatcher dispatcher = new IrcModelEventDispatcher();
+
+    /** The hottest unread messages of the loaded logs of the channels of {@link #accounts} */
+    private final IrcHottestIndex<IrcLog, IrcMessage> hottestMessages = new IrcHottestIndex<IrcLog, IrcMessage>(
+            HOTNESS);
+
+    /**
+     * The number of the loaded logs of the channels of {@link #accounts} by
+     * {@link IrcNotificationLevel#ordinal()}, counting only the levels having
+     * unread messages
+     */
+    private final int[] logsByLevel = new int[IrcNotificationLevel.values().length];
+
     private final IrcNotificationLevelProvider notificationLevelProvider;
 
     private IrcRootResource rootResource;
@@ -73,16 +191,148 @@ public class IrcModel extends IrcBase {
         }
         accounts.put(account.getLabel(), account);
         accountsArray = null;
+        count(account, 1);
+        registerLatencyStats(account);
         fire(new IrcModelEvent(EventType.ACCOUNT_ADDED, account));
     }
 
+    /**
+     * Subscribes the given {@code listener} to all events. Prefer
+     * {@link #addModelEventListener(IrcModelEventListener, EventType...)} or
+     * {@link #addModelEventListener(IrcModelEventListener, Object, EventType...)}
+     * where possible.
+     *
+     * @param listener
+     */
     public void addModelEventListener(IrcModelEventListener listener) {
-        if (!listeners.contains(listener)) {
-            List<IrcModelEventListener> newList = new ArrayList<IrcModelEventListener>(listeners.size() + 1);
-            newList.addAll(listeners);
-            newList.add(listener);
-            Collections.sort(newList, IrcModelEventListener.COMPARATOR);
-            listeners = newList;
+        dispatcher.subscribe(listener);
+    }
+
+    /**
+     * Subscribes the given {@code listener} to the events of the given
+     * {@code types}.
+     *
+     * @param listener
+     * @param types
+     */
+    public void addModelEventListener(IrcModelEventListener listener, EventType... types) {
+        dispatcher.subscribe(listener, types);
+    }
+
+    /**
+     * Subscribes the given {@code listener} to the events of the given
+     * {@code types} about the given {@code target}, see
+     * {@link #getTarget(IrcModelEvent)}.
+     *
+     * @param listener
+     * @param target
+     *            a channel, an account, a user or a server
+     * @param types
+     */
+    public void addModelEventListener(IrcModelEventListener listener, Object target, EventType... types) {
+        dispatcher.subscribe(listener, target, types);
+    }
+
+    /**
+     * Starts collecting the events fired by this model instead of dispatching
+     * them one by one. The collected events get dispatched as a single
+     * {@link IrcModelDelta} by the outermost {@link #commitBatch()}, except
+     * for the listeners that are not {@link IrcModelEventListener#isBatched()}
+     * which still get each event right away. Batches can be nested. Must be
+     * called from the UI thread, always paired with {@link #commitBatch()} in
+     * a {@code finally} block.
+     */
+    public void beginBatch() {
+        IrcUtils.assertUiThread();
+        if (batchDepth++ == 0) {
+            batch = new IrcModelDelta();
+        }
+    }
+
+    /**
+     * Ends the batch started by the matching {@link #beginBatch()}. The
+     * outermost call dispatches the events collected in the meantime, see
+     * {@link IrcModelEventListener#handleDelta(IrcModelDelta)}.
+     */
+    public void commitBatch() {
+        IrcUtils.assertUiThread();
+        if (batchDepth <= 0) {
+            throw new IllegalStateException("commitBatch() without beginBatch()");
+        }
+        if (--batchDepth == 0) {
+            IrcModelDelta delta = batch;
+            batch = null;
+            if (!delta.isEmpty()) {
+                dispatcher.dispatch(delta, LOG_ERROR);
+            }
+        }
+    }
+
+    /**
+     * Updates the counters of {@link #getAccountsStatistics()} after
+     * {@code account} changed its state. Called only for the actual
+     * transitions.
+     *
+     * @param account
+     * @param oldState
+     */
+    void accountStateChanged(IrcAccount account, IrcAccountState oldState) {
+        if (isCounted(account)) {
+            accountsByState[oldState.ordinal()]--;
+            accountsByState[account.getState().ordinal()]++;
+            accountsStatistics = null;
+        }
+    }
+
+    /**
+     * Counts the log of the given {@code channel} in
+     * {@link #getAccountsStatistics()} after the channel was added to its
+     * account.
+     *
+     * @param channel
+     */
+    void channelAdded(AbstractIrcChannel channel) {
+        if (isCounted(channel.getAccount())) {
+            count(channel, 1);
+        }
+    }
+
+    /**
+     * The reverse of {@link #channelAdded(AbstractIrcChannel)}.
+     *
+     * @param channel
+     */
+    void channelRemoved(AbstractIrcChannel channel) {
+        if (isCounted(channel.getAccount())) {
+            count(channel, -1);
+        }
+    }
+
+    /**
+     * Adds {@code delta} to the counters of the state of the given
+     * {@code account} and of the levels of the logs of its channels and
+     * indexes or unindexes the hottest messages of the logs.
+     *
+     * @param account
+     * @param delta
+     *            {@code 1} or {@code -1}
+     */
+    private void count(IrcAccount account, int delta) {
+        accountsByState[account.getState().ordinal()] += delta;
+        for (AbstractIrcChannel channel : account.getChannels()) {
+            count(channel, delta);
+        }
+        accountsStatistics = null;
+    }
+
+    private void count(AbstractIrcChannel channel, int delta) {
+        IrcLog log = channel.getLogIfLoaded();
+        if (log != null) {
+            if (log.getNotificationLevel().hasUnreadMessages()) {
+                logsByLevel[log.getNotificationLevel().ordinal()] += delta;
+                accountsStatistics = null;
+            }
+            hottestMessages.put(log, delta > 0 ? log.getHottestMessage() : null);
         }
     }
 
@@ -100,6 +350,7 @@ public class IrcModel extends IrcBase {
 
     public void dispose() {
         for (IrcAccount account : accounts.values()) {
+            unregisterLatencyStats(account);
             account.dispose();
         }
         accountsArray = null;
@@ -110,15 +361,26 @@ public class IrcModel extends IrcBase {
      */
     void fire(IrcModelEvent ircModelEvent) {
         IrcUtils.assertUiThread();
-        for (IrcModelEventListener listener : listeners) {
-            try {
-                listener.handle(ircModelEvent);
-            } catch (Exception e) {
-                EirccUi.log(e);
-            }
+        if (batch != null) {
+            Object target = getTarget(ircModelEvent);
+            batch.add(ircModelEvent, target);
+            dispatcher.dispatchUnbatched(ircModelEvent, target, LOG_ERROR);
+        } else {
+            dispatcher.dispatch(ircModelEvent, getTarget(ircModelEvent), LOG_ERROR);
         }
     }
 
+    /**
+     * @return the hottest unread message of all loaded logs, see
+     *         {@link IrcLog#getHottestMessage()}: the one with the highest
+     *         {@link IrcNotificationLevel} and the most recent one among
+     *         those, or {@code null} if there is none. Takes logarithmic time
+     *         in the number of loaded logs, see {@link IrcHottestIndex}.
+     */
+    public IrcMessage getHottestMessage() {
+        return hottestMessages.getHottest();
+    }
+
     /**
      * @param accountLabel
      * @return
@@ -137,49 +399,38 @@ public class IrcModel extends IrcBase {
         return accountsArray;
     }
 
+    /**
+     * @return the statistics maintained incrementally as the accounts and
+     *         logs change their states, so this is cheap to call on every
+     *         redraw
+     */
     public IrcAccountsStatistics getAccountsStatistics() {
-        int channelsOnline = 0;
-        int channelsOffline = 0;
-        int channelsWithUnreadMessages = 0;
-        int channelsWithUnreadFromTrackedUsers = 0;
-        int channelsNamingMe = 0;
-        int channelsOfflineAfterError = 0;
-        for (IrcAccount account : accounts.values()) {
-            switch (account.getState()) {
-            case ONLINE:
-                channelsOnline++;
-                break;
-            case OFFLINE:
-                channelsOffline++;
-                break;
-            case OFFLINE_AFTER_ERROR:
-                channelsOfflineAfterError++;
-                break;
-            default:
-                break;
-            }
-            for (AbstractIrcChannel channel : account.getChannels()) {
-                IrcLog log = channel.getLog();
-                if (log != null) {
-                    switch (log.getNotificationLevel()) {
-                    case ME_NAMED:
-                        channelsNamingMe++;
-                        break;
-                    case UNREAD_MESSAGES:
-                        channelsWithUnreadMessages++;
-                        break;
-                    case UNREAD_MESSAGES_FROM_A_TRACKED_USER:
-                        channelsWithUnreadFromTrackedUsers++;
-                        break;
-                    case NO_NOTIFICATION:
-                        /* do nothing */
-                        break;
-                    }
-                }
-            }
+        if (accountsStatistics == null) {
+            accountsStatistics = new IrcAccountsStatistics(accountsByState[IrcAccountState.ONLINE.ordinal()],
+                    accountsByState[IrcAccountState.OFFLINE.ordinal()],
+                    logsByLevel[IrcNotificationLevel.UNREAD_MESSAGES.ordinal()],
+                    logsByLevel[IrcNotificationLevel.UNREAD_MESSAGES_FROM_A_TRACKED_USER.ordinal()],
+                    logsByLevel[IrcNotificationLevel.ME_NAMED.ordinal()],
+                    accountsByState[IrcAccountState.OFFLINE_AFTER_ERROR.ordinal()]);
         }
-        return new IrcAccountsStatistics(channelsOnline, channelsOffline, channelsWithUnreadMessages, channelsWithUnreadFromTrackedUsers, channelsNamingMe,
-                channelsOfflineAfterError);
+        return accountsStatistics;
+    }
+
+    /**
+     * @return the dispatcher of the events of this model, e.g. to read its
+     *         counters
+     */
+    public IrcModelEventDispatcher getEventDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * @return the time the last {@link #load(IrcRootResource)} took or
+     *         {@code null} if it has not finished yet. See also
+     *         {@link IrcAccount#getLoadTime()}.
+     */
+    public Duration getLastLoadTime() {
+        return lastLoadTime;
     }
 
     public IrcNotificationLevelProvider getNotificationLevelProvider() {
@@ -205,22 +456,95 @@ public class IrcModel extends IrcBase {
         return new ArrayList<IrcAccount>(accounts.values());
     }
 
+    /**
+     * @param account
+     * @return {@code true} if the given {@code account} is one of
+     *         {@link #accounts} and thus counted in
+     *         {@link #getAccountsStatistics()}
+     */
+    private boolean isCounted(IrcAccount account) {
+        return accounts.get(account.getLabel()) == account;
+    }
+
+    /**
+     * @param log
+     * @return {@code true} if the given {@code log} is the loaded log of a
+     *         channel of one of {@link #accounts}
+     */
+    private boolean isCounted(IrcLog log) {
+        AbstractIrcChannel channel = log.getChannel();
+        IrcAccount account = channel.getAccount();
+        return isCounted(account) && channel.getLogIfLoaded() == log && account.hasChannel(channel);
+    }
+
     public boolean hasAccounts() {
         return !accounts.isEmpty();
     }
 
     public void load(IrcRootResource rootResource) throws IrcResourceException {
         this.rootResource = rootResource;
+        long start = System.nanoTime();
+        List<IFile> accountFiles = new ArrayList<IFile>();
         try {
             for (IResource r : rootResource.getProject().members()) {
                 if (IrcAccountResource.isAccountFile(r)) {
-                    IrcAccount account = new IrcAccount(this, (IFile) r);
-                    accounts.put(account.getLabel(), account);
+                    accountFiles.add((IFile) r);
                 }
             }
-        } catch (CoreException | IOException e) {
+        } catch (CoreException e) {
+            throw new IrcResourceException(e);
+        }
+        if (accountFiles.isEmpty()) {
+            lastLoadTime = Duration.ofNanos(System.nanoTime() - start);
+            return;
+        }
+
+        /* the accounts do not share any state except for rootResource, so they can be read in parallel */
+        int threads = Math.min(accountFiles.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "eircc-account-loader-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            List<Future<IrcAccount>> futures = new ArrayList<Future<IrcAccount>>(accountFiles.size());
+            for (final IFile accountFile : accountFiles) {
+                futures.add(pool.submit(new Callable<IrcAccount>() {
+                    @Override
+                    public IrcAccount call() throws Exception {
+                        return new IrcAccount(IrcModel.this, accountFile);
+                    }
+                }));
+            }
+            /* the listeners and JMX get the accounts on the calling thread */
+            for (Future<IrcAccount> future : futures) {
+                IrcAccount account = future.get();
+                accounts.put(account.getLabel(), account);
+                count(account, 1);
+                registerLatencyStats(account);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new IrcResourceException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IrcResourceException) {
+                throw (IrcResourceException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IrcResourceException(cause);
+        } finally {
+            pool.shutdownNow();
         }
+        lastLoadTime = Duration.ofNanos(System.nanoTime() - start);
     }
 
     public InitialIrcAccount proposeNextAccount() {
@@ -252,18 +576,56 @@ public class IrcModel extends IrcBase {
         return result;
     }
 
+    /**
+     * Reindexes {@link IrcLog#getHottestMessage()} of the given {@code log}
+     * after it has changed.
+     *
+     * @param log
+     */
+    void hottestMessageChanged(IrcLog log) {
+        if (isCounted(log)) {
+            hottestMessages.put(log, log.getHottestMessage());
+        }
+    }
+
+    /**
+     * Updates the counters of {@link #getAccountsStatistics()} after
+     * {@code log} changed its notification level. Called only for the actual
+     * transitions.
+     *
+     * @param log
+     * @param oldLevel
+     */
+    void logNotificationLevelChanged(IrcLog log, IrcNotificationLevel oldLevel) {
+        if (isCounted(log)) {
+            if (oldLevel.hasUnreadMessages()) {
+                logsByLevel[oldLevel.ordinal()]--;
+            }
+            IrcNotificationLevel newLevel = log.getNotificationLevel();
+            if (newLevel.hasUnreadMessages()) {
+                logsByLevel[newLevel.ordinal()]++;
+            }
+            accountsStatistics = null;
+        }
+    }
+
     public void removeAccount(IrcAccount account) {
-        accounts.remove(account);
+        if (isCounted(account)) {
+            count(account, -1);
+        }
+        accounts.remove(account.getLabel());
         accountsArray = null;
+        unregisterLatencyStats(account);
         fire(new IrcModelEvent(EventType.ACCOUNT_REMOVED, account));
     }
 
+    /**
+     * Cancels all subscriptions of the given {@code listener}.
+     *
+     * @param listener
+     */
     public void removeModelEventListener(IrcModelEventListener listener) {
-        if (listeners.contains(listener)) {
-            List<IrcModelEventListener> newList = new ArrayList<IrcModelEventListener>(listeners);
-            newList.remove(listener);
-            listeners = newList;
-        }
+        dispatcher.unsubscribe(listener);
     }
 
     public void save(IProgressMonitor monitor) throws UnsupportedEncodingException, FileNotFoundException, IOException,
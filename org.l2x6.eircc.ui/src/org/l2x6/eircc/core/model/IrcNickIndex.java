@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Finds users by nick in constant time, treating the nicks that are the same
+ * under the current {@link IrcCaseMapping} as equal. The owner is responsible
+ * for calling {@link #remove(Object)} before and {@link #put(Object)} after
+ * the nick of an indexed user changes.
+ * <p>
+ * Several users can have the same nick, e.g. a user who has left and a new
+ * one who has taken the nick over. All of them are indexed, but only one of
+ * them, the primary one, is returned by {@link #get(String)}. When the
+ * primary user is removed, another user indexed under the same nick takes
+ * over.
+ * <p>
+ * Not thread safe.
+ *
+ * @param <U>
+ *            the type of the users
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcNickIndex<U> {
+
+    private IrcCaseMapping caseMapping;
+
+    private final Function<U, String> nickOf;
+
+    /**
+     * The users other than the primary ones in {@link #users} by nick folded
+     * by {@link #caseMapping}; the users displaced by {@link #put(Object)}
+     * come first
+     */
+    private final Map<String, List<U>> shadowed = new HashMap<String, List<U>>();
+
+    /** The primary users by nick folded by {@link #caseMapping} */
+    private final Map<String, U> users = new HashMap<String, U>();
+
+    /**
+     * @param caseMapping
+     * @param nickOf
+     *            returns the current nick of the given user
+     */
+    public IrcNickIndex(IrcCaseMapping caseMapping, Function<U, String> nickOf) {
+        super();
+        this.caseMapping = caseMapping;
+        this.nickOf = nickOf;
+    }
+
+    /**
+     * Indexes the given {@code user} under its current nick and makes it the
+     * primary user of that nick, provided that there is none yet. Users
+     * without a nick are ignored.
+     *
+     * @param user
+     */
+    public void add(U user) {
+        String nick = nickOf.apply(user);
+        if (nick != null) {
+            String key = caseMapping.toLowerCase(nick);
+            U primary = users.get(key);
+            if (primary == null) {
+                users.put(key, user);
+            } else if (primary != user) {
+                List<U> others = shadowed.get(key);
+                if (others == null) {
+                    others = new ArrayList<U>(2);
+                    shadowed.put(key, others);
+                }
+                if (!others.contains(user)) {
+                    others.add(user);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param nick
+     * @return the primary user whose nick is the same as {@code nick} under
+     *         {@link #getCaseMapping()} or {@code null}
+     */
+    public U get(String nick) {
+        return users.get(caseMapping.toLowerCase(nick));
+    }
+
+    public IrcCaseMapping getCaseMapping() {
+        return caseMapping;
+    }
+
+    /**
+     * Indexes the given {@code user} under its current nick and makes it the
+     * primary user of that nick. The former primary user stays indexed. Users
+     * without a nick are ignored.
+     *
+     * @param user
+     */
+    public void put(U user) {
+        String nick = nickOf.apply(user);
+        if (nick != null) {
+            String key = caseMapping.toLowerCase(nick);
+            U primary = users.put(key, user);
+            if (primary != null && primary != user) {
+                List<U> others = shadowed.get(key);
+                if (others == null) {
+                    others = new ArrayList<U>(2);
+                    shadowed.put(key, others);
+                } else {
+                    others.remove(user);
+                }
+                others.add(0, primary);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds this index from scratch. If several {@code users} have the
+     * same nick, the first of them becomes the primary one.
+     *
+     * @param caseMapping
+     * @param users
+     */
+    public void rebuild(IrcCaseMapping caseMapping, Iterable<U> users) {
+        this.caseMapping = caseMapping;
+        this.users.clear();
+        this.shadowed.clear();
+        for (U user : users) {
+            add(user);
+        }
+    }
+
+    /**
+     * Removes the given {@code user} from this index, provided that it is
+     * indexed under its current nick.
+     *
+     * @param user
+     * @return {@code true} if {@code user} was removed
+     */
+    public boolean remove(U user) {
+        String nick = nickOf.apply(user);
+        if (nick == null) {
+            return false;
+        }
+        String key = caseMapping.toLowerCase(nick);
+        List<U> others = shadowed.get(key);
+        if (users.get(key) == user) {
+            if (others == null) {
+                users.remove(key);
+            } else {
+                users.put(key, others.remove(0));
+                if (others.isEmpty()) {
+                    shadowed.remove(key);
+                }
+            }
+            return true;
+        } else if (others != null && others.remove(user)) {
+            if (others.isEmpty()) {
+                shadowed.remove(key);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of nicks indexed
+     */
+    public int size() {
+        return users.size();
+    }
+
+}
@@ -8,26 +8,91 @@
 
 package org.l2x6.eircc.core.model;
 
-import java.util.Collection;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.SortedMap;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.function.Consumer;
 
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 import org.l2x6.eircc.core.model.event.IrcModelEvent;
 import org.l2x6.eircc.core.model.event.IrcModelEvent.EventType;
+import org.l2x6.eircc.core.util.IrcUtils;
+import org.l2x6.eircc.core.util.ReadableByteArrayOutputStream;
+import org.l2x6.eircc.ui.EirccUi;
 
 /**
  * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
  */
 public class IrcServer extends IrcObject {
 
+    /**
+     * A user not loaded from {@link IrcAccount#getJournalStore()} yet or
+     * evicted by {@link IrcServer#evictIdleUsers(long, long)}. It is loaded
+     * once the user is looked up.
+     */
+    private static class DormantUser {
+        /**
+         * The evicted instance that may still be referenced e.g. by
+         * {@link IrcMessage}s, so that it can be reused rather than loaded
+         * again as a duplicate; {@code null} if the user has never been loaded
+         */
+        private final WeakReference<IrcUser> evicted;
+        private final UUID id;
+        private final String nick;
+
+        DormantUser(UUID id, String nick, IrcUser evicted) {
+            super();
+            this.id = id;
+            this.nick = nick;
+            this.evicted = evicted == null ? null : new WeakReference<IrcUser>(evicted);
+        }
+
+        String getNick() {
+            return nick;
+        }
+    }
+
     private final IrcAccount account;
-    private final SortedMap<String, PlainIrcChannel> channels = new TreeMap<String, PlainIrcChannel>();
+
+    /** The channels listed by the server via {@code LIST} */
+    private final IrcChannelList channelList = new IrcChannelList();
+
+    /** {@link #channelList} materialized lazily by {@link #getChannels()} */
     private PlainIrcChannel[] channelsArray;
-    /** Users by id */
+
+    /** The time when {@link #channelList} was complete or {@code null} */
+    private OffsetDateTime channelsListedAt;
+
+    /** The users not loaded or evicted from {@link #users} by id */
+    private final Map<UUID, DormantUser> dormantUsers = new HashMap<UUID, DormantUser>();
+
+    /** {@link #dormantUsers} by nick */
+    private final IrcNickIndex<DormantUser> dormantUsersByNick = new IrcNickIndex<DormantUser>(
+            IrcCaseMapping.DEFAULT, DormantUser::getNick);
+
+    /** Users in memory by id */
     private final Map<UUID, IrcUser> users = new TreeMap<UUID, IrcUser>();
 
+    /** {@link #users} by nick */
+    private final IrcNickIndex<IrcUser> usersByNick = new IrcNickIndex<IrcUser>(IrcCaseMapping.DEFAULT,
+            IrcUser::getNick);
+
     /**
      * @param id
      * @param account
@@ -37,25 +102,16 @@ public class IrcServer extends IrcObject {
         this.account = account;
     }
 
-    public void addChannel(PlainIrcChannel channel, boolean fireChannelAddedEvent) {
-        String channelName = channel.getName();
-        if (channels.get(channelName) != null) {
-            throw new IllegalArgumentException("Channel with name '" + channelName
-                    + "' already available under server '" + account.getHost() + "' account ' of account "
-                    + account.getLabel() + "'");
-        }
-        channels.put(channelName, channel);
+    /**
+     * Appends a chunk of a {@code LIST} result and fires a single
+     * {@link EventType#SERVER_CHANNELS_ADDED} event.
+     *
+     * @param addChannels
+     */
+    public void addChannels(IrcChannelList addChannels) {
+        channelList.addAll(addChannels);
         channelsArray = null;
-        if (fireChannelAddedEvent) {
-            account.getModel().fire(new IrcModelEvent(EventType.SERVER_CHANNEL_ADDED, channel));
-        }
-    }
-
-    public void addChannels(PlainIrcChannel[] addChannels) {
-        for (PlainIrcChannel channel : addChannels) {
-            addChannel(channel, false);
-        }
-        account.getModel().fire(new IrcModelEvent(EventType.SERVER_CHANNELS_ADDED, addChannels));
+        account.getModel().fire(new IrcModelEvent(EventType.SERVER_CHANNELS_ADDED, this));
     }
 
     /**
@@ -72,9 +128,25 @@ public class IrcServer extends IrcObject {
                     + account.getHost() + "' of the account '" + account.getLabel() + "'.");
         }
         users.put(id, user);
+        usersByNick.put(user);
+        user.seen(System.nanoTime());
         account.getModel().fire(new IrcModelEvent(EventType.USER_ADDED, user));
     }
 
+    /**
+     * Registers a user stored in {@link IrcAccount#getJournalStore()} without
+     * loading it. It is loaded once it is looked up by
+     * {@link #findUser(String)} or {@link #findUser(UUID)}.
+     *
+     * @param id
+     * @param nick
+     */
+    void addDormantUser(UUID id, String nick) {
+        DormantUser dormant = new DormantUser(id, nick, null);
+        dormantUsers.put(id, dormant);
+        dormantUsersByNick.add(dormant);
+    }
+
     /**
      * @param oldNick
      * @param newNick
@@ -83,13 +155,36 @@ public class IrcServer extends IrcObject {
     public void changeNick(IrcUserBase plainUser, String newNick) {
         IrcUser user = findUser(plainUser.getNick());
         if (user != null) {
+            usersByNick.remove(user);
             user.setNick(newNick);
+            usersByNick.put(user);
         } else {
             user = createUser(newNick, plainUser.getUsername(), plainUser.getHost());
             addUser(user);
         }
     }
 
+    /**
+     * Called when a {@code LIST} result is complete.
+     *
+     * @param listedAt
+     */
+    public void channelsListed(OffsetDateTime listedAt) {
+        this.channelsListedAt = listedAt;
+        account.getModel().fire(new IrcModelEvent(EventType.SERVER_CHANNELS_LISTED, this));
+    }
+
+    /**
+     * Forgets the channels listed so far, typically before a new
+     * {@code LIST}.
+     */
+    public void clearChannels() {
+        channelList.clear();
+        channelsArray = null;
+        channelsListedAt = null;
+        account.getModel().fire(new IrcModelEvent(EventType.SERVER_CHANNELS_CLEARED, this));
+    }
+
     /**
      * @param channelName
      * @return
@@ -117,36 +212,149 @@ public class IrcServer extends IrcObject {
     }
 
     /**
-     * Find user by nick.
+     * Removes the users that have not been looked up for longer than
+     * {@code maxIdleNanos} from memory, unless they are present in some
+     * channel of the {@link #account}, are the peer of a P2P channel or are
+     * {@link IrcAccount#getMe()}. Changed users are passed to the given
+     * {@code saver} before being evicted. The evicted users are loaded again
+     * by {@link #findUser(String)} and {@link #findUser(UUID)} from
+     * {@link IrcAccount#getJournalStore()} on demand, unless the evicted
+     * instance is still in memory.
+     *
+     * @param now
+     *            the current {@link System#nanoTime()}
+     * @param maxIdleNanos
+     * @param saver
+     *            typically {@link org.l2x6.eircc.core.IrcWriteBehindSaver#save(PersistentIrcObject)}
+     *            so that all records get written in the order they were taken
+     * @return the number of users evicted
+     */
+    public int evictIdleUsers(long now, long maxIdleNanos, Consumer<? super IrcUser> saver) {
+        Set<UUID> referenced = new HashSet<UUID>();
+        IrcUser me = account.getMe();
+        if (me != null) {
+            referenced.add(me.getId());
+        }
+        for (AbstractIrcChannel channel : account.getChannels()) {
+            if (channel.isP2p()) {
+                referenced.add(((P2pIrcChannel) channel).getP2pUser().getId());
+            }
+            for (IrcChannelUser channelUser : channel.getUsers()) {
+                referenced.add(channelUser.getUser().getId());
+            }
+        }
+        int result = 0;
+        for (Iterator<IrcUser> it = users.values().iterator(); it.hasNext();) {
+            IrcUser user = it.next();
+            if (now - user.getLastSeen() > maxIdleNanos && !referenced.contains(user.getId())) {
+                if (user.isDirty()) {
+                    saver.accept(user);
+                }
+                it.remove();
+                usersByNick.remove(user);
+                DormantUser dormant = new DormantUser(user.getId(), user.getNick(), user);
+                dormantUsers.put(dormant.id, dormant);
+                dormantUsersByNick.put(dormant);
+                user.dispose();
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find user by nick, loading it if it was evicted.
      *
      * @param nick
-     * @return
+     * @return the user whose nick is the same as the given {@code nick} under
+     *         {@link #getCaseMapping()} or {@code null}
      */
     public IrcUser findUser(String nick) {
-        for (IrcUser user : users.values()) {
-            if (user.getNick().equals(nick)) {
-                return user;
+        IrcUser result = usersByNick.get(nick);
+        if (result == null) {
+            DormantUser dormant = dormantUsersByNick.get(nick);
+            if (dormant == null) {
+                return null;
             }
+            result = wake(dormant);
         }
-        return null;
+        if (result != null) {
+            result.seen(System.nanoTime());
+        }
+        return result;
     }
 
+    /**
+     * Find user by id, loading it if it was evicted.
+     *
+     * @param id
+     * @return the user with the given {@code id} or {@code null}
+     */
     public IrcUser findUser(UUID id) {
-        return users.get(id);
+        IrcUser result = users.get(id);
+        if (result == null) {
+            DormantUser dormant = dormantUsers.get(id);
+            if (dormant == null) {
+                return null;
+            }
+            result = wake(dormant);
+        }
+        if (result != null) {
+            result.seen(System.nanoTime());
+        }
+        return result;
     }
 
     public IrcAccount getAccount() {
         return account;
     }
 
+    /**
+     * @return the case mapping advertised by the server or
+     *         {@link IrcCaseMapping#DEFAULT}
+     */
+    public IrcCaseMapping getCaseMapping() {
+        return usersByNick.getCaseMapping();
+    }
+
+    public IrcChannelList getChannelList() {
+        return channelList;
+    }
+
+    /**
+     * @return the listed channels sorted by name
+     */
     public PlainIrcChannel[] getChannels() {
         if (channelsArray == null) {
-            Collection<PlainIrcChannel> chans = channels.values();
-            channelsArray = chans.toArray(new PlainIrcChannel[chans.size()]);
+            int[] rows = channelList.getSortedRows();
+            PlainIrcChannel[] result = new PlainIrcChannel[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                int row = rows[i];
+                result[i] = new PlainIrcChannel(this, channelList.getName(row), channelList.getUserCount(row),
+                        channelList.getTopic(row));
+            }
+            channelsArray = result;
         }
         return channelsArray;
     }
 
+    /**
+     * @return the time when the last complete {@code LIST} result was
+     *         received or {@code null} if the channels have not been listed
+     *         completely yet
+     */
+    public OffsetDateTime getChannelsListedAt() {
+        return channelsListedAt;
+    }
+
+    /**
+     * @return the number of users in memory, i.e. not counting the ones not
+     *         loaded yet or evicted by {@link #evictIdleUsers(long, long)}
+     */
+    public int getLoadedUserCount() {
+        return users.size();
+    }
+
     /**
      * @param nick
      * @param username
@@ -163,33 +371,156 @@ public class IrcServer extends IrcObject {
     }
 
     /**
-     * @return
-     * @return
+     * @see org.l2x6.eircc.core.model.IrcObject#hasAccounts()
      */
-    Map<UUID, IrcUser> getUsers() {
-        return users;
+    public boolean hasChannels() {
+        return !channelList.isEmpty();
     }
 
     /**
-     * @see org.l2x6.eircc.core.model.IrcObject#hasAccounts()
+     * Loads the channels stored by {@link #saveChannelList(IProgressMonitor)}
+     * in a previous session, if any.
+     *
+     * @throws IOException
+     * @throws CoreException
      */
-    public boolean hasChannels() {
-        return !channels.isEmpty();
+    public void loadChannelList() throws IOException, CoreException {
+        IFile file = account.getAccountResource().getChannelListFile();
+        if (file.exists()) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(file.getContents(), "utf-8"))) {
+                String listedAt = in.readLine();
+                if (listedAt != null) {
+                    channelList.clear();
+                    channelsArray = null;
+                    channelsListedAt = OffsetDateTime.parse(listedAt);
+                    channelList.read(in);
+                }
+            } catch (IOException | RuntimeException e) {
+                /* a cache only, so any unreadable content just means there is none */
+                EirccUi.log("Ignoring corrupted " + file.getFullPath() + ": " + e);
+                channelList.clear();
+                channelsArray = null;
+                channelsListedAt = null;
+            }
+        }
     }
 
-    public void removeChannel(AbstractIrcChannel channel) {
-        channels.remove(channel);
-        channelsArray = null;
-        account.getModel().fire(new IrcModelEvent(EventType.SERVER_CHANNEL_REMOVED, channel));
+    /**
+     * Called when the server has advertised its {@code CASEMAPPING}. The
+     * users of the channels of the {@link #account} are compared under the
+     * same {@code caseMapping} as the users of this server.
+     *
+     * @param caseMapping
+     */
+    public void setCaseMapping(IrcCaseMapping caseMapping) {
+        if (caseMapping != usersByNick.getCaseMapping()) {
+            usersByNick.rebuild(caseMapping, users.values());
+            dormantUsersByNick.rebuild(caseMapping, dormantUsers.values());
+            for (AbstractIrcChannel channel : account.getChannels()) {
+                channel.setCaseMapping(caseMapping);
+            }
+        }
+    }
+
+    /**
+     * Passes the users changed since they were loaded or saved for the last
+     * time to the given {@code saver}.
+     *
+     * @param saver
+     *            see {@link #evictIdleUsers(long, long, Consumer)}
+     */
+    public void saveDirtyUsers(Consumer<? super IrcUser> saver) {
+        for (IrcUser user : users.values()) {
+            if (user.isDirty()) {
+                saver.accept(user);
+            }
+        }
+    }
+
+    /**
+     * Saves the users changed since they were loaded or saved for the last
+     * time.
+     *
+     * @param monitor
+     * @throws CoreException
+     */
+    public void saveDirtyUsers(IProgressMonitor monitor) throws CoreException {
+        for (IrcUser user : users.values()) {
+            if (user.isDirty()) {
+                user.save(monitor);
+            }
+        }
+    }
+
+    /**
+     * Stores the complete {@code LIST} result so that the next session does
+     * not need to list the channels again. Does nothing if the channels have
+     * not been listed completely.
+     *
+     * @param monitor
+     * @throws CoreException
+     */
+    public void saveChannelList(IProgressMonitor monitor) throws CoreException {
+        if (channelsListedAt == null) {
+            return;
+        }
+        ReadableByteArrayOutputStream out = new ReadableByteArrayOutputStream();
+        try (Writer w = new OutputStreamWriter(out, "utf-8")) {
+            w.write(channelsListedAt.toString());
+            w.write('\n');
+            channelList.write(w);
+        } catch (IOException e) {
+            throw new CoreException(new Status(IStatus.ERROR, EirccUi.PLUGIN_ID, e.getClass().getName() + " "
+                    + e.getMessage(), e));
+        }
+        IFile file = account.getAccountResource().getChannelListFile();
+        InputStream in = out.createInputStream();
+        if (!file.exists()) {
+            IrcUtils.mkdirs(file.getParent(), monitor);
+            file.create(in, true, monitor);
+        } else {
+            file.setContents(in, true, false, monitor);
+        }
     }
 
     public void removeUser(String nick) {
         IrcUser removed = findUser(nick);
         if (removed != null) {
             users.remove(removed.getId());
+            usersByNick.remove(removed);
             account.getModel().fire(new IrcModelEvent(EventType.USER_REMOVED, removed));
             removed.dispose();
         }
     }
 
+    /**
+     * Loads the given dormant user, reusing the evicted instance if it is
+     * still in memory.
+     *
+     * @param dormant
+     * @return the loaded user or {@code null} if it is not stored
+     */
+    private IrcUser wake(DormantUser dormant) {
+        dormantUsers.remove(dormant.id);
+        dormantUsersByNick.remove(dormant);
+        IrcUser result = dormant.evicted == null ? null : dormant.evicted.get();
+        if (result == null) {
+            Map<String, String> record;
+            try {
+                record = account.getJournalStore().get(IrcUser.STORE_KEY_PREFIX + dormant.id);
+            } catch (IOException e) {
+                EirccUi.log(e);
+                return null;
+            }
+            if (record == null) {
+                EirccUi.log("User " + dormant.id + " not found in the store of account " + account.getLabel());
+                return null;
+            }
+            result = new IrcUser(this, dormant.id, record);
+        }
+        users.put(result.getId(), result);
+        usersByNick.add(result);
+        return result;
+    }
+
 }
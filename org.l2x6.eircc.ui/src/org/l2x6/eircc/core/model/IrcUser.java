@@ -14,6 +14,7 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.UUID;
 
@@ -50,6 +51,9 @@ public class IrcUser extends IrcObject implements PersistentIrcObject, IrcUserBa
 
     public static final String FILE_EXTENSION = ".user.properties";
 
+    /** Followed by {@link #getId()} in {@link #getStoreKey()} */
+    public static final String STORE_KEY_PREFIX = "user/";
+
     /**
      * @return
      */
@@ -57,10 +61,19 @@ public class IrcUser extends IrcObject implements PersistentIrcObject, IrcUserBa
         return f.getType() == IResource.FILE && f.getName().endsWith(IrcUser.FILE_EXTENSION);
     }
 
+    /**
+     * {@code true} if this user has changed since it was loaded or
+     * {@link #toRecord()} was called for the last time
+     */
+    private boolean dirty;
+
     private String host;
 
     private final UUID id;
 
+    /** See {@link #getLastSeen()} */
+    private long lastSeen = System.nanoTime();
+
     private String nick;
     private IPath path;
 
@@ -87,9 +100,25 @@ public class IrcUser extends IrcObject implements PersistentIrcObject, IrcUserBa
         this.id = UUID.fromString(uid);
         this.previousNicks = new ArrayList<String>();
         load(userPropsFile);
+        this.dirty = false;
     }
 
 
+    /**
+     * @param server
+     * @param id
+     * @param record
+     *            the fields as stored in {@link IrcAccount#getJournalStore()}
+     */
+    public IrcUser(IrcServer server, UUID id, Map<String, String> record) {
+        super(server.getAccount().getModel(), server.getAccount().getAccountResource().getUsersFolder().getFullPath());
+        this.server = server;
+        this.id = id;
+        this.previousNicks = new ArrayList<String>();
+        load(record);
+        this.dirty = false;
+    }
+
     public IrcUser(IrcServer server, UUID id, String nick, String username, String host) {
         super(server.getAccount().getModel(), server.getAccount().getAccountResource().getUsersFolder().getFullPath());
         this.server = server;
@@ -98,6 +127,7 @@ public class IrcUser extends IrcObject implements PersistentIrcObject, IrcUserBa
         this.username = username;
         this.nick = nick;
         this.host = host;
+        this.dirty = true;
     }
 
     /**
@@ -140,6 +170,14 @@ public class IrcUser extends IrcObject implements PersistentIrcObject, IrcUserBa
         return id;
     }
 
+    /**
+     * @return the {@link System#nanoTime()} when this user was looked up,
+     *         added to its {@link IrcServer} or to a channel for the last time
+     */
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
     public String getNick() {
         return nick;
     }
@@ -177,6 +215,22 @@ public class IrcUser extends IrcObject implements PersistentIrcObject, IrcUserBa
         return server;
     }
 
+    /**
+     * @see org.l2x6.eircc.core.model.PersistentIrcObject#getStore()
+     */
+    @Override
+    public IrcJournalStore getStore() {
+        return server.getAccount().getJournalStore();
+    }
+
+    /**
+     * @see org.l2x6.eircc.core.model.PersistentIrcObject#getStoreKey()
+     */
+    @Override
+    public String getStoreKey() {
+        return STORE_KEY_PREFIX + id;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -189,6 +243,14 @@ public class IrcUser extends IrcObject implements PersistentIrcObject, IrcUserBa
         return result;
     }
 
+    /**
+     * @return {@code true} if this user has changed since it was loaded or
+     *         {@link #toRecord()} was called for the last time
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
     public boolean hasOrHadNick(String nick) {
         if (nick == null) {
             return false;
@@ -205,13 +267,26 @@ public class IrcUser extends IrcObject implements PersistentIrcObject, IrcUserBa
         return false;
     }
 
+    /**
+     * Called whenever this user is looked up, added to its {@link IrcServer}
+     * or to a channel.
+     *
+     * @param now
+     *            the current {@link System#nanoTime()}
+     */
+    void seen(long now) {
+        this.lastSeen = now;
+    }
+
     public void setHost(String host) {
         this.host = host;
+        this.dirty = true;
     }
 
     public void setNick(String nick) {
         String oldNick = this.nick;
         this.nick = nick;
+        this.dirty = true;
         if (oldNick != null && !oldNick.equals(nick)) {
             previousNicks.add(oldNick);
             getServer().getAccount().getModel().fire(new IrcModelEvent(EventType.NICK_CHANGED, this));
@@ -226,13 +301,27 @@ public class IrcUser extends IrcObject implements PersistentIrcObject, IrcUserBa
                 previousNicks.add(st.nextToken());
             }
         }
+        this.dirty = true;
     }
 
     public void setUsername(String username) {
         this.username = username;
+        this.dirty = true;
     }
 
 
+    /**
+     * Clears {@link #isDirty()} as the returned record is going to be saved.
+     *
+     * @see org.l2x6.eircc.core.model.PersistentIrcObject#toRecord()
+     */
+    @Override
+    public Map<String, String> toRecord() {
+        Map<String, String> result = PersistentIrcObject.super.toRecord();
+        dirty = false;
+        return result;
+    }
+
     @Override
     public String toString() {
         return nick;
@@ -77,6 +77,17 @@ public class P2pIrcChannel extends AbstractIrcChannel {
         return log;
     }
 
+    /**
+     * A {@link P2pIrcChannel} is created only when there is a message for it,
+     * so it reads its log eagerly.
+     *
+     * @see org.l2x6.eircc.core.model.AbstractIrcChannel#getLogIfLoaded()
+     */
+    @Override
+    public IrcLog getLogIfLoaded() {
+        return log;
+    }
+
     /**
      * @see org.l2x6.eircc.core.model.AbstractIrcChannel#getName()
      */
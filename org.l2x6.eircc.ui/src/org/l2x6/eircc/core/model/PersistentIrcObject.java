@@ -14,6 +14,9 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import org.eclipse.core.resources.IFile;
@@ -28,6 +31,10 @@ import org.l2x6.eircc.core.util.TypedField;
 import org.l2x6.eircc.ui.EirccUi;
 
 /**
+ * An object whose {@link #getFields()} get persisted either in the
+ * {@link IrcJournalStore} returned by {@link #getStore()} or, if there is
+ * none, in a properties file under {@link #getPath()}.
+ *
  * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
  */
 public interface PersistentIrcObject {
@@ -39,69 +46,130 @@ public interface PersistentIrcObject {
 
     IPath getPath();
 
+    /**
+     * @return the store to save this object to instead of the properties
+     *         file under {@link #getPath()} or {@code null}
+     */
+    default IrcJournalStore getStore() {
+        return null;
+    }
+
+    /**
+     * @return the key under which this object is saved in {@link #getStore()}
+     */
+    default String getStoreKey() {
+        return getPath().toString();
+    }
+
     default void load(IFile propsFile) throws IOException, CoreException {
         //propsFile.refreshLocal(IResource.DEPTH_ZERO, null);
         try (Reader reader = new InputStreamReader(propsFile.getContents(), "utf-8")) {
             Properties props = new Properties();
             props.load(reader);
-            for (TypedField field : this.getFields()) {
-                String fieldName = field.name();
-                String val = props.getProperty(fieldName);
-                if (val != null) {
-                    field.setString(this, val);
-                }
+            Map<String, String> record = new HashMap<String, String>();
+            for (String name : props.stringPropertyNames()) {
+                record.put(name, props.getProperty(name));
             }
+            load(record);
         }
     }
 
-    default void save(IProgressMonitor monitor) throws CoreException {
-        TypedField[] fields = getFields();
-        if (fields.length > 0) {
-
-            Properties props = new Properties();
-            for (TypedField field : fields) {
-                String fieldName = field.name();
-                Object val = null;
-                try {
-                    val = field.getString(this);
-                    if (val != null) {
-                        props.put(fieldName, val.toString());
-                    }
-                } catch (Exception e) {
-                    EirccUi.log("Could not save " + val + " to " + this.getClass().getSimpleName() + "." + fieldName);
-                    EirccUi.log(e);
-                }
-            }
-            IPath path = getPath();
-            IFile file = getModel().getRoot().getFile(path);
-            IPath backupPath = null;
-            if (file.exists()) {
-                backupPath = path.addFileExtension(".backup");
-                file.copy(backupPath, true, monitor);
-            } else {
-                IrcUtils.mkdirs(file.getParent(), monitor);
+    /**
+     * Sets the {@link #getFields()} from the given {@code record}.
+     *
+     * @param record
+     *            the field values by field name
+     */
+    default void load(Map<String, String> record) {
+        for (TypedField field : this.getFields()) {
+            String val = record.get(field.name());
+            if (val != null) {
+                field.setString(this, val);
             }
+        }
+    }
 
-            ReadableByteArrayOutputStream out = new ReadableByteArrayOutputStream();
-            try (Writer w = new OutputStreamWriter(out, "utf-8")) {
-                props.store(w, "");
+    default void save(IProgressMonitor monitor) throws CoreException {
+        if (getFields().length > 0) {
+            save(toRecord(), monitor);
+        }
+    }
+
+    /**
+     * Writes the given {@code record} obtained via {@link #toRecord()}. Unlike
+     * {@link #save(IProgressMonitor)}, this method does not access the state
+     * of this object other than its location and can thus be called from any
+     * thread.
+     *
+     * @param record
+     * @param monitor
+     * @throws CoreException
+     */
+    default void save(Map<String, String> record, IProgressMonitor monitor) throws CoreException {
+        IrcJournalStore store = getStore();
+        if (store != null) {
+            try {
+                store.put(getStoreKey(), record);
             } catch (IOException e) {
                 throw new CoreException(new Status(IStatus.ERROR, EirccUi.PLUGIN_ID, e.getClass().getName() + " "
                         + e.getMessage(), e));
             }
-            InputStream in = out.createInputStream();
-            if (!file.exists()) {
-                file.create(in, true, monitor);
-            } else {
-                file.setContents(in, true, false, monitor);
+            return;
+        }
+
+        Properties props = new Properties();
+        props.putAll(record);
+        IPath path = getPath();
+        IFile file = getModel().getRoot().getFile(path);
+        IPath backupPath = null;
+        if (file.exists()) {
+            backupPath = path.addFileExtension(".backup");
+            file.copy(backupPath, true, monitor);
+        } else {
+            IrcUtils.mkdirs(file.getParent(), monitor);
+        }
+
+        ReadableByteArrayOutputStream out = new ReadableByteArrayOutputStream();
+        try (Writer w = new OutputStreamWriter(out, "utf-8")) {
+            props.store(w, "");
+        } catch (IOException e) {
+            throw new CoreException(new Status(IStatus.ERROR, EirccUi.PLUGIN_ID, e.getClass().getName() + " "
+                    + e.getMessage(), e));
+        }
+        InputStream in = out.createInputStream();
+        if (!file.exists()) {
+            file.create(in, true, monitor);
+        } else {
+            file.setContents(in, true, false, monitor);
+        }
+
+        if (backupPath != null) {
+            IFile backupFile = getModel().getRoot().getFile(backupPath);
+            if (backupFile.exists()) {
+                backupFile.delete(true, monitor);
             }
+        }
+    }
 
-            if (backupPath != null) {
-                IFile backupFile = getModel().getRoot().getFile(backupPath);
-                if (backupFile.exists()) {
-                    backupFile.delete(true, monitor);
+    /**
+     * @return the non-{@code null} values of {@link #getFields()} by field
+     *         name
+     */
+    default Map<String, String> toRecord() {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        for (TypedField field : getFields()) {
+            String fieldName = field.name();
+            Object val = null;
+            try {
+                val = field.getString(this);
+                if (val != null) {
+                    result.put(fieldName, val.toString());
                 }
+            } catch (Exception e) {
+                EirccUi.log("Could not save " + val + " to " + this.getClass().getSimpleName() + "." + fieldName);
+                EirccUi.log(e);
             }
         }
+        return result;
     }
 }
@@ -14,17 +14,33 @@ package org.l2x6.eircc.core.model;
 public class PlainIrcChannel extends IrcBase implements Comparable<PlainIrcChannel> {
     private final String name;
     private final IrcServer server;
+    private final String topic;
+    private final int userCount;
 
     /**
      * @param name
      */
     public PlainIrcChannel(IrcServer server, String name) {
+        this(server, name, -1, "");
+    }
+
+    /**
+     * @param server
+     * @param name
+     * @param userCount
+     *            the number of users as listed by the server or {@code -1}
+     *            if unknown
+     * @param topic
+     */
+    public PlainIrcChannel(IrcServer server, String name, int userCount, String topic) {
         super();
         this.server = server;
         if (name == null) {
             throw new IllegalArgumentException(this.getClass().getName() + ".name cannot be null.");
         }
         this.name = name;
+        this.userCount = userCount;
+        this.topic = topic;
     }
 
     /**
@@ -62,6 +78,18 @@ public class PlainIrcChannel extends IrcBase implements Comparable<PlainIrcChann
         return server;
     }
 
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return the number of users as listed by the server or {@code -1} if
+     *         unknown
+     */
+    public int getUserCount() {
+        return userCount;
+    }
+
     @Override
     public int hashCode() {
         return name.hashCode();
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.l2x6.eircc.core.model.event.IrcModelEvent.EventType;
+
+/**
+ * The {@link IrcModelEvent}s fired during a batch, see
+ * {@code IrcModel#beginBatch()}. All events are kept in the order in which
+ * they were fired, so that the listeners replaying them one by one, such as
+ * the ones writing a line per event to a log, miss none of them. The listeners
+ * looking only at the current state of the model objects can use
+ * {@link #getDistinctEvents()} or {@link #getModelObjects(EventType)} where
+ * an event of the same {@link EventType} about the same model object is kept
+ * only once.
+ * <p>
+ * Not thread safe.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcModelDelta {
+
+    /** The key of an event in {@link IrcModelDelta#distinctEvents} */
+    private static class EventKey {
+        private final EventType eventType;
+        private final Object modelObject;
+
+        EventKey(EventType eventType, Object modelObject) {
+            super();
+            this.eventType = eventType;
+            this.modelObject = modelObject;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            EventKey other = (EventKey) obj;
+            if (eventType != other.eventType)
+                return false;
+            if (modelObject == null) {
+                if (other.modelObject != null)
+                    return false;
+            } else if (!modelObject.equals(other.modelObject))
+                return false;
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + eventType.hashCode();
+            result = prime * result + ((modelObject == null) ? 0 : modelObject.hashCode());
+            return result;
+        }
+    }
+
+    /** The first occurrences of the {@link #events} of a given type about a given model object */
+    private final Map<EventKey, IrcModelEvent> distinctEvents = new LinkedHashMap<EventKey, IrcModelEvent>();
+
+    /** All events in the order in which they were fired */
+    private final List<IrcModelEvent> events = new ArrayList<IrcModelEvent>();
+
+    /** The model objects of {@link #events} by {@link EventType} */
+    private final Map<EventType, Set<Object>> modelObjects = new EnumMap<EventType, Set<Object>>(EventType.class);
+
+    /** The targets of {@link #events} as passed to {@link #add(IrcModelEvent, Object)} */
+    private final Map<IrcModelEvent, Object> targets = new IdentityHashMap<IrcModelEvent, Object>();
+
+    /**
+     * Appends the given event.
+     *
+     * @param e
+     * @param target
+     *            the object the event is about, such as the channel of a new
+     *            message
+     * @return {@code false} if there is an event of the same type about the
+     *         same model object in this delta already
+     */
+    public boolean add(IrcModelEvent e, Object target) {
+        events.add(e);
+        targets.put(e, target);
+        EventKey key = new EventKey(e.getEventType(), e.getModelObject());
+        if (distinctEvents.containsKey(key)) {
+            return false;
+        }
+        distinctEvents.put(key, e);
+        Set<Object> objects = modelObjects.get(e.getEventType());
+        if (objects == null) {
+            objects = new LinkedHashSet<Object>();
+            modelObjects.put(e.getEventType(), objects);
+        }
+        objects.add(e.getModelObject());
+        return true;
+    }
+
+    /**
+     * @param type
+     * @return {@code true} if there is at least one event of the given
+     *         {@code type} in this delta
+     */
+    public boolean contains(EventType type) {
+        return modelObjects.containsKey(type);
+    }
+
+    /**
+     * @return the first event of each {@link EventType} about each model
+     *         object, in the order in which they were fired
+     */
+    public List<IrcModelEvent> getDistinctEvents() {
+        return Collections.unmodifiableList(new ArrayList<IrcModelEvent>(distinctEvents.values()));
+    }
+
+    /**
+     * @return all events in the order in which they were fired, including
+     *         the repeated ones
+     */
+    public List<IrcModelEvent> getEvents() {
+        return Collections.unmodifiableList(events);
+    }
+
+    /**
+     * @param type
+     * @return the model objects of the events of the given {@code type}, e.g.
+     *         the added accounts for {@link EventType#ACCOUNT_ADDED}
+     */
+    public Set<Object> getModelObjects(EventType type) {
+        Set<Object> result = modelObjects.get(type);
+        return result == null ? Collections.<Object> emptySet() : Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * @param e
+     *            one of {@link #getEvents()}
+     * @return the target passed to {@link #add(IrcModelEvent, Object)} with
+     *         the given event
+     */
+    Object getTarget(IrcModelEvent e) {
+        return targets.get(e);
+    }
+
+    public boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    /**
+     * @return the number of events in this delta, including the repeated ones
+     */
+    public int size() {
+        return events.size();
+    }
+
+}
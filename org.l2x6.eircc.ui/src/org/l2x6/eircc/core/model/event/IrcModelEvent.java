@@ -13,9 +13,11 @@ package org.l2x6.eircc.core.model.event;
  */
 public class IrcModelEvent {
     public enum EventType {
-        ACCOUNT_ADDED, ACCOUNT_CHANNEL_ADDED, ACCOUNT_CHANNEL_REMOVED, ACCOUNT_REMOVED, ACCOUNT_STATE_CHANGED, CHANNEL_JOINED_CHANGED, CHANNEL_USER_JOINED, CHANNEL_USER_LEFT, LOG_STATE_CHANGED, NEW_MESSAGE, NICK_CHANGED, SERVER_CHANNEL_ADDED, SERVER_CHANNEL_REMOVED, SERVER_CHANNELS_ADDED, USER_ADDED, USER_REMOVED, CHANNEL_USERS_CHANGED, MESSAGE_REPLACED, NICK_TIMEOUT
+        ACCOUNT_ADDED, ACCOUNT_CHANNEL_ADDED, ACCOUNT_CHANNEL_REMOVED, ACCOUNT_REMOVED, ACCOUNT_STATE_CHANGED, CHANNEL_JOINED_CHANGED, CHANNEL_USER_JOINED, CHANNEL_USER_LEFT, LOG_STATE_CHANGED, NEW_MESSAGE, NICK_CHANGED, SERVER_CHANNEL_ADDED, SERVER_CHANNEL_REMOVED, SERVER_CHANNELS_ADDED, USER_ADDED, USER_REMOVED, CHANNEL_USERS_CHANGED, MESSAGE_REPLACED, NICK_TIMEOUT, ACCOUNT_OUTBOUND_QUEUE_CHANGED, NEW_MESSAGES, SERVER_CHANNELS_CLEARED, SERVER_CHANNELS_LISTED
     };
 
+    /** The {@link System#nanoTime()} of the creation, to measure the latency of the listeners */
+    protected final long createdNanos = System.nanoTime();
     protected final EventType eventType;
     protected final Object modelObject;
 
@@ -29,6 +31,10 @@ public class IrcModelEvent {
         this.eventType = eventType;
     }
 
+    public long getCreatedNanos() {
+        return createdNanos;
+    }
+
     public EventType getEventType() {
         return eventType;
     }
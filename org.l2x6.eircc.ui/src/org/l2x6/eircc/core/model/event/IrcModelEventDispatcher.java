@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.core.model.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.l2x6.eircc.core.model.event.IrcModelEvent.EventType;
+
+/**
+ * Delivers {@link IrcModelEvent}s only to the {@link IrcModelEventListener}s
+ * that have subscribed to them. A listener can subscribe to
+ * <ul>
+ * <li>all events, see {@link #subscribe(IrcModelEventListener)},</li>
+ * <li>all events of some {@link EventType}s, see
+ * {@link #subscribe(IrcModelEventListener, EventType...)} or</li>
+ * <li>the events of some {@link EventType}s having a specific target, such as
+ * the messages of a single channel, see
+ * {@link #subscribe(IrcModelEventListener, Object, EventType...)}.</li>
+ * </ul>
+ * The listeners of an event are called in the order of their
+ * {@link IrcModelEventListener#getOrderingKey()}s, each of them once, no
+ * matter how many of its subscriptions match. The events of a batch are
+ * delivered together, see {@link #dispatch(IrcModelDelta, Consumer)}, except
+ * for the listeners that are not {@link IrcModelEventListener#isBatched()},
+ * see {@link #dispatchUnbatched(IrcModelEvent, Object, Consumer)}.
+ * <p>
+ * The subscription lists are copied on change so that listeners can
+ * subscribe and unsubscribe while an event is being dispatched. Not thread
+ * safe otherwise.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcModelEventDispatcher {
+
+    /** The key of the listeners subscribed to an {@link EventType} regardless of the target */
+    private static final Object ANY_TARGET = new Object();
+
+    private static List<IrcModelEventListener> add(List<IrcModelEventListener> listeners,
+            IrcModelEventListener listener) {
+        if (listeners == null) {
+            return Collections.singletonList(listener);
+        } else if (listeners.contains(listener)) {
+            return listeners;
+        }
+        List<IrcModelEventListener> result = new ArrayList<IrcModelEventListener>(listeners.size() + 1);
+        result.addAll(listeners);
+        result.add(listener);
+        Collections.sort(result, IrcModelEventListener.COMPARATOR);
+        return result;
+    }
+
+    private static void merge(List<IrcModelEventListener> listeners, List<IrcModelEventListener> result) {
+        if (listeners != null) {
+            for (IrcModelEventListener listener : listeners) {
+                if (!result.contains(listener)) {
+                    result.add(listener);
+                }
+            }
+        }
+    }
+
+    private static List<IrcModelEventListener> remove(List<IrcModelEventListener> listeners,
+            IrcModelEventListener listener) {
+        if (!listeners.contains(listener)) {
+            return listeners;
+        }
+        List<IrcModelEventListener> result = new ArrayList<IrcModelEventListener>(listeners);
+        result.remove(listener);
+        return result;
+    }
+
+    /** The number of events delivered to the listeners directly or within a delta by {@link EventType#ordinal()} */
+    private final long[] deliveries = new long[EventType.values().length];
+
+    /** The number of {@link IrcModelEventListener#handleDelta(IrcModelDelta)} calls */
+    private long deltaDeliveries;
+
+    /** The number of events dispatched directly or within a delta by {@link EventType#ordinal()} */
+    private final long[] dispatches = new long[EventType.values().length];
+
+    /** Subscribed to all events */
+    private List<IrcModelEventListener> globalListeners = Collections.emptyList();
+
+    /** Listeners by target by {@link EventType}, the targets including {@link #ANY_TARGET} */
+    private final Map<EventType, Map<Object, List<IrcModelEventListener>>> typedListeners;
+
+    public IrcModelEventDispatcher() {
+        super();
+        this.typedListeners = new EnumMap<EventType, Map<Object, List<IrcModelEventListener>>>(EventType.class);
+    }
+
+    /**
+     * Calls the listeners subscribed to the given event.
+     *
+     * @param e
+     *            the event to dispatch
+     * @param target
+     *            the object the event is about, such as the channel of a new
+     *            message, or {@code null} if only the listeners not caring
+     *            about the target should get the event
+     * @param errorHandler
+     *            gets the exceptions thrown by the listeners
+     */
+    public void dispatch(IrcModelEvent e, Object target, Consumer<Exception> errorHandler) {
+        EventType type = e.getEventType();
+        dispatches[type.ordinal()]++;
+        List<IrcModelEventListener> listeners = getListeners(type, target);
+        deliveries[type.ordinal()] += listeners.size();
+        for (IrcModelEventListener listener : listeners) {
+            try {
+                listener.handle(e);
+            } catch (Exception e1) {
+                errorHandler.accept(e1);
+            }
+        }
+    }
+
+    /**
+     * Calls {@link IrcModelEventListener#handleDelta(IrcModelDelta)} once on
+     * each {@link IrcModelEventListener#isBatched() batched} listener
+     * subscribed to any of the events of the given {@code delta}, passing only
+     * the events that the listener subscribed to.
+     *
+     * @param delta
+     * @param errorHandler
+     *            gets the exceptions thrown by the listeners
+     */
+    public void dispatch(IrcModelDelta delta, Consumer<Exception> errorHandler) {
+        Map<IrcModelEventListener, IrcModelDelta> deltas = new LinkedHashMap<IrcModelEventListener, IrcModelDelta>();
+        for (IrcModelEvent e : delta.getEvents()) {
+            EventType type = e.getEventType();
+            dispatches[type.ordinal()]++;
+            Object target = delta.getTarget(e);
+            for (IrcModelEventListener listener : getListeners(type, target)) {
+                if (!listener.isBatched()) {
+                    /* got it from dispatchUnbatched() already */
+                    continue;
+                }
+                deliveries[type.ordinal()]++;
+                IrcModelDelta listenerDelta = deltas.get(listener);
+                if (listenerDelta == null) {
+                    listenerDelta = new IrcModelDelta();
+                    deltas.put(listener, listenerDelta);
+                }
+                listenerDelta.add(e, target);
+            }
+        }
+        List<IrcModelEventListener> listeners = new ArrayList<IrcModelEventListener>(deltas.keySet());
+        Collections.sort(listeners, IrcModelEventListener.COMPARATOR);
+        deltaDeliveries += listeners.size();
+        for (IrcModelEventListener listener : listeners) {
+            try {
+                listener.handleDelta(deltas.get(listener));
+            } catch (Exception e1) {
+                errorHandler.accept(e1);
+            }
+        }
+    }
+
+    /**
+     * Calls only those listeners subscribed to the given event that are not
+     * {@link IrcModelEventListener#isBatched()}. Used for the events collected
+     * in a batch, whose other listeners get them later by
+     * {@link #dispatch(IrcModelDelta, Consumer)}. Does not count as a
+     * dispatch, see {@link #getDispatches(EventType)}.
+     *
+     * @param e
+     *            the event to dispatch
+     * @param target
+     *            the object the event is about, see
+     *            {@link #dispatch(IrcModelEvent, Object, Consumer)}
+     * @param errorHandler
+     *            gets the exceptions thrown by the listeners
+     */
+    public void dispatchUnbatched(IrcModelEvent e, Object target, Consumer<Exception> errorHandler) {
+        EventType type = e.getEventType();
+        for (IrcModelEventListener listener : getListeners(type, target)) {
+            if (!listener.isBatched()) {
+                deliveries[type.ordinal()]++;
+                try {
+                    listener.handle(e);
+                } catch (Exception e1) {
+                    errorHandler.accept(e1);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param type
+     * @return the number of times an event of the given {@code type} was
+     *         delivered to a listener so far
+     */
+    public long getDeliveries(EventType type) {
+        return deliveries[type.ordinal()];
+    }
+
+    /**
+     * @return the number of
+     *         {@link IrcModelEventListener#handleDelta(IrcModelDelta)} calls
+     *         so far
+     */
+    public long getDeltaDeliveries() {
+        return deltaDeliveries;
+    }
+
+    /**
+     * @param type
+     * @return the number of events of the given {@code type} dispatched so far
+     */
+    public long getDispatches(EventType type) {
+        return dispatches[type.ordinal()];
+    }
+
+    /**
+     * @param type
+     * @param target
+     * @return the listeners that would get an event of the given {@code type}
+     *         about the given {@code target}, ordered by
+     *         {@link IrcModelEventListener#getOrderingKey()}
+     */
+    public List<IrcModelEventListener> getListeners(EventType type, Object target) {
+        Map<Object, List<IrcModelEventListener>> byTarget = typedListeners.get(type);
+        if (byTarget == null) {
+            return globalListeners;
+        }
+        List<IrcModelEventListener> anyTargetListeners = byTarget.get(ANY_TARGET);
+        List<IrcModelEventListener> targetListeners = target == null ? null : byTarget.get(target);
+        if (anyTargetListeners == null && targetListeners == null) {
+            return globalListeners;
+        } else if (globalListeners.isEmpty() && anyTargetListeners == null) {
+            return targetListeners;
+        } else if (globalListeners.isEmpty() && targetListeners == null) {
+            return anyTargetListeners;
+        }
+
+        /* the rare case of more lists to merge */
+        List<IrcModelEventListener> result = new ArrayList<IrcModelEventListener>(globalListeners);
+        merge(anyTargetListeners, result);
+        merge(targetListeners, result);
+        Collections.sort(result, IrcModelEventListener.COMPARATOR);
+        return result;
+    }
+
+    /**
+     * Subscribes the given {@code listener} to all events.
+     *
+     * @param listener
+     */
+    public void subscribe(IrcModelEventListener listener) {
+        globalListeners = add(globalListeners, listener);
+    }
+
+    /**
+     * Subscribes the given {@code listener} to all events of the given
+     * {@code types}.
+     *
+     * @param listener
+     * @param types
+     */
+    public void subscribe(IrcModelEventListener listener, EventType... types) {
+        subscribe(listener, ANY_TARGET, types);
+    }
+
+    /**
+     * Subscribes the given {@code listener} to the events of the given
+     * {@code types} about the given {@code target}.
+     *
+     * @param listener
+     * @param target
+     *            compared using {@link Object#equals(Object)}
+     * @param types
+     */
+    public void subscribe(IrcModelEventListener listener, Object target, EventType... types) {
+        for (EventType type : types) {
+            Map<Object, List<IrcModelEventListener>> byTarget = typedListeners.get(type);
+            if (byTarget == null) {
+                byTarget = new HashMap<Object, List<IrcModelEventListener>>();
+                typedListeners.put(type, byTarget);
+            }
+            byTarget.put(target, add(byTarget.get(target), listener));
+        }
+    }
+
+    /**
+     * Cancels all subscriptions of the given {@code listener}.
+     *
+     * @param listener
+     */
+    public void unsubscribe(IrcModelEventListener listener) {
+        globalListeners = remove(globalListeners, listener);
+        for (Map<Object, List<IrcModelEventListener>> byTarget : typedListeners.values()) {
+            for (Iterator<Map.Entry<Object, List<IrcModelEventListener>>> it = byTarget.entrySet().iterator(); it
+                    .hasNext();) {
+                Map.Entry<Object, List<IrcModelEventListener>> entry = it.next();
+                List<IrcModelEventListener> listeners = remove(entry.getValue(), listener);
+                if (listeners.isEmpty()) {
+                    it.remove();
+                } else {
+                    entry.setValue(listeners);
+                }
+            }
+        }
+    }
+
+}
@@ -26,4 +26,29 @@ public interface IrcModelEventListener {
     }
 
     void handle(IrcModelEvent e);
+
+    /**
+     * Called with the events of a batch that this listener subscribed to.
+     * The default implementation passes them one by one to
+     * {@link #handle(IrcModelEvent)}. Override to apply the whole
+     * {@code delta} at once, e.g. in a single viewer refresh.
+     *
+     * @param delta
+     */
+    default void handleDelta(IrcModelDelta delta) {
+        for (IrcModelEvent e : delta.getEvents()) {
+            handle(e);
+        }
+    }
+
+    /**
+     * @return {@code true} if this listener can get the events fired during a
+     *         batch later, via {@link #handleDelta(IrcModelDelta)}, or
+     *         {@code false} if it must get each event right when it is fired,
+     *         e.g. because it writes to the channel logs, where the lines
+     *         must follow the order of their events
+     */
+    default boolean isBatched() {
+        return true;
+    }
 }
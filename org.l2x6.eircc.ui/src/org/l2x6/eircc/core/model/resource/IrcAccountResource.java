@@ -27,8 +27,11 @@ import org.l2x6.eircc.core.util.IrcUtils;
  * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
  */
 public class IrcAccountResource {
+    public static final String CHANNEL_LIST_FILE_SUFFIX = "-channel-list.txt";
     public static final String CHANNELS_FOLDER_SUFFIX = "-channels";
     public static final String FILE_EXTENSION = ".account.properties";
+    public static final String STORE_FILE_SUFFIX = "-store.txt";
+    public static final String STORE_JOURNAL_FILE_SUFFIX = "-store-journal.txt";
     /**  */
     public static final String USERS_FOLDER_SUFFIX = "-users";
 
@@ -83,12 +86,15 @@ public class IrcAccountResource {
 
     private final String accountName;
     private final IFile accountPropertyFile;
+    private final IFile channelListFile;
 
     private final Map<String, IrcChannelResource> channelResources;
 
     private final IFolder channelsFolder;
 
     private final IrcRootResource rootResource;
+    private final IFile storeFile;
+    private final IFile storeJournalFile;
     private final IFolder usersFolder;
 
     /**
@@ -106,6 +112,9 @@ public class IrcAccountResource {
         IContainer parent = channelsFolder.getParent();
         this.usersFolder = parent.getFolder(new Path(accountName + IrcAccountResource.USERS_FOLDER_SUFFIX));
         this.accountPropertyFile = parent.getFile(new Path(accountName + FILE_EXTENSION));
+        this.channelListFile = parent.getFile(new Path(accountName + CHANNEL_LIST_FILE_SUFFIX));
+        this.storeFile = parent.getFile(new Path(accountName + STORE_FILE_SUFFIX));
+        this.storeJournalFile = parent.getFile(new Path(accountName + STORE_JOURNAL_FILE_SUFFIX));
         this.channelResources = collectChannelResources();
     }
 
@@ -144,6 +153,13 @@ public class IrcAccountResource {
         return accountPropertyFile;
     }
 
+    /**
+     * @return the file where the result of the last {@code LIST} is cached
+     */
+    public IFile getChannelListFile() {
+        return channelListFile;
+    }
+
     /**
      * @param logsFolder
      * @throws IrcResourceException
@@ -194,6 +210,22 @@ public class IrcAccountResource {
         return rootResource;
     }
 
+    /**
+     * @return the snapshot of the users and channels of the account, see
+     *         {@link org.l2x6.eircc.core.model.IrcJournalStore}
+     */
+    public IFile getStoreFile() {
+        return storeFile;
+    }
+
+    /**
+     * @return the journal of the changes of the users and channels of the
+     *         account since {@link #getStoreFile()} was written
+     */
+    public IFile getStoreJournalFile() {
+        return storeJournalFile;
+    }
+
     public IFolder getUsersFolder() {
         return usersFolder;
     }
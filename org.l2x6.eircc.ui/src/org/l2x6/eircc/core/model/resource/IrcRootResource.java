@@ -59,7 +59,8 @@ public class IrcRootResource {
      * @return
      * @throws IrcResourceException
      */
-    public IrcAccountResource getAccountResource(IFolder accountChannelsFolder) throws IrcResourceException {
+    public synchronized IrcAccountResource getAccountResource(IFolder accountChannelsFolder)
+            throws IrcResourceException {
         String accountName = IrcAccountResource.getAccountName(accountChannelsFolder);
         IrcAccountResource result = getAccountResource(accountName);
         if (result == null) {
@@ -75,7 +76,7 @@ public class IrcRootResource {
         return result;
     }
 
-    public IrcAccountResource getAccountResource(String accountName) {
+    public synchronized IrcAccountResource getAccountResource(String accountName) {
         return accountResources.get(accountName);
     }
 
@@ -101,7 +102,7 @@ public class IrcRootResource {
      * @return
      * @throws IrcResourceException
      */
-    public IrcAccountResource getOrCreateAccountResource(String label) throws IrcResourceException {
+    public synchronized IrcAccountResource getOrCreateAccountResource(String label) throws IrcResourceException {
         IrcAccountResource result = getAccountResource(label);
         if (result == null) {
             result = new IrcAccountResource(this, IrcAccountResource.getChannelsFolder(project, label));
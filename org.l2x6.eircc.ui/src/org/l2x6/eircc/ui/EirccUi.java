@@ -9,8 +9,13 @@ package org.l2x6.eircc.ui;
 
 import java.io.IOException;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IWorkspace;
@@ -20,6 +25,7 @@ import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.IEditorPart;
@@ -33,14 +39,18 @@ import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.eclipse.ui.texteditor.IDocumentProvider;
 import org.l2x6.eircc.core.IrcController;
 import org.l2x6.eircc.core.IrcException;
+import org.l2x6.eircc.core.IrcWriteBehindSaver;
+import org.l2x6.eircc.core.client.IrcReconnectBackoff;
 import org.l2x6.eircc.core.model.AbstractIrcChannel;
 import org.l2x6.eircc.core.model.IrcAccount;
 import org.l2x6.eircc.core.model.IrcAccount.IrcAccountState;
 import org.l2x6.eircc.core.model.IrcLog;
 import org.l2x6.eircc.core.model.IrcMessage;
 import org.l2x6.eircc.core.model.IrcModel;
+import org.l2x6.eircc.core.model.IrcServer;
 import org.l2x6.eircc.core.model.IrcUser;
 import org.l2x6.eircc.core.model.event.IrcModelEvent;
+import org.l2x6.eircc.core.model.event.IrcModelEvent.EventType;
 import org.l2x6.eircc.core.model.event.IrcModelEventListener;
 import org.l2x6.eircc.core.model.resource.IrcChannelResource;
 import org.l2x6.eircc.core.model.resource.IrcLogResource;
@@ -53,7 +63,7 @@ import org.l2x6.eircc.ui.misc.IrcImages;
 import org.l2x6.eircc.ui.notify.IrcNotificationController;
 import org.l2x6.eircc.ui.notify.IrcSystemMessagesGenerator;
 import org.l2x6.eircc.ui.prefs.IrcPreferences;
-import org.l2x6.eircc.ui.views.IrcConsole;
+import org.l2x6.eircc.ui.views.IrcAsyncTrafficLoggerFactory;
 import org.l2x6.eircc.ui.views.IrcLabelProvider;
 import org.osgi.framework.BundleContext;
 
@@ -72,6 +82,9 @@ public class EirccUi extends AbstractUIPlugin implements IrcModelEventListener {
 
     public static final String PROJECT_NAME = "IRC";
 
+    /** The subdirectory of the state location where the protocol traffic is logged */
+    private static final String TRAFFIC_DIR = "traffic";
+
     public static IrcController getController() {
         return INSTANCE;
     }
@@ -108,6 +121,11 @@ public class EirccUi extends AbstractUIPlugin implements IrcModelEventListener {
         getDefault().getLog().log(status);
     }
 
+    public static void info(String s) {
+        IStatus status = new Status(IStatus.INFO, PLUGIN_ID, s);
+        getDefault().getLog().log(status);
+    }
+
     public static void warn(String s) {
         IStatus status = new Status(IStatus.WARNING, PLUGIN_ID, s);
         getDefault().getLog().log(status);
@@ -118,6 +136,33 @@ public class EirccUi extends AbstractUIPlugin implements IrcModelEventListener {
 
     private IrcModel model;
 
+    private IrcAsyncTrafficLoggerFactory trafficLoggerFactory;
+
+    /** Saves accounts, channels and users off the UI thread */
+    private IrcWriteBehindSaver saver;
+
+    /**
+     * Evicts the users not seen for a while from memory and saves the changed
+     * ones, see {@link IrcServer#evictIdleUsers(long, long, java.util.function.Consumer)}.
+     * The users are saved through {@link #saver} so that their records are
+     * written in the order they were taken. Reschedules itself.
+     */
+    private final Runnable userEviction = new Runnable() {
+        @Override
+        public void run() {
+            IrcPreferences prefs = IrcPreferences.getInstance();
+            long now = System.nanoTime();
+            long maxIdleNanos = prefs.getUserIdleTimeout().toNanos();
+            for (IrcAccount account : model.getAccounts()) {
+                IrcServer server = account.getServer();
+                server.evictIdleUsers(now, maxIdleNanos, saver::save);
+                server.saveDirtyUsers(saver::save);
+            }
+            Display.getDefault().timerExec(
+                    (int) Math.min(prefs.getUserEvictionInterval().toMillis(), Integer.MAX_VALUE), this);
+        }
+    };
+
     private IWorkbenchListener workbenchListener = new IWorkbenchListener() {
 
         @Override
@@ -164,24 +209,14 @@ public class EirccUi extends AbstractUIPlugin implements IrcModelEventListener {
     public void handle(IrcModelEvent e) {
         switch (e.getEventType()) {
         case ACCOUNT_ADDED:
-            try {
-                ((IrcAccount) e.getModelObject()).save(new NullProgressMonitor());
-            } catch (Exception e1) {
-                log(e1);
-            }
+            saver.save((IrcAccount) e.getModelObject());
             break;
         case ACCOUNT_STATE_CHANGED:
             /* autojoin accounts after the account went online */
             try {
                 IrcAccount account = (IrcAccount) e.getModelObject();
                 if (account.getState() == IrcAccountState.ONLINE) {
-                    IrcController controller = EirccUi.getController();
-                    for (AbstractIrcChannel ch : account.getChannels()) {
-                        if (ch.isAutoJoin() && !ch.isJoined()) {
-                            System.out.println("About to join "+ ch.getName());
-                            controller.joinChannel(ch);
-                        }
-                    }
+                    EirccUi.getController().autoJoin(account);
                 }
             } catch (Exception e1) {
                 log(e1);
@@ -200,28 +235,35 @@ public class EirccUi extends AbstractUIPlugin implements IrcModelEventListener {
             }
             break;
         case ACCOUNT_CHANNEL_ADDED:
+            AbstractIrcChannel channel = (AbstractIrcChannel) e.getModelObject();
+            if (channel.isKept()) {
+                saver.save(channel);
+            }
+            break;
+        case NICK_CHANGED:
+        case USER_ADDED:
+            saver.save((IrcUser) e.getModelObject());
+            break;
+        case MESSAGE_REPLACED:
+        case NEW_MESSAGE:
             try {
-                AbstractIrcChannel channel = (AbstractIrcChannel) e.getModelObject();
-                if (channel.isKept()) {
-                    channel.save(new NullProgressMonitor());
-                }
+                IrcMessage m = (IrcMessage) e.getModelObject();
+                m.getLog().ensureAllSaved(new NullProgressMonitor());
             } catch (Exception e1) {
                 log(e1);
             }
             break;
-        case USER_ADDED:
+        case SERVER_CHANNELS_LISTED:
             try {
-                IrcUser user = (IrcUser) e.getModelObject();
-                user.save(new NullProgressMonitor());
+                ((IrcServer) e.getModelObject()).saveChannelList(new NullProgressMonitor());
             } catch (Exception e1) {
                 log(e1);
             }
             break;
-        case MESSAGE_REPLACED:
-        case NEW_MESSAGE:
+        case NEW_MESSAGES:
             try {
-                IrcMessage m = (IrcMessage) e.getModelObject();
-                m.getLog().ensureAllSaved(new NullProgressMonitor());
+                IrcMessage[] messages = (IrcMessage[]) e.getModelObject();
+                messages[0].getLog().ensureAllSaved(new NullProgressMonitor());
             } catch (Exception e1) {
                 log(e1);
             }
@@ -327,30 +369,67 @@ public class EirccUi extends AbstractUIPlugin implements IrcModelEventListener {
     public void start(BundleContext context) throws Exception {
         super.start(context);
         plugin = this;
+        long start = System.nanoTime();
 
         IProject ircProject = getIrcProject();
 
-        this.model = new IrcModel(IrcConsole.getInstance(), IrcPreferences.getInstance());
-        model.addModelEventListener(this);
+        IrcPreferences prefs = IrcPreferences.getInstance();
+        this.trafficLoggerFactory = new IrcAsyncTrafficLoggerFactory(getStateLocation().append(TRAFFIC_DIR)
+                .toFile().toPath(), prefs.getTrafficLogBufferCapacity(), prefs.getTrafficLogMaxFileBytes(),
+                prefs.getTrafficLogMaxBackups(), prefs.getTrafficConsoleLinesPerSecond());
+        this.saver = new IrcWriteBehindSaver(prefs.getSaveMaxDelay());
+        this.model = new IrcModel(trafficLoggerFactory, prefs);
+        model.addModelEventListener(this, EventType.ACCOUNT_ADDED, EventType.ACCOUNT_CHANNEL_ADDED,
+                EventType.ACCOUNT_STATE_CHANGED, EventType.CHANNEL_JOINED_CHANGED, EventType.MESSAGE_REPLACED,
+                EventType.NEW_MESSAGE, EventType.NEW_MESSAGES, EventType.NICK_CHANGED, EventType.SERVER_CHANNELS_LISTED,
+                EventType.USER_ADDED);
         IrcRootResource rootResource = new IrcRootResource(ircProject, IrcDocumentProvider.getInstance());
+        long resourcesLoaded = System.nanoTime();
         model.load(rootResource);
+        long modelLoaded = System.nanoTime();
         IrcController controller = EirccUi.getController();
-        for (IrcAccount account : model.getAccounts()) {
-            if (account.isAutoConnect()) {
+        controller.getDccManager().setDownloadDirectory(prefs.getDccDownloadDirectory());
+        controller.setAutoJoinSpacing(prefs.getAutoJoinSpacing());
+        controller.setEventPumpInterval(prefs.getEventPumpInterval());
+        controller.setEventPumpBatchSize(prefs.getEventPumpBatchSize());
+        controller.setFloodControlBurstBytes(prefs.getFloodControlBurstBytes());
+        controller.setFloodControlBytesPerSecond(prefs.getFloodControlBytesPerSecond());
+        controller.setMaxConcurrentConnects(prefs.getMaxConcurrentConnects());
+        controller.setNioEnabled(prefs.isNioEnabled());
+        controller.setPingInterval(prefs.getPingInterval());
+        controller.setWhoMaxInFlight(prefs.getWhoMaxInFlight());
+        controller.setWhoPriority(new ToIntFunction<AbstractIrcChannel>() {
+            @Override
+            public int applyAsInt(AbstractIrcChannel channel) {
+                /* the channel being read first, then the ones with an open editor, then the rest */
                 try {
-                    System.out.println("About to connect "+ account.getName());
-                    controller.connect(account);
-                } catch (Exception e) {
-                    EirccUi.log(e);
+                    IrcEditor editor = findOpenEditor(channel);
+                    return editor == null ? 2 : editor.isBeingRead() ? 0 : 1;
+                } catch (IrcResourceException e) {
+                    log(e);
+                    return 2;
                 }
             }
+        });
+        controller.setReconnectEnabled(prefs.isReconnectEnabled());
+        controller.setReconnectBackoff(new IrcReconnectBackoff(prefs.getReconnectInitialDelay(), prefs
+                .getReconnectMaxDelay(), prefs.getReconnectMinSpacing(), new Random()));
+        List<IrcAccount> autoConnectAccounts = new ArrayList<IrcAccount>();
+        for (IrcAccount account : model.getAccounts()) {
+            if (account.isAutoConnect()) {
+                autoConnectAccounts.add(account);
+            }
         }
+        controller.connectAll(autoConnectAccounts);
+        Display.getDefault().timerExec(
+                (int) Math.min(prefs.getUserEvictionInterval().toMillis(), Integer.MAX_VALUE), userEviction);
         /* Touch IrcTray to create it */
         this.notificationController = new IrcNotificationController(model);
 
         IrcSystemMessagesGenerator.getInstance();
 
         PlatformUI.getWorkbench().addWorkbenchListener(workbenchListener);
+        logStartupTimes(start, resourcesLoaded, modelLoaded, System.nanoTime());
     }
 
     /**
@@ -387,6 +466,13 @@ public class EirccUi extends AbstractUIPlugin implements IrcModelEventListener {
         } catch (Exception e) {
             log(e);
         }
+        try {
+            if (this.trafficLoggerFactory != null) {
+                trafficLoggerFactory.dispose();
+            }
+        } catch (Exception e) {
+            log(e);
+        }
         plugin = null;
         super.stop(context);
 
@@ -428,15 +514,31 @@ public class EirccUi extends AbstractUIPlugin implements IrcModelEventListener {
      */
     private void saveAll() throws IrcException {
 
+        try {
+            saver.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log(e);
+        }
         for (IrcAccount account : model.getAccounts()) {
             for (AbstractIrcChannel channel : account.getChannels()) {
-                if (channel.isJoined()) {
-                    IrcLog log = channel.getLog();
-                    if (log != null) {
-                        log.ensureAllSaved(new NullProgressMonitor());
-                    }
+                IrcLog log = null;
+                if (channel.hasPendingSystemMessages()) {
+                    /* reading the log appends the pending messages so that they get saved too */
+                    log = channel.getLog();
+                } else if (channel.isJoined()) {
+                    log = channel.getLogIfLoaded();
+                }
+                if (log != null) {
+                    log.ensureAllSaved(new NullProgressMonitor());
                 }
             }
+            try {
+                account.getServer().saveDirtyUsers(new NullProgressMonitor());
+                account.getJournalStore().close();
+            } catch (CoreException | IOException e) {
+                log(e);
+            }
         }
 
     }
@@ -445,6 +547,30 @@ public class EirccUi extends AbstractUIPlugin implements IrcModelEventListener {
         return model;
     }
 
+    /**
+     * Logs how long the phases of {@link #start(BundleContext)} took. The
+     * channel logs are not included because they are read lazily, see
+     * {@link AbstractIrcChannel#getLog()}.
+     */
+    private void logStartupTimes(long start, long resourcesLoaded, long modelLoaded, long end) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Started in ").append(TimeUnit.NANOSECONDS.toMillis(end - start)).append(" ms: resources ");
+        sb.append(TimeUnit.NANOSECONDS.toMillis(resourcesLoaded - start)).append(" ms, accounts ");
+        sb.append(TimeUnit.NANOSECONDS.toMillis(modelLoaded - resourcesLoaded)).append(" ms (");
+        IrcAccount[] accounts = model.getAccounts();
+        for (int i = 0; i < accounts.length; i++) {
+            IrcAccount account = accounts[i];
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(account.getLabel()).append(' ').append(account.getLoadTime().toMillis()).append(" ms for ");
+            sb.append(account.getChannels().length).append(" channels");
+        }
+        sb.append(" in parallel), controller and UI ").append(TimeUnit.NANOSECONDS.toMillis(end - modelLoaded));
+        sb.append(" ms");
+        info(sb.toString());
+    }
+
     /**
      * @throws IOException
      * @throws CoreException
@@ -459,18 +585,7 @@ public class EirccUi extends AbstractUIPlugin implements IrcModelEventListener {
         }
         shell.forceActive();
 
-        IrcMessage hottestMessage = null;
-        for (IrcAccount account : model.getAccounts()) {
-            for (AbstractIrcChannel channel : account.getChannels()) {
-                IrcLog log = channel.getLog();
-                if (log != null) {
-                    IrcMessage m = log.getHottestMessage();
-                    if (m != null && (hottestMessage == null || hottestMessage.getNotificationLevel().getLevel() < m.getNotificationLevel().getLevel())) {
-                        hottestMessage = m;
-                    }
-                }
-            }
-        }
+        IrcMessage hottestMessage = model.getHottestMessage();
         if (hottestMessage != null) {
             AbstractIrcChannel ch = hottestMessage.getLog().getChannel();
             IrcEditor editor = openEditor(ch, true);
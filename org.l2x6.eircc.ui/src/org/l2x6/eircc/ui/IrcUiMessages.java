@@ -25,6 +25,14 @@ public class IrcUiMessages extends NLS {
     public static String Account_Host;
 
     public static String Account_Label;
+    public static String Account_Lag_unknown;
+    public static String Account_Lag_x_ms;
+    public static String Account_Latency_Connect_to_Registered;
+    public static String Account_Latency_Connect_Wait;
+    public static String Account_Latency_Log_to_Editor;
+    public static String Account_Latency_Ping_Round_Trip;
+    public static String Account_Latency_Read_to_Log;
+    public static String Account_Latency_x_y_samples;
 
     public static String Account_Name;
     public static String Account_Nick;
@@ -35,6 +43,7 @@ public class IrcUiMessages extends NLS {
     public static String Account_SOCKS_Proxy_Port;
     public static String Account_Use_SSL;
     public static String Account_Username;
+    public static String Account_x_with_y_queued_commands;
     public static String AccountPage_title;
     public static String AddIrcAccountAction_label;
     private static final String BUNDLE_FOR_CONSTRUCTED_KEYS = "org.eclipse.ui.texteditor.ConstructedEditorMessages";//$NON-NLS-1$
@@ -47,6 +56,21 @@ public class IrcUiMessages extends NLS {
     public static String ConnectIrcChannelAction_label;
 
     public static String Console_Account_Log;
+    public static String Console_linesDropped;
+    public static String Console_linesNotShown;
+
+    public static String Dcc_Account_x_not_connected;
+    public static String Dcc_No_offer_from_x;
+    public static String Dcc_Offering_x_y_bytes_to_z;
+    public static String Dcc_Received_x_from_y_into_z;
+    public static String Dcc_Receiving_x_from_y;
+    public static String Dcc_Resuming_x_at_y;
+    public static String Dcc_Sending_x_to_y;
+    public static String Dcc_Sent_x_to_y;
+    public static String Dcc_Transfer_of_x_cancelled;
+    public static String Dcc_Transfer_of_x_failed_y;
+    public static String Dcc_Usage;
+    public static String Dcc_x_offers_y_z_bytes;
 
     public static String DisconnectIrcChannelAction_label;
     public static String Eclipse_IRC_Client;
@@ -80,14 +104,18 @@ public class IrcUiMessages extends NLS {
     public static String FileSearchQuery_singularLabel_fileNameSearch;
     public static String FileSearchQuery_singularPatternWithFileExt;
     public static String FileSearchQuery_time;
+    public static String IrcAccountsView_serverChannelsLabel_listed;
+    public static String IrcAccountsView_serverChannelsLabel_listing;
     public static String IrcAccountsView_serverChannelsLabel_text;
     public static String IrcChannelOutlinePage_watchThisUser;
     public static String IrcChannelOutlinePage_watchThisChannel;
 
     public static String IrcChannelOutlinePage_Open_Private_Chat;
     public static String IrcChannelsSelector_delimiter;
+    public static String IrcClient_channelLimitReached;
     public static String IrcClient_commandExecutionException;
     public static String IrcClient_commandTimeOut;
+    public static String IrcClient_connectionLost;
     public static String IrcEditor_File_x_does_not_exist;
     public static String IrcNotificationsPreferencePage_addNickPatternText;
 
@@ -95,6 +123,7 @@ public class IrcUiMessages extends NLS {
     public static String IrcNotificationsPreferencePage_cannotBeEmpty;
     public static String IrcNotificationsPreferencePage_invalidPattern;
     public static String IrcNotificationsPreferencePage_senderBasedNotification;
+    public static String IrcPreferencePage_nioEnabled;
 
     public static String IrcSearchPage_anyTime;
     public static String IrcSearchPage_caseSensitive;
@@ -139,6 +168,8 @@ public class IrcUiMessages extends NLS {
 
     public static String ListChannelsAction_label;
 
+    public static String Message_Netjoin_x_y_users;
+    public static String Message_Netsplit_x_y_users;
     public static String Message_Still_nick;
     public static String Message_x_is_known_as_y;
     public static String Message_x_joined;
@@ -156,6 +187,7 @@ public class IrcUiMessages extends NLS {
     public static String TextSearchVisitor_progress_updating_job;
     public static String TextSearchVisitor_scanning;
     public static String TextSearchVisitor_textsearch_task_label;
+    public static String WriteBehindSaver_job;
     public static String IrcNotificationsPreferencePage_watchedChannels;
     static {
         NLS.initializeMessages(BUNDLE_NAME, IrcUiMessages.class);
@@ -23,7 +23,9 @@ import org.eclipse.swt.widgets.Tree;
 import org.eclipse.ui.views.contentoutline.ContentOutlinePage;
 import org.l2x6.eircc.core.model.AbstractIrcChannel;
 import org.l2x6.eircc.core.model.IrcChannelUser;
+import org.l2x6.eircc.core.model.IrcModel;
 import org.l2x6.eircc.core.model.event.IrcModelEvent;
+import org.l2x6.eircc.core.model.event.IrcModelEvent.EventType;
 import org.l2x6.eircc.core.model.event.IrcModelEventListener;
 import org.l2x6.eircc.ui.EirccUi;
 import org.l2x6.eircc.ui.actions.IrcTreeActions;
@@ -153,7 +155,13 @@ public class IrcChannelOutlinePage extends ContentOutlinePage implements IDouble
         viewer.addSelectionChangedListener(this);
         viewer.addDoubleClickListener(this);
         updateInput();
-        EirccUi.getDefault().getModel().addModelEventListener(this);
+        IrcModel model = EirccUi.getDefault().getModel();
+        model.addModelEventListener(this, EventType.NICK_CHANGED);
+        AbstractIrcChannel channel = editor.getChannel();
+        if (channel != null) {
+            model.addModelEventListener(this, channel, EventType.CHANNEL_USERS_CHANGED, EventType.CHANNEL_USER_JOINED,
+                    EventType.CHANNEL_USER_LEFT);
+        }
 
         Tree tree = viewer.getTree();
         openPrivateChatAction = IrcTreeActions.createOpenPrivateChatAction(tree);
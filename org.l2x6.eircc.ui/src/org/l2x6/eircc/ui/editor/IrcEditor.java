@@ -48,6 +48,7 @@ import org.l2x6.eircc.core.model.IrcMessage;
 import org.l2x6.eircc.core.model.IrcModel;
 import org.l2x6.eircc.core.model.PlainIrcMessage;
 import org.l2x6.eircc.core.model.event.IrcModelEvent;
+import org.l2x6.eircc.core.model.event.IrcModelEvent.EventType;
 import org.l2x6.eircc.core.model.event.IrcModelEventListener;
 import org.l2x6.eircc.core.model.resource.IrcAccountResource;
 import org.l2x6.eircc.core.model.resource.IrcChannelResource;
@@ -93,6 +94,10 @@ public class IrcEditor extends AbstractIrcEditor implements IrcModelEventListene
         }
     }
 
+    /** The events handled by {@link #handle(IrcModelEvent)}, all of them about {@link #channel} */
+    private static final EventType[] CHANNEL_EVENT_TYPES = { EventType.CHANNEL_JOINED_CHANGED,
+            EventType.LOG_STATE_CHANGED, EventType.MESSAGE_REPLACED, EventType.NEW_MESSAGE, EventType.NEW_MESSAGES };
+
     private static final String HISTORY_VIEWER_KEY = "org.l2x6.eircc.ui.editor.IrcEditor.historyViewer";
 
     public static final String ID = "org.l2x6.eircc.ui.editor.IrcEditor";
@@ -405,6 +410,22 @@ public class IrcEditor extends AbstractIrcEditor implements IrcModelEventListene
                         logViewer.scrollToBottom();
                     }
                     updateReadMessages();
+                    recordRenderLatency(e);
+                }
+                break;
+            case NEW_MESSAGES:
+                IrcMessage[] messages = (IrcMessage[]) e.getModelObject();
+                if (messages[0].getLog().getChannel() == getChannel()) {
+                    boolean autoScroll = logViewer.isAtBottom();
+                    TextViewerWrapper target = new TextViewerWrapper(logViewer);
+                    for (IrcMessage message : messages) {
+                        appendMessage(target, message);
+                    }
+                    if (autoScroll) {
+                        logViewer.scrollToBottom();
+                    }
+                    updateReadMessages();
+                    recordRenderLatency(e);
                 }
                 break;
             case MESSAGE_REPLACED:
@@ -439,6 +460,18 @@ public class IrcEditor extends AbstractIrcEditor implements IrcModelEventListene
         }
     }
 
+    /**
+     * Records the time since the given {@code NEW_MESSAGE} or
+     * {@code NEW_MESSAGES} event was fired in the latency stats of the
+     * account of this editor's channel.
+     *
+     * @param e
+     */
+    private void recordRenderLatency(IrcModelEvent e) {
+        getChannel().getAccount().getLatencyStats().getLogToRenderHistogram()
+                .record(System.nanoTime() - e.getCreatedNanos());
+    }
+
     @Override
     public void init(IEditorSite site, IEditorInput input) throws PartInitException {
         if (input instanceof IFileEditorInput) {
@@ -461,7 +494,7 @@ public class IrcEditor extends AbstractIrcEditor implements IrcModelEventListene
                     site.getPage().removePartListener(readMessagesUpdater);
                 } else {
                     updateReadMessages();
-                    EirccUi.getDefault().getModel().addModelEventListener(this);
+                    EirccUi.getDefault().getModel().addModelEventListener(this, channel, CHANNEL_EVENT_TYPES);
                     site.getPage().addPartListener(readMessagesUpdater);
                 }
 
@@ -509,7 +509,7 @@ public class IrcImages {
         ImageKey bottomLeftOverlay = null;
         ImageKey bottomRightOverlay = null;
         ImageKey underlay = null;
-        IrcLog log = channel.getLog();
+        IrcLog log = channel.getLogIfLoaded();
         if (log != null) {
             switch (log.getNotificationLevel()) {
             case ME_NAMED:
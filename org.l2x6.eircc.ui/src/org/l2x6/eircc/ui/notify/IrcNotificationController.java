@@ -18,6 +18,7 @@ import org.l2x6.eircc.core.model.AbstractIrcChannel;
 import org.l2x6.eircc.core.model.IrcLog;
 import org.l2x6.eircc.core.model.IrcModel;
 import org.l2x6.eircc.core.model.event.IrcModelEvent;
+import org.l2x6.eircc.core.model.event.IrcModelEvent.EventType;
 import org.l2x6.eircc.core.model.event.IrcModelEventListener;
 import org.l2x6.eircc.ui.EirccUi;
 import org.l2x6.eircc.ui.editor.IrcEditor;
@@ -94,7 +95,9 @@ public class IrcNotificationController implements IrcModelEventListener {
         this.model = model;
         this.soundNotifier = new IrcSoundNotifier();
         this.tray = new IrcTray();
-        this.model.addModelEventListener(this);
+        /* the events handled by soundNotifier and tray */
+        this.model.addModelEventListener(this, EventType.ACCOUNT_STATE_CHANGED, EventType.LOG_STATE_CHANGED,
+                EventType.NEW_MESSAGE, EventType.NICK_TIMEOUT);
         PlatformUI.getWorkbench().addWindowListener(notificationsCleaner);
     }
 
@@ -114,7 +117,7 @@ public class IrcNotificationController implements IrcModelEventListener {
             switch (e.getEventType()) {
             case ACCOUNT_STATE_CHANGED:
             case LOG_STATE_CHANGED:
-                tray.update();
+                tray.scheduleUpdate();
                 break;
             default:
                 break;
@@ -12,8 +12,9 @@ import java.text.MessageFormat;
 
 import org.l2x6.eircc.core.model.AbstractIrcChannel;
 import org.l2x6.eircc.core.model.IrcChannelUser;
-import org.l2x6.eircc.core.model.IrcLog;
+import org.l2x6.eircc.core.model.IrcModel;
 import org.l2x6.eircc.core.model.event.IrcModelEvent;
+import org.l2x6.eircc.core.model.event.IrcModelEvent.EventType;
 import org.l2x6.eircc.core.model.event.IrcModelEventListener;
 import org.l2x6.eircc.ui.EirccUi;
 import org.l2x6.eircc.ui.IrcUiMessages;
@@ -28,61 +29,66 @@ public class IrcSystemMessagesGenerator implements IrcModelEventListener {
         return INSTANCE;
     }
 
+    private final IrcModel model;
+
     /**
      *
      */
     public IrcSystemMessagesGenerator() {
+        this(EirccUi.getDefault().getModel());
+    }
+
+    /**
+     * @param model
+     *            the model whose channels should get the system messages
+     */
+    public IrcSystemMessagesGenerator(IrcModel model) {
         super();
-        EirccUi.getDefault().getModel().addModelEventListener(this);
+        this.model = model;
+        model.addModelEventListener(this, EventType.CHANNEL_JOINED_CHANGED, EventType.CHANNEL_USER_JOINED,
+                EventType.CHANNEL_USER_LEFT);
     }
 
     /**
-     *
+     * Uses {@link AbstractIrcChannel#appendSystemMessage(String)} so that the
+     * logs of the channels joined on connect are not read just for this
+     * message.
      */
     private void channelJoinedChanged(AbstractIrcChannel channel) {
-        IrcLog log = channel.getLog();
-        if (log != null) {
-            String text;
-            if (!channel.isJoined()) {
-                text = IrcUiMessages.Message_You_left;
-            } else {
-                text = MessageFormat.format(IrcUiMessages.Message_You_joined_as_nick, channel.getAccount().getMe()
-                        .getNick());
-            }
-            log.appendSystemMessage(text);
+        String text;
+        if (!channel.isJoined()) {
+            text = IrcUiMessages.Message_You_left;
+        } else {
+            text = MessageFormat.format(IrcUiMessages.Message_You_joined_as_nick, channel.getAccount().getMe()
+                    .getNick());
         }
+        channel.appendSystemMessage(text);
     }
 
     /**
      * @param modelObject
      */
     private void channelUserJoined(IrcChannelUser user) {
-        IrcLog log = user.getChannel().getLog();
-        if (log != null) {
-            String text = MessageFormat.format(IrcUiMessages.Message_x_joined, user.getUser().getNick());
-            log.appendSystemMessage(text);
-        }
+        String text = MessageFormat.format(IrcUiMessages.Message_x_joined, user.getUser().getNick());
+        user.getChannel().appendSystemMessage(text);
     }
 
     /**
      * @param modelObject
      */
     private void channelUserLeft(IrcChannelUser user) {
-        IrcLog log = user.getChannel().getLog();
-        if (log != null) {
-            String msg = user.getLeftWithMessage();
-            String text;
-            if (msg != null && msg.length() > 0) {
-                text = MessageFormat.format(IrcUiMessages.Message_x_left_with_message, user.getUser().getNick(), msg);
-            } else {
-                text = MessageFormat.format(IrcUiMessages.Message_x_left, user.getUser().getNick());
-            }
-            log.appendSystemMessage(text);
+        String msg = user.getLeftWithMessage();
+        String text;
+        if (msg != null && msg.length() > 0) {
+            text = MessageFormat.format(IrcUiMessages.Message_x_left_with_message, user.getUser().getNick(), msg);
+        } else {
+            text = MessageFormat.format(IrcUiMessages.Message_x_left, user.getUser().getNick());
         }
+        user.getChannel().appendSystemMessage(text);
     }
 
     public void dispose() {
-        EirccUi.getDefault().getModel().removeModelEventListener(this);
+        model.removeModelEventListener(this);
     }
 
     /**
@@ -107,5 +113,17 @@ public class IrcSystemMessagesGenerator implements IrcModelEventListener {
 
     }
 
+    /**
+     * The system messages must get to the log before the chat messages that
+     * arrived after the join or leave, and those are appended right away,
+     * even during a batch.
+     *
+     * @see org.l2x6.eircc.core.model.event.IrcModelEventListener#isBatched()
+     */
+    @Override
+    public boolean isBatched() {
+        return false;
+    }
+
 
 }
@@ -61,12 +61,29 @@ public class IrcTray {
 
     }
 
+    /** The minimal time between two redraws, see {@link #scheduleUpdate()} */
+    public static final int MIN_UPDATE_INTERVAL = 250;
+
     private Flasher flasher;
 
     private int flashingInterval = 500;
+
+    /** The statistics shown currently. Accessed only from the UI thread. */
+    private IrcAccountsStatistics shownStats;
     private Tray tray;
     private TrayItem trayItem;
 
+    /** {@code true} if {@link #updater} is waiting for its timer. Accessed only from the UI thread. */
+    private boolean updateScheduled = false;
+
+    private final Runnable updater = new Runnable() {
+        @Override
+        public void run() {
+            updateScheduled = false;
+            update();
+        }
+    };
+
     /**
      *
      */
@@ -92,15 +109,37 @@ public class IrcTray {
 
     public void dispose() {
         flasher = null;
+        shownStats = null;
         trayItem.dispose();
         trayItem = null;
         tray = null;
     }
 
+    /**
+     * Calls {@link #update()} at most once per {@link #MIN_UPDATE_INTERVAL} so
+     * that the icon is not redrawn on every change while the counts are
+     * churning, e.g. when reconnecting many channels. Must be called from the
+     * UI thread.
+     */
+    public void scheduleUpdate() {
+        if (trayItem != null && !updateScheduled) {
+            updateScheduled = true;
+            tray.getDisplay().timerExec(MIN_UPDATE_INTERVAL, updater);
+        }
+    }
+
+    /**
+     * Redraws the icon and the tooltip unless the statistics have not changed
+     * since the last update.
+     */
     public void update() {
-        if (trayItem != null) {
+        if (trayItem != null && !trayItem.isDisposed()) {
             IrcModel model = EirccUi.getDefault().getModel();
             IrcAccountsStatistics stats = model.getAccountsStatistics();
+            if (stats.equals(shownStats)) {
+                return;
+            }
+            shownStats = stats;
             trayItem.setToolTipText(IrcLabelProvider.getInstance().getTooltipText(stats));
 
             /*
@@ -8,53 +8,56 @@
 
 package org.l2x6.eircc.ui.prefs;
 
-import org.eclipse.jface.preference.PreferencePage;
-import org.eclipse.jface.resource.ImageDescriptor;
-import org.eclipse.swt.widgets.Composite;
-import org.eclipse.swt.widgets.Control;
+import org.eclipse.jface.preference.BooleanFieldEditor;
+import org.eclipse.jface.preference.FieldEditorPreferencePage;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
+import org.l2x6.eircc.ui.EirccUi;
+import org.l2x6.eircc.ui.IrcUiMessages;
+import org.l2x6.eircc.ui.prefs.IrcPreferences.PreferenceKey;
 
 /**
  * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
  */
-public class IrcPreferencePage extends PreferencePage implements IWorkbenchPreferencePage {
+public class IrcPreferencePage extends FieldEditorPreferencePage implements IWorkbenchPreferencePage {
 
     /**
      *
      */
     public IrcPreferencePage() {
-        super();
+        super(GRID);
+        setPreferenceStore(EirccUi.getDefault().getPreferenceStore());
     }
 
     /**
-     * @param title
+     * @see org.eclipse.jface.preference.FieldEditorPreferencePage#createFieldEditors()
      */
-    public IrcPreferencePage(String title) {
-        super(title);
-    }
-
-    /**
-     * @param title
-     * @param image
-     */
-    public IrcPreferencePage(String title, ImageDescriptor image) {
-        super(title, image);
+    @Override
+    protected void createFieldEditors() {
+        addField(new BooleanFieldEditor(PreferenceKey.NIO_ENABLED.toString(),
+                IrcUiMessages.IrcPreferencePage_nioEnabled, getFieldEditorParent()));
     }
 
     /**
-     * @see org.eclipse.jface.preference.PreferencePage#createContents(org.eclipse.swt.widgets.Composite)
+     * @see org.eclipse.ui.IWorkbenchPreferencePage#init(org.eclipse.ui.IWorkbench)
      */
     @Override
-    protected Control createContents(Composite parent) {
-        return null;
+    public void init(IWorkbench workbench) {
     }
 
     /**
-     * @see org.eclipse.ui.IWorkbenchPreferencePage#init(org.eclipse.ui.IWorkbench)
+     * Passes the new values to the {@link org.l2x6.eircc.core.IrcController}
+     * so that they apply to the next connection.
+     *
+     * @see org.eclipse.jface.preference.FieldEditorPreferencePage#performOk()
      */
     @Override
-    public void init(IWorkbench workbench) {
+    public boolean performOk() {
+        boolean result = super.performOk();
+        if (result) {
+            EirccUi.getController().setNioEnabled(IrcPreferences.getInstance().isNioEnabled());
+        }
+        return result;
     }
 
 }
@@ -8,6 +8,8 @@
 
 package org.l2x6.eircc.ui.prefs;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.MessageFormat;
 import java.time.Duration;
 import java.util.Collection;
@@ -31,6 +33,7 @@ import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.RGB;
 import org.eclipse.swt.widgets.Display;
+import org.l2x6.eircc.core.client.IrcEventPump;
 import org.l2x6.eircc.core.model.AbstractIrcChannel;
 import org.l2x6.eircc.core.model.IrcMessage;
 import org.l2x6.eircc.core.model.IrcNotificationLevel;
@@ -58,6 +61,7 @@ public class IrcPreferences implements IrcNotificationLevelProvider {
      */
     public enum PreferenceKey {
 
+        NIO_ENABLED("nio.enabled", Boolean.FALSE), //$NON-NLS-1$
         WATCHED_CHANNELS("watched.channels", ""), WATCHED_NICKS("watched.nicks", ""); //$NON-NLS-1$
 
         private final Object defaultValue;
@@ -86,13 +90,57 @@ public class IrcPreferences implements IrcNotificationLevelProvider {
 
     }
 
+    /** The accounts going online at once join their channels one after the other */
+    private static final Duration DEFAULT_AUTO_JOIN_SPACING = Duration.ofMillis(250);
+
     private static final Duration COMMAND_TIMEOUT = Duration.ofSeconds(3);
 
+    private static final Path DEFAULT_DCC_DOWNLOAD_DIRECTORY = Paths.get(System.getProperty("user.home"), "Downloads");
+
     private static final long DEFAULT_EDITOR_LOOK_BACK_BYTE_LIMIT = 8 * 1024;
     private static final String DEFAULT_NOTIFICATION_MESSAGE_COLOR_KEY = IrcPreferences.class.getName() + ".defaultNotificationMessageColor";
 
+    private static final int DEFAULT_EVENT_PUMP_BATCH_SIZE = IrcEventPump.DEFAULT_MAX_BATCH_SIZE;
+
+    private static final Duration DEFAULT_EVENT_PUMP_INTERVAL = IrcEventPump.DEFAULT_INTERVAL;
+
+    private static final int DEFAULT_FLOOD_CONTROL_BURST_BYTES = 4 * 1024;
+
+    private static final int DEFAULT_FLOOD_CONTROL_BYTES_PER_SECOND = 512;
+
+    private static final int DEFAULT_MAX_CONCURRENT_CONNECTS = 4;
+
     private static final Duration DEFAULT_PING_INTERVAL = Duration.ofMinutes(1);
 
+    private static final boolean DEFAULT_RECONNECT_ENABLED = true;
+
+    private static final Duration DEFAULT_RECONNECT_INITIAL_DELAY = Duration.ofSeconds(2);
+
+    private static final Duration DEFAULT_RECONNECT_MAX_DELAY = Duration.ofMinutes(5);
+
+    /** Do not reconnect more than one account per second */
+    private static final Duration DEFAULT_RECONNECT_MIN_SPACING = Duration.ofSeconds(1);
+
+    /** Changed accounts, channels and users get saved in batches at least this often */
+    private static final Duration DEFAULT_SAVE_MAX_DELAY = Duration.ofSeconds(2);
+
+    /** Lines shown in the console per account; the traffic files get all of them */
+    private static final int DEFAULT_TRAFFIC_CONSOLE_LINES_PER_SECOND = 50;
+
+    private static final int DEFAULT_TRAFFIC_LOG_BUFFER_CAPACITY = 16 * 1024;
+
+    private static final int DEFAULT_TRAFFIC_LOG_MAX_BACKUPS = 5;
+
+    private static final long DEFAULT_TRAFFIC_LOG_MAX_FILE_BYTES = 10 * 1024 * 1024;
+
+    private static final Duration DEFAULT_USER_EVICTION_INTERVAL = Duration.ofMinutes(5);
+
+    /** Users seen in no channel for this long get dropped from memory */
+    private static final Duration DEFAULT_USER_IDLE_TIMEOUT = Duration.ofMinutes(30);
+
+    /** At most this many channels are queried by WHO at once */
+    private static final int DEFAULT_WHO_MAX_IN_FLIGHT = 2;
+
     private static final IrcPreferences INSTANCE = new IrcPreferences();
     private static final IInputValidator PATTERN_VALIDATOR = new IInputValidator() {
         /**
@@ -193,6 +241,14 @@ public class IrcPreferences implements IrcNotificationLevelProvider {
         return ": ";
     }
 
+    /**
+     * @return the minimal time between joining the autojoin channels of two
+     *         accounts that went online at about the same time
+     */
+    public Duration getAutoJoinSpacing() {
+        return DEFAULT_AUTO_JOIN_SPACING;
+    }
+
     /**
      * Calls
      * {@link IPreferencesService#getBoolean(String, String, String, org.eclipse.core.runtime.preferences.IScopeContext[])}
@@ -223,6 +279,45 @@ public class IrcPreferences implements IrcNotificationLevelProvider {
         return true;
     }
 
+    /**
+     * @return the directory where the files received via DCC are stored
+     */
+    public Path getDccDownloadDirectory() {
+        return DEFAULT_DCC_DOWNLOAD_DIRECTORY;
+    }
+
+    /**
+     * @return the maximal number of model updates coming from a single IRC
+     *         connection to apply on the UI thread in one go
+     */
+    public int getEventPumpBatchSize() {
+        return DEFAULT_EVENT_PUMP_BATCH_SIZE;
+    }
+
+    /**
+     * @return the minimal time between two subsequent applications of model
+     *         updates coming from a single IRC connection
+     */
+    public Duration getEventPumpInterval() {
+        return DEFAULT_EVENT_PUMP_INTERVAL;
+    }
+
+    /**
+     * @return the number of bytes that can be sent to an IRC server in a
+     *         quick succession without being penalized for flooding
+     */
+    public int getFloodControlBurstBytes() {
+        return DEFAULT_FLOOD_CONTROL_BURST_BYTES;
+    }
+
+    /**
+     * @return the number of bytes per second that can be sent to an IRC server
+     *         in the long run without being penalized for flooding
+     */
+    public int getFloodControlBytesPerSecond() {
+        return DEFAULT_FLOOD_CONTROL_BYTES_PER_SECOND;
+    }
+
     /**
      * @param m
      * @return
@@ -247,6 +342,13 @@ public class IrcPreferences implements IrcNotificationLevelProvider {
         return DEFAULT_EDITOR_LOOK_BACK_BYTE_LIMIT;
     }
 
+    /**
+     * @return the maximal number of accounts connecting at once
+     */
+    public int getMaxConcurrentConnects() {
+        return DEFAULT_MAX_CONCURRENT_CONNECTS;
+    }
+
     public ExtendedTextStyle getMessageTimeStyle() {
         return messageTimeStyle;
     }
@@ -277,6 +379,38 @@ public class IrcPreferences implements IrcNotificationLevelProvider {
         return DEFAULT_PING_INTERVAL;
     }
 
+    /**
+     * @return the upper bound of the delay before the first automatic
+     *         reconnect attempt; the delay doubles with each failed attempt
+     */
+    public Duration getReconnectInitialDelay() {
+        return DEFAULT_RECONNECT_INITIAL_DELAY;
+    }
+
+    /**
+     * @return the upper bound of the delay before any automatic reconnect
+     *         attempt
+     */
+    public Duration getReconnectMaxDelay() {
+        return DEFAULT_RECONNECT_MAX_DELAY;
+    }
+
+    /**
+     * @return the minimal time between two automatic reconnect attempts of
+     *         any accounts
+     */
+    public Duration getReconnectMinSpacing() {
+        return DEFAULT_RECONNECT_MIN_SPACING;
+    }
+
+    /**
+     * @return the longest time a changed account, channel or user waits
+     *         before it gets saved
+     */
+    public Duration getSaveMaxDelay() {
+        return DEFAULT_SAVE_MAX_DELAY;
+    }
+
     public Duration getPingTimeout() {
         return COMMAND_TIMEOUT;
     }
@@ -316,11 +450,65 @@ public class IrcPreferences implements IrcNotificationLevelProvider {
         return namingMe ? userStylesNamingMe[index] : userStyles[index];
     }
 
+    /**
+     * @return the maximal number of protocol lines per second and account
+     *         shown in the console
+     */
+    public int getTrafficConsoleLinesPerSecond() {
+        return DEFAULT_TRAFFIC_CONSOLE_LINES_PER_SECOND;
+    }
+
+    /**
+     * @return the number of protocol lines per account that can wait for being
+     *         written to the traffic log
+     */
+    public int getTrafficLogBufferCapacity() {
+        return DEFAULT_TRAFFIC_LOG_BUFFER_CAPACITY;
+    }
+
+    /**
+     * @return the number of rotated traffic log files to keep per account
+     */
+    public int getTrafficLogMaxBackups() {
+        return DEFAULT_TRAFFIC_LOG_MAX_BACKUPS;
+    }
+
+    /**
+     * @return the size in bytes after which a traffic log file gets rotated
+     */
+    public long getTrafficLogMaxFileBytes() {
+        return DEFAULT_TRAFFIC_LOG_MAX_FILE_BYTES;
+    }
+
+    /**
+     * @return how often the users idle for longer than
+     *         {@link #getUserIdleTimeout()} get evicted from memory
+     */
+    public Duration getUserEvictionInterval() {
+        return DEFAULT_USER_EVICTION_INTERVAL;
+    }
+
+    /**
+     * @return how long a user not present in any channel stays in memory
+     *         after having been seen for the last time
+     */
+    public Duration getUserIdleTimeout() {
+        return DEFAULT_USER_IDLE_TIMEOUT;
+    }
+
     public IrcUserStyler getUserStyler(int index) {
         index %= userStylers.length;
         return userStylers[index];
     }
 
+    /**
+     * @return the maximal number of {@code WHO} queries waiting for their
+     *         {@code RPL_ENDOFWHO} at any time, per account
+     */
+    public int getWhoMaxInFlight() {
+        return DEFAULT_WHO_MAX_IN_FLIGHT;
+    }
+
     private Set<String> getWatchedChannels() {
         if (watchedChannels == null) {
             watchedChannels = new TreeSet<String>();
@@ -347,6 +535,23 @@ public class IrcPreferences implements IrcNotificationLevelProvider {
         return watchedNicks;
     }
 
+    /**
+     * @return {@code true} if the IRC connections should be served by a single
+     *         shared selector thread rather than by a thread per connection;
+     *         see {@link PreferenceKey#NIO_ENABLED}
+     */
+    public boolean isNioEnabled() {
+        return getBoolean(PreferenceKey.NIO_ENABLED);
+    }
+
+    /**
+     * @return {@code true} if the accounts whose connection was lost should be
+     *         reconnected automatically
+     */
+    public boolean isReconnectEnabled() {
+        return DEFAULT_RECONNECT_ENABLED;
+    }
+
     /**
      * @param data
      * @return
@@ -8,6 +8,11 @@
 
 package org.l2x6.eircc.ui.views;
 
+import java.text.MessageFormat;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -17,6 +22,7 @@ import org.eclipse.jface.action.IToolBarManager;
 import org.eclipse.jface.action.MenuManager;
 import org.eclipse.jface.action.Separator;
 import org.eclipse.jface.action.ToolBarManager;
+import org.eclipse.jface.viewers.ColumnViewerToolTipSupport;
 import org.eclipse.jface.viewers.ISelection;
 import org.eclipse.jface.viewers.ISelectionChangedListener;
 import org.eclipse.jface.viewers.ISelectionProvider;
@@ -49,8 +55,11 @@ import org.l2x6.eircc.core.model.AbstractIrcChannel;
 import org.l2x6.eircc.core.model.IrcAccount;
 import org.l2x6.eircc.core.model.IrcLog;
 import org.l2x6.eircc.core.model.IrcModel;
+import org.l2x6.eircc.core.model.IrcServer;
 import org.l2x6.eircc.core.model.PlainIrcChannel;
+import org.l2x6.eircc.core.model.event.IrcModelDelta;
 import org.l2x6.eircc.core.model.event.IrcModelEvent;
+import org.l2x6.eircc.core.model.event.IrcModelEvent.EventType;
 import org.l2x6.eircc.core.model.event.IrcModelEventListener;
 import org.l2x6.eircc.ui.ContextMenuConstants;
 import org.l2x6.eircc.ui.EirccUi;
@@ -65,6 +74,9 @@ import org.l2x6.eircc.ui.actions.PromptAndJoinChannelAction;
  */
 public class IrcAccountsView extends ViewPart implements IrcModelEventListener {
     public static final String ID = "org.l2x6.eircc.ui.views.IrcAccountsView";
+
+    private static final DateTimeFormatter LISTED_AT_FORMATTER = DateTimeFormatter
+            .ofLocalizedDateTime(FormatStyle.SHORT);
     private SashForm accountsDetailsSplitter;
     private Listener accountsTreeSelectionListener;
     private TreeViewer accountsTreeViewer;
@@ -142,6 +154,7 @@ public class IrcAccountsView extends ViewPart implements IrcModelEventListener {
         /* accounts tree */
         accountsTreeViewer = new TreeViewer(accountsDetailsSplitter, SWT.MULTI | SWT.H_SCROLL | SWT.V_SCROLL);
         accountsTreeViewer.setLabelProvider(IrcLabelProvider.getInstance());
+        ColumnViewerToolTipSupport.enableFor(accountsTreeViewer);
         accountsTreeViewer.setContentProvider(new IrcAccountsTreeContentProvider());
         accountsTreeViewer.addSelectionChangedListener(treesSelectionListener);
 
@@ -151,7 +164,9 @@ public class IrcAccountsView extends ViewPart implements IrcModelEventListener {
         serverChannelsViewForm = new ViewForm(accountsDetailsSplitter, SWT.NONE);
         accountsDetailsSplitter.setWeights(new int[] { 35, 65 });
 
-        serverChannelsTreeViewer = new TreeViewer(serverChannelsViewForm, SWT.MULTI | SWT.H_SCROLL | SWT.V_SCROLL);
+        /* virtual, because some networks list tens of thousands of channels */
+        serverChannelsTreeViewer = new TreeViewer(serverChannelsViewForm, SWT.MULTI | SWT.H_SCROLL | SWT.V_SCROLL
+                | SWT.VIRTUAL);
         serverChannelsTreeViewer.setLabelProvider(IrcLabelProvider.getInstance());
         serverChannelsTreeViewer.setContentProvider(new IrcServerChannelsTreeContentProvider());
         serverChannelsTreeViewer.addSelectionChangedListener(treesSelectionListener);
@@ -170,7 +185,11 @@ public class IrcAccountsView extends ViewPart implements IrcModelEventListener {
 
         /* connect the model */
         IrcModel ircModel = EirccUi.getDefault().getModel();
-        ircModel.addModelEventListener(this);
+        ircModel.addModelEventListener(this, EventType.ACCOUNT_ADDED, EventType.ACCOUNT_CHANNEL_ADDED,
+                EventType.ACCOUNT_CHANNEL_REMOVED, EventType.ACCOUNT_OUTBOUND_QUEUE_CHANGED,
+                EventType.ACCOUNT_REMOVED, EventType.ACCOUNT_STATE_CHANGED, EventType.CHANNEL_JOINED_CHANGED,
+                EventType.LOG_STATE_CHANGED, EventType.SERVER_CHANNELS_ADDED, EventType.SERVER_CHANNELS_CLEARED,
+                EventType.SERVER_CHANNELS_LISTED);
         accountsTreeViewer.setInput(ircModel);
         setEmptyLabelVisible(!ircModel.hasAccounts());
 
@@ -289,6 +308,7 @@ public class IrcAccountsView extends ViewPart implements IrcModelEventListener {
                         } else {
                             serverChannelsTreeViewer.setInput(null);
                         }
+                        updateServerChannelsLabel();
                     }
                 }
             };
@@ -393,6 +413,9 @@ public class IrcAccountsView extends ViewPart implements IrcModelEventListener {
             }
             Arrays.stream(treeActions).forEach(action -> action.updateEnablement());
 
+            break;
+        case ACCOUNT_OUTBOUND_QUEUE_CHANGED:
+            accountsTreeViewer.update(e.getModelObject(), null);
             break;
         case CHANNEL_JOINED_CHANGED:
             accountsTreeViewer.refresh();
@@ -403,10 +426,13 @@ public class IrcAccountsView extends ViewPart implements IrcModelEventListener {
             IrcLog log = (IrcLog) e.getModelObject();
             accountsTreeViewer.update(log.getChannel(), null);
             break;
-        case SERVER_CHANNEL_ADDED:
         case SERVER_CHANNELS_ADDED:
-        case SERVER_CHANNEL_REMOVED:
-            serverChannelsTreeViewer.refresh();
+        case SERVER_CHANNELS_CLEARED:
+        case SERVER_CHANNELS_LISTED:
+            if (serverChannelsTreeViewer.getInput() == e.getModelObject()) {
+                serverChannelsTreeViewer.refresh();
+                updateServerChannelsLabel();
+            }
             break;
         case USER_ADDED:
         case USER_REMOVED:
@@ -417,6 +443,85 @@ public class IrcAccountsView extends ViewPart implements IrcModelEventListener {
         }
     }
 
+    /**
+     * Applies all events of the given {@code delta} with at most one
+     * structural refresh and one label update of
+     * {@link #accountsTreeViewer} so that e.g. a burst of joins at connect
+     * does not refresh the tree once per channel.
+     *
+     * @see org.l2x6.eircc.core.model.event.IrcModelEventListener#handleDelta(org.l2x6.eircc.core.model.event.IrcModelDelta)
+     */
+    @Override
+    public void handleDelta(IrcModelDelta delta) {
+        boolean joinedChanged = delta.contains(EventType.CHANNEL_JOINED_CHANGED);
+        boolean channelAdded = delta.contains(EventType.ACCOUNT_CHANNEL_ADDED);
+        if (joinedChanged || channelAdded || delta.contains(EventType.ACCOUNT_ADDED)
+                || delta.contains(EventType.ACCOUNT_REMOVED) || delta.contains(EventType.ACCOUNT_CHANNEL_REMOVED)) {
+            accountsTreeViewer.refresh();
+            if (channelAdded) {
+                accountsTreeViewer.expandAll();
+            }
+            setEmptyLabelVisible(!EirccUi.getDefault().getModel().hasAccounts());
+            if (joinedChanged) {
+                serverChannelsTreeViewer.refresh();
+                Arrays.stream(treeActions).forEach(action -> action.updateEnablement());
+            }
+        } else {
+            /* no structural change, just relabel the affected elements at once */
+            List<Object> changed = new ArrayList<Object>(
+                    delta.getModelObjects(EventType.ACCOUNT_OUTBOUND_QUEUE_CHANGED));
+            for (Object log : delta.getModelObjects(EventType.LOG_STATE_CHANGED)) {
+                changed.add(((IrcLog) log).getChannel());
+            }
+            if (!changed.isEmpty()) {
+                accountsTreeViewer.update(changed.toArray(), null);
+            }
+        }
+
+        boolean serverChannelsChanged = false;
+        /* only the current state matters, so each account and server once is enough */
+        for (IrcModelEvent e : delta.getDistinctEvents()) {
+            switch (e.getEventType()) {
+            case ACCOUNT_STATE_CHANGED:
+                handle(e);
+                break;
+            case SERVER_CHANNELS_ADDED:
+            case SERVER_CHANNELS_CLEARED:
+            case SERVER_CHANNELS_LISTED:
+                serverChannelsChanged |= serverChannelsTreeViewer.getInput() == e.getModelObject();
+                break;
+            default:
+                break;
+            }
+        }
+        if (serverChannelsChanged) {
+            serverChannelsTreeViewer.refresh();
+            updateServerChannelsLabel();
+        }
+    }
+
+    /**
+     * Shows the number of the listed channels and the time of listing in
+     * {@link #serverChannelsLabel}.
+     */
+    private void updateServerChannelsLabel() {
+        Object input = serverChannelsTreeViewer.getInput();
+        String text = IrcUiMessages.IrcAccountsView_serverChannelsLabel_text;
+        if (input instanceof IrcServer) {
+            IrcServer server = (IrcServer) input;
+            OffsetDateTime listedAt = server.getChannelsListedAt();
+            if (listedAt != null) {
+                text = MessageFormat.format(IrcUiMessages.IrcAccountsView_serverChannelsLabel_listed, text, server
+                        .getChannelList().size(), LISTED_AT_FORMATTER.format(listedAt));
+            } else if (server.hasChannels()) {
+                text = MessageFormat.format(IrcUiMessages.IrcAccountsView_serverChannelsLabel_listing, text, server
+                        .getChannelList().size());
+            }
+        }
+        serverChannelsLabel.setText(text);
+        serverChannelsViewForm.layout();
+    }
+
     private void setEmptyLabelVisible(boolean visible) {
         if (visible) {
             pagebook.showPage(emptyLabel);
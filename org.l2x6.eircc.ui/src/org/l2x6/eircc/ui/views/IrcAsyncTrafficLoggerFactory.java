@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2014 Peter Palaga.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.l2x6.eircc.ui.views;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.ui.console.MessageConsole;
+import org.eclipse.ui.console.MessageConsoleStream;
+import org.l2x6.eircc.core.client.IrcRingBuffer;
+import org.l2x6.eircc.core.client.IrcRotatingFileWriter;
+import org.l2x6.eircc.core.client.TrafficLoggerFactory;
+import org.l2x6.eircc.core.model.IrcAccount;
+import org.l2x6.eircc.ui.EirccUi;
+import org.l2x6.eircc.ui.IrcUiMessages;
+import org.schwering.irc.lib.IRCConnection;
+import org.schwering.irc.lib.IRCExceptionHandler;
+import org.schwering.irc.lib.IRCTrafficLogger;
+
+/**
+ * A {@link TrafficLoggerFactory} that does not slow down the threads reading
+ * from the sockets: the loggers only put the lines into a lock-free
+ * {@link IrcRingBuffer} that is drained by a single background thread. The
+ * background thread writes all lines to a rotating traffic file per account
+ * and passes at most {@code consoleLinesPerSecond} lines per account to the
+ * console. The console view is revealed only when an exception occurs.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcAsyncTrafficLoggerFactory implements TrafficLoggerFactory {
+
+    public class AsyncTrafficLogger implements IRCTrafficLogger, IRCExceptionHandler {
+        private final IrcRingBuffer<TrafficEntry> buffer;
+        /** Accessed only by the {@link #writerThread} */
+        private double consoleTokens;
+        private final MessageConsole console;
+        private final MessageConsoleStream consoleStream;
+        /** Accessed only by the {@link #writerThread} */
+        private boolean fileFailed = false;
+        private final IrcRotatingFileWriter fileWriter;
+        /** Accessed only by the {@link #writerThread} */
+        private long lastDrainNanos = System.nanoTime();
+        /** Accessed only by the {@link #writerThread} */
+        private long reportedDropped = 0;
+        /** Accessed only by the {@link #writerThread} */
+        private int skippedInConsole = 0;
+
+        AsyncTrafficLogger(MessageConsole console, Path file) {
+            super();
+            this.console = console;
+            this.consoleStream = console.newMessageStream();
+            this.fileWriter = new IrcRotatingFileWriter(file, maxFileBytes, maxBackups);
+            this.buffer = new IrcRingBuffer<TrafficEntry>(bufferCapacity);
+            this.consoleTokens = consoleLinesPerSecond;
+        }
+
+        private void close() {
+            try {
+                fileWriter.close();
+            } catch (IOException e) {
+                EirccUi.log(e);
+            }
+        }
+
+        /**
+         * Writes the buffered entries to the file and some of them to the
+         * console. Called only by the {@link #writerThread}.
+         */
+        private void drain() {
+            long now = System.nanoTime();
+            consoleTokens = Math.min(consoleLinesPerSecond, consoleTokens + consoleLinesPerSecond
+                    * (double) (now - lastDrainNanos) / TimeUnit.SECONDS.toNanos(1));
+            lastDrainNanos = now;
+
+            StringBuilder consoleText = new StringBuilder();
+            long dropped = buffer.getDroppedCount();
+            if (dropped > reportedDropped) {
+                String note = "! " + (dropped - reportedDropped) + IrcUiMessages.Console_linesDropped;
+                reportedDropped = dropped;
+                writeToFile(note);
+                consoleText.append(note).append('\n');
+            }
+
+            TrafficEntry entry;
+            while ((entry = buffer.poll()) != null) {
+                String line = entry.toString();
+                writeToFile(line);
+                if (entry.direction == TrafficEntry.ERROR) {
+                    /* errors are always shown */
+                    consoleText.append(line).append('\n');
+                } else if (consoleTokens >= 1) {
+                    if (skippedInConsole > 0) {
+                        appendSkipped(consoleText);
+                    }
+                    consoleTokens--;
+                    consoleText.append(line).append('\n');
+                } else {
+                    skippedInConsole++;
+                }
+            }
+            if (skippedInConsole > 0 && consoleTokens >= 1) {
+                /* tell about the skipped lines also when the traffic stops */
+                appendSkipped(consoleText);
+            }
+            if (consoleText.length() > 0) {
+                consoleStream.print(consoleText.toString());
+            }
+            if (!fileFailed) {
+                try {
+                    fileWriter.flush();
+                } catch (IOException e) {
+                    fileFailed(e);
+                }
+            }
+        }
+
+        private void appendSkipped(StringBuilder consoleText) {
+            consoleText.append("... ").append(skippedInConsole).append(IrcUiMessages.Console_linesNotShown)
+                    .append(fileWriter.getFile()).append('\n');
+            skippedInConsole = 0;
+        }
+
+        /**
+         * @see org.schwering.irc.lib.IRCExceptionHandler#exception(org.schwering.irc.lib.IRCConnection,
+         *      java.lang.Throwable)
+         */
+        @Override
+        public void exception(IRCConnection connection, Throwable e) {
+            StringWriter w = new StringWriter();
+            PrintWriter pw = new PrintWriter(w);
+            e.printStackTrace(pw);
+            pw.flush();
+            buffer.offer(new TrafficEntry(TrafficEntry.ERROR, w.toString()));
+            IrcConsole.reveal(console);
+        }
+
+        private void fileFailed(IOException e) {
+            /* log once and keep feeding the console */
+            fileFailed = true;
+            EirccUi.log(e);
+        }
+
+        /**
+         * @see org.schwering.irc.lib.IRCTrafficLogger#in(java.lang.String)
+         */
+        @Override
+        public void in(String line) {
+            buffer.offer(new TrafficEntry(TrafficEntry.IN, line));
+        }
+
+        /**
+         * @see org.schwering.irc.lib.IRCTrafficLogger#out(java.lang.String)
+         */
+        @Override
+        public void out(String line) {
+            buffer.offer(new TrafficEntry(TrafficEntry.OUT, line));
+        }
+
+        private void writeToFile(String line) {
+            if (!fileFailed) {
+                try {
+                    fileWriter.writeLine(line);
+                } catch (IOException e) {
+                    fileFailed(e);
+                }
+            }
+        }
+    }
+
+    private static class TrafficEntry {
+        private static final char ERROR = '!';
+        private static final char IN = '>';
+        private static final char OUT = '<';
+        private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+        private final char direction;
+        private final String line;
+        private final long time = System.currentTimeMillis();
+
+        TrafficEntry(char direction, String line) {
+            super();
+            this.direction = direction;
+            this.line = line;
+        }
+
+        @Override
+        public String toString() {
+            return TIME_FORMATTER.format(Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault())) + " "
+                    + direction + " " + line;
+        }
+    }
+
+    /** Console characters to keep at least, see {@link MessageConsole#setWaterMarks(int, int)} */
+    private static final int CONSOLE_LOW_WATER_MARK = 80 * 1024;
+    private static final int CONSOLE_HIGH_WATER_MARK = 100 * 1024;
+    private static final long DRAIN_INTERVAL_MILLIS = 100;
+    private static final String FILE_SUFFIX = ".log";
+
+    private final int bufferCapacity;
+    private final int consoleLinesPerSecond;
+    private final Path directory;
+    /**
+     * Keyed by {@link IrcAccount#getLabel()} that is unique within the model
+     * and serves as a workspace folder name, so it is also a safe file name
+     */
+    private final Map<String, AsyncTrafficLogger> loggerMap = new HashMap<String, AsyncTrafficLogger>();
+    private final int maxBackups;
+    private final long maxFileBytes;
+    private volatile boolean running = true;
+    private final Thread writerThread;
+
+    /**
+     * @param directory
+     *            where to store the traffic files
+     * @param bufferCapacity
+     *            the number of lines per account that can wait for being
+     *            written; any further lines are dropped
+     * @param maxFileBytes
+     *            the size after which a traffic file gets rotated
+     * @param maxBackups
+     *            the number of the rotated traffic files to keep per account
+     * @param consoleLinesPerSecond
+     *            the maximal number of lines per account shown in the console
+     */
+    public IrcAsyncTrafficLoggerFactory(Path directory, int bufferCapacity, long maxFileBytes, int maxBackups,
+            int consoleLinesPerSecond) {
+        super();
+        this.directory = directory;
+        this.bufferCapacity = bufferCapacity;
+        this.maxFileBytes = maxFileBytes;
+        this.maxBackups = maxBackups;
+        this.consoleLinesPerSecond = consoleLinesPerSecond;
+        this.writerThread = new Thread(IrcAsyncTrafficLoggerFactory.class.getSimpleName()) {
+            @Override
+            public void run() {
+                while (running) {
+                    drainAll();
+                    try {
+                        Thread.sleep(DRAIN_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                drainAll();
+                for (AsyncTrafficLogger logger : getLoggers()) {
+                    logger.close();
+                }
+            }
+        };
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Stops the background thread after it has written all pending lines.
+     */
+    public void dispose() {
+        running = false;
+        writerThread.interrupt();
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainAll() {
+        for (AsyncTrafficLogger logger : getLoggers()) {
+            try {
+                logger.drain();
+            } catch (RuntimeException e) {
+                EirccUi.log(e);
+            }
+        }
+    }
+
+    /**
+     * @see org.l2x6.eircc.core.client.TrafficLoggerFactory#getExceptionHandler(org.l2x6.eircc.core.model.IrcAccount)
+     */
+    @Override
+    public IRCExceptionHandler getExceptionHandler(IrcAccount account) {
+        return getOrCreateLogger(account);
+    }
+
+    private AsyncTrafficLogger[] getLoggers() {
+        synchronized (loggerMap) {
+            return loggerMap.values().toArray(new AsyncTrafficLogger[loggerMap.size()]);
+        }
+    }
+
+    private AsyncTrafficLogger getOrCreateLogger(IrcAccount account) {
+        synchronized (loggerMap) {
+            AsyncTrafficLogger result = loggerMap.get(account.getLabel());
+            if (result == null) {
+                MessageConsole console = IrcConsole.getOrCreateConsole(IrcConsole.getLabel(account));
+                console.setWaterMarks(CONSOLE_LOW_WATER_MARK, CONSOLE_HIGH_WATER_MARK);
+                result = new AsyncTrafficLogger(console, directory.resolve(account.getLabel() + FILE_SUFFIX));
+                loggerMap.put(account.getLabel(), result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @see org.l2x6.eircc.core.client.TrafficLoggerFactory#getTrafficLogger(org.l2x6.eircc.core.model.IrcAccount)
+     */
+    @Override
+    public IRCTrafficLogger getTrafficLogger(IrcAccount account) {
+        return getOrCreateLogger(account);
+    }
+
+}
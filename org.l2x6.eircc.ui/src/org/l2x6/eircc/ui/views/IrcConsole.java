@@ -8,12 +8,6 @@
 
 package org.l2x6.eircc.ui.views;
 
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.util.HashMap;
-import java.util.Map;
-
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IWorkbenchPage;
 import org.eclipse.ui.IWorkbenchWindow;
@@ -25,135 +19,24 @@ import org.eclipse.ui.console.IConsoleConstants;
 import org.eclipse.ui.console.IConsoleManager;
 import org.eclipse.ui.console.IConsoleView;
 import org.eclipse.ui.console.MessageConsole;
-import org.eclipse.ui.console.MessageConsoleStream;
-import org.l2x6.eircc.core.client.TrafficLoggerFactory;
 import org.l2x6.eircc.core.model.IrcAccount;
 import org.l2x6.eircc.ui.EirccUi;
 import org.l2x6.eircc.ui.IrcUiMessages;
-import org.schwering.irc.lib.IRCConnection;
-import org.schwering.irc.lib.IRCExceptionHandler;
-import org.schwering.irc.lib.IRCTrafficLogger;
 
 /**
  * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
  */
-public class IrcConsole implements TrafficLoggerFactory {
-    public static class ConsoleTrafficLogger implements IRCTrafficLogger, IRCExceptionHandler {
-        private MessageConsole console;
-        private final MessageConsoleStream consoleStream;
-
-        /**
-         * @param consoleStream
-         */
-        public ConsoleTrafficLogger(MessageConsole console) {
-            super();
-            this.consoleStream = console.newMessageStream();
-            this.console = console;
-        }
-
-        /**
-         * @see org.schwering.irc.lib.IRCExceptionHandler#exception(org.schwering.irc.lib.IRCConnection, java.lang.Throwable)
-         */
-        @Override
-        public void exception(IRCConnection arg0, Throwable e) {
-            try {
-                reveal();
-                StringWriter w = new StringWriter();
-                PrintWriter pw = new PrintWriter(w);
-                e.printStackTrace(pw);
-                pw.flush();
-                consoleStream.write(w.toString());
-            } catch (IOException ignored) {
-            }
-        }
-
-        /**
-         * @see org.schwering.irc.lib.TrafficLogger#in(java.lang.String)
-         */
-        @Override
-        public void in(String line) {
-            reveal();
-            consoleStream.println("> " + line);
-        }
-
-        /**
-         * @see org.schwering.irc.lib.TrafficLogger#out(java.lang.String)
-         */
-        @Override
-        public void out(String line) {
-            reveal();
-            consoleStream.println("< " + line);
-        }
-
-        public void reveal() {
-            if (Display.getCurrent() == null) {
-                Display.getDefault().asyncExec(new Runnable() {
-                    @Override
-                    public void run() {
-                        uiReveal();
-                    }
-                });
-            } else {
-                uiReveal();
-            }
-        }
-
-        public void uiReveal() {
-            IWorkbenchWindow win = PlatformUI.getWorkbench().getActiveWorkbenchWindow();
-            if (win != null) {
-                IWorkbenchPage page = win.getActivePage();
-                if (page != null) {
-                    try {
-                        IConsoleView view = (IConsoleView) page.findView(IConsoleConstants.ID_CONSOLE_VIEW);
-                        if (view == null) {
-                            /*
-                             * this steals the focus so let us use it as little
-                             * as possible
-                             */
-                            view = (IConsoleView) page.showView(IConsoleConstants.ID_CONSOLE_VIEW);
-                            view.display(console);
-                        }
-                    } catch (PartInitException e) {
-                        EirccUi.log(e);
-                    }
-                }
-            }
-        }
-    }
-
-    private static final IrcConsole INSTANCE = new IrcConsole();
-
-    public static IrcConsole getInstance() {
-        return INSTANCE;
-    }
+public class IrcConsole {
 
     /**
      * @param account
      * @return
      */
-    private static String getLabel(IrcAccount account) {
+    static String getLabel(IrcAccount account) {
         return account.getLabel() + IrcUiMessages.Console_Account_Log;
     }
 
-    private final Map<String, ConsoleTrafficLogger> loggerMap = new HashMap<String, ConsoleTrafficLogger>();
-
-    /**
-     * @see org.l2x6.eircc.core.client.TrafficLoggerFactory#getExceptionHandler(org.l2x6.eircc.core.model.IrcAccount)
-     */
-    @Override
-    public IRCExceptionHandler getExceptionHandler(IrcAccount account) {
-        synchronized (this.loggerMap) {
-            ConsoleTrafficLogger result = this.loggerMap.get(account.getName());
-            if (result == null) {
-                MessageConsole console = getOrCreateConsole(getLabel(account));
-                result = new ConsoleTrafficLogger(console);
-                this.loggerMap.put(account.getName(), result);
-            }
-            return result;
-        }
-    }
-
-    private MessageConsole getOrCreateConsole(String name) {
+    static MessageConsole getOrCreateConsole(String name) {
         ConsolePlugin plugin = ConsolePlugin.getDefault();
         IConsoleManager conMan = plugin.getConsoleManager();
         IConsole[] existing = conMan.getConsoles();
@@ -166,19 +49,48 @@ public class IrcConsole implements TrafficLoggerFactory {
     }
 
     /**
-     * @see org.l2x6.eircc.core.client.TrafficLoggerFactory#getTrafficLogger(org.l2x6.eircc.core.model.IrcAccount)
+     * Shows the console view with the given {@code console} unless the view
+     * is open already. Can be called from any thread.
+     *
+     * @param console
      */
-    @Override
-    public IRCTrafficLogger getTrafficLogger(IrcAccount account) {
-        synchronized (this.loggerMap) {
-            ConsoleTrafficLogger result = this.loggerMap.get(account.getName());
-            if (result == null) {
-                MessageConsole console = getOrCreateConsole(getLabel(account));
-                result = new ConsoleTrafficLogger(console);
-                this.loggerMap.put(account.getName(), result);
+    static void reveal(final MessageConsole console) {
+        if (Display.getCurrent() == null) {
+            Display.getDefault().asyncExec(new Runnable() {
+                @Override
+                public void run() {
+                    uiReveal(console);
+                }
+            });
+        } else {
+            uiReveal(console);
+        }
+    }
+
+    static void uiReveal(MessageConsole console) {
+        IWorkbenchWindow win = PlatformUI.getWorkbench().getActiveWorkbenchWindow();
+        if (win != null) {
+            IWorkbenchPage page = win.getActivePage();
+            if (page != null) {
+                try {
+                    IConsoleView view = (IConsoleView) page.findView(IConsoleConstants.ID_CONSOLE_VIEW);
+                    if (view == null) {
+                        /*
+                         * this steals the focus so let us use it as little
+                         * as possible
+                         */
+                        view = (IConsoleView) page.showView(IConsoleConstants.ID_CONSOLE_VIEW);
+                        view.display(console);
+                    }
+                } catch (PartInitException e) {
+                    EirccUi.log(e);
+                }
             }
-            return result;
         }
     }
 
+    private IrcConsole() {
+        super();
+    }
+
 }
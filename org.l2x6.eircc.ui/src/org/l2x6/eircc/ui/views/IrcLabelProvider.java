@@ -8,16 +8,29 @@
 
 package org.l2x6.eircc.ui.views;
 
-import org.eclipse.jface.viewers.LabelProvider;
+import java.text.MessageFormat;
+
+import org.eclipse.jface.viewers.ColumnLabelProvider;
+import org.eclipse.jface.viewers.ColumnViewerToolTipSupport;
 import org.eclipse.swt.graphics.Image;
+import org.l2x6.eircc.core.client.IrcLatencyHistogram.Snapshot;
+import org.l2x6.eircc.core.client.IrcLatencyStats;
 import org.l2x6.eircc.core.model.AbstractIrcChannel;
+import org.l2x6.eircc.core.model.IrcAccount;
 import org.l2x6.eircc.core.model.IrcAccountsStatistics;
 import org.l2x6.eircc.core.model.IrcBase;
 import org.l2x6.eircc.core.model.IrcModel;
+import org.l2x6.eircc.ui.EirccUi;
 import org.l2x6.eircc.ui.IrcUiMessages;
 import org.l2x6.eircc.ui.misc.IrcImages;
 
-public class IrcLabelProvider extends LabelProvider {
+/**
+ * A {@link ColumnLabelProvider} rather than a plain label provider so that
+ * the viewers can show the tool tips via {@link ColumnViewerToolTipSupport}.
+ *
+ * @author <a href="mailto:ppalaga@redhat.com">Peter Palaga</a>
+ */
+public class IrcLabelProvider extends ColumnLabelProvider {
 
     private static final IrcLabelProvider INSTANCE = new IrcLabelProvider();
 
@@ -29,6 +42,14 @@ public class IrcLabelProvider extends LabelProvider {
         return INSTANCE;
     }
 
+    private static void appendLatency(StringBuilder sb, String label, Snapshot snapshot) {
+        if (snapshot.getCount() > 0) {
+            sb.append('\n').append(
+                    MessageFormat.format(IrcUiMessages.Account_Latency_x_y_samples, label, snapshot.getCount(),
+                            snapshot.getP50Millis(), snapshot.getP99Millis(), snapshot.getMaxMillis()));
+        }
+    }
+
     /**
      *
      */
@@ -44,6 +65,41 @@ public class IrcLabelProvider extends LabelProvider {
         return null;
     }
 
+    @Override
+    public String getText(Object element) {
+        if (element instanceof IrcAccount) {
+            IrcAccount account = (IrcAccount) element;
+            int queued = EirccUi.getController().getOutboundQueueLength(account);
+            if (queued > 0) {
+                return MessageFormat.format(IrcUiMessages.Account_x_with_y_queued_commands, account.toString(),
+                        queued);
+            }
+        }
+        return super.getText(element);
+    }
+
+    /**
+     * @return the lag and the latency histograms for {@link IrcAccount}s,
+     *         otherwise {@code null}
+     * @see org.eclipse.jface.viewers.CellLabelProvider#getToolTipText(java.lang.Object)
+     */
+    @Override
+    public String getToolTipText(Object element) {
+        if (element instanceof IrcAccount) {
+            IrcLatencyStats stats = ((IrcAccount) element).getLatencyStats();
+            long lag = stats.getLagMillis();
+            StringBuilder sb = new StringBuilder(lag < 0 ? IrcUiMessages.Account_Lag_unknown : MessageFormat.format(
+                    IrcUiMessages.Account_Lag_x_ms, lag));
+            appendLatency(sb, IrcUiMessages.Account_Latency_Ping_Round_Trip, stats.getPingRoundTrip());
+            appendLatency(sb, IrcUiMessages.Account_Latency_Read_to_Log, stats.getReadToLog());
+            appendLatency(sb, IrcUiMessages.Account_Latency_Log_to_Editor, stats.getLogToRender());
+            appendLatency(sb, IrcUiMessages.Account_Latency_Connect_Wait, stats.getConnectWait());
+            appendLatency(sb, IrcUiMessages.Account_Latency_Connect_to_Registered, stats.getConnectToRegistered());
+            return sb.toString();
+        }
+        return null;
+    }
+
     /**
      * @param channel
      * @return